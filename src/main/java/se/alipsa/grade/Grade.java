@@ -24,6 +24,7 @@ import javafx.stage.Stage;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import se.alipsa.grade.interaction.*;
+import se.alipsa.grade.utils.gradle.GradleConnectionManager;
 import se.alipsa.grade.utils.gradle.GradleUtils;
 import se.alipsa.grade.code.CodeComponent;
 import se.alipsa.grade.console.ConsoleComponent;
@@ -194,6 +195,8 @@ public class Grade extends Application {
   }
 
   public void endProgram() {
+    GradleConnectionManager.closeAll();
+    inoutComponent.closeTrigramIndex();
     Platform.exit();
     // Allow some time before calling system exist so stop() can be used to do stuff if neeed
     Timer timer = new Timer();
@@ -14,7 +14,6 @@ import se.alipsa.grade.code.mdtab.MdTab;
 import se.alipsa.grade.code.sqltab.SqlTab;
 import se.alipsa.grade.code.txttab.TxtTab;
 import se.alipsa.grade.code.xmltab.XmlTab;
-import se.alipsa.grade.utils.Alerts;
 import se.alipsa.grade.utils.ExceptionAlert;
 
 import java.io.File;
@@ -105,6 +104,19 @@ public class CodeComponent extends BorderPane {
     return addTabAndActivate(tab);
   }
 
+  /**
+   * Open a file that is too large to edit in a read only, memory mapped view
+   */
+  public TextAreaTab addLargeFileTab(File file) {
+    TxtTab tab = new TxtTab(file.getName(), gui);
+    try {
+      tab.loadLargeFile(file);
+    } catch (IOException e) {
+      ExceptionAlert.showAlert("Failed to read content of file " + file, e);
+    }
+    return addTabAndActivate(tab);
+  }
+
   public void fileSaved(File file) {
     getActiveTab().setTitle(file.getName());
     getActiveTab().setFile(file);
@@ -143,21 +155,15 @@ public class CodeComponent extends BorderPane {
     }
   }
 
-  public void reloadTabContent(File pomFile) {
+  public void reloadTabContent(File file) {
     for (Tab tab : pane.getTabs()) {
       log.trace("check tab {}", tab.getText());
       if (tab instanceof TextAreaTab) {
         TextAreaTab codeTab = (TextAreaTab) tab;
         var tabFile = codeTab.getFile();
         log.trace("File is {}", tabFile);
-        if (tabFile != null && tabFile.equals(pomFile)) {
-          if (!codeTab.isChanged()) {
-            log.trace("Reloading from disk");
-            codeTab.reloadFromDisk();
-          } else {
-            Alerts.warnFx("Cannot reload when tab is not saved",
-                pomFile + " was updated but the code is changed so cannot reload it, you need to manually merge the content");
-          }
+        if (tabFile != null && tabFile.equals(file)) {
+          codeTab.fileChangedOnDisk();
         }
       }
     }
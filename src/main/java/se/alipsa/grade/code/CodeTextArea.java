@@ -3,6 +3,7 @@ package se.alipsa.grade.code;
 import static se.alipsa.grade.Constants.INDENT;
 
 import javafx.application.Platform;
+import javafx.concurrent.Task;
 import javafx.geometry.Bounds;
 import javafx.scene.control.ContextMenu;
 import javafx.scene.control.CustomMenuItem;
@@ -10,8 +11,12 @@ import javafx.scene.control.IndexRange;
 import javafx.scene.control.Label;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.fxmisc.richtext.LineNumberFactory;
+import org.fxmisc.richtext.model.PlainTextChange;
 import org.fxmisc.richtext.model.StyleSpans;
+import org.fxmisc.richtext.model.TwoDimensional.Bias;
 import org.fxmisc.wellbehaved.event.EventPattern;
 import org.fxmisc.wellbehaved.event.InputMap;
 import org.fxmisc.wellbehaved.event.Nodes;
@@ -23,6 +28,9 @@ import se.alipsa.grade.utils.StringUtils;
 import java.io.File;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -40,6 +48,20 @@ public abstract class CodeTextArea extends UnStyledCodeArea implements TabTextAr
 
   private final Pattern whiteSpace = Pattern.compile( "^\\s+" );
 
+  private static final Logger log = LogManager.getLogger(CodeTextArea.class);
+  private static final long SLOW_HIGHLIGHTING_MILLIS = 200;
+  /** Time per highlighting pass for each type of text area, to spot lexers that are too slow */
+  private static final Map<String, LongSummaryStatistics> HIGHLIGHTING_MILLIS = new ConcurrentHashMap<>();
+  /** One thread for all text areas, the passes are short and only the latest one for each area matters */
+  private static final ExecutorService HIGHLIGHT_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "grade-highlighter");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private IncrementalHighlighter highlighter;
+  private Task<IncrementalHighlighter.Result> highlightTask;
+
   public CodeTextArea() {
 
     getStyleClass().add("codeTextArea");
@@ -47,7 +69,10 @@ public abstract class CodeTextArea extends UnStyledCodeArea implements TabTextAr
 
     Platform.runLater(() -> setParagraphGraphicFactory(LineNumberFactory.get(this)));
 
-    // recompute the syntax highlighting 400 ms after user stops editing area
+    // keep track of which paragraphs have changed as they change, the highlighter needs every single change
+    plainTextChanges().subscribe(this::trackChange);
+
+    // recompute the syntax highlighting of the changed paragraphs 400 ms after user stops editing area
 
     // plain changes = ignore style changes that are emitted when syntax highlighting is reapplied
     // multi plain changes = save computation by not rerunning the code multiple times
@@ -58,7 +83,7 @@ public abstract class CodeTextArea extends UnStyledCodeArea implements TabTextAr
         .successionEnds(Duration.ofMillis(400))
 
         // run the following code block when previous stream emits an event
-        .subscribe(ignore -> setStyleSpans(0, computeHighlighting(getText())));
+        .subscribe(ignore -> highlightChanges());
 
     /*
     Iterator<String> it = getStylesheets().iterator();
@@ -185,6 +210,110 @@ public abstract class CodeTextArea extends UnStyledCodeArea implements TabTextAr
     });
   }
 
+  private IncrementalHighlighter getHighlighter() {
+    if (highlighter == null) {
+      // created lazily since sub classes are not initialized when our constructor runs
+      highlighter = new IncrementalHighlighter(this::computeHighlighting, getBlockDelimiters());
+    }
+    return highlighter;
+  }
+
+  private void trackChange(PlainTextChange change) {
+    int paragraph = offsetToPosition(change.getPosition(), Bias.Forward).getMajor();
+    getHighlighter().textChanged(paragraph, countLineBreaks(change.getRemoved()), countLineBreaks(change.getInserted()));
+  }
+
+  private static int countLineBreaks(String text) {
+    int count = 0;
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) == '\n') {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Lex the changed paragraphs on the highlighting thread against a snapshot of the text, only applying the
+   * styles if the text has not changed in the meantime
+   */
+  private void highlightChanges() {
+    IncrementalHighlighter highlighter = getHighlighter();
+    String text = getText();
+    IncrementalHighlighter.Pass pass = highlighter.newPass(text, getParagraphs().size(),
+        p -> getAbsolutePosition(p, 0));
+    if (pass == null) {
+      return;
+    }
+    textSettled(text, highlighter.getVersion());
+    if (highlightTask != null) {
+      highlightTask.cancel(false);
+    }
+    String lexerName = getClass().getSimpleName();
+    Task<IncrementalHighlighter.Result> task = new Task<>() {
+      @Override
+      protected IncrementalHighlighter.Result call() {
+        long start = System.nanoTime();
+        IncrementalHighlighter.Result result = pass.run();
+        if (result != null) {
+          recordHighlightingTime(lexerName, result, System.nanoTime() - start);
+        }
+        return result;
+      }
+    };
+    task.setOnSucceeded(e -> {
+      IncrementalHighlighter.Result result = task.getValue();
+      if (result != null && highlighter.apply(result)) {
+        setStyleSpans(result.getFromParagraph(), 0, result.getSpans());
+        stylesApplied(result.getFromParagraph(), result.getToParagraph());
+      }
+    });
+    task.setOnFailed(e -> log.warn("Failed to highlight text in {}", lexerName, task.getException()));
+    highlightTask = task;
+    HIGHLIGHT_EXECUTOR.execute(task);
+  }
+
+  /**
+   * Called when editing has paused, before the changed paragraphs are highlighted
+   *
+   * @param text a snapshot of the text
+   * @param version the version of the text, see {@link #getTextVersion()}
+   */
+  protected void textSettled(String text, long version) {
+    // nothing more to do per default
+  }
+
+  /**
+   * Called after syntax highlighting has restyled the paragraphs from (inclusive) to (exclusive)
+   */
+  protected void stylesApplied(int fromParagraph, int toParagraph) {
+    // nothing more to do per default
+  }
+
+  /**
+   * @return a number that is incremented on every change of the text
+   */
+  protected long getTextVersion() {
+    return getHighlighter().getVersion();
+  }
+
+  private static void recordHighlightingTime(String lexerName, IncrementalHighlighter.Result result, long nanos) {
+    long millis = nanos / 1_000_000;
+    LongSummaryStatistics stats = HIGHLIGHTING_MILLIS.computeIfAbsent(lexerName, k -> new LongSummaryStatistics());
+    String summary;
+    synchronized (stats) {
+      stats.accept(millis);
+      summary = "average " + Math.round(stats.getAverage()) + " ms, max " + stats.getMax() + " ms in "
+          + stats.getCount() + " passes";
+    }
+    int paragraphs = result.getToParagraph() - result.getFromParagraph();
+    if (millis >= SLOW_HIGHLIGHTING_MILLIS) {
+      log.warn("{} took {} ms to highlight {} paragraphs ({})", lexerName, millis, paragraphs, summary);
+    } else {
+      log.debug("{} took {} ms to highlight {} paragraphs ({})", lexerName, millis, paragraphs, summary);
+    }
+  }
+
   private void insertTextAndMoveBack(String s) {
     int caretPos = getCaretPosition();
     insertText(caretPos, s);
@@ -228,6 +357,16 @@ public abstract class CodeTextArea extends UnStyledCodeArea implements TabTextAr
    */
   protected abstract StyleSpans<Collection<String>> computeHighlighting(String text);
 
+  /**
+   * Highlighting is done line by line using {@link #computeHighlighting(String)}, constructs that can span
+   * several lines (block comments, multi line strings etc.) must be declared here to be highlighted properly.
+   *
+   * @return the multi line constructs of the language, none per default
+   */
+  protected List<IncrementalHighlighter.BlockDelimiter> getBlockDelimiters() {
+    return Collections.emptyList();
+  }
+
   @Override
   public File getFile() {
     return file;
@@ -0,0 +1,364 @@
+package se.alipsa.grade.code;
+
+import org.fxmisc.richtext.model.StyleSpan;
+import org.fxmisc.richtext.model.StyleSpans;
+import org.fxmisc.richtext.model.StyleSpansBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Highlights a document paragraph by paragraph. The only state carried from one paragraph to the next is whether
+ * it ends inside a multi line construct (a block comment, a multi line string etc.) so after an edit only the
+ * changed paragraphs are lexed, and then the ones following them until the state at the start of a paragraph is
+ * the same as it was before the edit.
+ * The lexer of the text area is used for everything within a line, the multi line constructs are described by
+ * their delimiters. A construct can have a lexer of its own (e.g. an xml start tag with its attributes on several
+ * lines), which then highlights each line of it from the opening delimiter to the closing one.
+ */
+public class IncrementalHighlighter {
+
+  /** The state of a paragraph that does not start inside a multi line construct */
+  public static final int OUTSIDE = -1;
+
+  private final Function<String, StyleSpans<Collection<String>>> lexer;
+  private final List<BlockDelimiter> blocks;
+  /** The state at the start of each paragraph, null if it is not known yet */
+  private final List<Integer> entryStates = new ArrayList<>();
+  private int dirtyFrom;
+  private int dirtyTo;
+  /** Read by passes running on other threads to notice that the text has changed */
+  private volatile long version;
+
+  /**
+   * @param lexer highlights a single line
+   * @param blocks the multi line constructs
+   */
+  public IncrementalHighlighter(Function<String, StyleSpans<Collection<String>>> lexer, List<BlockDelimiter> blocks) {
+    this.lexer = lexer;
+    this.blocks = blocks;
+    entryStates.add(OUTSIDE);
+    dirtyFrom = 0;
+    dirtyTo = 0;
+  }
+
+  /**
+   * Keep track of an edit, must be called for every change of the text
+   *
+   * @param paragraph the paragraph where the change starts
+   * @param removedLines number of line breaks removed
+   * @param insertedLines number of line breaks inserted
+   */
+  public void textChanged(int paragraph, int removedLines, int insertedLines) {
+    int start = Math.min(paragraph + 1, entryStates.size());
+    entryStates.subList(start, Math.min(start + removedLines, entryStates.size())).clear();
+    if (insertedLines > 0) {
+      entryStates.addAll(start, Collections.nCopies(insertedLines, null));
+    }
+    version++;
+    int delta = insertedLines - removedLines;
+    if (isDirty()) {
+      if (dirtyTo > paragraph) {
+        dirtyTo = Math.max(paragraph, dirtyTo + delta);
+      }
+      dirtyFrom = Math.min(dirtyFrom, paragraph);
+      dirtyTo = Math.max(dirtyTo, paragraph + insertedLines);
+    } else {
+      dirtyFrom = paragraph;
+      dirtyTo = paragraph + insertedLines;
+    }
+  }
+
+  public boolean isDirty() {
+    return dirtyFrom <= dirtyTo;
+  }
+
+  /**
+   * @return incremented on every change of the text
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * Prepare lexing of the changed paragraphs and as many following ones as needed. Must be called on the same
+   * thread as {@link #textChanged(int, int, int)}, the pass can then be run on any thread.
+   *
+   * @param text a snapshot of the whole document
+   * @param paragraphCount the number of paragraphs in the document
+   * @param paragraphOffset gives the offset in the text where a paragraph starts
+   * @return the pass or null if nothing has changed
+   */
+  public Pass newPass(String text, int paragraphCount, IntUnaryOperator paragraphOffset) {
+    if (!isDirty()) {
+      return null;
+    }
+    if (entryStates.size() != paragraphCount) {
+      // should not happen but if we have lost track of the paragraphs, start over
+      entryStates.clear();
+      entryStates.addAll(Collections.nCopies(paragraphCount, null));
+      entryStates.set(0, OUTSIDE);
+      dirtyFrom = 0;
+      dirtyTo = paragraphCount - 1;
+    }
+    int from = Math.min(dirtyFrom, paragraphCount - 1);
+    while (from > 0 && entryStates.get(from) == null) {
+      from--;
+    }
+    Integer[] knownStates = entryStates.subList(from, paragraphCount).toArray(new Integer[0]);
+    return new Pass(text, paragraphOffset.applyAsInt(from), from, dirtyTo, knownStates, version);
+  }
+
+  /**
+   * Use the outcome of a pass, must be called on the same thread as {@link #textChanged(int, int, int)}
+   *
+   * @return false if the text has changed since the pass was created, the result is then discarded
+   */
+  public boolean apply(Result result) {
+    if (result.version != version) {
+      return false;
+    }
+    List<Integer> states = result.entryStates;
+    for (int i = 0; i < states.size(); i++) {
+      entryStates.set(result.fromParagraph + i, states.get(i));
+    }
+    dirtyFrom = Integer.MAX_VALUE;
+    dirtyTo = -1;
+    return true;
+  }
+
+  /**
+   * @return the state at the end of the line
+   */
+  private int lexLine(String line, int state, StyleSpansBuilder<Collection<String>> builder) {
+    int pos = 0;
+    // where to look for the close, after the opening delimiter on the line where a block starts
+    int closeFrom = 0;
+    while (true) {
+      if (state != OUTSIDE) {
+        BlockDelimiter block = blocks.get(state);
+        int close = block.lexer == null ? line.indexOf(block.close, closeFrom) : findClose(line, block.close, closeFrom);
+        int end = close < 0 ? line.length() : close + block.close.length();
+        if (block.lexer == null) {
+          builder.add(block.style, end - pos);
+        } else {
+          addSpans(builder, block.lexer.apply(line.substring(pos, end)), end - pos);
+        }
+        if (close < 0) {
+          return state;
+        }
+        pos = end;
+        state = OUTSIDE;
+      }
+      String rest = line.substring(pos);
+      StyleSpans<Collection<String>> spans = lexer.apply(rest);
+      int[] open = findOpening(rest, spans);
+      if (open == null) {
+        addSpans(builder, spans, rest.length());
+        return OUTSIDE;
+      }
+      if (open[0] > 0) {
+        addSpans(builder, spans.subView(0, open[0]), open[0]);
+      }
+      BlockDelimiter block = blocks.get(open[1]);
+      if (block.lexer == null) {
+        builder.add(block.style, block.open.length());
+        pos += open[0] + block.open.length();
+        closeFrom = pos;
+      } else {
+        // the block lexer gets the opening delimiter as well
+        pos += open[0];
+        closeFrom = pos + block.open.length();
+      }
+      state = open[1];
+    }
+  }
+
+  /**
+   * @return the index of the first close that is not within double quotes (e.g. an attribute value), -1 if none
+   */
+  private static int findClose(String line, String close, int from) {
+    boolean quoted = false;
+    for (int i = from; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (c == '"') {
+        quoted = !quoted;
+      } else if (!quoted && line.startsWith(close, i)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private void addSpans(StyleSpansBuilder<Collection<String>> builder, StyleSpans<Collection<String>> spans, int length) {
+    int added = 0;
+    for (StyleSpan<Collection<String>> span : spans) {
+      int len = Math.min(span.getLength(), length - added);
+      builder.add(span.getStyle(), len);
+      added += len;
+    }
+    if (added < length) {
+      builder.add(Collections.emptyList(), length - added);
+    }
+  }
+
+  /**
+   * Find the first opening delimiter that is not part of something else the lexer found, e.g. a string or a line
+   * comment. The lexer might have matched the delimiter itself (e.g. """ as an empty string followed by a quote
+   * or a block comment that is closed on the same line) so an opening at the start of a span also counts, except
+   * for blocks with a lexer of their own: the line lexer has then handled the complete ones (e.g. a tag closed on
+   * the same line) already.
+   *
+   * @return the offset and the index of the block or null if there is no opening in the text
+   */
+  private int[] findOpening(String text, StyleSpans<Collection<String>> spans) {
+    int[] best = null;
+    for (int i = 0; i < blocks.size(); i++) {
+      String open = blocks.get(i).open;
+      int idx = text.indexOf(open);
+      while (idx >= 0 && (best == null || idx <= best[0])) {
+        if (isFree(spans, idx, blocks.get(i).lexer == null)) {
+          if (best == null || idx < best[0] || open.length() > blocks.get(best[1]).open.length()) {
+            best = new int[]{idx, i};
+          }
+          break;
+        }
+        idx = text.indexOf(open, idx + 1);
+      }
+    }
+    return best;
+  }
+
+  private boolean isFree(StyleSpans<Collection<String>> spans, int offset, boolean spanStartIsFree) {
+    int start = 0;
+    for (StyleSpan<Collection<String>> span : spans) {
+      int end = start + span.getLength();
+      if (offset < end) {
+        return span.getStyle().isEmpty() || (spanStartIsFree && offset == start);
+      }
+      start = end;
+    }
+    return true;
+  }
+
+  /**
+   * Lexes a snapshot of the text, independent of the highlighter state so that it can run on any thread
+   */
+  public class Pass {
+    private final String text;
+    private final int fromOffset;
+    private final int fromParagraph;
+    private final int dirtyTo;
+    private final Integer[] knownStates;
+    private final long version;
+
+    private Pass(String text, int fromOffset, int fromParagraph, int dirtyTo, Integer[] knownStates, long version) {
+      this.text = text;
+      this.fromOffset = fromOffset;
+      this.fromParagraph = fromParagraph;
+      this.dirtyTo = dirtyTo;
+      this.knownStates = knownStates;
+      this.version = version;
+    }
+
+    /**
+     * @return the new styles or null if the text changed while lexing, the result would be stale anyway
+     */
+    public Result run() {
+      Integer known = knownStates[0];
+      int state = known == null ? OUTSIDE : known;
+      List<Integer> states = new ArrayList<>();
+      StyleSpansBuilder<Collection<String>> builder = new StyleSpansBuilder<>();
+      int paragraphCount = fromParagraph + knownStates.length;
+      int p = fromParagraph;
+      int lineStart = fromOffset;
+      while (p < paragraphCount) {
+        if (version != IncrementalHighlighter.this.version) {
+          return null;
+        }
+        int lineEnd = text.indexOf('\n', lineStart);
+        if (lineEnd < 0) {
+          lineEnd = text.length();
+        }
+        states.add(state);
+        state = lexLine(text.substring(lineStart, lineEnd), state, builder);
+        if (p < paragraphCount - 1) {
+          builder.add(Collections.emptyList(), 1);
+        }
+        lineStart = lineEnd + 1;
+        p++;
+        if (p > dirtyTo && p < paragraphCount && Objects.equals(knownStates[p - fromParagraph], state)) {
+          break;
+        }
+      }
+      return new Result(fromParagraph, p, builder.create(), states, version);
+    }
+  }
+
+  /**
+   * A construct that can span several lines, e.g. a block comment
+   */
+  public static class BlockDelimiter {
+    private final String open;
+    private final String close;
+    private final Collection<String> style;
+    private final Function<String, StyleSpans<Collection<String>>> lexer;
+
+    public BlockDelimiter(String open, String close, String styleClass) {
+      this.open = open;
+      this.close = close;
+      this.style = Collections.singleton(styleClass);
+      this.lexer = null;
+    }
+
+    /**
+     * A construct that is highlighted by a lexer of its own, one line at a time. Only openings that the line lexer
+     * left unstyled count and a close within double quotes does not.
+     *
+     * @param lexer highlights the part of a line within the construct, delimiters included
+     */
+    public BlockDelimiter(String open, String close, Function<String, StyleSpans<Collection<String>>> lexer) {
+      this.open = open;
+      this.close = close;
+      this.style = Collections.emptyList();
+      this.lexer = lexer;
+    }
+  }
+
+  /**
+   * The styles of the paragraphs from (inclusive) to (exclusive), the line breaks in between included
+   */
+  public static class Result {
+    private final int fromParagraph;
+    private final int toParagraph;
+    private final StyleSpans<Collection<String>> spans;
+    private final List<Integer> entryStates;
+    private final long version;
+
+    Result(int fromParagraph, int toParagraph, StyleSpans<Collection<String>> spans, List<Integer> entryStates,
+           long version) {
+      this.fromParagraph = fromParagraph;
+      this.toParagraph = toParagraph;
+      this.spans = spans;
+      this.entryStates = entryStates;
+      this.version = version;
+    }
+
+    public int getFromParagraph() {
+      return fromParagraph;
+    }
+
+    public int getToParagraph() {
+      return toParagraph;
+    }
+
+    public StyleSpans<Collection<String>> getSpans() {
+      return spans;
+    }
+  }
+}
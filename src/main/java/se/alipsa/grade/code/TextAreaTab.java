@@ -33,6 +33,11 @@ public abstract class TextAreaTab extends Tab implements TabTextArea {
   public static final Image IMG_PUBLISH = new Image(FileUtils
       .getResourceUrl("image/publish.png").toExternalForm(), ICON_WIDTH, ICON_HEIGHT, true, true);
   protected boolean isChanged = false;
+  /** the file has been changed by something else while there were unsaved changes in the tab */
+  private boolean changedOnDisk = false;
+  /** size and modification time of the file when we last read or wrote it, to recognize our own saves */
+  private long savedLength = -1;
+  private long savedLastModified = -1;
   protected Button saveButton = new Button();
   protected Grade gui;
   private Tooltip saveToolTip;
@@ -111,13 +116,32 @@ public abstract class TextAreaTab extends Tab implements TabTextArea {
   public void contentSaved() {
     setTitle(getTitle().replace("*", ""));
     isChanged = false;
+    changedOnDisk = false;
     saveButton.setDisable(true);
+    rememberFileStamp();
+  }
+
+  private void rememberFileStamp() {
+    File file = getFile();
+    savedLength = file == null ? -1 : file.length();
+    savedLastModified = file == null ? -1 : file.lastModified();
+  }
+
+  private boolean isSameAsSaved(File file) {
+    return file.length() == savedLength && file.lastModified() == savedLastModified;
   }
 
   public boolean isChanged() {
     return isChanged;
   }
 
+  /**
+   * @return true if the content is shown but cannot be edited or saved, e.g. a very large file
+   */
+  public boolean isReadOnly() {
+    return false;
+  }
+
   public Grade getGui() {
     return gui;
   }
@@ -138,16 +162,65 @@ public abstract class TextAreaTab extends Tab implements TabTextArea {
   public void loadFromFile(@NotNull File file) throws IOException {
     log.trace("Setting file");
     setFile(file);
+    String content = readContent(file);
+    log.trace("Replacing content text");
+    replaceContentText(content, true);
+    changedOnDisk = false;
+    rememberFileStamp();
+  }
+
+  private static String readContent(File file) throws IOException {
     log.trace("Reading bytes");
     byte[] textBytes = org.apache.commons.io.FileUtils.readFileToByteArray(file);
-    String content = "";
-    if (textBytes.length != 0) {
-      log.trace("Detecting charset");
-      Charset cs = TikaUtils.instance().detectCharset(textBytes, file.getName());
-      content = new String(textBytes, cs);
+    if (textBytes.length == 0) {
+      return "";
     }
-    log.trace("Replacing content text");
-    replaceContentText(content, true);
+    log.trace("Detecting charset");
+    Charset cs = TikaUtils.instance().detectCharset(textBytes, file.getName());
+    return new String(textBytes, cs);
+  }
+
+  /**
+   * The file of the tab was changed by something else (e.g. a build or a git checkout). The content is reloaded
+   * if there are no unsaved changes, otherwise the tab is flagged and saving will ask before overwriting the file.
+   */
+  public void fileChangedOnDisk() {
+    File file = getFile();
+    if (file == null || !file.isFile()) {
+      return;
+    }
+    // our own saves are reported as well, possibly after the user has started typing again
+    if (isSameAsSaved(file)) {
+      return;
+    }
+    if (isChanged()) {
+      if (!changedOnDisk) {
+        changedOnDisk = true;
+        Alerts.warnFx("File changed on disk",
+            file + " was updated but the code is changed so cannot reload it, you need to manually merge the content");
+      }
+      return;
+    }
+    if (isReadOnly()) {
+      reloadFromDisk();
+      return;
+    }
+    try {
+      // e.g. touched or written back unchanged, no need to reload (and lose the caret position) for those
+      if (!readContent(file).equals(getAllTextContent())) {
+        log.debug("Reloading {} as it was changed on disk", file);
+        reloadFromDisk();
+      }
+    } catch (IOException e) {
+      log.debug("Failed to read {}", file, e);
+    }
+  }
+
+  /**
+   * @return true if the file was changed by something else while there were unsaved changes in the tab
+   */
+  public boolean isChangedOnDisk() {
+    return changedOnDisk;
   }
 
   public void reloadFromDisk() {
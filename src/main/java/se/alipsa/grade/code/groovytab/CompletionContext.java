@@ -0,0 +1,45 @@
+package se.alipsa.grade.code.groovytab;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What is in scope at a position in a Groovy document, as far as the last successful parse knows
+ */
+public class CompletionContext {
+
+  private final GroovyDocumentModel model;
+  private final List<GroovyDocumentModel.Scope> enclosingScopes;
+  private final Map<String, String> locals;
+
+  CompletionContext(GroovyDocumentModel model, List<GroovyDocumentModel.Scope> enclosingScopes,
+                    Map<String, String> locals) {
+    this.model = model;
+    this.enclosingScopes = enclosingScopes;
+    this.locals = locals;
+  }
+
+  /**
+   * @return the classes, methods, closures and blocks the position is in, innermost first
+   */
+  public List<GroovyDocumentModel.Scope> getEnclosingScopes() {
+    return Collections.unmodifiableList(enclosingScopes);
+  }
+
+  /**
+   * @return the variables and parameters declared before the position that are visible there, mapped to their
+   * type name (null if unknown)
+   */
+  public Map<String, String> getLocals() {
+    return Collections.unmodifiableMap(locals);
+  }
+
+  /**
+   * @return the fully qualified names the type of the variable could have, empty if the variable is unknown
+   * or its type cannot be determined
+   */
+  public List<String> getReceiverTypeCandidates(String variable) {
+    return model.candidateClassNames(locals.get(variable));
+  }
+}
@@ -0,0 +1,451 @@
+package se.alipsa.grade.code.groovytab;
+
+import org.codehaus.groovy.ast.ASTNode;
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.ast.CodeVisitorSupport;
+import org.codehaus.groovy.ast.ConstructorNode;
+import org.codehaus.groovy.ast.FieldNode;
+import org.codehaus.groovy.ast.MethodNode;
+import org.codehaus.groovy.ast.ModuleNode;
+import org.codehaus.groovy.ast.Parameter;
+import org.codehaus.groovy.ast.expr.CastExpression;
+import org.codehaus.groovy.ast.expr.ClassExpression;
+import org.codehaus.groovy.ast.expr.ClosureExpression;
+import org.codehaus.groovy.ast.expr.ConstantExpression;
+import org.codehaus.groovy.ast.expr.ConstructorCallExpression;
+import org.codehaus.groovy.ast.expr.DeclarationExpression;
+import org.codehaus.groovy.ast.expr.Expression;
+import org.codehaus.groovy.ast.expr.GStringExpression;
+import org.codehaus.groovy.ast.expr.ListExpression;
+import org.codehaus.groovy.ast.expr.MapExpression;
+import org.codehaus.groovy.ast.expr.PropertyExpression;
+import org.codehaus.groovy.ast.expr.VariableExpression;
+import org.codehaus.groovy.ast.stmt.BlockStatement;
+import org.codehaus.groovy.ast.stmt.CatchStatement;
+import org.codehaus.groovy.ast.stmt.ForStatement;
+import org.codehaus.groovy.ast.stmt.Statement;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Finds the semantic tokens, declarations and scopes in a parsed (but not yet resolved) Groovy module.
+ * Each top level node (class, method, script statement) is summarized on its own so that the summary of a node
+ * whose text did not change can be reused for the next version of the document, only moved to its new line.
+ */
+class GroovyAstAnalyzer {
+
+  static final String TYPE = "type";
+  static final String FIELD = "field";
+  static final String CLOSURE = "closure";
+
+  private GroovyAstAnalyzer() {
+    // static methods only
+  }
+
+  /**
+   * @param previous the model of the previous version of the document, may be null
+   */
+  static List<NodeSummary> analyze(ModuleNode module, String[] lines, GroovyDocumentModel previous) {
+    Map<String, NodeSummary> reusable = new HashMap<>();
+    if (previous != null) {
+      for (NodeSummary summary : previous.getSummaries()) {
+        if (summary.key != null) {
+          reusable.put(summary.key, summary);
+        }
+      }
+    }
+    List<NodeSummary> summaries = new ArrayList<>();
+    for (Statement statement : module.getStatementBlock().getStatements()) {
+      summaries.add(summarize(statement, lines, reusable, v -> statement.visit(v)));
+    }
+    for (MethodNode method : module.getMethods()) {
+      summaries.add(summarize(method, lines, reusable, v -> v.visitMethod(method)));
+    }
+    for (ClassNode classNode : module.getClasses()) {
+      if (!classNode.isScript()) {
+        summaries.add(summarize(classNode, lines, reusable, v -> v.visitClass(classNode)));
+      }
+    }
+    return summaries;
+  }
+
+  private static NodeSummary summarize(ASTNode node, String[] lines, Map<String, NodeSummary> reusable,
+                                       Consumer<Visitor> visit) {
+    String key = key(node, lines);
+    NodeSummary summary = key == null ? null : reusable.get(key);
+    if (summary != null) {
+      return summary.moveTo(node.getLineNumber() - 1);
+    }
+    Visitor visitor = new Visitor(lines);
+    visit.accept(visitor);
+    return new NodeSummary(key, node.getLineNumber() - 1, visitor.tokens, visitor.declarations, visitor.scopes);
+  }
+
+  /**
+   * @return the text of the lines the node is on and where on them it starts and ends, null if it has no position
+   */
+  private static String key(ASTNode node, String[] lines) {
+    if (node.getLineNumber() < 1 || node.getLastLineNumber() < node.getLineNumber()
+        || node.getLastLineNumber() > lines.length) {
+      return null;
+    }
+    StringBuilder sb = new StringBuilder(node.getClass().getSimpleName()).append('\0')
+        .append(node.getColumnNumber()).append('\0').append(node.getLastColumnNumber()).append('\0');
+    for (int i = node.getLineNumber() - 1; i < node.getLastLineNumber(); i++) {
+      sb.append(lines[i]).append('\n');
+    }
+    return sb.toString();
+  }
+
+  /**
+   * The result of analyzing one top level node
+   */
+  static class NodeSummary {
+    private final String key;
+    private final int startLine;
+    private final List<GroovyDocumentModel.SemanticToken> tokens;
+    private final List<GroovyDocumentModel.Declaration> declarations;
+    private final List<GroovyDocumentModel.Scope> scopes;
+
+    NodeSummary(String key, int startLine, List<GroovyDocumentModel.SemanticToken> tokens,
+                List<GroovyDocumentModel.Declaration> declarations, List<GroovyDocumentModel.Scope> scopes) {
+      this.key = key;
+      this.startLine = startLine;
+      this.tokens = tokens;
+      this.declarations = declarations;
+      this.scopes = scopes;
+    }
+
+    NodeSummary moveTo(int line) {
+      int delta = line - startLine;
+      if (delta == 0) {
+        return this;
+      }
+      Map<GroovyDocumentModel.Scope, GroovyDocumentModel.Scope> moved = new IdentityHashMap<>();
+      List<GroovyDocumentModel.Scope> movedScopes = new ArrayList<>();
+      for (GroovyDocumentModel.Scope scope : scopes) {
+        GroovyDocumentModel.Scope movedScope = scope.moveLines(delta);
+        moved.put(scope, movedScope);
+        movedScopes.add(movedScope);
+      }
+      List<GroovyDocumentModel.SemanticToken> movedTokens = new ArrayList<>();
+      for (GroovyDocumentModel.SemanticToken token : tokens) {
+        movedTokens.add(new GroovyDocumentModel.SemanticToken(token.getLine() + delta, token.getFrom(),
+            token.getTo(), token.getStyleClass()));
+      }
+      List<GroovyDocumentModel.Declaration> movedDeclarations = new ArrayList<>();
+      for (GroovyDocumentModel.Declaration declaration : declarations) {
+        movedDeclarations.add(new GroovyDocumentModel.Declaration(declaration.getName(), declaration.getTypeName(),
+            declaration.getLine() + delta, declaration.getColumn(), moved.get(declaration.getScope())));
+      }
+      return new NodeSummary(key, line, movedTokens, movedDeclarations, movedScopes);
+    }
+
+    List<GroovyDocumentModel.SemanticToken> getTokens() {
+      return tokens;
+    }
+
+    List<GroovyDocumentModel.Declaration> getDeclarations() {
+      return declarations;
+    }
+
+    List<GroovyDocumentModel.Scope> getScopes() {
+      return scopes;
+    }
+  }
+
+  private static class Visitor extends CodeVisitorSupport {
+
+    private final String[] lines;
+    private final List<GroovyDocumentModel.SemanticToken> tokens = new ArrayList<>();
+    private final List<GroovyDocumentModel.Declaration> declarations = new ArrayList<>();
+    private final List<GroovyDocumentModel.Scope> scopes = new ArrayList<>();
+    private final Deque<GroovyDocumentModel.Scope> scopeStack = new ArrayDeque<>();
+    private final Deque<Set<String>> closureParameters = new ArrayDeque<>();
+    private Set<String> fields = new HashSet<>();
+    private Set<String> locals = new HashSet<>();
+
+    Visitor(String[] lines) {
+      this.lines = lines;
+    }
+
+    void visitClass(ClassNode classNode) {
+      boolean pushed = pushScope(classNode, "class", classNode.getNameWithoutPackage());
+      fields = new HashSet<>();
+      for (FieldNode field : classNode.getFields()) {
+        fields.add(field.getName());
+      }
+      for (FieldNode field : classNode.getFields()) {
+        if (!field.isDynamicTyped()) {
+          addToken(field.getType(), TYPE);
+        }
+        addFieldNameToken(field);
+        locals = new HashSet<>();
+        if (field.hasInitialExpression()) {
+          field.getInitialExpression().visit(this);
+        }
+      }
+      for (ConstructorNode constructor : classNode.getDeclaredConstructors()) {
+        visitMethod(constructor);
+      }
+      for (MethodNode method : classNode.getMethods()) {
+        visitMethod(method);
+      }
+      for (Statement statement : classNode.getObjectInitializerStatements()) {
+        locals = new HashSet<>();
+        statement.visit(this);
+      }
+      popScope(pushed);
+    }
+
+    void visitMethod(MethodNode method) {
+      boolean pushed = pushScope(method, "method", method.getName());
+      locals = new HashSet<>();
+      if (!method.isDynamicReturnType()) {
+        addToken(method.getReturnType(), TYPE);
+      }
+      for (Parameter parameter : method.getParameters()) {
+        declare(parameter);
+      }
+      if (method.getCode() != null) {
+        method.getCode().visit(this);
+      }
+      popScope(pushed);
+    }
+
+    @Override
+    public void visitBlockStatement(BlockStatement block) {
+      boolean pushed = pushScope(block, "block", null);
+      super.visitBlockStatement(block);
+      popScope(pushed);
+    }
+
+    @Override
+    public void visitForLoop(ForStatement forLoop) {
+      boolean pushed = pushScope(forLoop, "block", null);
+      if (forLoop.getVariable() != ForStatement.FOR_LOOP_DUMMY) {
+        declare(forLoop.getVariable());
+      }
+      forLoop.getCollectionExpression().visit(this);
+      forLoop.getLoopBlock().visit(this);
+      popScope(pushed);
+    }
+
+    @Override
+    public void visitCatchStatement(CatchStatement catchStatement) {
+      boolean pushed = pushScope(catchStatement, "block", null);
+      declare(catchStatement.getVariable());
+      catchStatement.getCode().visit(this);
+      popScope(pushed);
+    }
+
+    @Override
+    public void visitClosureExpression(ClosureExpression closure) {
+      boolean pushed = pushScope(closure, "closure", null);
+      Set<String> names = new HashSet<>();
+      if (closure.isParameterSpecified()) {
+        for (Parameter parameter : closure.getParameters()) {
+          declare(parameter);
+          names.add(parameter.getName());
+          int line = parameter.getLastLineNumber();
+          int from = parameter.getLineNumber() == line ? parameter.getColumnNumber() - 1 : 0;
+          addNameToken(line, from, parameter.getLastColumnNumber() - 1, parameter.getName(), CLOSURE);
+        }
+      } else if (closure.getParameters() != null && scopeStack.peek() != null) {
+        // no parameters declared (as opposed to explicitly none, i.e. { -> }) means the implicit it
+        GroovyDocumentModel.Scope scope = scopeStack.peek();
+        declarations.add(new GroovyDocumentModel.Declaration("it", null, scope.getFromLine(),
+            scope.getFromColumn(), scope));
+        names.add("it");
+      }
+      closureParameters.push(names);
+      closure.getCode().visit(this);
+      closureParameters.pop();
+      popScope(pushed);
+    }
+
+    @Override
+    public void visitDeclarationExpression(DeclarationExpression expression) {
+      if (expression.isMultipleAssignmentDeclaration()) {
+        for (Expression e : expression.getTupleExpression().getExpressions()) {
+          if (e instanceof VariableExpression) {
+            declare((VariableExpression) e, null);
+          }
+        }
+      } else {
+        VariableExpression variable = expression.getVariableExpression();
+        String typeName = null;
+        if (!variable.isDynamicTyped()) {
+          addToken(variable.getOriginType(), TYPE);
+          typeName = variable.getOriginType().getName();
+        } else {
+          typeName = inferType(expression.getRightExpression());
+        }
+        declare(variable, typeName);
+      }
+      expression.getRightExpression().visit(this);
+    }
+
+    @Override
+    public void visitVariableExpression(VariableExpression expression) {
+      String name = expression.getName();
+      for (Set<String> names : closureParameters) {
+        if (names.contains(name)) {
+          addToken(expression, CLOSURE);
+          return;
+        }
+      }
+      if (fields.contains(name) && !locals.contains(name)) {
+        addToken(expression, FIELD);
+      }
+    }
+
+    @Override
+    public void visitPropertyExpression(PropertyExpression expression) {
+      if (expression.getObjectExpression() instanceof VariableExpression
+          && ((VariableExpression) expression.getObjectExpression()).isThisExpression()
+          && fields.contains(expression.getPropertyAsString())) {
+        addToken(expression.getProperty(), FIELD);
+      }
+      super.visitPropertyExpression(expression);
+    }
+
+    @Override
+    public void visitConstructorCallExpression(ConstructorCallExpression call) {
+      addToken(call.getType(), TYPE);
+      super.visitConstructorCallExpression(call);
+    }
+
+    @Override
+    public void visitClassExpression(ClassExpression expression) {
+      addToken(expression, TYPE);
+    }
+
+    @Override
+    public void visitCastExpression(CastExpression expression) {
+      addToken(expression.getType(), TYPE);
+      super.visitCastExpression(expression);
+    }
+
+    private String inferType(Expression expression) {
+      if (expression instanceof ConstructorCallExpression || expression instanceof CastExpression) {
+        return expression.getType().getName();
+      }
+      if (expression instanceof GStringExpression) {
+        return "groovy.lang.GString";
+      }
+      if (expression instanceof ConstantExpression) {
+        Object value = ((ConstantExpression) expression).getValue();
+        return value == null ? null : value.getClass().getName();
+      }
+      if (expression instanceof ListExpression) {
+        return "java.util.ArrayList";
+      }
+      if (expression instanceof MapExpression) {
+        return "java.util.LinkedHashMap";
+      }
+      if (expression instanceof ClosureExpression) {
+        return "groovy.lang.Closure";
+      }
+      return null;
+    }
+
+    private void declare(Parameter parameter) {
+      String typeName = null;
+      if (!parameter.isDynamicTyped()) {
+        addToken(parameter.getType(), TYPE);
+        typeName = parameter.getType().getName();
+      }
+      locals.add(parameter.getName());
+      if (parameter.getLineNumber() > 0) {
+        declarations.add(new GroovyDocumentModel.Declaration(parameter.getName(), typeName,
+            parameter.getLineNumber() - 1, parameter.getColumnNumber() - 1, scopeStack.peek()));
+      }
+      if (parameter.hasInitialExpression()) {
+        parameter.getInitialExpression().visit(this);
+      }
+    }
+
+    private void declare(VariableExpression variable, String typeName) {
+      locals.add(variable.getName());
+      if (variable.getLineNumber() > 0) {
+        declarations.add(new GroovyDocumentModel.Declaration(variable.getName(), typeName,
+            variable.getLineNumber() - 1, variable.getColumnNumber() - 1, scopeStack.peek()));
+      }
+    }
+
+    private boolean pushScope(ASTNode node, String kind, String name) {
+      if (node.getLineNumber() < 1 || node.getLastLineNumber() < 1) {
+        return false;
+      }
+      GroovyDocumentModel.Scope scope = new GroovyDocumentModel.Scope(kind, name, node.getLineNumber() - 1,
+          node.getColumnNumber() - 1, node.getLastLineNumber() - 1, node.getLastColumnNumber() - 1);
+      scopes.add(scope);
+      scopeStack.push(scope);
+      return true;
+    }
+
+    private void popScope(boolean pushed) {
+      if (pushed) {
+        scopeStack.pop();
+      }
+    }
+
+    private void addToken(ASTNode node, String styleClass) {
+      int line = node.getLineNumber();
+      if (line < 1 || node.getLastLineNumber() != line || node.getLastColumnNumber() <= node.getColumnNumber()) {
+        return;
+      }
+      tokens.add(new GroovyDocumentModel.SemanticToken(line - 1, node.getColumnNumber() - 1,
+          node.getLastColumnNumber() - 1, styleClass));
+    }
+
+    /**
+     * Fields and parameters are positioned on the whole declaration, find the name in it
+     *
+     * @param line the line, one based
+     * @param from where to start looking, zero based
+     * @param to where to stop looking, zero based
+     */
+    private void addNameToken(int line, int from, int to, String name, String styleClass) {
+      if (line < 1 || line > lines.length) {
+        return;
+      }
+      String text = lines[line - 1];
+      int idx = text.lastIndexOf(name, Math.min(to, text.length()) - name.length());
+      while (idx >= from) {
+        boolean wordStart = idx == 0 || !Character.isJavaIdentifierPart(text.charAt(idx - 1));
+        int after = idx + name.length();
+        boolean wordEnd = after >= text.length() || !Character.isJavaIdentifierPart(text.charAt(after));
+        if (wordStart && wordEnd) {
+          tokens.add(new GroovyDocumentModel.SemanticToken(line - 1, idx, after, styleClass));
+          return;
+        }
+        idx = text.lastIndexOf(name, idx - 1);
+      }
+    }
+
+    private void addFieldNameToken(FieldNode field) {
+      int line = field.getLineNumber();
+      if (line < 1 || line > lines.length) {
+        return;
+      }
+      int to = field.getLastLineNumber() == line ? field.getLastColumnNumber() - 1 : lines[line - 1].length();
+      Expression value = field.getInitialExpression();
+      if (value != null && value.getLineNumber() == line) {
+        // the initial value is part of the declaration, only look for the name before it
+        to = value.getColumnNumber() - 1;
+      }
+      addNameToken(line, field.getColumnNumber() - 1, to, field.getName(), FIELD);
+    }
+  }
+}
@@ -0,0 +1,285 @@
+package se.alipsa.grade.code.groovytab;
+
+import org.codehaus.groovy.ast.ImportNode;
+import org.codehaus.groovy.ast.ModuleNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What is known about a Groovy document after parsing a given version of it: the syntax tree together with the
+ * semantic tokens (types, fields, closure parameters), the declared variables and the scopes found in it.
+ * Lines and columns are zero based, i.e. the same as paragraphs and columns in the text area.
+ */
+public class GroovyDocumentModel {
+
+  private static final String[] DEFAULT_IMPORTS = {
+      "java.lang.", "java.util.", "java.io.", "java.net.", "groovy.lang.", "groovy.util.", "java.math."
+  };
+
+  private final long version;
+  private final String text;
+  private final ModuleNode module;
+  private final List<GroovyAstAnalyzer.NodeSummary> summaries;
+  private final List<SemanticToken> tokens = new ArrayList<>();
+  private final List<Declaration> declarations = new ArrayList<>();
+  private final List<Scope> scopes = new ArrayList<>();
+
+  GroovyDocumentModel(long version, String text, ModuleNode module, List<GroovyAstAnalyzer.NodeSummary> summaries) {
+    this.version = version;
+    this.text = text;
+    this.module = module;
+    this.summaries = summaries;
+    for (GroovyAstAnalyzer.NodeSummary summary : summaries) {
+      tokens.addAll(summary.getTokens());
+      declarations.addAll(summary.getDeclarations());
+      scopes.addAll(summary.getScopes());
+    }
+    tokens.sort(Comparator.comparingInt(SemanticToken::getLine).thenComparingInt(SemanticToken::getFrom));
+  }
+
+  /**
+   * @return the same model for another version of the document with identical text
+   */
+  GroovyDocumentModel withVersion(long version) {
+    return new GroovyDocumentModel(version, text, module, summaries);
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  public String getText() {
+    return text;
+  }
+
+  public ModuleNode getModule() {
+    return module;
+  }
+
+  List<GroovyAstAnalyzer.NodeSummary> getSummaries() {
+    return summaries;
+  }
+
+  /**
+   * @return the tokens on the lines from (inclusive) to (exclusive)
+   */
+  public List<SemanticToken> getTokens(int fromLine, int toLine) {
+    int low = 0;
+    int high = tokens.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (tokens.get(mid).getLine() < fromLine) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    List<SemanticToken> result = new ArrayList<>();
+    for (int i = low; i < tokens.size() && tokens.get(i).getLine() < toLine; i++) {
+      result.add(tokens.get(i));
+    }
+    return result;
+  }
+
+  /**
+   * @return what is in scope at the position
+   */
+  public CompletionContext contextAt(int line, int column) {
+    List<Scope> enclosing = new ArrayList<>();
+    for (Scope scope : scopes) {
+      if (scope.contains(line, column)) {
+        enclosing.add(scope);
+      }
+    }
+    // innermost first
+    enclosing.sort(Comparator.comparingInt(Scope::getFromLine).thenComparingInt(Scope::getFromColumn).reversed());
+    Map<String, String> locals = new LinkedHashMap<>();
+    for (Declaration declaration : declarations) {
+      boolean visible = declaration.getScope() == null || declaration.getScope().contains(line, column);
+      boolean before = declaration.getLine() < line
+          || (declaration.getLine() == line && declaration.getColumn() < column);
+      if (visible && before) {
+        // later (i.e. closer) declarations shadow earlier ones
+        locals.remove(declaration.getName());
+        locals.put(declaration.getName(), declaration.getTypeName());
+      }
+    }
+    return new CompletionContext(this, enclosing, locals);
+  }
+
+  /**
+   * The types are not resolved when parsing, find the fully qualified names a type name could refer to
+   * given the imports of the document
+   *
+   * @return the candidates, most likely first
+   */
+  public List<String> candidateClassNames(String typeName) {
+    if (typeName == null) {
+      return Collections.emptyList();
+    }
+    List<String> candidates = new ArrayList<>();
+    if (typeName.contains(".")) {
+      candidates.add(typeName);
+    }
+    for (ImportNode importNode : module.getImports()) {
+      if (typeName.equals(importNode.getAlias())) {
+        candidates.add(importNode.getClassName());
+      }
+    }
+    for (ImportNode importNode : module.getStarImports()) {
+      candidates.add(importNode.getPackageName() + typeName);
+    }
+    if (!typeName.contains(".")) {
+      for (String pkg : DEFAULT_IMPORTS) {
+        candidates.add(pkg + typeName);
+      }
+    }
+    return candidates;
+  }
+
+  /**
+   * A range of text that should be styled by its meaning rather than by its syntax
+   */
+  public static class SemanticToken {
+    private final int line;
+    private final int from;
+    private final int to;
+    private final String styleClass;
+
+    SemanticToken(int line, int from, int to, String styleClass) {
+      this.line = line;
+      this.from = from;
+      this.to = to;
+      this.styleClass = styleClass;
+    }
+
+    public int getLine() {
+      return line;
+    }
+
+    public int getFrom() {
+      return from;
+    }
+
+    public int getTo() {
+      return to;
+    }
+
+    public String getStyleClass() {
+      return styleClass;
+    }
+  }
+
+  /**
+   * A class, method, closure or block
+   */
+  public static class Scope {
+    private final String kind;
+    private final String name;
+    private final int fromLine;
+    private final int fromColumn;
+    private final int toLine;
+    private final int toColumn;
+
+    Scope(String kind, String name, int fromLine, int fromColumn, int toLine, int toColumn) {
+      this.kind = kind;
+      this.name = name;
+      this.fromLine = fromLine;
+      this.fromColumn = fromColumn;
+      this.toLine = toLine;
+      this.toColumn = toColumn;
+    }
+
+    public boolean contains(int line, int column) {
+      boolean afterStart = line > fromLine || (line == fromLine && column >= fromColumn);
+      boolean beforeEnd = line < toLine || (line == toLine && column < toColumn);
+      return afterStart && beforeEnd;
+    }
+
+    Scope moveLines(int delta) {
+      return new Scope(kind, name, fromLine + delta, fromColumn, toLine + delta, toColumn);
+    }
+
+    public String getKind() {
+      return kind;
+    }
+
+    /**
+     * @return the name of the class or method, null for closures and blocks
+     */
+    public String getName() {
+      return name;
+    }
+
+    public int getFromLine() {
+      return fromLine;
+    }
+
+    public int getFromColumn() {
+      return fromColumn;
+    }
+
+    public int getToLine() {
+      return toLine;
+    }
+
+    public int getToColumn() {
+      return toColumn;
+    }
+
+    @Override
+    public String toString() {
+      return name == null ? kind : kind + " " + name;
+    }
+  }
+
+  /**
+   * A local variable or parameter
+   */
+  public static class Declaration {
+    private final String name;
+    private final String typeName;
+    private final int line;
+    private final int column;
+    private final Scope scope;
+
+    Declaration(String name, String typeName, int line, int column, Scope scope) {
+      this.name = name;
+      this.typeName = typeName;
+      this.line = line;
+      this.column = column;
+      this.scope = scope;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * @return the declared or inferred type as written in the code (i.e. not resolved), null if unknown
+     */
+    public String getTypeName() {
+      return typeName;
+    }
+
+    public int getLine() {
+      return line;
+    }
+
+    public int getColumn() {
+      return column;
+    }
+
+    /**
+     * @return the scope the variable is visible in, null if it is visible in the whole script
+     */
+    public Scope getScope() {
+      return scope;
+    }
+  }
+}
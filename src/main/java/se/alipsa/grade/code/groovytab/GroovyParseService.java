@@ -0,0 +1,120 @@
+package se.alipsa.grade.code.groovytab;
+
+import javafx.application.Platform;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codehaus.groovy.ast.ModuleNode;
+import org.codehaus.groovy.control.CompilationFailedException;
+import org.codehaus.groovy.control.CompilationUnit;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.Phases;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Parses a Groovy document in the background, up to the conversion phase i.e. into a syntax tree without resolving
+ * any types, so that highlighting and completion can use what the code means rather than guess from the text.
+ * Only the latest snapshot is parsed, snapshots that are superseded while waiting are skipped. When the code does
+ * not parse (which it often does not while typing) the model of the last version that did is kept.
+ */
+public class GroovyParseService {
+
+  private static final Logger log = LogManager.getLogger(GroovyParseService.class);
+  /** One thread for all documents, parsing is done at most once per edit pause */
+  private static final ExecutorService PARSE_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "grade-groovy-parser");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private static final CompilerConfiguration PARSER_CONFIG = new CompilerConfiguration();
+
+  static {
+    // @Grab is handled in the conversion phase, parsing must not start downloading dependencies
+    PARSER_CONFIG.setDisabledGlobalASTTransformations(Set.of("groovy.grape.GrabAnnotationTransformation"));
+  }
+
+  private final Consumer<GroovyDocumentModel> onParsed;
+  private final AtomicReference<Snapshot> latest = new AtomicReference<>();
+  private volatile GroovyDocumentModel model;
+
+  /**
+   * @param onParsed called on the FX thread with each new model
+   */
+  public GroovyParseService(Consumer<GroovyDocumentModel> onParsed) {
+    this.onParsed = onParsed;
+  }
+
+  /**
+   * Parse a new version of the document
+   *
+   * @param text a snapshot of the document
+   * @param version the version of the snapshot, versions must increase
+   */
+  public void textChanged(String text, long version) {
+    Snapshot snapshot = new Snapshot(text, version);
+    latest.set(snapshot);
+    PARSE_EXECUTOR.execute(() -> {
+      if (latest.get() == snapshot) {
+        parse(snapshot);
+      }
+    });
+  }
+
+  /**
+   * @return the model of the last version that could be parsed, null if none could
+   */
+  public GroovyDocumentModel getModel() {
+    return model;
+  }
+
+  /**
+   * @return the model for the version or null if that version has not been (or could not be) parsed
+   */
+  public GroovyDocumentModel getModel(long version) {
+    GroovyDocumentModel current = model;
+    return current != null && current.getVersion() == version ? current : null;
+  }
+
+  private void parse(Snapshot snapshot) {
+    GroovyDocumentModel previous = model;
+    GroovyDocumentModel parsed;
+    if (previous != null && previous.getText().equals(snapshot.text)) {
+      // e.g. an undo back to the text we already have
+      parsed = previous.withVersion(snapshot.version);
+    } else {
+      long start = System.nanoTime();
+      ModuleNode module;
+      try {
+        CompilationUnit unit = new CompilationUnit(PARSER_CONFIG);
+        unit.addSource("Script_" + snapshot.version + ".groovy", snapshot.text);
+        unit.compile(Phases.CONVERSION);
+        module = unit.iterator().next().getAST();
+      } catch (CompilationFailedException | RuntimeException e) {
+        log.trace("Version {} does not parse: {}", snapshot.version, e.getMessage());
+        return;
+      }
+      String[] lines = snapshot.text.split("\n", -1);
+      List<GroovyAstAnalyzer.NodeSummary> summaries = GroovyAstAnalyzer.analyze(module, lines, previous);
+      parsed = new GroovyDocumentModel(snapshot.version, snapshot.text, module, summaries);
+      log.debug("Parsed version {} in {} ms", snapshot.version, (System.nanoTime() - start) / 1_000_000);
+    }
+    model = parsed;
+    Platform.runLater(() -> onParsed.accept(parsed));
+  }
+
+  private static class Snapshot {
+    private final String text;
+    private final long version;
+
+    Snapshot(String text, long version) {
+      this.text = text;
+      this.version = version;
+    }
+  }
+}
@@ -44,15 +44,20 @@ public class GroovyTab extends TextAreaTab implements TaskListener {
     if (gui.getPrefs().getBoolean(ADD_IMPORTS, true)) {
       code = groovyTextArea.getImports();
     }
-    runGroovy(code + getTextContent());
+    // a saved script is likely to be run again unchanged, also after a restart
+    runGroovy(code + getTextContent(), getFile() != null);
   }
 
   public void runGroovy(final String content) {
+    runGroovy(content, false);
+  }
+
+  public void runGroovy(final String content, boolean cacheCompiled) {
     ConsoleComponent consoleComponent = gui.getConsoleComponent();
     final ConsoleTextArea console = consoleComponent.getConsole();
     final String title = getTitle();
     consoleComponent.running();
-    consoleComponent.runScriptAsync(content, title, this);
+    consoleComponent.runScriptAsync(content, title, this, cacheCompiled);
   }
 
   @Override
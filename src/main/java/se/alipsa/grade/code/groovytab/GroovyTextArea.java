@@ -1,18 +1,27 @@
 package se.alipsa.grade.code.groovytab;
 
-import io.github.classgraph.*;
+import javafx.application.Platform;
 import javafx.scene.control.ContextMenu;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.fxmisc.richtext.model.PlainTextChange;
+import org.fxmisc.richtext.model.StyleSpan;
 import org.fxmisc.richtext.model.StyleSpans;
 import org.fxmisc.richtext.model.StyleSpansBuilder;
+import org.fxmisc.richtext.model.TwoDimensional.Bias;
 import se.alipsa.grade.Grade;
 import se.alipsa.grade.code.CodeComponent;
 import se.alipsa.grade.code.CodeTextArea;
+import se.alipsa.grade.code.IncrementalHighlighter;
+import se.alipsa.grade.console.ClassIndex;
 
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntUnaryOperator;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -20,9 +29,29 @@ import static se.alipsa.grade.menu.GlobalOptions.ADD_IMPORTS;
 
 public class GroovyTextArea extends CodeTextArea {
 
+  private static final Logger log = LogManager.getLogger(GroovyTextArea.class);
+
   TreeSet<String> contextObjects = new TreeSet<>();
 
   ContextMenu suggestionsPopup = new ContextMenu();
+
+  private static final Set<String> SEMANTIC_STYLES = Set.of(
+      GroovyAstAnalyzer.TYPE, GroovyAstAnalyzer.FIELD, GroovyAstAnalyzer.CLOSURE
+  );
+  /** One thread for all text areas, only the changes for the latest parse matter */
+  private static final ExecutorService SEMANTIC_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "grade-semantic-styles");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private final GroovyParseService parseService = new GroovyParseService(this::modelParsed);
+  /** Incremented for each comparison of the semantic styles so that only the latest one is applied */
+  private long semanticStylesRequest;
+  /**
+   * The semantic tokens styled on each paragraph (see {@link #tokensOf(List)}), null where it is not known, e.g.
+   * since the paragraph was edited or highlighted again
+   */
+  private final List<String> appliedTokens = new ArrayList<>(List.of(""));
   private static final String[] KEYWORDS = new String[]{
           "abstract", "as", "assert",
           "boolean", "break", "byte",
@@ -62,10 +91,12 @@ public class GroovyTextArea extends CodeTextArea {
   );
 
   public GroovyTextArea() {
+    plainTextChanges().subscribe(this::trackAppliedTokens);
   }
 
   public GroovyTextArea(GroovyTab parent) {
     super(parent);
+    plainTextChanges().subscribe(this::trackAppliedTokens);
     addEventHandler(KeyEvent.KEY_PRESSED, e -> {
       if (e.isControlDown()) {
         if (KeyCode.ENTER.equals(e.getCode())) {
@@ -107,6 +138,17 @@ public class GroovyTextArea extends CodeTextArea {
     return String.join("\n", imports) + "\n";
   }
 
+  private static final List<IncrementalHighlighter.BlockDelimiter> BLOCKS = List.of(
+      new IncrementalHighlighter.BlockDelimiter("/*", "*/", "comment"),
+      new IncrementalHighlighter.BlockDelimiter("\"\"\"", "\"\"\"", "string"),
+      new IncrementalHighlighter.BlockDelimiter("'''", "'''", "string")
+  );
+
+  @Override
+  protected List<IncrementalHighlighter.BlockDelimiter> getBlockDelimiters() {
+    return BLOCKS;
+  }
+
   protected final StyleSpans<Collection<String>> computeHighlighting(String text) {
     Matcher matcher = PATTERN.matcher(text);
     int lastKwEnd = 0;
@@ -131,6 +173,219 @@ public class GroovyTextArea extends CodeTextArea {
     return spansBuilder.create();
   }
 
+  @Override
+  protected void textSettled(String text, long version) {
+    parseService.textChanged(text, version);
+  }
+
+  @Override
+  protected void stylesApplied(int fromParagraph, int toParagraph) {
+    GroovyDocumentModel model = parseService.getModel(getTextVersion());
+    if (model == null) {
+      // the syntax highlighting replaced the semantic styles, they are applied again when the text has parsed
+      for (int line = fromParagraph; line < toParagraph && line < appliedTokens.size(); line++) {
+        appliedTokens.set(line, null);
+      }
+      return;
+    }
+    applySemanticStyles(model, fromParagraph, toParagraph);
+  }
+
+  /**
+   * Keep appliedTokens in line with the paragraphs, the edited ones are no longer known
+   */
+  private void trackAppliedTokens(PlainTextChange change) {
+    int paragraph = offsetToPosition(change.getPosition(), Bias.Forward).getMajor();
+    int removed = (int) change.getRemoved().chars().filter(c -> c == '\n').count();
+    int inserted = (int) change.getInserted().chars().filter(c -> c == '\n').count();
+    if (paragraph + removed >= appliedTokens.size()
+        || appliedTokens.size() - removed + inserted != getParagraphs().size()) {
+      // out of step (e.g. text set before we listened), nothing is known
+      appliedTokens.clear();
+      appliedTokens.addAll(Collections.nCopies(getParagraphs().size(), null));
+      return;
+    }
+    List<String> edited = appliedTokens.subList(paragraph, Math.min(paragraph + removed + 1, appliedTokens.size()));
+    edited.clear();
+    edited.addAll(Collections.nCopies(inserted + 1, null));
+  }
+
+  private void modelParsed(GroovyDocumentModel model) {
+    // the text might have changed again while parsing, the positions in the model would then be off
+    if (model.getVersion() == getTextVersion()) {
+      scheduleSemanticStyles(model);
+    }
+  }
+
+  /**
+   * Find the paragraphs whose semantic tokens differ from the ones they are styled with on a background thread,
+   * then restyle only those if the text has not changed since
+   */
+  private void scheduleSemanticStyles(GroovyDocumentModel model) {
+    long request = ++semanticStylesRequest;
+    List<String> applied = new ArrayList<>(appliedTokens);
+    CompletableFuture.supplyAsync(() -> changedLines(model, applied), SEMANTIC_EXECUTOR)
+        .whenComplete((ranges, e) -> Platform.runLater(() -> {
+          if (request != semanticStylesRequest) {
+            return;
+          }
+          if (e != null) {
+            log.warn("Failed to compare semantic styles", e);
+          } else if (model.getVersion() == getTextVersion()) {
+            for (int[] range : ranges) {
+              applySemanticStyles(model, range[0], range[1]);
+            }
+          }
+        }));
+  }
+
+  /**
+   * @param applied the tokens styled on each paragraph when the text had the version of the model
+   * @return the ranges of lines, from (inclusive) to (exclusive), whose tokens have changed
+   */
+  private static List<int[]> changedLines(GroovyDocumentModel model, List<String> applied) {
+    List<int[]> ranges = new ArrayList<>();
+    int[] range = null;
+    for (int line = 0; line < applied.size(); line++) {
+      String previous = applied.get(line);
+      boolean changed = previous == null || !previous.equals(tokensOf(model.getTokens(line, line + 1)));
+      if (changed && range != null && range[1] == line) {
+        range[1] = line + 1;
+      } else if (changed) {
+        range = new int[]{line, line + 1};
+        ranges.add(range);
+      }
+    }
+    return ranges;
+  }
+
+  /**
+   * @return a description of the tokens of a line to tell if they have changed
+   */
+  private static String tokensOf(List<GroovyDocumentModel.SemanticToken> tokens) {
+    if (tokens.isEmpty()) {
+      return "";
+    }
+    StringBuilder sb = new StringBuilder();
+    for (GroovyDocumentModel.SemanticToken token : tokens) {
+      sb.append(token.getFrom()).append('-').append(token.getTo()).append(token.getStyleClass()).append(';');
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Apply the semantic styles of a few (e.g. just highlighted or changed) paragraphs
+   */
+  private void applySemanticStyles(GroovyDocumentModel model, int fromParagraph, int toParagraph) {
+    toParagraph = Math.min(toParagraph, getParagraphs().size());
+    if (fromParagraph >= toParagraph) {
+      return;
+    }
+    int start = getAbsolutePosition(fromParagraph, 0);
+    int end = toParagraph >= getParagraphs().size() ? getLength() : getAbsolutePosition(toParagraph, 0);
+    StyleSpans<Collection<String>> spans = semanticStyles(model, fromParagraph, toParagraph,
+        getStyleSpans(start, end), line -> getAbsolutePosition(line, 0) - start);
+    if (spans != null) {
+      setStyleSpans(start, spans);
+    }
+    for (int line = fromParagraph; line < toParagraph && line < appliedTokens.size(); line++) {
+      appliedTokens.set(line, tokensOf(model.getTokens(line, line + 1)));
+    }
+  }
+
+  /**
+   * Put the semantic styles on top of the syntax highlighting, only where the syntax highlighting found nothing
+   * (so e.g. a primitive type stays a keyword). Semantic styles from earlier versions are removed.
+   *
+   * @param current the styles of the lines, starting at the first one
+   * @param lineStart the offset of a line relative to the start of the first one
+   * @return the new styles of the lines or null if there is nothing to change
+   */
+  private static StyleSpans<Collection<String>> semanticStyles(GroovyDocumentModel model, int fromLine, int toLine,
+                                                               StyleSpans<Collection<String>> current,
+                                                               IntUnaryOperator lineStart) {
+    List<GroovyDocumentModel.SemanticToken> tokens = model.getTokens(fromLine, toLine);
+    if (tokens.isEmpty() && !hasSemanticStyle(current)) {
+      return null;
+    }
+    StyleSpansBuilder<Collection<String>> builder = new StyleSpansBuilder<>();
+    int pos = 0;
+    int t = 0;
+    int unstyledStart = -1;
+    for (StyleSpan<Collection<String>> span : current) {
+      Collection<String> style = hasSemanticStyle(span.getStyle()) ? Collections.emptyList() : span.getStyle();
+      if (style.isEmpty()) {
+        // adjacent unstyled spans (e.g. where an old semantic style was) are one gap for the tokens
+        if (unstyledStart < 0) {
+          unstyledStart = pos;
+        }
+      } else {
+        if (unstyledStart >= 0) {
+          t = addUnstyled(builder, tokens, t, lineStart, unstyledStart, pos);
+          unstyledStart = -1;
+        }
+        builder.add(style, span.getLength());
+      }
+      pos += span.getLength();
+    }
+    if (unstyledStart >= 0) {
+      addUnstyled(builder, tokens, t, lineStart, unstyledStart, pos);
+    }
+    return pos == 0 ? null : builder.create();
+  }
+
+  /**
+   * Style the tokens that are entirely within the unstyled text from start to end
+   *
+   * @return the index of the first token after the end
+   */
+  private static int addUnstyled(StyleSpansBuilder<Collection<String>> builder,
+                                 List<GroovyDocumentModel.SemanticToken> tokens, int t,
+                                 IntUnaryOperator lineStart, int start, int end) {
+    int pos = start;
+    for (; t < tokens.size(); t++) {
+      GroovyDocumentModel.SemanticToken token = tokens.get(t);
+      int from = lineStart.applyAsInt(token.getLine()) + token.getFrom();
+      int to = from + token.getTo() - token.getFrom();
+      if (from >= end) {
+        break;
+      }
+      if (from < pos || to > end || to <= from) {
+        // overlaps styled text (or the previous token)
+        continue;
+      }
+      builder.add(Collections.emptyList(), from - pos);
+      builder.add(Collections.singleton(token.getStyleClass()), to - from);
+      pos = to;
+    }
+    builder.add(Collections.emptyList(), end - pos);
+    return t;
+  }
+
+  private static boolean hasSemanticStyle(StyleSpans<Collection<String>> spans) {
+    for (StyleSpan<Collection<String>> span : spans) {
+      if (hasSemanticStyle(span.getStyle())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean hasSemanticStyle(Collection<String> style) {
+    return style.size() == 1 && SEMANTIC_STYLES.contains(style.iterator().next());
+  }
+
+  /**
+   * @return what the last successful parse knows about the caret position, null if the code has never parsed
+   */
+  CompletionContext getCompletionContext() {
+    GroovyDocumentModel model = parseService.getModel();
+    if (model == null) {
+      return null;
+    }
+    return model.contextAt(getCurrentParagraph(), getCaretColumn());
+  }
+
   @Override
   public void autoComplete() {
     String line = getText(getCurrentParagraph());
@@ -184,7 +439,7 @@ public class GroovyTextArea extends CodeTextArea {
         int firstDot = lastWord.indexOf('.');
         String varName = lastWord.substring(0, lastWord.indexOf('.'));
         if (key.equals(varName)){
-          suggestions.putAll(getInstanceMethods(contextObject.getValue(), lastWord.substring(firstDot+1)));
+          suggestions.putAll(getInstanceMethods(contextObject.getValue().getClass(), lastWord.substring(firstDot+1)));
         }
       }
     }
@@ -193,52 +448,67 @@ public class GroovyTextArea extends CodeTextArea {
       return;
     }
 
+    // Then variables declared in the code, they are not in the context until the code has been run
+    ClassLoader cl = Grade.instance().getConsoleComponent().getClassLoader();
+    CompletionContext context = getCompletionContext();
+    if (context != null) {
+      suggestions.putAll(getLocalSuggestions(context, lastWord, cl));
+      if (suggestions.size() > 0) {
+        suggestCompletion(lastWord, suggestions, suggestionsPopup);
+        return;
+      }
+    }
+
     // Else it is probably package or Class related
+    ClassIndex classIndex = consoleComponent.getClassIndex();
+    if (classIndex == null) {
+      console.appendFx("No suggestions available until the session has started", true);
+      return;
+    }
     String searchWord = lastWord;
     boolean endsWithDot = false;
     if (searchWord.endsWith(".")) {
       searchWord = searchWord.substring(0, searchWord.length() -1);
       endsWithDot = true;
     }
-    ClassLoader cl = Grade.instance().getConsoleComponent().getClassLoader();
     try {
       Class<?> clazz = cl.loadClass(searchWord);
       suggestions.putAll(getStaticMethods(clazz));
     } catch (ClassNotFoundException e) {
-      try (ScanResult scanResult = new ClassGraph().enableClassInfo().addClassLoader(cl).scan()) {
-        String finalSearchWord = searchWord;
-        List<? extends Class<?>> exactMatches = scanResult.getAllClasses().stream()
-            .filter(ci -> ci.getSimpleName().equals(finalSearchWord)).map(ClassInfo::loadClass)
-            .toList();
-        if (exactMatches.size() == 1) {
+      String finalSearchWord = searchWord;
+      List<String> exactMatches = classIndex.findClasses(finalSearchWord);
+      if (exactMatches.size() == 1) {
+        try {
           String prefix = endsWithDot ? "" : ".";
+          Class<?> clazz = cl.loadClass(exactMatches.get(0));
           lastWord = endsWithDot ? lastWord : lastWord + ".";
-          suggestions.putAll(getStaticMethods(exactMatches.get(0), prefix));
-        } else if (exactMatches.size() > 1){
-          console.appendWarningFx("Multiple matches for this class detected, cannot determine which one is meant");
-          return;
-        } else {
-          List<String> possiblePackages = scanResult.getPackageInfo().stream()
-              .map(PackageInfo::getName)
-              .filter(name -> name.startsWith(finalSearchWord))
-              .toList();
-          if (possiblePackages.size() > 0) {
-            Map<String, Boolean> packages = new TreeMap<>();
-            lastWord = endsWithDot ? lastWord : lastWord + ".";
-            for (String pkg : possiblePackages) {
-              String suggestion = pkg.substring(finalSearchWord.length());
-              if (endsWithDot && suggestion.startsWith(".")) {
-                suggestion = suggestion.substring(1);
-              }
-              packages.put(suggestion, Boolean.FALSE);
+          suggestions.putAll(getStaticMethods(clazz, prefix));
+        } catch (ClassNotFoundException | LinkageError ex) {
+          log.debug("Failed to load indexed class {}", exactMatches.get(0), ex);
+        }
+      } else if (exactMatches.size() > 1){
+        console.appendWarningFx("Multiple matches for this class detected, cannot determine which one is meant");
+        return;
+      } else {
+        List<String> possiblePackages = classIndex.findPackagesStartingWith(finalSearchWord);
+        if (possiblePackages.size() > 0) {
+          Map<String, Boolean> packages = new TreeMap<>();
+          lastWord = endsWithDot ? lastWord : lastWord + ".";
+          for (String pkg : possiblePackages) {
+            String suggestion = pkg.substring(finalSearchWord.length());
+            if (endsWithDot && suggestion.startsWith(".")) {
+              suggestion = suggestion.substring(1);
             }
-            suggestions.putAll(packages);
+            packages.put(suggestion, Boolean.FALSE);
           }
+          suggestions.putAll(packages);
         }
       }
     }
     if (suggestions.size() > 0) {
       suggestCompletion(lastWord, suggestions, suggestionsPopup);
+    } else if (!classIndex.isComplete()) {
+      console.appendFx("No matches found for " + searchWord + " (classes are still being indexed)", true);
     } else {
       console.appendFx("No matches found for " + searchWord, true);
     }
@@ -247,34 +517,40 @@ public class GroovyTextArea extends CodeTextArea {
   private Map<String, Boolean> getStaticMethods(Class<?> clazz, String... prefixOpt) {
     String prefix = prefixOpt.length > 0 ? prefixOpt[0] : "";
     Map<String, Boolean> staticMethods = new TreeMap<>();
-    for(Method method : clazz.getMethods()) {
-      //Grade.instance().getConsoleComponent().getConsole().appendFx(method.getName() + " and startWith '" + start + "'");
-      if ( Modifier.isStatic(method.getModifiers())) {
-        Boolean hasParams = method.getParameterCount() > 0;
-        String suggestion = method.getName() + "()";
-        if (Boolean.TRUE.equals(staticMethods.get(suggestion))) {
-          hasParams = Boolean.TRUE;
-        }
-        staticMethods.put(prefix + suggestion, hasParams);
-      }
-    }
+    MemberTable.forClass(clazz).getStaticMembers("").forEach((name, hasParams) ->
+        staticMethods.put(prefix + name, hasParams));
     return staticMethods;
   }
 
-  private Map<String, Boolean> getInstanceMethods(Object obj, String start) {
-    Map<String, Boolean> instanceMethods = new TreeMap<>();
-    for(Method method : obj.getClass().getMethods()) {
-      //Grade.instance().getConsoleComponent().getConsole().appendFx(method.getName() + " and startWith '" + start + "'");
-      if ( !Modifier.isStatic(method.getModifiers()) && ("".equals(start) || method.getName().startsWith(start))) {
-        Boolean hasParams = method.getParameterCount() > 0;
-        String suggestion = method.getName() + "()";
-        if (Boolean.TRUE.equals(instanceMethods.get(suggestion))) {
-          hasParams = Boolean.TRUE;
+  private Map<String, Boolean> getLocalSuggestions(CompletionContext context, String lastWord, ClassLoader cl) {
+    Map<String, Boolean> suggestions = new TreeMap<>();
+    int firstDot = lastWord.indexOf('.');
+    if (firstDot == -1) {
+      for (String name : context.getLocals().keySet()) {
+        if (name.equals(lastWord)) {
+          suggestions.put(".", Boolean.FALSE);
+        } else if (name.startsWith(lastWord)) {
+          suggestions.put(name, Boolean.FALSE);
         }
-        instanceMethods.put(suggestion, hasParams);
       }
+      return suggestions;
     }
-    return instanceMethods;
+    String varName = lastWord.substring(0, firstDot);
+    for (String className : context.getReceiverTypeCandidates(varName)) {
+      try {
+        Class<?> clazz = cl.loadClass(className);
+        suggestions.putAll(getInstanceMethods(clazz, lastWord.substring(firstDot + 1)));
+        break;
+      } catch (ClassNotFoundException e) {
+        // try the next candidate
+      }
+    }
+    return suggestions;
   }
 
+  private Map<String, Boolean> getInstanceMethods(Class<?> clazz, String start) {
+    return MemberTable.forClass(clazz).getInstanceMembers(start);
+  }
+
+
 }
@@ -0,0 +1,113 @@
+package se.alipsa.grade.code.groovytab;
+
+import groovy.lang.GroovySystem;
+import groovy.lang.MetaClass;
+import groovy.lang.MetaMethod;
+import groovy.lang.MetaProperty;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+/**
+ * The methods and properties that can be called on instances of a class and on the class itself, for completion.
+ * Besides the methods of the class this includes the methods Groovy adds (DefaultGroovyMethods and extension
+ * modules) e.g. each, collect and findAll. Tables are built once per class and kept in a weak map so they go
+ * away together with the class loader of the session.
+ */
+public class MemberTable {
+
+  private static final Logger log = LogManager.getLogger(MemberTable.class);
+  private static final Map<Class<?>, MemberTable> tables = Collections.synchronizedMap(new WeakHashMap<>());
+
+  private final Members instanceMembers;
+  private final Members staticMembers;
+
+  private MemberTable(Class<?> clazz) {
+    long start = System.nanoTime();
+    Map<String, Boolean> instance = new TreeMap<>();
+    Map<String, Boolean> statics = new TreeMap<>();
+    for (Method method : clazz.getMethods()) {
+      add(Modifier.isStatic(method.getModifiers()) ? statics : instance, method.getName() + "()",
+          method.getParameterCount() > 0);
+    }
+    try {
+      MetaClass metaClass = GroovySystem.getMetaClassRegistry().getMetaClass(clazz);
+      for (MetaMethod method : metaClass.getMetaMethods()) {
+        add(method.isStatic() ? statics : instance, method.getName() + "()",
+            method.getParameterTypes().length > 0);
+      }
+      for (MetaProperty property : metaClass.getProperties()) {
+        if (!"class".equals(property.getName())) {
+          Map<String, Boolean> members = Modifier.isStatic(property.getModifiers()) ? statics : instance;
+          members.putIfAbsent(property.getName(), Boolean.FALSE);
+        }
+      }
+    } catch (RuntimeException | LinkageError e) {
+      log.debug("Failed to get the Groovy methods of {}, only the methods of the class will be suggested", clazz, e);
+    }
+    instanceMembers = new Members(instance);
+    staticMembers = new Members(statics);
+    log.debug("Member table for {} built in {} ms", clazz.getName(), (System.nanoTime() - start) / 1_000_000);
+  }
+
+  public static MemberTable forClass(Class<?> clazz) {
+    return tables.computeIfAbsent(clazz, MemberTable::new);
+  }
+
+  /**
+   * @return the methods (as name()) and properties starting with the prefix mapped to whether they take parameters
+   */
+  public SortedMap<String, Boolean> getInstanceMembers(String prefix) {
+    return instanceMembers.startingWith(prefix);
+  }
+
+  /**
+   * @return the static methods (as name()) and properties starting with the prefix mapped to whether they take
+   * parameters
+   */
+  public SortedMap<String, Boolean> getStaticMembers(String prefix) {
+    return staticMembers.startingWith(prefix);
+  }
+
+  private static void add(Map<String, Boolean> members, String name, boolean hasParams) {
+    // overloaded methods, if any of them take parameters the caret should end up inside the parenthesis
+    members.merge(name, hasParams, Boolean::logicalOr);
+  }
+
+  /**
+   * Member names in sorted arrays, a prefix is found with a binary search
+   */
+  private static class Members {
+    private final String[] names;
+    private final boolean[] hasParams;
+
+    Members(Map<String, Boolean> members) {
+      names = members.keySet().toArray(new String[0]);
+      hasParams = new boolean[names.length];
+      int i = 0;
+      for (Boolean value : members.values()) {
+        hasParams[i++] = value;
+      }
+    }
+
+    SortedMap<String, Boolean> startingWith(String prefix) {
+      int idx = Arrays.binarySearch(names, prefix);
+      if (idx < 0) {
+        idx = -idx - 1;
+      }
+      SortedMap<String, Boolean> result = new TreeMap<>();
+      for (int i = idx; i < names.length && names[i].startsWith(prefix); i++) {
+        result.put(names[i], hasParams[i]);
+      }
+      return result;
+    }
+  }
+}
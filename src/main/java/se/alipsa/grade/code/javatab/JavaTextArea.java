@@ -3,9 +3,11 @@ package se.alipsa.grade.code.javatab;
 import org.fxmisc.richtext.model.StyleSpans;
 import org.fxmisc.richtext.model.StyleSpansBuilder;
 import se.alipsa.grade.code.CodeTextArea;
+import se.alipsa.grade.code.IncrementalHighlighter;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -46,6 +48,16 @@ public class JavaTextArea extends CodeTextArea {
     super(parent);
   }
 
+  private static final List<IncrementalHighlighter.BlockDelimiter> BLOCKS = List.of(
+      new IncrementalHighlighter.BlockDelimiter("/*", "*/", "comment"),
+      new IncrementalHighlighter.BlockDelimiter("\"\"\"", "\"\"\"", "string")
+  );
+
+  @Override
+  protected List<IncrementalHighlighter.BlockDelimiter> getBlockDelimiters() {
+    return BLOCKS;
+  }
+
   protected final StyleSpans<Collection<String>> computeHighlighting(String text) {
     Matcher matcher = PATTERN.matcher(text);
     int lastKwEnd = 0;
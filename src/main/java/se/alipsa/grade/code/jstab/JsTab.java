@@ -1,6 +1,5 @@
 package se.alipsa.grade.code.jstab;
 
-import javafx.application.Platform;
 import javafx.concurrent.Task;
 import javafx.scene.control.Button;
 import javafx.scene.control.CheckBox;
@@ -100,12 +99,15 @@ public class JsTab extends TextAreaTab {
             PrintWriter outputWriter = new PrintWriter(out);
             PrintWriter errWriter = new PrintWriter(err)
         ) {
-          Platform.runLater(() -> console.append(title, true));
+          console.appendFx(title, true);
           ScriptContext context = engine.getContext();
           context.setWriter(outputWriter);
           context.setErrorWriter(errWriter);
 
           Object result = engine.eval(content);
+          // publish partial lines the script printed so they come before the result
+          outputWriter.flush();
+          errWriter.flush();
           if (result != null) {
             gui.getConsoleComponent().getConsole().appendFx("[result] " + result, true);
           }
@@ -135,9 +137,7 @@ public class JsTab extends TextAreaTab {
       ExceptionAlert.showAlert(ex.getMessage(), ex);
       gui.getConsoleComponent().promptAndScrollToEnd();
     });
-    Thread thread = new Thread(task);
-    thread.setDaemon(false);
-    consoleComponent.startThreadWhenOthersAreFinished(thread, "javascript");
+    consoleComponent.getExecutor().submit(task, "Run javascript: " + title);
   }
 
   @Override
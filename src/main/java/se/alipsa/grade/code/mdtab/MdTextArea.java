@@ -3,10 +3,12 @@ package se.alipsa.grade.code.mdtab;
 import org.fxmisc.richtext.model.StyleSpans;
 import org.fxmisc.richtext.model.StyleSpansBuilder;
 import se.alipsa.grade.code.CodeTextArea;
+import se.alipsa.grade.code.IncrementalHighlighter;
 import se.alipsa.grade.code.TabTextArea;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -65,6 +67,15 @@ public class MdTextArea extends CodeTextArea implements TabTextArea {
       super(parent);
    }
 
+   private static final List<IncrementalHighlighter.BlockDelimiter> BLOCKS = List.of(
+         new IncrementalHighlighter.BlockDelimiter("```", "```", "blockcode")
+   );
+
+   @Override
+   protected List<IncrementalHighlighter.BlockDelimiter> getBlockDelimiters() {
+      return BLOCKS;
+   }
+
    @Override
    protected StyleSpans<Collection<String>> computeHighlighting(String text) {
       Matcher matcher = PATTERN.matcher(text);
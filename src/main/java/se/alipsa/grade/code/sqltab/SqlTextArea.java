@@ -6,6 +6,7 @@ import javafx.scene.input.KeyEvent;
 import org.fxmisc.richtext.model.StyleSpans;
 import org.fxmisc.richtext.model.StyleSpansBuilder;
 import se.alipsa.grade.code.CodeTextArea;
+import se.alipsa.grade.code.IncrementalHighlighter;
 
 import java.util.*;
 import java.util.regex.Matcher;
@@ -143,6 +144,15 @@ public class SqlTextArea extends CodeTextArea {
   }
 
 
+  private static final List<IncrementalHighlighter.BlockDelimiter> BLOCKS = List.of(
+      new IncrementalHighlighter.BlockDelimiter("/*", "*/", "comment")
+  );
+
+  @Override
+  protected List<IncrementalHighlighter.BlockDelimiter> getBlockDelimiters() {
+    return BLOCKS;
+  }
+
   @Override
   protected StyleSpans<Collection<String>> computeHighlighting(String text) {
     Matcher matcher = PATTERN.matcher(text);
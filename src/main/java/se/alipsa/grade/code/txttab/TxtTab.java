@@ -1,23 +1,107 @@
 package se.alipsa.grade.code.txttab;
 
+import javafx.application.Platform;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.fxmisc.flowless.VirtualizedScrollPane;
+import org.jetbrains.annotations.NotNull;
 import se.alipsa.grade.Grade;
 import se.alipsa.grade.code.CodeType;
 import se.alipsa.grade.code.TextAreaTab;
 import se.alipsa.grade.code.CodeTextArea;
+import se.alipsa.grade.utils.LineSourceView;
+import se.alipsa.grade.utils.MappedTextFile;
+import se.alipsa.grade.utils.TikaUtils;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 
 public class TxtTab extends TextAreaTab {
 
+  private static final Logger log = LogManager.getLogger(TxtTab.class);
+  /** Files larger than this are memory mapped and shown read only instead of being loaded into the editor */
+  public static final long LARGE_FILE_THRESHOLD = 20 * 1024 * 1024;
+  private static final int CHARSET_SAMPLE_SIZE = 64 * 1024;
+
   private final TxtTextArea txtTextArea;
+  private final VirtualizedScrollPane<TxtTextArea> txtPane;
+  private MappedTextFile mappedFile;
+  private LineSourceView largeFileView;
 
   public TxtTab(String title, Grade gui) {
     super(gui, CodeType.TXT);
     setTitle(title);
     txtTextArea = new TxtTextArea(this);
-    VirtualizedScrollPane<TxtTextArea> txtPane = new VirtualizedScrollPane<>(txtTextArea);
+    txtPane = new VirtualizedScrollPane<>(txtTextArea);
     pane.setCenter(txtPane);
+    setOnClosed(e -> closeMappedFile());
+  }
+
+  /**
+   * View the file read only without loading it into memory, the lines are read from a memory mapping of the file
+   * as they are scrolled into view.
+   */
+  public void loadLargeFile(@NotNull File file) throws IOException {
+    setFile(file);
+    closeMappedFile();
+    Charset charset = detectCharset(file);
+    mappedFile = new MappedTextFile(file, charset, () -> Platform.runLater(this::refreshLargeFileView));
+    largeFileView = new LineSourceView(mappedFile);
+    txtTextArea.setEditable(false);
+    pane.setCenter(largeFileView);
+    log.info("{} is {} bytes, showing it read only", file, file.length());
+  }
+
+  private Charset detectCharset(File file) throws IOException {
+    try (InputStream in = new FileInputStream(file)) {
+      byte[] sample = in.readNBytes(CHARSET_SAMPLE_SIZE);
+      Charset charset = TikaUtils.instance().detectCharset(sample, file.getName());
+      byte[] lineFeed = "\n".getBytes(charset);
+      if (lineFeed.length != 1 || lineFeed[0] != '\n') {
+        // e.g. UTF-16, lines cannot be found by looking for single line feed bytes
+        log.warn("{} is not supported for large files, showing {} as ISO-8859-1", charset, file);
+        return StandardCharsets.ISO_8859_1;
+      }
+      return charset;
+    }
+  }
+
+  private void refreshLargeFileView() {
+    if (largeFileView != null && mappedFile != null) {
+      largeFileView.refresh();
+    }
+  }
+
+  private void closeMappedFile() {
+    if (mappedFile != null) {
+      mappedFile.close();
+      mappedFile = null;
+      largeFileView = null;
+    }
+  }
+
+  @Override
+  public boolean isReadOnly() {
+    return mappedFile != null;
+  }
+
+  @Override
+  public void loadFromFile(@NotNull File file) throws IOException {
+    if (file.length() > LARGE_FILE_THRESHOLD) {
+      loadLargeFile(file);
+    } else {
+      if (mappedFile != null) {
+        // the file has shrunk enough to be edited
+        closeMappedFile();
+        txtTextArea.setEditable(true);
+        pane.setCenter(txtPane);
+      }
+      super.loadFromFile(file);
+    }
   }
 
   @Override
@@ -3,10 +3,12 @@ package se.alipsa.grade.code.xmltab;
 import org.fxmisc.richtext.model.StyleSpans;
 import org.fxmisc.richtext.model.StyleSpansBuilder;
 import se.alipsa.grade.code.CodeTextArea;
+import se.alipsa.grade.code.IncrementalHighlighter;
 import se.alipsa.grade.code.TextAreaTab;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -17,6 +19,10 @@ public class XmlTextArea extends CodeTextArea {
 
   private static final Pattern ATTRIBUTES = Pattern.compile("(\\w+\\h*)(=)(\\h*\"[^\"]+\")");
 
+  /** The start of a tag that is not closed on the same line */
+  private static final Pattern TAG_START = Pattern.compile("(</?\\h*)((\\w+|\\.)+)");
+  private static final Pattern TAG_END = Pattern.compile("\\h*/?>$");
+
   private static final int GROUP_OPEN_BRACKET = 2;
   private static final int GROUP_ELEMENT_NAME = 3;
   private static final int GROUP_ATTRIBUTES_SECTION = 4;
@@ -53,6 +59,17 @@ public class XmlTextArea extends CodeTextArea {
      */
   }
 
+  private static final List<IncrementalHighlighter.BlockDelimiter> BLOCKS = List.of(
+      new IncrementalHighlighter.BlockDelimiter("<!--", "-->", "xml_comment"),
+      // e.g. a start tag with one attribute per line
+      new IncrementalHighlighter.BlockDelimiter("<", ">", XmlTextArea::computeTagHighlighting)
+  );
+
+  @Override
+  protected List<IncrementalHighlighter.BlockDelimiter> getBlockDelimiters() {
+    return BLOCKS;
+  }
+
   protected final StyleSpans<Collection<String>> computeHighlighting(String text) {
 
     Matcher matcher = XML_TAG.matcher(text);
@@ -96,4 +113,32 @@ public class XmlTextArea extends CodeTextArea {
     spansBuilder.add(Collections.emptyList(), text.length() - lastKwEnd);
     return spansBuilder.create();
   }
+
+  /**
+   * Highlight the part of a tag that is on one line: the start of it, attributes and the end of it
+   */
+  static StyleSpans<Collection<String>> computeTagHighlighting(String text) {
+    StyleSpansBuilder<Collection<String>> spansBuilder = new StyleSpansBuilder<>();
+    int start = 0;
+    Matcher tagStart = TAG_START.matcher(text);
+    if (tagStart.lookingAt()) {
+      spansBuilder.add(Collections.singleton("xml_tagmark"), tagStart.end(1));
+      spansBuilder.add(Collections.singleton("xml_anytag"), tagStart.end(2) - tagStart.end(1));
+      start = tagStart.end();
+    }
+    Matcher tagEnd = TAG_END.matcher(text);
+    int end = tagEnd.find(start) ? tagEnd.start() : text.length();
+    int lastKwEnd = start;
+    Matcher amatcher = ATTRIBUTES.matcher(text).region(start, end);
+    while (amatcher.find()) {
+      spansBuilder.add(Collections.emptyList(), amatcher.start() - lastKwEnd);
+      spansBuilder.add(Collections.singleton("xml_attribute"), amatcher.end(GROUP_ATTRIBUTE_NAME) - amatcher.start(GROUP_ATTRIBUTE_NAME));
+      spansBuilder.add(Collections.singleton("xml_tagmark"), amatcher.end(GROUP_EQUAL_SYMBOL) - amatcher.end(GROUP_ATTRIBUTE_NAME));
+      spansBuilder.add(Collections.singleton("xml_avalue"), amatcher.end(GROUP_ATTRIBUTE_VALUE) - amatcher.end(GROUP_EQUAL_SYMBOL));
+      lastKwEnd = amatcher.end();
+    }
+    spansBuilder.add(Collections.emptyList(), end - lastKwEnd);
+    spansBuilder.add(Collections.singleton("xml_tagmark"), text.length() - end);
+    return spansBuilder.create();
+  }
 }
@@ -4,24 +4,50 @@ import org.jetbrains.annotations.NotNull;
 
 import java.io.Writer;
 
+/**
+ * Writer that sends its output to the console through the {@link ConsoleOutputPipeline}.
+ * Output is collected per line (or until the batch is full) so that a chatty script does not result
+ * in one queued chunk per write call.
+ */
 public class AppenderWriter extends Writer {
 
-    private final ConsoleTextArea console;
+    static final int BATCH_SIZE = 8192;
+
+    private final ConsoleOutputPipeline pipeline;
+    private final StringBuilder batch = new StringBuilder();
     private StringBuilder text = null;
 
     public AppenderWriter(ConsoleTextArea console, boolean... cacheText) {
-        this.console = console;
+        this.pipeline = console.getOutputPipeline();
         if (cacheText.length > 0 && cacheText[0]) {
             this.text = new StringBuilder();
         }
     }
 
     @Override
-    public void write(char @NotNull [] cbuf, int off, int len) {
-        String content = new String(cbuf, off, len);
-        console.appendFx(content);
+    public synchronized void write(char @NotNull [] cbuf, int off, int len) {
+        batch.append(cbuf, off, len);
         if (text != null) {
-            text.append(content);
+            text.append(cbuf, off, len);
+        }
+        if (batch.length() >= BATCH_SIZE || containsNewline(cbuf, off, len)) {
+            publish();
+        }
+    }
+
+    static boolean containsNewline(char[] cbuf, int off, int len) {
+        for (int i = off + len - 1; i >= off; i--) {
+            if (cbuf[i] == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void publish() {
+        if (batch.length() > 0) {
+            pipeline.publish(batch.toString());
+            batch.setLength(0);
         }
     }
 
@@ -30,10 +56,12 @@ public class AppenderWriter extends Writer {
     }
 
     @Override
-    public void flush() {
+    public synchronized void flush() {
+        publish();
     }
 
     @Override
     public void close() {
+        flush();
     }
 }
@@ -0,0 +1,36 @@
+package se.alipsa.grade.console;
+
+import java.util.Map;
+
+/**
+ * Defines the classes of one compiled script from their bytecode. The classes of the script are always defined
+ * here (child first) so that a script that redeclares a class gets its own version rather than one that an
+ * earlier script registered with the session loader.
+ */
+class BytecodeClassLoader extends ClassLoader {
+
+  private final Map<String, byte[]> bytecode;
+
+  BytecodeClassLoader(ClassLoader parent, Map<String, byte[]> bytecode) {
+    super(parent);
+    this.bytecode = bytecode;
+  }
+
+  @Override
+  protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+    byte[] bytes = bytecode.get(name);
+    if (bytes == null) {
+      return super.loadClass(name, resolve);
+    }
+    synchronized (getClassLoadingLock(name)) {
+      Class<?> clazz = findLoadedClass(name);
+      if (clazz == null) {
+        clazz = defineClass(name, bytes, 0, bytes.length);
+      }
+      if (resolve) {
+        resolveClass(clazz);
+      }
+      return clazz;
+    }
+  }
+}
@@ -0,0 +1,356 @@
+package se.alipsa.grade.console;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import se.alipsa.grade.utils.StringUtils;
+import se.alipsa.grade.utils.gradle.GradleUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The classes and packages visible through a class loader, for completion. The index is built in the background
+ * by reading the jar directories (no classes are loaded) and the class names of each jar are stored under the
+ * Grade cache dir keyed by the path, size and last modified time of the jar, so that a jar is only read once.
+ * Jars added to the class loader later (by a connection or by @Grab) are picked up the next time the index is used.
+ */
+public class ClassIndex {
+
+  private static final Logger log = LogManager.getLogger(ClassIndex.class);
+  private static final int FORMAT_VERSION = 1;
+  private static final int MAX_STORED = 5000;
+  private static final String SUFFIX = ".classes";
+
+  private final ClassLoader classLoader;
+  private final File storeDir;
+  /** Simple class name to fully qualified names, sorted so that a prefix is a range of keys */
+  private final ConcurrentSkipListMap<String, List<String>> classesBySimpleName = new ConcurrentSkipListMap<>();
+  private final ConcurrentSkipListSet<String> packages = new ConcurrentSkipListSet<>();
+  private final Set<String> indexedEntries = ConcurrentHashMap.newKeySet();
+  private final AtomicBoolean refreshing = new AtomicBoolean();
+  /** The stamp of the class path when everything on it had been indexed, see {@link #classpathStamp()} */
+  private volatile String indexedStamp;
+
+  /**
+   * @param storeDir where to store the class names of each jar, may be null
+   */
+  public ClassIndex(ClassLoader classLoader, File storeDir) {
+    this.classLoader = classLoader;
+    this.storeDir = storeDir;
+  }
+
+  public static File defaultStoreDir() {
+    File dir = new File(GradleUtils.getCacheDir(), "classindex");
+    if (!dir.exists() && !dir.mkdirs()) {
+      throw new RuntimeException("Failed to create class index dir " + dir);
+    }
+    return dir;
+  }
+
+  /**
+   * Index whatever has been added to the class loader since the last time, in the background
+   */
+  public void refreshAsync() {
+    if (!refreshing.compareAndSet(false, true)) {
+      return;
+    }
+    Thread thread = new Thread(() -> {
+      try {
+        // entries might be added while we index so keep going until there is nothing new
+        while (true) {
+          String stamp = classpathStamp();
+          List<File> entries = unindexedEntries();
+          if (entries.isEmpty()) {
+            indexedStamp = stamp;
+            break;
+          }
+          long start = System.currentTimeMillis();
+          entries.forEach(this::index);
+          log.debug("Indexed {} classpath entries in {} ms, {} class names", entries.size(),
+              System.currentTimeMillis() - start, classesBySimpleName.size());
+        }
+        prune();
+      } catch (RuntimeException e) {
+        log.warn("Failed to index classes", e);
+      } finally {
+        refreshing.set(false);
+      }
+    }, "grade-class-indexer");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * @return true if every entry on the classpath has been indexed, if not an update is started
+   */
+  public boolean isComplete() {
+    if (refreshing.get()) {
+      return false;
+    }
+    if (classpathStamp().equals(indexedStamp)) {
+      return true;
+    }
+    refreshAsync();
+    return false;
+  }
+
+  /**
+   * Urls are only ever added to a class loader so the number of them in each loader of the chain is enough to
+   * tell if the class path has changed, without looking at the entries themselves on every lookup
+   */
+  private String classpathStamp() {
+    StringBuilder sb = new StringBuilder();
+    for (ClassLoader cl = classLoader; cl != null; cl = cl.getParent()) {
+      if (cl instanceof URLClassLoader) {
+        sb.append(System.identityHashCode(cl)).append(':').append(((URLClassLoader) cl).getURLs().length).append(',');
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @return the fully qualified names of the classes with the simple name
+   */
+  public List<String> findClasses(String simpleName) {
+    isComplete();
+    return classesBySimpleName.getOrDefault(simpleName, List.of());
+  }
+
+  /**
+   * @return the fully qualified names of the classes whose simple name starts with the prefix
+   */
+  public List<String> findClassesStartingWith(String prefix, int max) {
+    isComplete();
+    List<String> result = new ArrayList<>();
+    for (List<String> names : classesBySimpleName.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+      for (String name : names) {
+        if (result.size() >= max) {
+          return result;
+        }
+        result.add(name);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return the packages (and parent packages) whose name starts with the prefix
+   */
+  public List<String> findPackagesStartingWith(String prefix) {
+    isComplete();
+    return new ArrayList<>(packages.subSet(prefix, prefix + Character.MAX_VALUE));
+  }
+
+  private List<File> unindexedEntries() {
+    List<File> entries = new ArrayList<>();
+    for (File entry : classpathEntries()) {
+      if (!indexedEntries.contains(entry.getAbsolutePath())) {
+        entries.add(entry);
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * @return the jars and dirs of all url class loaders in the chain and the application class path
+   */
+  private Set<File> classpathEntries() {
+    Set<File> entries = new LinkedHashSet<>();
+    for (ClassLoader cl = classLoader; cl != null; cl = cl.getParent()) {
+      if (cl instanceof URLClassLoader) {
+        for (URL url : ((URLClassLoader) cl).getURLs()) {
+          if ("file".equals(url.getProtocol())) {
+            try {
+              entries.add(new File(url.toURI()));
+            } catch (URISyntaxException | IllegalArgumentException e) {
+              log.trace("Not a file url: {}", url);
+            }
+          }
+        }
+      }
+    }
+    String classPath = System.getProperty("java.class.path");
+    if (classPath != null) {
+      Arrays.stream(classPath.split(File.pathSeparator)).filter(s -> !s.isBlank()).map(File::new)
+          .forEach(entries::add);
+    }
+    return entries;
+  }
+
+  private void index(File entry) {
+    List<String> classNames;
+    if (entry.isDirectory()) {
+      // build output dirs change all the time so these are never stored
+      classNames = readDir(entry.toPath());
+    } else if (entry.isFile()) {
+      String key = StringUtils.sha256(entry.getAbsolutePath() + '\0' + entry.length() + '\0' + entry.lastModified());
+      classNames = load(key);
+      if (classNames == null) {
+        classNames = readJar(entry);
+        save(key, classNames);
+      }
+    } else {
+      classNames = List.of();
+    }
+    classNames.forEach(this::add);
+    indexedEntries.add(entry.getAbsolutePath());
+  }
+
+  private void add(String className) {
+    int lastDot = className.lastIndexOf('.');
+    String simpleName = className.substring(Math.max(lastDot, className.lastIndexOf('$')) + 1);
+    classesBySimpleName.merge(simpleName, List.of(className), (existing, added) -> {
+      if (existing.contains(className)) {
+        return existing;
+      }
+      List<String> names = new ArrayList<>(existing);
+      names.addAll(added);
+      return List.copyOf(names);
+    });
+    for (int dot = lastDot; dot > 0; dot = className.lastIndexOf('.', dot - 1)) {
+      if (!packages.add(className.substring(0, dot))) {
+        // the parent packages are already there as well
+        break;
+      }
+    }
+  }
+
+  private List<String> readJar(File jar) {
+    List<String> classNames = new ArrayList<>();
+    try (ZipFile zip = new ZipFile(jar)) {
+      Enumeration<? extends ZipEntry> entries = zip.entries();
+      while (entries.hasMoreElements()) {
+        String className = toClassName(entries.nextElement().getName());
+        if (className != null) {
+          classNames.add(className);
+        }
+      }
+    } catch (IOException e) {
+      log.debug("Failed to read {}", jar, e);
+    }
+    return classNames;
+  }
+
+  private List<String> readDir(Path dir) {
+    List<String> classNames = new ArrayList<>();
+    try (Stream<Path> files = Files.walk(dir)) {
+      files.filter(Files::isRegularFile).forEach(file -> {
+        String className = toClassName(dir.relativize(file).toString().replace(File.separatorChar, '/'));
+        if (className != null) {
+          classNames.add(className);
+        }
+      });
+    } catch (IOException | RuntimeException e) {
+      log.debug("Failed to read {}", dir, e);
+    }
+    return classNames;
+  }
+
+  /**
+   * @return the class name or null if the path is not a class that can be referred to by name
+   */
+  static String toClassName(String path) {
+    if (!path.endsWith(".class") || path.startsWith("META-INF/")) {
+      return null;
+    }
+    String name = path.substring(0, path.length() - ".class".length()).replace('/', '.');
+    if (name.endsWith("module-info") || name.endsWith("package-info")) {
+      return null;
+    }
+    int dollar = name.indexOf('$');
+    while (dollar >= 0) {
+      // anonymous and local classes are named e.g. Foo$1 or Foo$1Bar
+      if (dollar + 1 >= name.length() || Character.isDigit(name.charAt(dollar + 1))) {
+        return null;
+      }
+      dollar = name.indexOf('$', dollar + 1);
+    }
+    return name;
+  }
+
+  private List<String> load(String key) {
+    if (storeDir == null) {
+      return null;
+    }
+    File file = new File(storeDir, key + SUFFIX);
+    if (!file.exists()) {
+      return null;
+    }
+    try {
+      List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+      if (lines.isEmpty() || !String.valueOf(FORMAT_VERSION).equals(lines.get(0))) {
+        return null;
+      }
+      if (!file.setLastModified(System.currentTimeMillis())) {
+        log.trace("Failed to touch {}", file);
+      }
+      return lines.subList(1, lines.size());
+    } catch (IOException e) {
+      log.debug("Failed to read {}", file, e);
+      return null;
+    }
+  }
+
+  private void save(String key, List<String> classNames) {
+    if (storeDir == null) {
+      return;
+    }
+    File file = new File(storeDir, key + SUFFIX);
+    try {
+      File tmp = File.createTempFile(key, ".tmp", storeDir);
+      List<String> lines = new ArrayList<>(classNames.size() + 1);
+      lines.add(String.valueOf(FORMAT_VERSION));
+      lines.addAll(classNames);
+      Files.write(tmp.toPath(), lines, StandardCharsets.UTF_8);
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      log.debug("Failed to store class names in {}", file, e);
+    }
+  }
+
+  /**
+   * Remove the least recently used entries when there are too many
+   */
+  private void prune() {
+    if (storeDir == null) {
+      return;
+    }
+    File[] files = storeDir.listFiles((dir, name) -> name.endsWith(SUFFIX));
+    if (files == null || files.length <= MAX_STORED) {
+      return;
+    }
+    Map<File, Long> lastModified = new HashMap<>();
+    for (File file : files) {
+      lastModified.put(file, file.lastModified());
+    }
+    Arrays.sort(files, Comparator.comparing(lastModified::get));
+    for (int i = 0; i < files.length - MAX_STORED; i++) {
+      if (!files[i].delete()) {
+        log.debug("Failed to delete {}", files[i]);
+      }
+    }
+  }
+}
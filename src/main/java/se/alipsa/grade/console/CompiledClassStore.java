@@ -0,0 +1,147 @@
+package se.alipsa.grade.console;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import se.alipsa.grade.utils.gradle.GradleUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compiled script bytecode stored on disk under the Grade cache dir so that scripts that do not change
+ * (autorun scripts, saved project scripts) do not have to be recompiled after a restart. The key is expected
+ * to cover everything that affects the bytecode (source, Groovy version, compiler configuration, classpath and the
+ * classes the session loader already has).
+ */
+public class CompiledClassStore {
+
+  private static final Logger log = LogManager.getLogger(CompiledClassStore.class);
+  private static final int FORMAT_VERSION = 1;
+  private static final int MAX_ENTRIES = 500;
+  private static final String SUFFIX = ".classes";
+
+  private final File dir;
+
+  public CompiledClassStore(File dir) {
+    this.dir = dir;
+  }
+
+  public static CompiledClassStore createDefault() {
+    File dir = new File(GradleUtils.getCacheDir(), "compiled");
+    if (!dir.exists() && !dir.mkdirs()) {
+      throw new RuntimeException("Failed to create compiled class cache dir " + dir);
+    }
+    return new CompiledClassStore(dir);
+  }
+
+  /**
+   * @return the stored classes or null if there are none (or they could not be read)
+   */
+  public Compiled load(String key) {
+    File file = file(key);
+    if (!file.exists()) {
+      return null;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+      if (in.readInt() != FORMAT_VERSION) {
+        delete(key);
+        return null;
+      }
+      String mainClass = in.readUTF();
+      int count = in.readInt();
+      Map<String, byte[]> bytecode = new LinkedHashMap<>();
+      for (int i = 0; i < count; i++) {
+        String name = in.readUTF();
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        bytecode.put(name, bytes);
+      }
+      // used for pruning, the least recently used entries go first
+      if (!file.setLastModified(System.currentTimeMillis())) {
+        log.trace("Failed to touch {}", file);
+      }
+      return new Compiled(mainClass, bytecode);
+    } catch (IOException e) {
+      log.warn("Failed to read compiled classes from {}, ignoring them", file, e);
+      delete(key);
+      return null;
+    }
+  }
+
+  public void save(String key, Compiled compiled) {
+    File file = file(key);
+    try {
+      File tmp = File.createTempFile(key, ".tmp", dir);
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+        out.writeInt(FORMAT_VERSION);
+        out.writeUTF(compiled.getMainClass());
+        out.writeInt(compiled.getBytecode().size());
+        for (Map.Entry<String, byte[]> entry : compiled.getBytecode().entrySet()) {
+          out.writeUTF(entry.getKey());
+          out.writeInt(entry.getValue().length);
+          out.write(entry.getValue());
+        }
+      }
+      // readers (e.g. another Grade instance) must never see a half written file
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      prune();
+    } catch (IOException e) {
+      log.warn("Failed to store compiled classes in {}", file, e);
+    }
+  }
+
+  public void delete(String key) {
+    File file = file(key);
+    if (file.exists() && !file.delete()) {
+      log.debug("Failed to delete {}", file);
+    }
+  }
+
+  private File file(String key) {
+    return new File(dir, key + SUFFIX);
+  }
+
+  private void prune() {
+    File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+    if (files == null || files.length <= MAX_ENTRIES) {
+      return;
+    }
+    Arrays.sort(files, Comparator.comparingLong(File::lastModified).reversed());
+    for (int i = MAX_ENTRIES; i < files.length; i++) {
+      if (!files[i].delete()) {
+        log.debug("Failed to delete {}", files[i]);
+      }
+    }
+  }
+
+  /**
+   * The bytecode of all classes produced by compiling one script
+   */
+  public static class Compiled {
+    private final String mainClass;
+    private final Map<String, byte[]> bytecode;
+
+    public Compiled(String mainClass, Map<String, byte[]> bytecode) {
+      this.mainClass = mainClass;
+      this.bytecode = bytecode;
+    }
+
+    public String getMainClass() {
+      return mainClass;
+    }
+
+    public Map<String, byte[]> getBytecode() {
+      return bytecode;
+    }
+  }
+}
@@ -0,0 +1,227 @@
+package se.alipsa.grade.console;
+
+import groovy.lang.GroovySystem;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codehaus.groovy.control.CompilationFailedException;
+import org.codehaus.groovy.control.CompilationUnit;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.Phases;
+import org.codehaus.groovy.jsr223.GroovyCompiledScript;
+import org.codehaus.groovy.jsr223.GroovyScriptEngineImpl;
+import org.codehaus.groovy.tools.GroovyClass;
+import se.alipsa.grade.utils.StringUtils;
+
+import javax.script.ScriptException;
+import java.io.File;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compiled script classes keyed by a hash of the script text (which includes the imports), the classpath and the
+ * classes declared by earlier scripts.
+ * Each script is defined in its own child class loader of the session loader so that when an entry is evicted
+ * the class and its loader can be garbage collected, instead of every run adding a new class to the session
+ * loader for as long as the session lives. Classes declared in a script (e.g. <code>class Foo {}</code>) are
+ * registered with the session loader so that they are still visible to later scripts.
+ * Scripts that are not expected to change (autorun scripts, saved project scripts) can also be kept in a
+ * {@link CompiledClassStore} so that they are not recompiled after a restart.
+ */
+public class CompiledScriptCache {
+
+  public static final int MAX_ENTRIES_DEFAULT = 200;
+  private static final Logger log = LogManager.getLogger(CompiledScriptCache.class);
+
+  private final ScriptClassLoader sessionLoader;
+  private final CompilerConfiguration config;
+  private final CompiledClassStore store;
+  /** Everything except the script text that affects the compiled bytecode */
+  private final String compilationFingerprint;
+  private final Map<String, Class<?>> scripts;
+
+  private long hits;
+  private long misses;
+  private long diskHits;
+  private long evictions;
+  private long compileNanos;
+
+  /**
+   * @param sessionLoader the loader scripts are compiled against
+   * @param config the compiler configuration to use
+   * @param configDescription a description of anything in the config that affects the bytecode
+   * @param store where to keep scripts between sessions, may be null
+   */
+  public CompiledScriptCache(ScriptClassLoader sessionLoader, CompilerConfiguration config, String configDescription,
+                             CompiledClassStore store) {
+    this(sessionLoader, config, configDescription, store, MAX_ENTRIES_DEFAULT);
+  }
+
+  public CompiledScriptCache(ScriptClassLoader sessionLoader, CompilerConfiguration config, String configDescription,
+                             CompiledClassStore store, int maxEntries) {
+    this.sessionLoader = sessionLoader;
+    this.config = config;
+    this.store = store;
+    compilationFingerprint = GroovySystem.getVersion() + '\0' + configDescription + '\0'
+        + classpathFingerprint(sessionLoader);
+    scripts = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Class<?>> eldest) {
+        if (size() > maxEntries) {
+          evictions++;
+          log.trace("Evicting {}", eldest.getValue().getName());
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Evaluate the script in the engine context, compiling it only if an identical script has not been compiled before
+   */
+  public Object eval(GroovyScriptEngineImpl engine, String script) throws ScriptException {
+    return eval(engine, script, false);
+  }
+
+  /**
+   * @param persistent if true the compiled classes are also looked up in and saved to the class store
+   */
+  public Object eval(GroovyScriptEngineImpl engine, String script, boolean persistent) throws ScriptException {
+    return new GroovyCompiledScript(engine, getScriptClass(script, persistent)).eval();
+  }
+
+  public synchronized Class<?> getScriptClass(String script, boolean persistent) throws ScriptException {
+    // classes declared by earlier scripts are resolved from the session loader so they are part of the key
+    String key = StringUtils.sha256(script + '\0' + compilationFingerprint + '\0'
+        + sessionLoader.definedClassesFingerprint());
+    Class<?> scriptClass = scripts.get(key);
+    if (scriptClass != null) {
+      hits++;
+      return scriptClass;
+    }
+    String scriptName = "Script_" + key.substring(0, 16);
+    if (persistent && store != null) {
+      CompiledClassStore.Compiled compiled = store.load(key);
+      if (compiled != null) {
+        try {
+          scriptClass = define(compiled, scriptName);
+          diskHits++;
+          scripts.put(key, scriptClass);
+          return scriptClass;
+        } catch (ClassNotFoundException | LinkageError e) {
+          log.warn("Failed to define stored classes for {}, recompiling", scriptName, e);
+          store.delete(key);
+        }
+      }
+    }
+    misses++;
+    long start = System.nanoTime();
+    CompiledClassStore.Compiled compiled = compile(script, scriptName);
+    compileNanos += System.nanoTime() - start;
+    try {
+      scriptClass = define(compiled, scriptName);
+    } catch (ClassNotFoundException e) {
+      throw new ScriptException(e);
+    }
+    if (persistent && store != null) {
+      store.save(key, compiled);
+    }
+    scripts.put(key, scriptClass);
+    return scriptClass;
+  }
+
+  private CompiledClassStore.Compiled compile(String script, String scriptName) throws ScriptException {
+    try {
+      CompilationUnit unit = new CompilationUnit(config, null, sessionLoader);
+      unit.addSource(scriptName + ".groovy", script);
+      unit.compile(Phases.CLASS_GENERATION);
+      Map<String, byte[]> bytecode = new LinkedHashMap<>();
+      for (GroovyClass groovyClass : unit.getClasses()) {
+        bytecode.put(groovyClass.getName(), groovyClass.getBytes());
+      }
+      return new CompiledClassStore.Compiled(unit.getFirstClassNode().getName(), bytecode);
+    } catch (CompilationFailedException e) {
+      throw new ScriptException(e);
+    }
+  }
+
+  private Class<?> define(CompiledClassStore.Compiled compiled, String scriptName) throws ClassNotFoundException {
+    BytecodeClassLoader loader = new BytecodeClassLoader(sessionLoader, compiled.getBytecode());
+    Class<?> mainClass = loader.loadClass(compiled.getMainClass());
+    for (String name : compiled.getBytecode().keySet()) {
+      if (!name.equals(scriptName) && !name.startsWith(scriptName + "$")) {
+        log.trace("Registering {} declared in {}", name, scriptName);
+        sessionLoader.registerClass(loader.loadClass(name), compiled.getBytecode().get(name));
+      }
+    }
+    return mainClass;
+  }
+
+  /**
+   * @return a hash of all urls visible through the class loader chain, for local files the size and last
+   * modified time is included so that e.g. a rebuilt snapshot jar gives a different fingerprint
+   */
+  public static String classpathFingerprint(ClassLoader classLoader) {
+    StringBuilder sb = new StringBuilder();
+    for (ClassLoader cl = classLoader; cl != null; cl = cl.getParent()) {
+      if (cl instanceof URLClassLoader) {
+        for (URL url : ((URLClassLoader) cl).getURLs()) {
+          sb.append(url);
+          if ("file".equals(url.getProtocol())) {
+            try {
+              File file = new File(url.toURI());
+              sb.append(':').append(file.length()).append(':').append(file.lastModified());
+            } catch (URISyntaxException | IllegalArgumentException e) {
+              log.trace("Not a file url: {}", url);
+            }
+          }
+          sb.append('\n');
+        }
+      }
+    }
+    return StringUtils.sha256(sb.toString());
+  }
+
+  public synchronized void clear() {
+    scripts.clear();
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  public synchronized long getDiskHits() {
+    return diskHits;
+  }
+
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  public synchronized long getCompileMillis() {
+    return compileNanos / 1_000_000;
+  }
+
+  public synchronized int size() {
+    return scripts.size();
+  }
+
+  @Override
+  public synchronized String toString() {
+    long lookups = hits + diskHits + misses;
+    return "Compiled scripts: " + scripts.size()
+        + ", hits: " + StringUtils.formatNumber(hits)
+        + ", disk hits: " + StringUtils.formatNumber(diskHits)
+        + ", misses: " + StringUtils.formatNumber(misses)
+        + (lookups == 0 ? "" : " (" + (100 * (hits + diskHits) / lookups) + "% hit rate)")
+        + ", evictions: " + StringUtils.formatNumber(evictions)
+        + ", total compile time: " + StringUtils.formatNumber(getCompileMillis()) + " ms";
+  }
+}
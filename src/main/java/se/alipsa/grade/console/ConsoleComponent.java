@@ -3,7 +3,6 @@ package se.alipsa.grade.console;
 import static se.alipsa.grade.Constants.*;
 import static se.alipsa.grade.menu.GlobalOptions.*;
 
-import groovy.lang.GroovyClassLoader;
 import groovy.lang.GroovySystem;
 import javafx.application.Platform;
 import javafx.concurrent.Task;
@@ -20,6 +19,7 @@ import javafx.scene.layout.FlowPane;
 import javafx.stage.Stage;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.codehaus.groovy.control.CompilerConfiguration;
 import org.codehaus.groovy.jsr223.GroovyScriptEngineImpl;
 import org.fxmisc.flowless.VirtualizedScrollPane;
 import org.jetbrains.annotations.Nullable;
@@ -30,6 +30,7 @@ import se.alipsa.grade.environment.EnvironmentComponent;
 import se.alipsa.grade.utils.Alerts;
 import se.alipsa.grade.utils.ExceptionAlert;
 import se.alipsa.grade.utils.FileUtils;
+import se.alipsa.grade.utils.StringUtils;
 import se.alipsa.grade.utils.gradle.GradleUtils;
 
 import javax.script.ScriptContext;
@@ -38,9 +39,15 @@ import javax.script.ScriptException;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
 
 public class ConsoleComponent extends BorderPane {
 
@@ -50,18 +57,28 @@ public class ConsoleComponent extends BorderPane {
       .getResourceUrl("image/waiting.png")).toExternalForm(), ICON_WIDTH, ICON_HEIGHT, true, true);
   private static final String DOUBLE_INDENT = INDENT + INDENT;
   private static final Logger log = LogManager.getLogger(ConsoleComponent.class);
+  /** How long to wait for a script to react to an interrupt before telling the user it is not responding */
+  private static final long INTERRUPT_GRACE_MILLIS = 5000;
   private final ImageView runningView;
   private final Button statusButton;
   private final ConsoleTextArea console;
   private final Grade gui;
-  private GroovyClassLoader classLoader;
-
-  private Thread runningThread;
-  private final Map<Thread, String> threadMap = new HashMap<>();
-  private ScriptEngine engine;
+  private ScriptClassLoader classLoader;
+
+  private final SessionExecutor executor = new SessionExecutor();
+  private GroovyScriptEngineImpl engine;
+  private volatile CompiledScriptCache scriptCache;
+  private CompiledClassStore classStore;
+  private File classIndexDir;
+  private volatile ClassIndex classIndex;
+  private volatile GroovySession standby;
+  /** Incremented whenever a standby being built should no longer be used, also guards standby */
+  private final AtomicLong standbyGeneration = new AtomicLong();
+  private volatile ConsoleTranscript lastTranscript;
 
   public ConsoleComponent(Grade gui) {
     this.gui = gui;
+    executor.setTimeLimit(gui.getPrefs().getInt(SCRIPT_TIMEOUT_SECONDS, 0));
     console = new ConsoleTextArea(gui);
     console.setEditable(false);
 
@@ -70,6 +87,12 @@ public class ConsoleComponent extends BorderPane {
       console.clear();
       console.appendText(">");
     });
+    Button fullOutputButton = new Button("Full output");
+    fullOutputButton.setTooltip(new Tooltip("View the complete output of the last script run, including what has been trimmed from the console"));
+    fullOutputButton.setOnAction(e -> viewFullOutput());
+    Button queueButton = new Button("Queue");
+    queueButton.setTooltip(new Tooltip("Show pending and running executions"));
+    queueButton.setOnAction(e -> new ExecutionQueueDialog(gui, executor).show());
     FlowPane topPane = new FlowPane();
     topPane.setPadding(new Insets(1, 10, 1, 5));
     topPane.setHgap(10);
@@ -80,7 +103,7 @@ public class ConsoleComponent extends BorderPane {
     statusButton.setGraphic(runningView);
     waiting();
 
-    topPane.getChildren().addAll(statusButton, clearButton);
+    topPane.getChildren().addAll(statusButton, clearButton, fullOutputButton, queueButton);
     setTop(topPane);
 
     VirtualizedScrollPane<ConsoleTextArea> vPane = new VirtualizedScrollPane<>(console);
@@ -109,18 +132,38 @@ public class ConsoleComponent extends BorderPane {
    */
 
   public void initGroovy(ClassLoader parentClassLoader, boolean... skipMavenClassloading) {
+    initGroovySession(parentClassLoader, false, skipMavenClassloading);
+  }
+
+  /**
+   * @param useStandby if true, use the session prepared in the background (if any) provided that nothing it was
+   *                   built from has changed since
+   */
+  private void initGroovySession(ClassLoader parentClassLoader, boolean useStandby, boolean[] skipMavenClassloading) {
     Task<Void> initTask = new Task<>() {
 
       @Override
       protected Void call() throws Exception {
-        return resetClassloaderAndGroovy(parentClassLoader, skipMavenClassloading);
+        GroovySession ready = takeStandby();
+        String fingerprint = sessionFingerprint(parentClassLoader, skipMavenClassloading);
+        if (useStandby && ready != null && ready.getFingerprint().equals(fingerprint)) {
+          log.info("Restarting using the standby session");
+          activate(ready);
+        } else {
+          if (ready != null) {
+            log.info("Discarding standby session, {}", useStandby ? "the classpath has changed" : "full init requested");
+            discard(ready);
+          }
+          resetClassloaderAndGroovy(parentClassLoader, fingerprint, skipMavenClassloading);
+        }
+        printVersionInfoToConsole();
+        // queued from the session thread so that it runs before anything the user submitted in the meantime
+        submitAutoRunScripts();
+        prepareStandby(parentClassLoader, skipMavenClassloading);
+        return null;
       }
     };
-    initTask.setOnSucceeded(e -> {
-      printVersionInfoToConsole();
-      autoRunScripts();
-      updateEnvironment();
-    });
+    initTask.setOnSucceeded(e -> updateEnvironment());
     initTask.setOnFailed(e -> {
       Throwable throwable = initTask.getException();
       Throwable ex = throwable.getCause();
@@ -131,9 +174,7 @@ public class ConsoleComponent extends BorderPane {
       ExceptionAlert.showAlert(msg + ex.getMessage(), ex);
       promptAndScrollToEnd();
     });
-    Thread thread = new Thread(initTask);
-    thread.setDaemon(false);
-    thread.start();
+    executor.submit(initTask, "Initialize Groovy session", SessionExecutor.Priority.INIT);
   }
 
   private void printVersionInfoToConsole() {
@@ -145,104 +186,283 @@ public class ConsoleComponent extends BorderPane {
   }
 
   @Nullable
-  private Void resetClassloaderAndGroovy(ClassLoader parentClassLoader, boolean... skipMavenClassloading) throws Exception {
+  private Void resetClassloaderAndGroovy(ClassLoader parentClassLoader, String fingerprint, boolean... skipMavenClassloading) throws Exception {
     try {
+      activate(createSession(parentClassLoader, fingerprint, false, skipMavenClassloading));
+      return null;
+    } catch (RuntimeException e) {
+      // RuntimeExceptions (such as EvalExceptions is not caught so need to wrap all in an exception
+      // this way we can get to the original one by extracting the cause from the thrown exception
+      System.out.println("Exception caught, rethrowing as wrapped Exception");
+      throw new Exception(e);
+    }
+  }
 
-      if (gui.getInoutComponent() == null) {
-        log.warn("InoutComponent is null, timing is off");
-        throw new RuntimeException("resetClassloaderAndGroovy called too soon, InoutComponent is null, timing is off");
-      }
+  /**
+   * Create the class loader and engine for a new session.
+   *
+   * @param standby true if this is done in the background in advance, nothing is then written to the console
+   *                and all problems are thrown so that the cold path can report them when it is used instead
+   */
+  private GroovySession createSession(ClassLoader parentClassLoader, String fingerprint, boolean standby,
+                                      boolean... skipMavenClassloading) throws Exception {
+    if (gui.getInoutComponent() == null) {
+      log.warn("InoutComponent is null, timing is off");
+      throw new RuntimeException("resetClassloaderAndGroovy called too soon, InoutComponent is null, timing is off");
+    }
 
-      log.info("USE_GRADLE_CLASSLOADER pref is set to {}", gui.getPrefs().getBoolean(USE_GRADLE_CLASSLOADER, false));
+    log.info("USE_GRADLE_CLASSLOADER pref is set to {}", gui.getPrefs().getBoolean(USE_GRADLE_CLASSLOADER, false));
 
-      classLoader = new GroovyClassLoader(parentClassLoader);
+    // Weave interrupt checks into everything we compile so that scripts can be cancelled cooperatively
+    CompilerConfiguration compilerConfig = ScriptCancellation.createCompilerConfiguration();
+    ScriptClassLoader classLoader = new ScriptClassLoader(parentClassLoader, compilerConfig);
 
-      boolean useMavenClassloader = skipMavenClassloading.length > 0
-          ? !skipMavenClassloading[0]
-          : gui.getPrefs().getBoolean(USE_GRADLE_CLASSLOADER, false);
+    boolean useMavenClassloader = skipMavenClassloading.length > 0
+        ? !skipMavenClassloading[0]
+        : gui.getPrefs().getBoolean(USE_GRADLE_CLASSLOADER, false);
 
 
-      if (gui.getInoutComponent() != null && gui.getInoutComponent().getRoot() != null) {
-        File wd = gui.getInoutComponent().projectDir();
-        if (gui.getPrefs().getBoolean(ADD_BUILDDIR_TO_CLASSPATH, true) && wd != null && wd.exists()) {
-          File classesDir = new File(wd, "target/classes");
-          List<URL> urlList = new ArrayList<>();
-          try {
-            if (classesDir.exists()) {
-              urlList.add(classesDir.toURI().toURL());
-            }
-            File testClasses = new File(wd, "target/test-classes");
-            if (testClasses.exists()) {
-              urlList.add(testClasses.toURI().toURL());
-            }
-          } catch (MalformedURLException e) {
-            log.warn("Failed to find classes dir", e);
+    if (gui.getInoutComponent() != null && gui.getInoutComponent().getRoot() != null) {
+      File wd = gui.getInoutComponent().projectDir();
+      if (gui.getPrefs().getBoolean(ADD_BUILDDIR_TO_CLASSPATH, true) && wd != null && wd.exists()) {
+        File classesDir = new File(wd, "target/classes");
+        List<URL> urlList = new ArrayList<>();
+        try {
+          if (classesDir.exists()) {
+            urlList.add(classesDir.toURI().toURL());
           }
-          if (urlList.size() > 0) {
-            log.trace("Adding compile dirs to classloader: {}", urlList);
-            urlList.forEach(url -> classLoader.addURL(url));
-            //classLoader = new URLClassLoader(urlList.toArray(new URL[0]), classLoader);
+          File testClasses = new File(wd, "target/test-classes");
+          if (testClasses.exists()) {
+            urlList.add(testClasses.toURI().toURL());
           }
+        } catch (MalformedURLException e) {
+          log.warn("Failed to find classes dir", e);
+        }
+        if (urlList.size() > 0) {
+          log.trace("Adding compile dirs to classloader: {}", urlList);
+          urlList.forEach(classLoader::addURL);
+          //classLoader = new URLClassLoader(urlList.toArray(new URL[0]), classLoader);
         }
+      }
 
-        if (useMavenClassloader) {
-          File projectDir = gui.getInoutComponent().projectDir();
-          File gradleHome = new File(gui.getPrefs().get(GRADLE_HOME, GradleUtils.locateGradleHome()));
-          File gradleFile = new File(projectDir, "build.gradle");
-          if (gradleFile.exists() && gradleHome.exists()) {
-            log.debug("Parsing build.gradle to use gradle classloader");
+      if (useMavenClassloader) {
+        File projectDir = gui.getInoutComponent().projectDir();
+        File gradleHome = new File(gui.getPrefs().get(GRADLE_HOME, GradleUtils.locateGradleHome()));
+        File gradleFile = new File(projectDir, "build.gradle");
+        if (gradleFile.exists() && gradleHome.exists()) {
+          log.debug("Parsing build.gradle to use gradle classloader");
+          if (!standby) {
             console.appendFx("* Parsing build.gradle to create Gradle classloader...", true);
-            try {
-              var gradleUtils = new GradleUtils(gui);
-              classLoader = new GroovyClassLoader(gradleUtils.createGradleCLassLoader(classLoader));
-            } catch (Exception e) {
-              if (e instanceof MalformedURLException) {
-                Platform.runLater(() -> ExceptionAlert.showAlert("Failed to resolve gradle dependency: " + e.getMessage(), e));
-                log.info("Initializing groovy without Gradle...");
-              } else {
-                throw e;
+          }
+          try {
+            var gradleUtils = new GradleUtils(gui);
+            ClassLoader gradleClassLoader = gradleUtils.createGradleCLassLoader(classLoader, urls -> {
+              console.appendWarningFx("The Gradle classpath has changed, restart the session to use the new one");
+              // a standby would come up with the old classpath
+              GroovySession stale = takeStandby();
+              if (stale != null) {
+                discard(stale);
               }
+            });
+            classLoader = new ScriptClassLoader(gradleClassLoader, compilerConfig);
+          } catch (Exception e) {
+            if (e instanceof MalformedURLException && !standby) {
+              Platform.runLater(() -> ExceptionAlert.showAlert("Failed to resolve gradle dependency: " + e.getMessage(), e));
+              log.info("Initializing groovy without Gradle...");
+            } else {
+              throw e;
             }
-          } else {
-            log.info("Use gradle class loader is set but gradle build file {} does not exist", gradleFile);
           }
+        } else {
+          log.info("Use gradle class loader is set but gradle build file {} does not exist", gradleFile);
         }
       }
-      engine = new GroovyScriptEngineImpl(classLoader);
-      gui.guiInteractions.forEach((k,v) -> engine.put(k, v));
-      return null;
-    } catch (RuntimeException e) {
-      // RuntimeExceptions (such as EvalExceptions is not caught so need to wrap all in an exception
-      // this way we can get to the original one by extracting the cause from the thrown exception
-      System.out.println("Exception caught, rethrowing as wrapped Exception");
-      throw new Exception(e);
     }
+    GroovyScriptEngineImpl groovyEngine = new GroovyScriptEngineImpl(classLoader);
+    // classes compiled against an old class loader must not be reused so each session has its own cache
+    CompiledScriptCache cache = new CompiledScriptCache(classLoader, compilerConfig, "interruptible", getClassStore());
+    gui.guiInteractions.forEach(groovyEngine::put);
+    return new GroovySession(classLoader, groovyEngine, cache, fingerprint);
   }
 
+  private void activate(GroovySession session) {
+    ScriptClassLoader previous = classLoader;
+    classLoader = session.getClassLoader();
+    engine = session.getEngine();
+    scriptCache = session.getScriptCache();
+    classIndex = new ClassIndex(classLoader, getClassIndexDir());
+    classIndex.refreshAsync();
+    if (previous != null && previous != classLoader) {
+      // nothing runs in the old session anymore, we are on the session thread
+      try {
+        previous.close();
+      } catch (IOException e) {
+        log.debug("Failed to close class loader of the previous session", e);
+      }
+    }
+  }
 
-  private void autoRunScripts() {
-    File file = null;
-    boolean wasWaiting = gui.isWaitCursorSet();
-    gui.setWaitCursor();
-    try {
-      if(gui.getPrefs().getBoolean(AUTORUN_GLOBAL, false)) {
-        file = new File(gui.getGradeBaseDir(), Constants.AUTORUN_FILENAME);
-        if (file.exists()) {
-          runScriptSilent(FileUtils.readContent(file));
+  /**
+   * A hash of everything a session is built from: the settings used, the parent classpath, the build files and the
+   * content of the build output dirs. If this is unchanged, a standby session is as good as a new one.
+   */
+  private String sessionFingerprint(ClassLoader parentClassLoader, boolean... skipMavenClassloading) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(Arrays.toString(skipMavenClassloading)).append('\n');
+    for (String pref : List.of(USE_GRADLE_CLASSLOADER, ADD_BUILDDIR_TO_CLASSPATH, GRADLE_HOME)) {
+      sb.append(pref).append('=').append(gui.getPrefs().get(pref, "")).append('\n');
+    }
+    sb.append(System.identityHashCode(parentClassLoader)).append(':')
+        .append(CompiledScriptCache.classpathFingerprint(parentClassLoader)).append('\n');
+    File projectDir = gui.getInoutComponent() == null ? null : gui.getInoutComponent().projectDir();
+    if (projectDir != null) {
+      sb.append(projectDir.getAbsolutePath()).append('\n');
+      for (String name : List.of("build.gradle", "settings.gradle", "gradle.properties", "target/classes",
+          "target/test-classes")) {
+        appendFileStamp(sb, new File(projectDir, name));
+      }
+    }
+    return StringUtils.sha256(sb.toString());
+  }
+
+  private void appendFileStamp(StringBuilder sb, File file) {
+    sb.append(file.getPath()).append(':');
+    if (file.isDirectory()) {
+      // directory timestamps do not change when files in sub directories do so look at all of them
+      try (Stream<Path> paths = Files.walk(file.toPath())) {
+        paths.forEach(p -> {
+          File f = p.toFile();
+          sb.append(f.length()).append(':').append(f.lastModified()).append(',');
+        });
+      } catch (IOException | UncheckedIOException e) {
+        log.debug("Failed to scan {}", file, e);
+        sb.append(System.nanoTime());
+      }
+    } else if (file.exists()) {
+      sb.append(file.length()).append(':').append(file.lastModified());
+    }
+    sb.append('\n');
+  }
+
+  /**
+   * Build a new session in the background so that a restart can simply switch to it. The autorun scripts are run
+   * when it is switched to, not in advance, since whatever they do (e.g. write files or open connections) should
+   * happen once per restart. Does nothing if disabled in the global options.
+   */
+  private void prepareStandby(ClassLoader parentClassLoader, boolean... skipMavenClassloading) {
+    if (!gui.getPrefs().getBoolean(STANDBY_SESSION, true)) {
+      return;
+    }
+    long generation = standbyGeneration.incrementAndGet();
+    Thread builder = new Thread(() -> {
+      GroovySession session = null;
+      try {
+        String fingerprint = sessionFingerprint(parentClassLoader, skipMavenClassloading);
+        session = createSession(parentClassLoader, fingerprint, true, skipMavenClassloading);
+      } catch (Exception e) {
+        log.info("Failed to prepare standby session, the next restart will do a full init", e);
+        if (session != null) {
+          discard(session);
         }
+        return;
       }
-      if(gui.getPrefs().getBoolean(AUTORUN_PROJECT, false)) {
-        file = new File(gui.getInoutComponent().projectDir(), Constants.AUTORUN_FILENAME);
-        if (file.exists()) {
-          runScriptSilent(FileUtils.readContent(file));
+      synchronized (standbyGeneration) {
+        if (generation == standbyGeneration.get()) {
+          standby = session;
+          log.debug("Standby session is ready");
+          return;
         }
       }
+      // superseded while we were building it
+      discard(session);
+    }, "grade-standby-session");
+    builder.setDaemon(true);
+    builder.start();
+  }
+
+  /**
+   * @return the standby session (or null if none is ready), building of any standby in progress is abandoned
+   */
+  private GroovySession takeStandby() {
+    synchronized (standbyGeneration) {
+      standbyGeneration.incrementAndGet();
+      GroovySession ready = standby;
+      standby = null;
+      return ready;
+    }
+  }
+
+  private void discard(GroovySession session) {
+    try {
+      session.getClassLoader().close();
+    } catch (IOException e) {
+      log.debug("Failed to close class loader of discarded session", e);
+    }
+  }
+
+  private void submitAutoRunScripts() {
+    if (!gui.getPrefs().getBoolean(AUTORUN_GLOBAL, false) && !gui.getPrefs().getBoolean(AUTORUN_PROJECT, false)) {
+      return;
+    }
+    Task<Void> autoRunTask = new Task<>() {
+      @Override
+      protected Void call() {
+        autoRunScripts();
+        return null;
+      }
+    };
+    executor.submit(autoRunTask, "Run " + Constants.AUTORUN_FILENAME, SessionExecutor.Priority.AUTORUN);
+  }
+
+  private void autoRunScripts() {
+    boolean wasWaiting = gui.isWaitCursorSet();
+    gui.setWaitCursor();
+    try {
+      running();
+      autoRunScripts(new GroovySession(classLoader, engine, scriptCache, null));
+      waiting();
       if (!wasWaiting) {
         gui.setNormalCursor();
       }
-    } catch (Exception e) {
-      String path = file == null ? "" : file.getAbsolutePath();
-      Platform.runLater(() -> ExceptionAlert.showAlert("Failed to run " + Constants.AUTORUN_FILENAME + " in " + path, e));
+    } catch (AutoRunException e) {
+      waiting();
+      String path = e.getFile().getAbsolutePath();
+      Platform.runLater(() -> ExceptionAlert.showAlert("Failed to run " + Constants.AUTORUN_FILENAME + " in " + path, e.getCause()));
+    }
+  }
+
+  /**
+   * Run the global and project autorun scripts (as enabled in the global options) in the session
+   */
+  private void autoRunScripts(GroovySession session) throws AutoRunException {
+    List<File> files = new ArrayList<>();
+    if(gui.getPrefs().getBoolean(AUTORUN_GLOBAL, false)) {
+      files.add(new File(gui.getGradeBaseDir(), Constants.AUTORUN_FILENAME));
+    }
+    if(gui.getPrefs().getBoolean(AUTORUN_PROJECT, false)) {
+      files.add(new File(gui.getInoutComponent().projectDir(), Constants.AUTORUN_FILENAME));
+    }
+    for (File autorun : files) {
+      if (autorun.exists()) {
+        try {
+          evalSilent(session, FileUtils.readContent(autorun), true);
+        } catch (Exception e) {
+          throw new AutoRunException(autorun, e);
+        }
+      }
+    }
+  }
+
+  private static class AutoRunException extends Exception {
+    private final File file;
+
+    AutoRunException(File file, Exception cause) {
+      super(cause);
+      this.file = file;
+    }
+
+    File getFile() {
+      return file;
     }
   }
 
@@ -250,29 +470,38 @@ public class ConsoleComponent extends BorderPane {
     return "*".repeat(Math.max(0, length));
   }
 
+  /**
+   * Restart the session. If a standby session has been prepared and nothing it depends on has changed it is
+   * switched in right away, otherwise a new one is created from scratch.
+   */
   public void restartGroovy() {
     console.append("Restarting Groovy..\n");
     //initGroovy(getStoredRemoteRepositories(), gui.getClass().getClassLoader());
-    initGroovy(gui.dynamicClassLoader);
+    initGroovySession(gui.dynamicClassLoader, true, new boolean[0]);
     gui.getEnvironmentComponent().clearEnvironment();
   }
 
   /**
-   * TODO: while we can stop the timeline with this we cannot interrupt the scriptengines eval.
+   * Ask the running script to stop. Scripts are compiled with interrupt checks (see {@link ScriptCancellation})
+   * so this normally takes effect at the next loop iteration, method or closure call. The thread is never killed
+   * since that could leave the session bindings half written.
    */
-  @SuppressWarnings("deprecation")
   public void interruptProcess() {
     log.info("Interrupting runnning process");
-    // This is a nasty piece of code but a brutal stop() is the only thing that will break out of the script engine
-    if (runningThread != null && runningThread.isAlive()) {
+    SessionExecutor.Job job = executor.interruptRunning();
+    if (job != null) {
       console.appendFx("\nInterrupting process...", true);
-      runningThread.interrupt();
-      // allow two seconds for graceful shutdown
-      sleep(2000);
-      console.appendFx("Stopping process...", true);
-      runningThread.stop();
-      threadMap.remove(runningThread);
-      console.appendText("\n>");
+      Timer timer = new Timer(true);
+      timer.schedule(new TimerTask() {
+        @Override
+        public void run() {
+          if (executor.getRunning() == job) {
+            log.warn("{} did not respond to interrupt within {} ms", job.getDescription(), INTERRUPT_GRACE_MILLIS);
+            console.appendWarningFx("The process has not stopped yet, it is probably blocked outside of script code "
+                + "(e.g. waiting for I/O or in a library call). It will stop as soon as it returns to the script.");
+          }
+        }
+      }, INTERRUPT_GRACE_MILLIS);
     }
   }
 
@@ -329,22 +558,37 @@ public class ConsoleComponent extends BorderPane {
    */
 
   public Object runScriptSilent(String script) throws Exception {
-    try (PrintWriter out = new PrintWriter(System.out);
-         PrintWriter err = new PrintWriter(System.err)) {
+    return runScriptSilent(script, false);
+  }
+
+  /**
+   * @param cacheCompiled if true, keep the compiled script on disk so it does not have to be compiled after a restart
+   */
+  public Object runScriptSilent(String script, boolean cacheCompiled) throws Exception {
+    try {
       running();
-      log.debug("Running script: {}", script);
-      engine.getContext().setWriter(out);
-      engine.getContext().setErrorWriter(err);
-      var result = engine.eval(script);
+      var result = evalSilent(new GroovySession(classLoader, engine, scriptCache, null), script, cacheCompiled);
       waiting();
       return result;
     } catch (Exception e) {
-      log.warn("Failed to run script: {}", script, e);
       waiting();
       throw e;
     }
   }
 
+  private Object evalSilent(GroovySession session, String script, boolean cacheCompiled) throws Exception {
+    try (PrintWriter out = new PrintWriter(System.out);
+         PrintWriter err = new PrintWriter(System.err)) {
+      log.debug("Running script: {}", script);
+      session.getEngine().getContext().setWriter(out);
+      session.getEngine().getContext().setErrorWriter(err);
+      return session.getScriptCache().eval(session.getEngine(), script, cacheCompiled);
+    } catch (Exception e) {
+      log.warn("Failed to run script: {}", script, e);
+      throw e;
+    }
+  }
+
   public Object fetchVar(String varName) {
     return engine.get(varName);
   }
@@ -360,20 +604,30 @@ public class ConsoleComponent extends BorderPane {
    */
 
   public void runScriptAsync(String script, String title, TaskListener taskListener) {
+    runScriptAsync(script, title, taskListener, false);
+  }
 
-    running();
+  /**
+   * @param cacheCompiled if true, keep the compiled script on disk so it does not have to be compiled after a restart
+   */
+  public void runScriptAsync(String script, String title, TaskListener taskListener, boolean cacheCompiled) {
+    AtomicReference<SessionExecutor.Job> job = new AtomicReference<>();
 
     Task<Void> task = new Task<>() {
       @Override
       public Void call() throws Exception {
+        running();
+        ConsoleTranscript transcript = startTranscript(title);
         try {
           taskListener.taskStarted();
-          executeScriptAndReport(script, title);
+          executeScriptAndReport(script, title, cacheCompiled);
         } catch (RuntimeException e) {
           // RuntimeExceptions (such as EvalExceptions is not caught so need to wrap all in an exception
           // this way we can get to the original one by extracting the cause from the thrown exception
           System.out.println("Exception caught, rethrowing as wrapped Exception");
           throw new Exception(e);
+        } finally {
+          endTranscript(transcript);
         }
         return null;
       }
@@ -386,10 +640,18 @@ public class ConsoleComponent extends BorderPane {
       promptAndScrollToEnd();
     });
     task.setOnFailed(e -> {
+      Throwable throwable = task.getException();
+      // decided by the exception of this run, nothing global that the next job might already have reset
+      boolean cancelled = ScriptCancellation.isCancellation(throwable);
+      String reason = job.get() != null && job.get().isTimedOut() ? "stopped since it exceeded the max run time" : "interrupted";
       taskListener.taskEnded();
       waiting();
       updateEnvironment();
-      Throwable throwable = task.getException();
+      if (cancelled) {
+        console.appendWarning("\n" + title + " was " + reason, true);
+        promptAndScrollToEnd();
+        return;
+      }
       Throwable ex = throwable.getCause();
       if (ex == null) {
         ex = throwable;
@@ -400,9 +662,63 @@ public class ConsoleComponent extends BorderPane {
       ExceptionAlert.showAlert(msg + ex.getMessage(), ex);
       promptAndScrollToEnd();
     });
-    Thread thread = new Thread(task);
-    thread.setDaemon(false);
-    startThreadWhenOthersAreFinished(thread, "runScriptAsync: " + title);
+    job.set(executor.submit(task, "Run " + title));
+  }
+
+  private ConsoleTranscript startTranscript(String title) {
+    try {
+      ConsoleTranscript transcript = ConsoleTranscript.create(title);
+      console.getOutputPipeline().setTranscript(transcript);
+      lastTranscript = transcript;
+      return transcript;
+    } catch (IOException | RuntimeException e) {
+      log.warn("Failed to create transcript for {}, full output will not be available", title, e);
+      return null;
+    }
+  }
+
+  private void endTranscript(ConsoleTranscript transcript) {
+    if (transcript != null) {
+      console.getOutputPipeline().setTranscript(null);
+      transcript.finish();
+    }
+  }
+
+  private synchronized CompiledClassStore getClassStore() {
+    if (classStore == null) {
+      try {
+        classStore = CompiledClassStore.createDefault();
+      } catch (RuntimeException e) {
+        log.warn("Compiled scripts will not be cached on disk", e);
+      }
+    }
+    return classStore;
+  }
+
+  private synchronized File getClassIndexDir() {
+    if (classIndexDir == null) {
+      try {
+        classIndexDir = ClassIndex.defaultStoreDir();
+      } catch (RuntimeException e) {
+        log.warn("Indexed class names will not be cached on disk", e);
+      }
+    }
+    return classIndexDir;
+  }
+
+  /**
+   * @return the classes and packages visible to scripts in the current session
+   */
+  public ClassIndex getClassIndex() {
+    return classIndex;
+  }
+
+  public void viewFullOutput() {
+    if (lastTranscript == null) {
+      Alerts.info("No output recorded", "No script has been run in this session yet");
+      return;
+    }
+    new TranscriptViewerDialog(gui, lastTranscript).show();
   }
 
   public String createMessageFromEvalException(Throwable ex) {
@@ -458,9 +774,8 @@ public class ConsoleComponent extends BorderPane {
 
       ExceptionAlert.showAlert(msg + ex.getMessage(), ex);
     });
-    Thread thread = new Thread(task);
-    thread.setDaemon(false);
-    startThreadWhenOthersAreFinished(thread, "updateEnvironment");
+    // No point in updating more than once if several are waiting, the last one will see the latest state anyway
+    executor.submit(task, "Update environment", SessionExecutor.Priority.BACKGROUND, "updateEnvironment");
   }
 
   public Map<String, Object> getContextObjects() {
@@ -562,9 +877,7 @@ public class ConsoleComponent extends BorderPane {
       ExceptionAlert.showAlert(msg + ex.getMessage(), ex);
       promptAndScrollToEnd();
     });
-    Thread thread = new Thread(task);
-    thread.setDaemon(false);
-    startThreadWhenOthersAreFinished(thread, "runTests: " + title);
+    executor.submit(task, "Run tests: " + title);
   }
 
   private void printResult(String title, StringWriter out, StringWriter err, TestResult result, String indent) {
@@ -638,7 +951,7 @@ public class ConsoleComponent extends BorderPane {
 
    */
 
-  private void executeScriptAndReport(String script, String title) throws Exception {
+  private void executeScriptAndReport(String script, String title, boolean cacheCompiled) throws Exception {
 
     EnvironmentComponent env = gui.getEnvironmentComponent();
     try (
@@ -653,15 +966,16 @@ public class ConsoleComponent extends BorderPane {
       }
       gui.guiInteractions.forEach((k,v) -> engine.put(k, v));
 
-      Platform.runLater(() -> {
-        console.append(title, true);
-        env.addInputHistory(script);
-      });
+      console.appendFx(title, true);
+      Platform.runLater(() -> env.addInputHistory(script));
 
       engine.getContext().setWriter(outputWriter);
       engine.getContext().setErrorWriter(errWriter);
 
-      var result = engine.eval(script);
+      var result = scriptCache.eval(engine, script, cacheCompiled);
+      // publish partial lines the script printed so they come before the result
+      outputWriter.flush();
+      errWriter.flush();
       // TODO: add config to opt out of printing the result to the console
       if (result != null) {
         gui.getConsoleComponent().getConsole().appendFx(result.toString(), true);
@@ -708,7 +1022,8 @@ public class ConsoleComponent extends BorderPane {
   public void waiting() {
     Platform.runLater(() -> {
       runningView.setImage(IMG_WAITING);
-      statusButton.setTooltip(new Tooltip("Engine is idle"));
+      CompiledScriptCache cache = scriptCache;
+      statusButton.setTooltip(new Tooltip(cache == null ? "Engine is idle" : "Engine is idle\n" + cache));
       gui.getMainMenu().disableInterruptMenuItem();
     });
   }
@@ -763,38 +1078,24 @@ public class ConsoleComponent extends BorderPane {
     return console.getConsoleMaxSize();
   }
 
+  public void setConsoleMaxLines(int lines) {
+    console.setConsoleMaxLines(lines);
+  }
+
+  public int getConsoleMaxLines() {
+    return console.getConsoleMaxLines();
+  }
+
   public ConsoleTextArea getConsole() {
     return console;
   }
 
-  public void startThreadWhenOthersAreFinished(Thread thread, String context) {
-    if (runningThread == null) {
-      log.debug("Starting thread {}", context);
-      thread.start();
-    } else if (runningThread.getState() == Thread.State.WAITING || runningThread.getState() == Thread.State.TIMED_WAITING) {
-      log.debug("Waiting for thread {} to finish", threadMap.get(runningThread));
-      try {
-        // This is bit ugly as now the console output will not show until the thread has finished.
-        runningThread.join();
-        thread.start();
-      } catch (InterruptedException e) {
-        log.warn("Thread was interrupted", e);
-        log.info("Running thread {}", context);
-        thread.start();
-      }
+  public SessionExecutor getExecutor() {
+    return executor;
+  }
 
-    } else if (runningThread.isAlive() && runningThread.getState() != Thread.State.TERMINATED) {
-      log.warn("There is already a process running: {} in state {}, Overriding existing running thread", threadMap.get(runningThread), runningThread.getState());
-      thread.start();
-    } else {
-      if (runningThread.getState() != Thread.State.TERMINATED) {
-        log.error("Missed some condition, running thread {} is {}", threadMap.get(runningThread), runningThread.getState());
-      }
-      thread.start();
-    }
-    threadMap.remove(runningThread);
-    runningThread = thread;
-    threadMap.put(thread, context);
+  public CompiledScriptCache getScriptCache() {
+    return scriptCache;
   }
 
   public void busy() {
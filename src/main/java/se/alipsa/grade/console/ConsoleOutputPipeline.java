@@ -0,0 +1,228 @@
+package se.alipsa.grade.console;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Collects output from script writers (and any other background producer) into a bounded, lock free
+ * queue which is drained at most once per FX pulse into a single append per style run.
+ * This keeps the FX event queue free from one Platform.runLater per written chunk.
+ */
+public class ConsoleOutputPipeline {
+
+  /** What to do when producers outrun the UI and the buffer is full */
+  public enum Backpressure {
+    /** Park the producing thread until the console has caught up */
+    BLOCK,
+    /** Discard the output but count it so that the console can tell the user */
+    DROP,
+    /** Write the output to standard out / standard err instead */
+    SPILL
+  }
+
+  public static final int CAPACITY_DEFAULT = 1 << 20;
+  private static final int MAX_CHARS_PER_PULSE = 256 * 1024;
+  private static final long BLOCK_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+  private static final Logger log = LogManager.getLogger(ConsoleOutputPipeline.class);
+
+  private final ConsoleTextArea console;
+  private final int capacity;
+  private final ConcurrentLinkedQueue<Chunk> queue = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger pendingChars = new AtomicInteger();
+  private final AtomicLong droppedChars = new AtomicLong();
+  private final AtomicBoolean pulseActive = new AtomicBoolean(false);
+  private final AnimationTimer pulse;
+  private volatile Backpressure backpressure;
+  private volatile ConsoleTranscript transcript;
+
+  public ConsoleOutputPipeline(ConsoleTextArea console, Backpressure backpressure, int capacity) {
+    this.console = console;
+    this.backpressure = backpressure;
+    this.capacity = capacity;
+    pulse = new AnimationTimer() {
+      @Override
+      public void handle(long now) {
+        onPulse();
+      }
+    };
+  }
+
+  public void publish(String text) {
+    publish(text, null);
+  }
+
+  public void publishWarning(String text) {
+    publish(text, "warning");
+  }
+
+  /**
+   * Queue text for the console.
+   *
+   * @param text the text to append
+   * @param styleClass the style class to apply, null for normal output
+   */
+  public void publish(String text, String styleClass) {
+    if (text == null || text.isEmpty()) {
+      return;
+    }
+    ConsoleTranscript currentTranscript = transcript;
+    if (currentTranscript != null) {
+      // Everything goes to the transcript, even what is dropped or spilled below
+      currentTranscript.append(text);
+    }
+    if (Platform.isFxApplicationThread()) {
+      // Nobody will drain while we wait on the FX thread so just write it directly (in order)
+      drain(Integer.MAX_VALUE);
+      console.appendToDocument(text, styleClass);
+      return;
+    }
+    int length = text.length();
+    if (!reserve(length)) {
+      switch (backpressure) {
+        case DROP -> {
+          droppedChars.addAndGet(length);
+          schedulePulse();
+          return;
+        }
+        case SPILL -> {
+          if (styleClass == null) {
+            System.out.print(text);
+          } else {
+            System.err.print(text);
+          }
+          return;
+        }
+        default -> {
+          if (!awaitCapacity(length)) {
+            droppedChars.addAndGet(length);
+            schedulePulse();
+            return;
+          }
+        }
+      }
+    }
+    queue.add(new Chunk(text, styleClass));
+    schedulePulse();
+  }
+
+  /**
+   * Write everything that is queued to the console, must be called on the FX thread.
+   * Used before direct appends so that output and prompts stay in order.
+   */
+  public void drainAll() {
+    if (Platform.isFxApplicationThread()) {
+      drain(Integer.MAX_VALUE);
+    }
+  }
+
+  public boolean hasPending() {
+    return pendingChars.get() > 0;
+  }
+
+  public long getDroppedChars() {
+    return droppedChars.get();
+  }
+
+  public Backpressure getBackpressure() {
+    return backpressure;
+  }
+
+  public void setBackpressure(Backpressure backpressure) {
+    this.backpressure = backpressure;
+  }
+
+  /**
+   * @param transcript the transcript to record all published output to, null to stop recording
+   */
+  public void setTranscript(ConsoleTranscript transcript) {
+    this.transcript = transcript;
+  }
+
+  private boolean reserve(int length) {
+    while (true) {
+      int current = pendingChars.get();
+      // always accept a chunk when the buffer is empty, otherwise a single huge chunk would never get through
+      if (current > 0 && current + length > capacity) {
+        return false;
+      }
+      if (pendingChars.compareAndSet(current, current + length)) {
+        return true;
+      }
+    }
+  }
+
+  private boolean awaitCapacity(int length) {
+    schedulePulse();
+    while (!reserve(length)) {
+      LockSupport.parkNanos(BLOCK_PARK_NANOS);
+      if (Thread.currentThread().isInterrupted()) {
+        log.debug("Interrupted while waiting for the console to catch up, dropping {} chars", length);
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void schedulePulse() {
+    if (pulseActive.compareAndSet(false, true)) {
+      Platform.runLater(pulse::start);
+    }
+  }
+
+  private void onPulse() {
+    drain(MAX_CHARS_PER_PULSE);
+    if (queue.isEmpty() && droppedChars.get() == 0) {
+      pulseActive.set(false);
+      pulse.stop();
+      // A producer might have added something after we checked but before the flag was reset
+      if (!queue.isEmpty() && pulseActive.compareAndSet(false, true)) {
+        pulse.start();
+      }
+    }
+  }
+
+  private void drain(int maxChars) {
+    StringBuilder run = new StringBuilder();
+    String runStyle = null;
+    int drained = 0;
+    Chunk chunk;
+    while (drained < maxChars && (chunk = queue.poll()) != null) {
+      int length = chunk.text.length();
+      pendingChars.addAndGet(-length);
+      drained += length;
+      if (run.length() > 0 && !Objects.equals(runStyle, chunk.styleClass)) {
+        console.appendToDocument(run.toString(), runStyle);
+        run.setLength(0);
+      }
+      runStyle = chunk.styleClass;
+      run.append(chunk.text);
+    }
+    if (run.length() > 0) {
+      console.appendToDocument(run.toString(), runStyle);
+    }
+    long dropped = droppedChars.getAndSet(0);
+    if (dropped > 0) {
+      console.appendToDocument("\n[" + dropped + " characters of output dropped, the console could not keep up]\n", "warning");
+    }
+  }
+
+  private static final class Chunk {
+    final String text;
+    final String styleClass;
+
+    Chunk(String text, String styleClass) {
+      this.text = text;
+      this.styleClass = styleClass;
+    }
+  }
+}
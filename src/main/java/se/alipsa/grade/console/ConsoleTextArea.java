@@ -1,28 +1,36 @@
 package se.alipsa.grade.console;
 
+import static se.alipsa.grade.menu.GlobalOptions.CONSOLE_BACKPRESSURE;
 import static se.alipsa.grade.menu.GlobalOptions.CONSOLE_MAX_LENGTH_PREF;
+import static se.alipsa.grade.menu.GlobalOptions.CONSOLE_MAX_LINES_PREF;
 
-import javafx.application.Platform;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.fxmisc.richtext.model.TwoDimensional;
+import org.fxmisc.richtext.util.UndoUtils;
 import se.alipsa.grade.Grade;
 import se.alipsa.grade.UnStyledCodeArea;
 
+/**
+ * The console is a rolling scrollback: when the char or line budget is exceeded the oldest paragraphs are
+ * trimmed in bulk (down to {@link #TRIM_TO_RATIO} of the budget) so that each append stays cheap and memory flat.
+ */
 public class ConsoleTextArea extends UnStyledCodeArea {
 
-  private static final String WARN_SIZE_MSG = "\nMaximum size for console reached, printing to standard out until console is cleared\n";
-
   public static final int CONSOLE_MAX_LENGTH_DEFAULT = 1_500_000;
+  public static final int CONSOLE_MAX_LINES_DEFAULT = 50_000;
+  static final double TRIM_TO_RATIO = 0.8;
   private int consoleMaxLength = CONSOLE_MAX_LENGTH_DEFAULT;
+  private int consoleMaxLines = CONSOLE_MAX_LINES_DEFAULT;
   static Logger log = LogManager.getLogger(ConsoleTextArea.class);
-  private final StringBuilder buffer = new StringBuilder();
-  private final StringBuilder warnBuffer = new StringBuilder();
-
-  private boolean sizeWWarningPrinted = false;
+  private final ConsoleOutputPipeline outputPipeline;
 
 
-  private ConsoleTextArea() {
+  private ConsoleTextArea(ConsoleOutputPipeline.Backpressure backpressure) {
     getStyleClass().add("console");
+    outputPipeline = new ConsoleOutputPipeline(this, backpressure, ConsoleOutputPipeline.CAPACITY_DEFAULT);
+    // The console is append only, keeping undo history would hold on to everything ever printed
+    setUndoManager(UndoUtils.noOpUndoManager(this));
     //setUseInitialStyleForInsertion(false);
     /*
     System.out.println("Stylesheets for " + getClass().getSimpleName());
@@ -37,36 +45,67 @@ public class ConsoleTextArea extends UnStyledCodeArea {
   }
 
   public ConsoleTextArea(Grade gui) {
-    this();
+    this(ConsoleOutputPipeline.Backpressure.valueOf(
+        gui.getPrefs().get(CONSOLE_BACKPRESSURE, ConsoleOutputPipeline.Backpressure.BLOCK.name())
+    ));
     consoleMaxLength = gui.getPrefs().getInt(CONSOLE_MAX_LENGTH_PREF, CONSOLE_MAX_LENGTH_DEFAULT);
-  }
-
-  @Override
-  public void clear() {
-    sizeWWarningPrinted = false;
-    super.clear();
+    consoleMaxLines = gui.getPrefs().getInt(CONSOLE_MAX_LINES_PREF, CONSOLE_MAX_LINES_DEFAULT);
   }
 
   @Override
   public void appendText(String text) {
-    int textSize = getText().length();
-    if (textSize > consoleMaxLength) {
-      if (!sizeWWarningPrinted) {
-        printSizeWarning();
-      }
-      System.out.print(text);
+    // anything still queued by background writers was written before this so must come first
+    outputPipeline.drainAll();
+    appendToDocument(text, null);
+  }
+
+  /**
+   * Append directly to the document, bypassing the output pipeline. Must be called on the FX thread.
+   *
+   * @param text the text to append
+   * @param styleClass the style class to apply or null for none
+   */
+  void appendToDocument(String text, String styleClass) {
+    if (styleClass == null) {
+      super.appendText(text);
     } else {
+      int start = getLength();
       super.appendText(text);
+      setStyleClass(start, getLength(), styleClass);
+    }
+    // getLength() and the paragraph count are kept by the document model so checking is O(1)
+    if (getLength() > consoleMaxLength || getParagraphs().size() > consoleMaxLines) {
+      trimScrollback();
     }
-
   }
 
-  private void printSizeWarning() {
-    int start = getCaretPosition();
-    int end = getCaretPosition() + WARN_SIZE_MSG.length();
-    super.appendText(WARN_SIZE_MSG);
-    setStyleClass(start, end, "warning");
-    sizeWWarningPrinted = true;
+  /**
+   * Remove whole paragraphs from the top until both the char and the line count are below
+   * TRIM_TO_RATIO of the budget. Trimming in bulk means we do this rarely rather than on every append.
+   * Output without line breaks stays in one paragraph, if that alone is over the budget its start is cut.
+   */
+  private void trimScrollback() {
+    int paragraphs = getParagraphs().size();
+    int targetLength = (int) (consoleMaxLength * TRIM_TO_RATIO);
+    int charsToCut = getLength() - targetLength;
+    int cutParagraph = 0;
+    if (charsToCut > 0) {
+      // cut up to and including the paragraph where the excess ends
+      cutParagraph = offsetToPosition(charsToCut, TwoDimensional.Bias.Forward).getMajor() + 1;
+    }
+    cutParagraph = Math.max(cutParagraph, paragraphs - (int) (consoleMaxLines * TRIM_TO_RATIO));
+    // Always keep the last (current) paragraph
+    cutParagraph = Math.min(cutParagraph, paragraphs - 1);
+    if (cutParagraph > 0) {
+      int cutPos = getAbsolutePosition(cutParagraph, 0);
+      deleteText(0, cutPos);
+      log.trace("Trimmed {} paragraphs ({} chars) from the console", cutParagraph, cutPos);
+    }
+    if (getLength() > consoleMaxLength) {
+      int cutPos = getLength() - targetLength;
+      deleteText(0, cutPos);
+      log.trace("Trimmed {} chars from the start of the current paragraph", cutPos);
+    }
   }
 
   public void append(String text, boolean... addNewline) {
@@ -79,7 +118,8 @@ public class ConsoleTextArea extends UnStyledCodeArea {
   }
 
   public void appendFx(String text, boolean... addNewline) {
-    Platform.runLater(() -> append(text, addNewline));
+    boolean addLf = addNewline.length > 0 && addNewline[0];
+    outputPipeline.publish(addLf ? text + "\n" : text);
   }
 
   public void appendWarning(String text, boolean... addNewline) {
@@ -96,62 +136,27 @@ public class ConsoleTextArea extends UnStyledCodeArea {
 
   private void appendWithStyle(String text, String styleClass, boolean... addNewline) {
     //log.info("Appending warning lenght = {} for {}", text.length(), text);
-    int start = getCaretPosition();
-    int end = getCaretPosition() + text.length();
-    append(text, addNewline);
-    //log.info("start was {}, end was {}, now at {}", start, end, getCaretPosition());
-    setStyleClass(start, end, styleClass);
-  }
-
-
-  public void appendChar(char b) {
-    buffer.append(b);
-    if (b == '\n') {
-      String text = buffer.toString();
-      appendFx(text);
-      buffer.setLength(0);
-    }
-  }
-
-  public void appendChar(char[] b) {
-    buffer.append(b);
-    if ("\n".equals(String.valueOf(b))) {
-      String text = buffer.toString();
-      appendFx(text, true);
-      buffer.setLength(0);
-    }
+    boolean addLf = addNewline.length > 0 && addNewline[0];
+    outputPipeline.drainAll();
+    appendToDocument(addLf ? text + "\n" : text, styleClass);
   }
 
 
   public void appendWarningFx(String text) {
-    Platform.runLater(() -> appendWarning(text, true));
-  }
-
-  public void appendWarnChar(char b) {
-    warnBuffer.append(Character.toChars(b));
-    if (b == '\n') {
-      String text = warnBuffer.toString();
-      appendWarningFx(text);
-      warnBuffer.setLength(0);
+    if (text != null && text.trim().length() != 0) {
+      outputPipeline.publishWarning(text.endsWith("\n") ? text : text + "\n");
     }
   }
 
-  public void appendWarnChar(char[] b) {
-    warnBuffer.append(b);
-    if ("\n".equals(String.valueOf(b))) {
-      String text = warnBuffer.toString();
-      appendWarningFx(text);
-      warnBuffer.setLength(0);
-    }
+  /**
+   * Append everything still queued by background writers now, must be called on the FX thread
+   */
+  public void flush() {
+    outputPipeline.drainAll();
   }
 
-  public void flush() {
-    Platform.runLater(() -> {
-      appendText(buffer.toString());
-      buffer.setLength(0);
-      appendWarning(warnBuffer.toString());
-      warnBuffer.setLength(0);
-    });
+  public ConsoleOutputPipeline getOutputPipeline() {
+    return outputPipeline;
   }
 
   public void setConsoleMaxSize(int size) {
@@ -162,6 +167,14 @@ public class ConsoleTextArea extends UnStyledCodeArea {
     return consoleMaxLength;
   }
 
+  public void setConsoleMaxLines(int lines) {
+    consoleMaxLines = lines;
+  }
+
+  public int getConsoleMaxLines() {
+    return consoleMaxLines;
+  }
+
   public void appendNewlineIfNeeded() {
     String lastLine = getText(getCurrentParagraph());
     if (!lastLine.trim().isEmpty()) {
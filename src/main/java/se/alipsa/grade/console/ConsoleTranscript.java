@@ -0,0 +1,219 @@
+package se.alipsa.grade.console;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import se.alipsa.grade.utils.FileUtils;
+import se.alipsa.grade.utils.LineSource;
+import se.alipsa.grade.utils.MappedFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The complete output of one script execution, written to an append only memory mapped file under
+ * ~/.grade/transcripts together with an index file holding the byte offset of the start of each line.
+ * The files are mapped as they fill up so they never hold more than what was written.
+ * This is what allows the console to trim its scrollback without losing anything.
+ */
+public class ConsoleTranscript implements LineSource {
+
+  private static final Logger log = LogManager.getLogger(ConsoleTranscript.class);
+  private static final int KEEP_TRANSCRIPTS = 20;
+  private static final int MAX_LINE_BYTES = 1024 * 1024;
+  /** 128k lines per window, most transcripts are much smaller than the output they come from */
+  private static final int INDEX_WINDOW_SIZE = 1024 * 1024;
+  private static final DateTimeFormatter FILE_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+
+  private final File file;
+  private final String title;
+  private final MappedFile data;
+  private final MappedFile index;
+  private volatile long dataLength = 0;
+  /** number of line starts in the index, the first line always starts at 0 */
+  private volatile int lineStarts = 1;
+  private boolean finished = false;
+
+  ConsoleTranscript(File file, String title) throws IOException {
+    this.file = file;
+    this.title = title;
+    data = MappedFile.create(file.toPath());
+    index = MappedFile.create(indexFile(file).toPath(), INDEX_WINDOW_SIZE);
+    index.putLong(0, 0L);
+  }
+
+  public static ConsoleTranscript create(String title) throws IOException {
+    File dir = getTranscriptDir();
+    prune(dir);
+    String name = FILE_DATE_FORMAT.format(LocalDateTime.now()) + "-" + sanitize(title) + ".log";
+    return new ConsoleTranscript(new File(dir, name), title);
+  }
+
+  public static File getTranscriptDir() {
+    File dir = new File(FileUtils.getUserHome(), ".grade/transcripts");
+    if (!dir.exists()) {
+      if(!dir.mkdirs()) {
+        throw new RuntimeException("Failed to create transcript dir " + dir);
+      }
+    }
+    return dir;
+  }
+
+  private static File indexFile(File file) {
+    return new File(file.getParentFile(), file.getName() + ".idx");
+  }
+
+  private static String sanitize(String title) {
+    String name = title == null ? "script" : title.replaceAll("[^A-Za-z0-9._-]", "_");
+    return name.length() > 40 ? name.substring(0, 40) : name;
+  }
+
+  private static void prune(File dir) {
+    File[] transcripts = dir.listFiles((d, name) -> name.endsWith(".log"));
+    if (transcripts == null || transcripts.length < KEEP_TRANSCRIPTS) {
+      return;
+    }
+    Arrays.sort(transcripts, Comparator.comparingLong(File::lastModified).reversed());
+    for (int i = KEEP_TRANSCRIPTS - 1; i < transcripts.length; i++) {
+      File idx = indexFile(transcripts[i]);
+      if (!transcripts[i].delete() || (idx.exists() && !idx.delete())) {
+        log.debug("Failed to delete old transcript {}", transcripts[i]);
+      }
+    }
+  }
+
+  /**
+   * Append text to the transcript. Writes are serialized, reads can happen concurrently.
+   */
+  public synchronized void append(String text) {
+    if (finished) {
+      return;
+    }
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    long pos = dataLength;
+    try {
+      data.put(pos, bytes, 0, bytes.length);
+      int lines = lineStarts;
+      for (int i = 0; i < bytes.length; i++) {
+        if (bytes[i] == '\n') {
+          index.putLong((long) lines * Long.BYTES, pos + i + 1);
+          lines++;
+        }
+      }
+      // publish the data length before the line count, readers rely on that order
+      dataLength = pos + bytes.length;
+      lineStarts = lines;
+    } catch (IOException e) {
+      log.warn("Failed to write to transcript {}, disabling it", file, e);
+      finished = true;
+    }
+  }
+
+  /**
+   * Stop writing
+   */
+  public synchronized void finish() {
+    if (finished) {
+      return;
+    }
+    finished = true;
+    try {
+      // everything written is mapped when closing so the transcript can still be read after this
+      data.close();
+      index.close();
+    } catch (IOException e) {
+      log.warn("Failed to close transcript {}", file, e);
+    }
+  }
+
+  @Override
+  public int getLineCount() {
+    int lines = lineStarts;
+    // A trailing newline does not start a visible line
+    if (lines > 1 && lineStart(lines - 1) == dataLength) {
+      return lines - 1;
+    }
+    return lines;
+  }
+
+  @Override
+  public String getLine(int line) {
+    try {
+      long start = lineStart(line);
+      long end = line + 1 < lineStarts ? lineStart(line + 1) : dataLength;
+      int length = (int) Math.min(end - start, MAX_LINE_BYTES);
+      byte[] bytes = new byte[length];
+      data.get(start, bytes, 0, length);
+      // the transcript might have grown since we looked at the line count so stop at the first line break
+      for (int i = 0; i < length; i++) {
+        if (bytes[i] == '\n') {
+          length = i;
+          break;
+        }
+      }
+      if (length > 0 && bytes[length - 1] == '\r') {
+        length--;
+      }
+      return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      log.warn("Failed to read line {} from {}", line, file, e);
+      return "";
+    }
+  }
+
+  @Override
+  public int find(String text, int fromLine) {
+    if (text == null || text.isEmpty() || fromLine >= lineStarts) {
+      return -1;
+    }
+    try {
+      long end = dataLength;
+      long pos = data.indexOf(text.getBytes(StandardCharsets.UTF_8), lineStart(fromLine), end);
+      return pos < 0 ? -1 : lineOf(pos);
+    } catch (IOException e) {
+      log.warn("Failed to search {}", file, e);
+      return -1;
+    }
+  }
+
+  private long lineStart(int line) {
+    try {
+      return index.getLong((long) line * Long.BYTES);
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to read transcript index for " + file, e);
+    }
+  }
+
+  /**
+   * Binary search the line index for the line containing the byte offset
+   */
+  private int lineOf(long offset) {
+    int low = 0;
+    int high = lineStarts - 1;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (lineStart(mid) <= offset) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public String getTitle() {
+    return title;
+  }
+
+  public long getSize() {
+    return dataLength;
+  }
+}
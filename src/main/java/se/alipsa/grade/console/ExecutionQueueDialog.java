@@ -0,0 +1,48 @@
+package se.alipsa.grade.console;
+
+import javafx.geometry.Insets;
+import javafx.scene.control.Button;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.Dialog;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListView;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.FlowPane;
+import javafx.stage.Modality;
+import se.alipsa.grade.Grade;
+import se.alipsa.grade.utils.GuiUtils;
+
+/**
+ * Shows what is running and waiting to run in the session and allows cancelling it
+ */
+public class ExecutionQueueDialog extends Dialog<Void> {
+
+  public ExecutionQueueDialog(Grade gui, SessionExecutor executor) {
+    setTitle("Execution queue");
+    initModality(Modality.NONE);
+    getDialogPane().getButtonTypes().add(ButtonType.CLOSE);
+
+    ListView<SessionExecutor.Job> jobList = new ListView<>(executor.getJobs());
+    jobList.setPlaceholder(new Label("Nothing is running"));
+
+    Button cancelButton = new Button("Cancel");
+    cancelButton.disableProperty().bind(jobList.getSelectionModel().selectedItemProperty().isNull());
+    cancelButton.setOnAction(a -> {
+      SessionExecutor.Job job = jobList.getSelectionModel().getSelectedItem();
+      if (job != null) {
+        executor.cancel(job);
+      }
+    });
+    FlowPane buttonPane = new FlowPane();
+    buttonPane.setPadding(new Insets(5, 0, 0, 0));
+    buttonPane.getChildren().add(cancelButton);
+
+    BorderPane pane = new BorderPane();
+    pane.setCenter(jobList);
+    pane.setBottom(buttonPane);
+    getDialogPane().setContent(pane);
+    getDialogPane().setPrefSize(500, 300);
+    setResizable(true);
+    GuiUtils.addStyle(gui, this);
+  }
+}
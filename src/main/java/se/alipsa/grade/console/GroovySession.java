@@ -0,0 +1,40 @@
+package se.alipsa.grade.console;
+
+import org.codehaus.groovy.jsr223.GroovyScriptEngineImpl;
+
+/**
+ * An initialized script engine together with the class loader and compiled script cache it uses.
+ * The fingerprint identifies everything the session was built from (classpath, build files, settings)
+ * so that a session prepared in advance can be checked against the current state before it is used.
+ */
+class GroovySession {
+
+  private final ScriptClassLoader classLoader;
+  private final GroovyScriptEngineImpl engine;
+  private final CompiledScriptCache scriptCache;
+  private final String fingerprint;
+
+  GroovySession(ScriptClassLoader classLoader, GroovyScriptEngineImpl engine, CompiledScriptCache scriptCache,
+                String fingerprint) {
+    this.classLoader = classLoader;
+    this.engine = engine;
+    this.scriptCache = scriptCache;
+    this.fingerprint = fingerprint;
+  }
+
+  ScriptClassLoader getClassLoader() {
+    return classLoader;
+  }
+
+  GroovyScriptEngineImpl getEngine() {
+    return engine;
+  }
+
+  CompiledScriptCache getScriptCache() {
+    return scriptCache;
+  }
+
+  String getFingerprint() {
+    return fingerprint;
+  }
+}
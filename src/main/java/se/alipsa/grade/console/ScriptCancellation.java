@@ -0,0 +1,80 @@
+package se.alipsa.grade.console;
+
+import groovy.transform.ConditionalInterrupt;
+import groovy.transform.ThreadInterrupt;
+import org.codehaus.groovy.ast.ClassHelper;
+import org.codehaus.groovy.ast.Parameter;
+import org.codehaus.groovy.ast.VariableScope;
+import org.codehaus.groovy.ast.expr.ArgumentListExpression;
+import org.codehaus.groovy.ast.expr.ClosureExpression;
+import org.codehaus.groovy.ast.expr.StaticMethodCallExpression;
+import org.codehaus.groovy.ast.stmt.ExpressionStatement;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.customizers.ASTTransformationCustomizer;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cooperative cancellation of running scripts. Every script compiled by the session class loader gets
+ * interrupt checks woven in at loop heads, method and closure entries so that the stop button can end a script
+ * by setting a flag (and interrupting the thread) instead of killing the thread with Thread.stop.
+ * The flag is per thread so that cancelling the session thread does not affect e.g. a standby session
+ * running its autorun scripts at the same time.
+ */
+public final class ScriptCancellation {
+
+  private static final Set<Thread> cancelled = ConcurrentHashMap.newKeySet();
+
+  private ScriptCancellation() {
+    // Utility class
+  }
+
+  /**
+   * Called from the compiled scripts (via the ConditionalInterrupt check) so it must be cheap
+   */
+  public static boolean isCancelled() {
+    return !cancelled.isEmpty() && cancelled.contains(Thread.currentThread());
+  }
+
+  public static void cancel(Thread thread) {
+    cancelled.add(thread);
+  }
+
+  public static void reset(Thread thread) {
+    cancelled.remove(thread);
+  }
+
+  /**
+   * @return a compiler configuration that weaves the interrupt checks into every compiled class
+   */
+  public static CompilerConfiguration createCompilerConfiguration() {
+    CompilerConfiguration config = new CompilerConfiguration();
+    config.addCompilationCustomizers(new ASTTransformationCustomizer(ThreadInterrupt.class));
+
+    // { -> se.alipsa.grade.console.ScriptCancellation.isCancelled() }
+    ClosureExpression condition = new ClosureExpression(Parameter.EMPTY_ARRAY, new ExpressionStatement(
+        new StaticMethodCallExpression(ClassHelper.make(ScriptCancellation.class), "isCancelled",
+            ArgumentListExpression.EMPTY_ARGUMENTS)
+    ));
+    condition.setVariableScope(new VariableScope());
+    config.addCompilationCustomizers(new ASTTransformationCustomizer(Map.of("value", condition), ConditionalInterrupt.class));
+    return config;
+  }
+
+  /**
+   * @return true if the throwable (or one of its causes) is the result of a cancellation (or a timeout, see
+   * {@link SessionExecutor#setTimeLimit(int)})
+   */
+  public static boolean isCancellation(Throwable throwable) {
+    Throwable t = throwable;
+    while (t != null) {
+      if (t instanceof InterruptedException) {
+        return true;
+      }
+      t = t.getCause();
+    }
+    return false;
+  }
+}
@@ -0,0 +1,53 @@
+package se.alipsa.grade.console;
+
+import groovy.lang.GroovyClassLoader;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import se.alipsa.grade.utils.StringUtils;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The session class loader. Scripts are compiled in child loaders (see {@link CompiledScriptCache}) so that
+ * they can be unloaded, classes declared by a script are registered here so that later scripts can use them.
+ */
+public class ScriptClassLoader extends GroovyClassLoader {
+
+  /** a hash of the bytecode of each registered class */
+  private final Map<Class<?>, String> digests = new ConcurrentHashMap<>();
+  private final String sessionId = UUID.randomUUID().toString();
+
+  public ScriptClassLoader(ClassLoader parent, CompilerConfiguration config) {
+    super(parent, config);
+  }
+
+  /**
+   * Make a class compiled by a child loader resolvable by name from this loader
+   */
+  void registerClass(Class<?> clazz, byte[] bytecode) {
+    // a class declared again replaces the earlier one
+    digests.keySet().removeIf(c -> c.getName().equals(clazz.getName()));
+    digests.put(clazz, StringUtils.sha256(bytecode));
+    setClassCacheEntry(clazz);
+  }
+
+  /**
+   * @return a description of the classes defined in this loader, a script compiled against them must be compiled
+   * again if they change. It is the same in another session where the same classes have been registered.
+   */
+  String definedClassesFingerprint() {
+    StringBuilder sb = new StringBuilder();
+    Class<?>[] classes = getLoadedClasses();
+    Arrays.sort(classes, Comparator.comparing(Class::getName));
+    for (Class<?> clazz : classes) {
+      String digest = digests.get(clazz);
+      // defined some other way, we cannot know if it is the same as in another session
+      sb.append(clazz.getName()).append(':')
+          .append(digest != null ? digest : sessionId + '@' + System.identityHashCode(clazz)).append('\n');
+    }
+    return sb.toString();
+  }
+}
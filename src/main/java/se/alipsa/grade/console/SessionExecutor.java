@@ -0,0 +1,249 @@
+package se.alipsa.grade.console;
+
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs everything that touches the script engine on a single worker thread, one job at a time, so that
+ * nothing is ever evaluated concurrently against the same engine and the FX thread never waits for a script.
+ * Jobs are run in priority order (init before autorun before user scripts before background work) and
+ * FIFO within the same priority. Jobs with a coalesce key are only queued once while pending.
+ * Autorun and normal jobs running longer than the time limit are interrupted like when they are cancelled.
+ */
+public class SessionExecutor {
+
+  public enum Priority {
+    INIT,
+    AUTORUN,
+    NORMAL,
+    BACKGROUND
+  }
+
+  public enum State {
+    PENDING,
+    RUNNING
+  }
+
+  private static final Logger log = LogManager.getLogger(SessionExecutor.class);
+
+  private final PriorityBlockingQueue<Job> queue = new PriorityBlockingQueue<>();
+  private final AtomicLong sequence = new AtomicLong();
+  /** A view of the pending and running jobs, only modified on the FX thread */
+  private final ObservableList<Job> jobs = FXCollections.observableArrayList();
+  private final Thread worker;
+  private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread thread = new Thread(r, "grade-session-timer");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private volatile Job running;
+  private volatile int timeLimitSeconds;
+
+  public SessionExecutor() {
+    worker = new Thread(this::runJobs, "grade-session");
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  /**
+   * Queue a task for execution on the session thread
+   *
+   * @param task the task to run, its event handlers are called on the FX thread as usual
+   * @param description what to show in the queue view
+   * @param priority the priority of the job
+   * @param coalesceKey if not null and a pending job has the same key, the new task is not queued
+   * @return the queued job or the already pending job it was coalesced with
+   */
+  public synchronized Job submit(Task<?> task, String description, Priority priority, String coalesceKey) {
+    if (coalesceKey != null) {
+      for (Job pending : queue) {
+        if (coalesceKey.equals(pending.coalesceKey)) {
+          log.trace("Coalescing {} with already pending {}", description, pending.description);
+          return pending;
+        }
+      }
+    }
+    Job job = new Job(task, description, priority, coalesceKey, sequence.incrementAndGet());
+    log.debug("Queueing {} with priority {}", description, priority);
+    Platform.runLater(() -> jobs.add(job));
+    queue.add(job);
+    return job;
+  }
+
+  public Job submit(Task<?> task, String description, Priority priority) {
+    return submit(task, description, priority, null);
+  }
+
+  public Job submit(Task<?> task, String description) {
+    return submit(task, description, Priority.NORMAL, null);
+  }
+
+  /**
+   * Cancel a job, a pending job is removed from the queue, a running job is interrupted
+   */
+  public void cancel(Job job) {
+    if (queue.remove(job)) {
+      log.debug("Cancelling pending {}", job.description);
+      job.task.cancel(false);
+      Platform.runLater(() -> jobs.remove(job));
+    } else {
+      interrupt(job);
+    }
+  }
+
+  /**
+   * Interrupt the running job, scripts check for this cooperatively (see {@link ScriptCancellation})
+   *
+   * @return the job that was interrupted or null if nothing was running
+   */
+  public synchronized Job interruptRunning() {
+    Job job = running;
+    if (job != null) {
+      interrupt(job);
+    }
+    return job;
+  }
+
+  /**
+   * Interrupt the job if it is still the one running, the worker only switches jobs while holding the lock
+   */
+  private synchronized void interrupt(Job job) {
+    if (job != running) {
+      return;
+    }
+    log.debug("Interrupting {}", job.description);
+    ScriptCancellation.cancel(worker);
+    worker.interrupt();
+  }
+
+  /**
+   * @param seconds the max wall clock time of each autorun or normal job from when it starts, 0 or less for no limit.
+   *                Applies to jobs started after this.
+   */
+  public void setTimeLimit(int seconds) {
+    timeLimitSeconds = seconds;
+  }
+
+  private synchronized void timeout(Job job) {
+    if (job != running) {
+      return;
+    }
+    log.info("{} exceeded the max run time of {} seconds", job.description, timeLimitSeconds);
+    job.timedOut = true;
+    interrupt(job);
+  }
+
+  public Job getRunning() {
+    return running;
+  }
+
+  public ObservableList<Job> getJobs() {
+    return jobs;
+  }
+
+  private void runJobs() {
+    while (true) {
+      Job job;
+      try {
+        job = queue.take();
+      } catch (InterruptedException e) {
+        // someone tried to interrupt between jobs, nothing to do
+        continue;
+      }
+      synchronized (this) {
+        ScriptCancellation.reset(worker);
+        running = job;
+      }
+      job.state = State.RUNNING;
+      Platform.runLater(() -> refresh(job));
+      int timeLimit = timeLimitSeconds;
+      ScheduledFuture<?> timeout = null;
+      if (timeLimit > 0 && (job.priority == Priority.AUTORUN || job.priority == Priority.NORMAL)) {
+        timeout = timer.schedule(() -> timeout(job), timeLimit, TimeUnit.SECONDS);
+      }
+      try {
+        job.task.run();
+      } catch (RuntimeException e) {
+        // Task.run captures exceptions from call() so this should not happen
+        log.warn("Unexpected exception running {}", job.description, e);
+      } finally {
+        if (timeout != null) {
+          timeout.cancel(false);
+        }
+        synchronized (this) {
+          running = null;
+          // an interrupt aimed at this job must not leak into the next one
+          Thread.interrupted();
+          ScriptCancellation.reset(worker);
+        }
+        Platform.runLater(() -> jobs.remove(job));
+      }
+    }
+  }
+
+  private void refresh(Job job) {
+    int idx = jobs.indexOf(job);
+    if (idx >= 0) {
+      jobs.set(idx, job);
+    }
+  }
+
+  public static class Job implements Comparable<Job> {
+    private final Task<?> task;
+    private final String description;
+    private final Priority priority;
+    private final String coalesceKey;
+    private final long sequence;
+    private volatile State state = State.PENDING;
+    private volatile boolean timedOut;
+
+    Job(Task<?> task, String description, Priority priority, String coalesceKey, long sequence) {
+      this.task = task;
+      this.description = description;
+      this.priority = priority;
+      this.coalesceKey = coalesceKey;
+      this.sequence = sequence;
+    }
+
+    public String getDescription() {
+      return description;
+    }
+
+    public Priority getPriority() {
+      return priority;
+    }
+
+    public State getState() {
+      return state;
+    }
+
+    /**
+     * @return true if the job was interrupted since it exceeded the time limit
+     */
+    public boolean isTimedOut() {
+      return timedOut;
+    }
+
+    @Override
+    public int compareTo(Job other) {
+      int cmp = priority.compareTo(other.priority);
+      return cmp != 0 ? cmp : Long.compare(sequence, other.sequence);
+    }
+
+    @Override
+    public String toString() {
+      return "[" + state + "] " + description;
+    }
+  }
+}
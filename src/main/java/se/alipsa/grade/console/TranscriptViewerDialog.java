@@ -0,0 +1,26 @@
+package se.alipsa.grade.console;
+
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.Dialog;
+import javafx.stage.Modality;
+import se.alipsa.grade.Grade;
+import se.alipsa.grade.utils.GuiUtils;
+import se.alipsa.grade.utils.LineSourceView;
+
+/**
+ * Shows the complete output of a script run, including what has been trimmed from the console
+ */
+public class TranscriptViewerDialog extends Dialog<Void> {
+
+  public TranscriptViewerDialog(Grade gui, ConsoleTranscript transcript) {
+    setTitle("Full output: " + transcript.getTitle());
+    initModality(Modality.NONE);
+    getDialogPane().getButtonTypes().add(ButtonType.CLOSE);
+    LineSourceView view = new LineSourceView(transcript);
+    getDialogPane().setContent(view);
+    getDialogPane().setPrefSize(900, 600);
+    setResizable(true);
+    GuiUtils.addStyle(gui, this);
+    view.scrollTo(Math.max(0, transcript.getLineCount() - 1));
+  }
+}
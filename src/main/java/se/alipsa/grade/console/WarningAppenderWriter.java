@@ -4,22 +4,35 @@ import java.io.Writer;
 
 public class WarningAppenderWriter extends Writer {
 
-    private final ConsoleTextArea console;
+    private final ConsoleOutputPipeline pipeline;
+    private final StringBuilder batch = new StringBuilder();
 
     public WarningAppenderWriter(ConsoleTextArea console) {
-        this.console = console;
+        this.pipeline = console.getOutputPipeline();
     }
 
     @Override
-    public void write(char[] cbuf, int off, int len) {
-        console.appendWarningFx(new String(cbuf, off, len));
+    public synchronized void write(char[] cbuf, int off, int len) {
+        batch.append(cbuf, off, len);
+        if (batch.length() >= AppenderWriter.BATCH_SIZE || AppenderWriter.containsNewline(cbuf, off, len)) {
+            publish();
+        }
+    }
+
+    private void publish() {
+        if (batch.length() > 0) {
+            pipeline.publishWarning(batch.toString());
+            batch.setLength(0);
+        }
     }
 
     @Override
-    public void flush() {
+    public synchronized void flush() {
+        publish();
     }
 
     @Override
     public void close() {
+        flush();
     }
-}
\ No newline at end of file
+}
@@ -33,10 +33,12 @@ import se.alipsa.grade.Grade;
 import se.alipsa.grade.UnStyledCodeArea;
 import se.alipsa.grade.code.CodeType;
 import se.alipsa.grade.code.groovytab.GroovyTextArea;
+import se.alipsa.grade.console.ClassIndex;
 import se.alipsa.grade.model.Dependency;
 import se.alipsa.grade.model.TableMetaData;
 import se.alipsa.grade.utils.*;
 import se.alipsa.grade.utils.gradle.GradleUtils;
+import se.alipsa.grade.utils.maven.DependencyResolver;
 import tech.tablesaw.api.Table;
 
 import java.io.File;
@@ -53,6 +55,7 @@ import java.util.prefs.Preferences;
 import java.util.stream.Collectors;
 
 import static se.alipsa.grade.Constants.*;
+import static se.alipsa.grade.menu.GlobalOptions.MAVEN_REPOSITORIES;
 import static se.alipsa.grade.utils.QueryBuilder.*;
 
 public class ConnectionsTab extends Tab {
@@ -806,18 +809,28 @@ public class ConnectionsTab extends Tab {
     try {
       Dependency dep = new Dependency(ci.getDependency());
       log.info("Resolving dependency {}", ci.getDependency());
-      File jar = GradleUtils.downloadArtifact(dep);
-      URL url = jar.toURI().toURL();
-      URL[] urls = new URL[]{url};
-      log.info("Dependency url is {}", urls[0]);
+      var resolver = new DependencyResolver(
+          DependencyResolver.parseRepositories(gui.getPrefs().get(MAVEN_REPOSITORIES, MavenRepositoryUrl.MAVEN_CENTRAL.baseUrl)),
+          GradleUtils.getCacheDir());
+      List<File> jars = resolver.resolve(dep);
+      log.info("Dependency files are {}", jars);
       if (gui.dynamicClassLoader == null) {
         ClassLoader cl;
         cl = gui.getConsoleComponent().getClassLoader();
         gui.dynamicClassLoader = new GroovyClassLoader(cl);
       }
 
-      if (Arrays.stream(gui.dynamicClassLoader.getURLs()).noneMatch(p -> p.equals(url))) {
-        gui.dynamicClassLoader.addURL(url);
+      boolean added = false;
+      for (File jar : jars) {
+        URL url = jar.toURI().toURL();
+        if (Arrays.stream(gui.dynamicClassLoader.getURLs()).noneMatch(p -> p.equals(url))) {
+          gui.dynamicClassLoader.addURL(url);
+          added = true;
+        }
+      }
+      ClassIndex classIndex = gui.getConsoleComponent().getClassIndex();
+      if (added && classIndex != null) {
+        classIndex.refreshAsync();
       }
 
     } catch (IOException e) {
@@ -13,11 +13,9 @@ import javafx.scene.control.Menu;
 import javafx.scene.control.MenuItem;
 import javafx.scene.control.TextInputDialog;
 import javafx.scene.control.TreeItem;
-import org.apache.commons.io.output.WriterOutputStream;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.eclipse.jgit.api.CommitCommand;
-import org.eclipse.jgit.api.DiffCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.ListBranchCommand;
 import org.eclipse.jgit.api.MergeResult;
@@ -26,7 +24,6 @@ import org.eclipse.jgit.api.Status;
 import org.eclipse.jgit.api.StatusCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.TransportException;
-import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.dircache.DirCache;
 import org.eclipse.jgit.lib.ConfigConstants;
 import org.eclipse.jgit.lib.CoreConfig;
@@ -35,12 +32,13 @@ import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.StoredConfig;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.transport.*;
-import org.eclipse.jgit.treewalk.filter.PathFilter;
 import se.alipsa.grade.Grade;
 import se.alipsa.grade.inout.git.AddRemoteDialog;
 import se.alipsa.grade.inout.git.ConfigResult;
 import se.alipsa.grade.inout.git.CredentialsDialog;
 import se.alipsa.grade.inout.git.GitConfigureDialog;
+import se.alipsa.grade.inout.git.GitDiffDialog;
+import se.alipsa.grade.inout.git.GitLogDialog;
 import se.alipsa.grade.inout.git.GitStatusDialog;
 import se.alipsa.grade.utils.*;
 import se.alipsa.grade.utils.git.GitUtils;
@@ -48,14 +46,9 @@ import se.alipsa.grade.utils.git.GitUtils;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.io.StringWriter;
 import java.net.URISyntaxException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.Files;
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -120,9 +113,9 @@ public class DynamicContextMenu extends ContextMenu {
             if (newFile.getName().endsWith(".java")) {
                addJavaContent(newFile);
             }
-            TreeItem<FileItem> node = fileTree.addTreeNode(newFile);
+            fileTree.addTreeNode(newFile);
             fileTree.openFileTab(newFile);
-            GitUtils.colorNode(git, GitUtils.asRelativePath(newFile, fileTree.getRootDir()), node);
+            fileTree.refreshGitStatus(newFile);
          } catch (IOException e1) {
             ExceptionAlert.showAlert("Failed to create file", e1);
          }
@@ -228,6 +221,10 @@ public class DynamicContextMenu extends ContextMenu {
          gitDiffMI.setOnAction(this::gitDiff);
          gitMenu.getItems().add(gitDiffMI);
 
+         MenuItem gitPathLogMI = new MenuItem("log");
+         gitPathLogMI.setOnAction(this::gitPathLog);
+         gitMenu.getItems().add(gitPathLogMI);
+
          MenuItem gitResetMI = new MenuItem("reset");
          gitResetMI.setOnAction(this::gitReset);
          gitMenu.getItems().add(gitResetMI);
@@ -373,7 +370,7 @@ public class DynamicContextMenu extends ContextMenu {
                mergeResult.getFailingPaths().forEach((k, v) -> str.append(k).append(": ").append(v.toString()).append("\n"));
                Alerts.warn("Merge failed", str.toString());
             }
-            fileTree.refresh();
+            fileTree.sync();
          } catch (Exception e) {
             log.warn("Failed to merge branch", e);
             ExceptionAlert.showAlert("Failed to merge branch", e);
@@ -409,7 +406,7 @@ public class DynamicContextMenu extends ContextMenu {
             git.checkout()
                .setCreateBranch(createBranch)
                .setName(branchName).call();
-            fileTree.refresh();
+            fileTree.sync();
          } catch (GitAPIException e) {
             log.warn("Failed to checkout branch", e);
             ExceptionAlert.showAlert("Failed to checkout branch", e);
@@ -432,27 +429,18 @@ public class DynamicContextMenu extends ContextMenu {
    }
 
    private void gitLog(ActionEvent actionEvent) {
-      try {
-         Iterable<RevCommit> log = git.log().call();
-         StringBuilder str = new StringBuilder();
-         for (RevCommit rc : log) {
-            str.append(LocalDateTime.ofEpochSecond(rc.getCommitTime(), 0, ZoneOffset.UTC))
-               .append(", ")
-               .append(rc)
-               .append(": ").append(rc.getFullMessage())
-               .append("\n");
-         }
-         Alerts.info("Git log", str.toString());
-      } catch (GitAPIException e) {
-         log.warn("Failed to get log", e);
-         ExceptionAlert.showAlert("Failed to get log", e);
-      }
+      new GitLogDialog(gui, git, null).show();
+   }
+
+   private void gitPathLog(ActionEvent actionEvent) {
+      String path = getRelativePath();
+      new GitLogDialog(gui, git, ".".equals(path) ? null : path).show();
    }
 
    private void gitReset(ActionEvent actionEvent) {
       try {
          git.reset().addPath(getRelativePath()).call();
-         fileTree.refresh();
+         fileTree.sync();
       } catch (GitAPIException e) {
          log.warn("Failed to reset", e);
          ExceptionAlert.showAlert("Failed to reset", e);
@@ -471,7 +459,7 @@ public class DynamicContextMenu extends ContextMenu {
             git.add().addFilepattern(path).call();
             log.info("Adding untracked file " + path);
          }
-         fileTree.refresh();
+         fileTree.sync();
       } catch (GitAPIException e) {
          log.warn("Failed to add all", e);
          ExceptionAlert.showAlert("Failed to add all", e);
@@ -479,25 +467,8 @@ public class DynamicContextMenu extends ContextMenu {
    }
 
    private void gitDiff(ActionEvent actionEvent) {
-      try (StringWriter writer = new StringWriter();
-           OutputStream out = new WriterOutputStream(writer, StandardCharsets.UTF_8)) {
-         DiffCommand diffCommand = git.diff();
-         diffCommand.setOutputStream(out);
-         String path = getRelativePath();
-         diffCommand.setPathFilter(PathFilter.create(path));
-         List<DiffEntry> diffs = diffCommand.call();
-         StringBuilder str = new StringBuilder();
-         if (diffs.size() > 0) {
-            diffs.forEach(e -> str.append(e.toString()).append("\n"));
-            str.append(writer);
-         } else {
-            str.append("No differences detected for ").append(path);
-         }
-         Alerts.info("Diff against repo for " + path, str.toString());
-      } catch (GitAPIException | IOException e) {
-         log.warn("Failed to diff", e);
-         ExceptionAlert.showAlert("Failed to execute diff", e);
-      }
+      String path = getRelativePath();
+      new GitDiffDialog(gui, git, null, ".".equals(path) ? null : path).show();
    }
 
    private String getRelativePath() {
@@ -843,7 +814,7 @@ public class DynamicContextMenu extends ContextMenu {
                CommitCommand commit = git.commit();
                RevCommit revCommit = commit.setMessage(msg).call();
                log.info("Commited result: {}", revCommit);
-               fileTree.refresh();
+               fileTree.sync();
                gui.setNormalCursor();
             } catch (GitAPIException e) {
                log.warn("Failed to commit ", e);
@@ -859,7 +830,7 @@ public class DynamicContextMenu extends ContextMenu {
       try {
          DirCache dc = git.add().addFilepattern(currentPath).call();
          log.info("Added {} to git dir cache, node is {}", currentPath, currentNode.getValue().getText());
-         GitUtils.colorNode(git, currentPath, currentNode);
+         fileTree.refreshGitStatus(currentNode.getValue().getFile());
       } catch (GitAPIException e) {
          log.warn("Failed to add " + currentPath, e);
          ExceptionAlert.showAlert("Failed to add " + currentPath, e);
@@ -884,7 +855,7 @@ public class DynamicContextMenu extends ContextMenu {
          } else {
             FileUtils.copy(gitIgnoreTemplate, fileTree.getRootDir());
          }
-         fileTree.refresh();
+         fileTree.sync();
       } catch (GitAPIException | IOException e) {
          log.warn("Failed to initialize git in " + fileTree.getRootDir().getAbsolutePath(), e);
          ExceptionAlert.showAlert("Failed to initialize git in " + fileTree.getRootDir().getAbsolutePath(), e);
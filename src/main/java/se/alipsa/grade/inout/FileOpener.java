@@ -6,6 +6,7 @@ import org.apache.logging.log4j.Logger;
 import se.alipsa.grade.code.CodeComponent;
 import se.alipsa.grade.code.CodeType;
 import se.alipsa.grade.code.TextAreaTab;
+import se.alipsa.grade.code.txttab.TxtTab;
 import se.alipsa.grade.utils.Alerts;
 import se.alipsa.grade.utils.ExceptionAlert;
 import se.alipsa.grade.utils.TikaUtils;
@@ -37,23 +38,23 @@ public class FileOpener {
                   // in case an xml declaration was omitted or empty file:
                  || strEndsWith(fileNameLower,".xml")
                  || strEndsWith(fileNameLower,".html")){
-        return codeComponent.addTab(file, CodeType.XML);
+        return addTab(file, CodeType.XML);
       }
       if (strEndsWith(fileNameLower, ".java")) {
-        return codeComponent.addTab(file, CodeType.JAVA);
+        return addTab(file, CodeType.JAVA);
       }
       if (strEquals(type, "text/x-groovy") || strEndsWith(fileNameLower, ".groovy", ".gvy", ".gy", ".gsh", ".gradle")) {
-        return codeComponent.addTab(file, CodeType.GROOVY);
+        return addTab(file, CodeType.GROOVY);
       }
       if (strEquals(type, "text/x-sql", "application/sql") || strEndsWith(fileNameLower, "sql")) {
-        return codeComponent.addTab(file, CodeType.SQL);
+        return addTab(file, CodeType.SQL);
       }
       if (strEndsWith(fileNameLower, ".js")
           || strEquals(type, "application/javascript", "application/ecmascript", "text/javascript", "text/ecmascript")) {
-        return codeComponent.addTab(file, CodeType.JAVA_SCRIPT);
+        return addTab(file, CodeType.JAVA_SCRIPT);
       }
       if (strEndsWith(fileNameLower, ".md") || strEndsWith(fileNameLower, ".rmd")) {
-        return codeComponent.addTab(file, CodeType.MD);
+        return addTab(file, CodeType.MD);
       }
       if (strStartsWith(type, "text")
                  || strEquals(type, "application/x-bat",
@@ -61,7 +62,7 @@ public class FileOpener {
                  || "namespace".equals(fileNameLower)
                  || "description".equals(fileNameLower)
                  || strEndsWith(fileNameLower, ".txt", ".csv", ".gitignore", ".properties", "props")) {
-        return codeComponent.addTab(file, CodeType.TXT);
+        return addTab(file, CodeType.TXT);
       }
       if (allowOpenExternal && isDesktopSupported()) {
         log.info("Try to open {} in associated application", file.getName());
@@ -74,6 +75,14 @@ public class FileOpener {
     return null;
   }
 
+  private TextAreaTab addTab(File file, CodeType type) {
+    if (file.length() > TxtTab.LARGE_FILE_THRESHOLD) {
+      log.debug("{} is {} bytes, opening it as a large file", file.getName(), file.length());
+      return codeComponent.addLargeFileTab(file);
+    }
+    return codeComponent.addTab(file, type);
+  }
+
   private boolean isDesktopSupported() {
     try {
       return Desktop.isDesktopSupported();
@@ -1,17 +1,12 @@
 package se.alipsa.grade.inout;
 
-import static se.alipsa.grade.Constants.GitStatus.GIT_ADDED;
-import static se.alipsa.grade.Constants.GitStatus.GIT_CHANGED;
-import static se.alipsa.grade.Constants.GitStatus.GIT_CONFLICT;
-import static se.alipsa.grade.Constants.GitStatus.GIT_IGNORED;
-import static se.alipsa.grade.Constants.GitStatus.GIT_MODIFIED;
-import static se.alipsa.grade.Constants.GitStatus.GIT_UNCOMITTED_CHANGE;
-import static se.alipsa.grade.Constants.GitStatus.GIT_UNTRACKED;
 import static se.alipsa.grade.Constants.KEY_CODE_COPY;
+import static se.alipsa.grade.menu.GlobalOptions.DEFAULT_FILE_TREE_EXCLUDES;
+import static se.alipsa.grade.menu.GlobalOptions.FILE_TREE_EXCLUDES;
 
 import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
-import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
 import javafx.event.Event;
 import javafx.scene.control.Tooltip;
 import javafx.scene.control.TreeCell;
@@ -26,20 +21,33 @@ import javafx.scene.input.MouseEvent;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.Status;
-import org.eclipse.jgit.api.errors.GitAPIException;
+import se.alipsa.grade.Constants.GitStatus;
 import se.alipsa.grade.Grade;
 import se.alipsa.grade.code.CodeComponent;
 import se.alipsa.grade.code.TextAreaTab;
 import se.alipsa.grade.utils.Alerts;
 import se.alipsa.grade.utils.ExceptionAlert;
 import se.alipsa.grade.utils.FileUtils;
-import se.alipsa.grade.utils.git.GitUtils;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class FileTree extends TreeView<FileItem> {
 
@@ -53,6 +61,24 @@ public class FileTree extends TreeView<FileItem> {
   private DynamicContextMenu menu;
   private Git git;
   private final InoutComponent inoutComponent;
+  private volatile List<PathMatcher> excludes = List.of();
+  /** dirs to expand when they have been listed */
+  private Set<File> reExpand = new HashSet<>();
+  /** null when git is not enabled or the root dir is not a git repository */
+  private GitStatusService gitStatusService;
+  /** Keeps the listed dirs in sync with the file system, null if the file system cannot be watched */
+  private final FileWatcher watcher;
+  /** The dirs that have been listed (and are watched) */
+  private final Map<Path, DirectoryItem> loadedDirs = new HashMap<>();
+  /** Incremented for each new tree so that listings of a replaced tree are ignored */
+  private volatile int generation;
+
+  /** Dirs are listed one at a time in the background so that a slow (e.g. network) dir does not block the gui */
+  private static final ExecutorService DIR_LISTER = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "grade-file-tree");
+    thread.setDaemon(true);
+    return thread;
+  });
 
   FileTree(Grade gui, InoutComponent inoutComponent) {
     this.gui = gui;
@@ -60,6 +86,7 @@ public class FileTree extends TreeView<FileItem> {
     this.inoutComponent = inoutComponent;
     fileOpener = new FileOpener(codeComponent);
     this.getStyleClass().add("fileTree");
+    watcher = FileWatcher.create(changes -> Platform.runLater(() -> applyChanges(changes)));
 
     File current = new File(getWorkingDirPref());
     boolean workDirExist = current.exists();
@@ -76,12 +103,10 @@ public class FileTree extends TreeView<FileItem> {
     if(workDirExist) {
       log.info("Setting working dir to {}", current);
       setWorkingDir(current);
-      setRoot(createTree(current));
+      setRoot(createTree(current, Set.of()));
       if (inoutComponent.isGitEnabled()) {
         gitColorTree(getRoot());
       }
-      sortTree(getRoot());
-      getRoot().setExpanded(true);
     }
     setCellFactory(treeView -> new TreeCell<>() {
 
@@ -159,18 +184,55 @@ public class FileTree extends TreeView<FileItem> {
     Platform.runLater(() -> gui.setTitle(dir.getName()));
   }
 
-  private TreeItem<FileItem> createTree(File file) {
-    TreeItem<FileItem> item = new TreeItem<>(new FileItem(file));
-    File[] children = file.listFiles();
-    if (children != null) {
-      for (File child : children) {
-        item.getChildren().add(createTree(child));
+  /**
+   * Create the root of the tree, only the root dir is listed, sub dirs are listed when expanded
+   *
+   * @param expandedDirs dirs to expand again when they are listed, e.g. the ones expanded before a refresh
+   */
+  private TreeItem<FileItem> createTree(File dir, Set<File> expandedDirs) {
+    excludes = parseExcludes(gui.getPrefs().get(FILE_TREE_EXCLUDES, DEFAULT_FILE_TREE_EXCLUDES));
+    reExpand = new HashSet<>(expandedDirs);
+    generation++;
+    loadedDirs.clear();
+    closeGitStatus();
+    if (watcher != null) {
+      watcher.unregisterAll();
+    }
+    DirectoryItem root = new DirectoryItem(dir, dir.toPath());
+    root.setExpanded(true);
+    return root;
+  }
+
+  private static List<PathMatcher> parseExcludes(String globs) {
+    List<PathMatcher> matchers = new ArrayList<>();
+    for (String glob : globs.split(",")) {
+      if (!glob.isBlank()) {
+        matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob.trim()));
       }
-      item.setGraphic(new ImageView(folderUrl));
-    } else {
-      setLeafProperties(item);
     }
-    return item;
+    return matchers;
+  }
+
+  private boolean isExcluded(Path root, Path path) {
+    Path name = path.getFileName();
+    Path relative = root.relativize(path);
+    for (PathMatcher matcher : excludes) {
+      if (matcher.matches(name) || matcher.matches(relative)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private Set<File> expandedDirs(TreeItem<FileItem> item) {
+    Set<File> expanded = new HashSet<>();
+    if (item != null && item.isExpanded()) {
+      expanded.add(item.getValue().getFile());
+      for (TreeItem<FileItem> child : item.getChildren()) {
+        expanded.addAll(expandedDirs(child));
+      }
+    }
+    return expanded;
   }
 
   private void gitColorTree(TreeItem<FileItem> root) {
@@ -179,65 +241,66 @@ public class FileTree extends TreeView<FileItem> {
       log.debug("adding git coloring...");
     } else {
       log.debug("not a git repository, skipping git coloring");
+      closeGitStatus();
       return;
     }
-    Platform.runLater(() -> {
-      try {
+    try {
+      if (gitStatusService == null) {
         git = Git.open(rootDir);
-        String branch = git.getRepository().getBranch();
-        inoutComponent.getBranchLabel().setText("Branch: " + branch);
-        Status status;
-        try {
-          status = git.status().call();
-        } catch (GitAPIException e) {
-          ExceptionAlert.showAlert("Failed to get git status", e);
-          return;
-        }
-        walkAndColor(getRoot(), status);
-      } catch (Exception e) {
-        log.error("Failed to set git colors", e);
-        ExceptionAlert.showAlert("Failed to set git colors", e);
+        gitStatusService = new GitStatusService(git, this::applyGitStatus);
+      } else {
+        gitStatusService.refreshAll();
+      }
+      String branch = git.getRepository().getBranch();
+      inoutComponent.getBranchLabel().setText("Branch: " + branch);
+    } catch (Exception e) {
+      log.error("Failed to set git colors", e);
+      ExceptionAlert.showAlert("Failed to set git colors", e);
+    }
+  }
+
+  private void closeGitStatus() {
+    if (gitStatusService != null) {
+      gitStatusService.close();
+      gitStatusService = null;
+    }
+  }
+
+  /**
+   * Recolor the items of the paths whose git status changed, items in dirs that are not listed are colored when
+   * the dir is listed
+   */
+  private void applyGitStatus(Map<String, GitStatus> changes) {
+    Path root = getRootDir().toPath();
+    changes.forEach((path, status) -> {
+      Path file = root.resolve(path);
+      DirectoryItem parent = loadedDirs.get(file.getParent());
+      TreeItem<FileItem> item = parent == null ? null : parent.findChild(file.getFileName().toString());
+      if (item != null) {
+        item.getValue().setStyle(status.getStyle());
       }
     });
   }
 
-  private void walkAndColor(TreeItem<FileItem> node,  Status status) {
-      for(TreeItem<FileItem> child: node.getChildren()){
+  /**
+   * Compute the git status of the file (or dir) again, e.g. after it was saved or added to the index
+   */
+  void refreshGitStatus(File file) {
+    Path path = file.toPath().toAbsolutePath();
+    if (gitStatusService != null && path.startsWith(getRootDir().toPath().toAbsolutePath())) {
+      gitStatusService.pathsChanged(List.of(relativePath(path)));
+    }
+  }
 
-        FileItem item = child.getValue();
-        File file = item.getFile();
-        String path = GitUtils.asRelativePath(file, getRootDir());
+  private String relativePath(Path path) {
+    return getRootDir().toPath().toAbsolutePath().relativize(path.toAbsolutePath()).toString().replace(File.separatorChar, '/');
+  }
 
-        if(status.getConflicting().contains(path)) {
-          item.setStyle(GIT_CONFLICT.getStyle());
-          continue;
-        }
-        if(status.getAdded().contains(path)) {
-          item.setStyle(GIT_ADDED.getStyle());
-          continue;
-        }
-        if(status.getChanged().contains(path)) {
-          item.setStyle(GIT_CHANGED.getStyle());
-          continue;
-        }
-        if(status.getModified().contains(path)) {
-          item.setStyle(GIT_MODIFIED.getStyle());
-          continue;
-        }
-        if(status.getUncommittedChanges().contains(path)) {
-          item.setStyle(GIT_UNCOMITTED_CHANGE.getStyle());
-          break;
-        }
-        if(status.getUntracked().contains(path)) {
-          item.setStyle(GIT_UNTRACKED.getStyle());
-          continue;
-        }
-        if(status.getIgnoredNotInIndex().contains(path)) {
-          item.setStyle(GIT_IGNORED.getStyle());
-          continue;
-        }
-        walkAndColor(child, status);
-      }
+  private void colorItem(TreeItem<FileItem> item) {
+    if (gitStatusService != null) {
+      String path = relativePath(item.getValue().getFile().toPath());
+      item.getValue().setStyle(gitStatusService.getStatus(path).getStyle());
+    }
   }
 
   private void setLeafProperties(TreeItem<FileItem> item) {
@@ -277,34 +340,41 @@ public class FileTree extends TreeView<FileItem> {
   }
 
   public void expandAllChildren(TreeItem<?> item){
-    if(item != null && !item.isLeaf()){
-      item.setExpanded(true);
-      for(TreeItem<?> child:item.getChildren()){
-        expandAllChildren(child);
-      }
+    if (item instanceof DirectoryItem dirItem) {
+      dirItem.expandAll();
     }
   }
 
   TreeItem<FileItem> addTreeNode(File file) {
     TreeItem<FileItem> item = findTreeViewItem(this.getRoot(), file.getParentFile());
     if (item == null) {
-      log.info("File saved outside of current working dir");
+      log.debug("{} is outside of the working dir or in a dir that has not been listed yet", file);
+      return null;
+    }
+    if (item instanceof DirectoryItem dirItem && !dirItem.isLoaded()) {
+      // the file will be there when the dir is listed
+      dirItem.setExpanded(true);
       return null;
     }
-    TreeItem<FileItem> fileItem = new TreeItem<>(new FileItem(file));
-    addTreeNode(item, fileItem);
+    for (TreeItem<FileItem> child : item.getChildren()) {
+      if (child.getValue().getFile().equals(file)) {
+        return child;
+      }
+    }
+    TreeItem<FileItem> fileItem = createItem(file, file.isDirectory(), getRootDir().toPath());
+    item.getChildren().add(fileItem);
+    item.getChildren().sort(treeItemComparator);
+    item.setExpanded(true);
     return fileItem;
   }
 
-  private void addTreeNode(TreeItem<FileItem> dirItem, TreeItem<FileItem> fileItem) {
-    if (fileItem.getValue().getFile().isDirectory()) {
-      fileItem.setGraphic(new ImageView(folderUrl));
-    } else {
-      setLeafProperties(fileItem);
+  private TreeItem<FileItem> createItem(File file, boolean isDir, Path root) {
+    if (isDir) {
+      return new DirectoryItem(file, root);
     }
-    dirItem.getChildren().add(fileItem);
-    dirItem.getChildren().sort(treeItemComparator);
-    dirItem.setExpanded(true);
+    TreeItem<FileItem> item = new TreeItem<>(new FileItem(file));
+    setLeafProperties(item);
+    return item;
   }
 
   void refresh(File dir) {
@@ -315,9 +385,7 @@ public class FileTree extends TreeView<FileItem> {
     if (dir.isFile()) {
       dir = dir.getParentFile();
     }
-    setRoot(createTree(dir));
-    sortTree(getRoot());
-    getRoot().setExpanded(true);
+    setRoot(createTree(dir, Set.of()));
     if (inoutComponent.isGitEnabled()) {
       gitColorTree(getRoot());
     }
@@ -327,15 +395,90 @@ public class FileTree extends TreeView<FileItem> {
 
   public void refresh() {
     File current = getRoot().getValue().getFile();
-    setRoot(createTree(current));
-    sortTree(getRoot());
-    getRoot().setExpanded(true);
+    setRoot(createTree(current, expandedDirs(getRoot())));
     if (inoutComponent.isGitEnabled()) {
       gitColorTree(getRoot());
     }
     menu = new DynamicContextMenu(this, gui, inoutComponent);
   }
 
+  /**
+   * Update the tree after something (e.g. a git command) changed files. When the dirs are watched the tree already
+   * follows the file system so only the git colors are updated, otherwise the tree is rebuilt.
+   */
+  public void sync() {
+    if (watcher == null) {
+      refresh();
+    } else if (inoutComponent.isGitEnabled()) {
+      gitColorTree(getRoot());
+    }
+  }
+
+  /**
+   * Apply a batch of changes from the watcher: items are added and removed where needed, nothing is listed again
+   * unless events were lost
+   */
+  private void applyChanges(FileWatcher.Changes changes) {
+    if (!changes.getRescan().isEmpty()) {
+      inoutComponent.fileEventsLost();
+    }
+    for (Path dir : changes.getRescan()) {
+      DirectoryItem item = loadedDirs.get(dir);
+      if (item != null) {
+        item.reload();
+        refreshGitStatus(dir.toFile());
+      }
+    }
+    Map<DirectoryItem, List<TreeItem<FileItem>>> added = new LinkedHashMap<>();
+    changes.getFiles().forEach((path, change) -> {
+      DirectoryItem parent = loadedDirs.get(path.getParent());
+      TreeItem<FileItem> existing = parent == null ? null : parent.findChild(path.getFileName().toString());
+      switch (change) {
+        case CREATED -> {
+          if (parent != null && existing == null && Files.exists(path) && !isExcluded(parent.root, path)) {
+            TreeItem<FileItem> item = createItem(path.toFile(), Files.isDirectory(path), parent.root);
+            colorItem(item);
+            added.computeIfAbsent(parent, p -> new ArrayList<>()).add(item);
+          }
+          if (Files.isDirectory(path)) {
+            // e.g. moved here, the index picks up the files in it
+            inoutComponent.fileChanged(path.toFile());
+          } else {
+            fileModified(path);
+          }
+        }
+        case MODIFIED -> fileModified(path);
+        case DELETED -> {
+          if (existing != null) {
+            parent.getChildren().remove(existing);
+          }
+          forget(path);
+          inoutComponent.fileChanged(path.toFile());
+        }
+      }
+    });
+    added.forEach((parent, items) -> {
+      parent.getChildren().addAll(items);
+      parent.getChildren().sort(treeItemComparator);
+    });
+  }
+
+  private void fileModified(Path path) {
+    if (Files.isRegularFile(path)) {
+      inoutComponent.fileChanged(path.toFile());
+      gui.getCodeComponent().reloadTabContent(path.toFile());
+    }
+  }
+
+  /**
+   * Stop watching a dir that is no longer in the tree (and the dirs below it)
+   */
+  private void forget(Path dir) {
+    if (loadedDirs.keySet().removeIf(path -> path.startsWith(dir)) && watcher != null) {
+      watcher.unregister(dir);
+    }
+  }
+
   private TreeItem<FileItem> findTreeViewItem(TreeItem<FileItem> item, File value) {
     if (item != null && item.getValue().getFile().equals(value)) {
       return item;
@@ -351,14 +494,6 @@ public class FileTree extends TreeView<FileItem> {
     return null;
   }
 
-  private void sortTree(TreeItem<FileItem> item) {
-    ObservableList<TreeItem<FileItem>> children = item.getChildren();
-    children.sort(treeItemComparator);
-    for (TreeItem<FileItem> child : item.getChildren()) {
-      sortTree(child);
-    }
-  }
-
   private static class TreeItemComparator implements Comparator<TreeItem<FileItem>>, Serializable {
 
     private static final long serialVersionUID = -7749561517249799967L;
@@ -369,6 +504,147 @@ public class FileTree extends TreeView<FileItem> {
     }
   }
 
+  /**
+   * A dir whose content is listed the first time it is expanded, off the FX thread
+   */
+  private class DirectoryItem extends TreeItem<FileItem> {
+
+    private final Path root;
+    private final int treeGeneration = generation;
+    private boolean loading;
+    private boolean loaded;
+    private boolean expandAll;
+
+    DirectoryItem(File dir, Path root) {
+      super(new FileItem(dir), new ImageView(folderUrl));
+      this.root = root;
+      expandedProperty().addListener((obs, wasExpanded, expanded) -> {
+        if (expanded) {
+          load();
+        }
+      });
+    }
+
+    @Override
+    public boolean isLeaf() {
+      return loaded && getChildren().isEmpty();
+    }
+
+    boolean isLoaded() {
+      return loaded;
+    }
+
+    void expandAll() {
+      expandAll = true;
+      setExpanded(true);
+      if (loaded) {
+        for (TreeItem<FileItem> child : getChildren()) {
+          expandAllChildren(child);
+        }
+      }
+    }
+
+    /**
+     * @return the child with the name if the dir has been listed, a binary search as the children are sorted by name
+     */
+    TreeItem<FileItem> findChild(String name) {
+      List<TreeItem<FileItem>> children = getChildren();
+      int low = 0;
+      int high = children.size() - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int cmp = children.get(mid).getValue().getFile().getName().compareTo(name);
+        if (cmp < 0) {
+          low = mid + 1;
+        } else if (cmp > 0) {
+          high = mid - 1;
+        } else {
+          return children.get(mid);
+        }
+      }
+      return null;
+    }
+
+    /**
+     * List the dir again, the dirs below it that are expanded stay expanded
+     */
+    void reload() {
+      if (!loaded) {
+        return;
+      }
+      for (TreeItem<FileItem> child : getChildren()) {
+        reExpand.addAll(expandedDirs(child));
+      }
+      forget(getValue().getFile().toPath());
+      loaded = false;
+      load();
+    }
+
+    private void load() {
+      if (loaded || loading) {
+        return;
+      }
+      loading = true;
+      File dir = getValue().getFile();
+      Task<List<Entry>> task = new Task<>() {
+        @Override
+        protected List<Entry> call() throws IOException {
+          if (watcher != null && treeGeneration == generation) {
+            // watch before listing so that nothing created in between is missed
+            watcher.register(dir.toPath());
+          }
+          List<Entry> entries = new ArrayList<>();
+          try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir.toPath())) {
+            for (Path path : stream) {
+              if (!isExcluded(root, path)) {
+                entries.add(new Entry(path.toFile(), Files.isDirectory(path)));
+              }
+            }
+          }
+          entries.sort(Comparator.comparing(entry -> entry.file.getName()));
+          return entries;
+        }
+      };
+      task.setOnSucceeded(e -> {
+        loading = false;
+        if (treeGeneration != generation) {
+          return;
+        }
+        List<TreeItem<FileItem>> children = new ArrayList<>();
+        for (Entry entry : task.getValue()) {
+          TreeItem<FileItem> child = createItem(entry.file, entry.isDir, root);
+          colorItem(child);
+          children.add(child);
+        }
+        getChildren().setAll(children);
+        loaded = true;
+        loadedDirs.put(dir.toPath(), this);
+        for (TreeItem<FileItem> child : children) {
+          if (expandAll) {
+            expandAllChildren(child);
+          } else if (child instanceof DirectoryItem && reExpand.remove(child.getValue().getFile())) {
+            child.setExpanded(true);
+          }
+        }
+      });
+      task.setOnFailed(e -> {
+        loading = false;
+        log.warn("Failed to list {}", dir, task.getException());
+      });
+      DIR_LISTER.execute(task);
+    }
+  }
+
+  private static class Entry {
+    private final File file;
+    private final boolean isDir;
+
+    Entry(File file, boolean isDir) {
+      this.file = file;
+      this.isDir = isDir;
+    }
+  }
+
   void copySelectionToClipboard() {
     TreeItem<FileItem> treeItem = getSelectionModel().getSelectedItem();
     final ClipboardContent clipboardContent = new ClipboardContent();
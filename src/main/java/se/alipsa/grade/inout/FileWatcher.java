@@ -0,0 +1,187 @@
+package se.alipsa.grade.inout;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches the dirs shown in the file tree (sub dirs are not watched until they are registered) and reports what
+ * has changed in batches. Events are collected until nothing has happened for a short while, or at most for a
+ * second, so that e.g. a build writing thousands of files results in a few updates rather than thousands.
+ */
+class FileWatcher implements Closeable {
+
+  private static final Logger log = LogManager.getLogger(FileWatcher.class);
+  private static final long QUIET_MILLIS = 150;
+  private static final long MAX_DELAY_MILLIS = 1000;
+
+  enum Change {
+    CREATED, MODIFIED, DELETED
+  }
+
+  private final WatchService watchService;
+  private final Consumer<Changes> onChanges;
+  private final Map<WatchKey, Path> dirs = new ConcurrentHashMap<>();
+  private final Map<Path, WatchKey> keys = new ConcurrentHashMap<>();
+  private volatile boolean closed;
+
+  private FileWatcher(WatchService watchService, Consumer<Changes> onChanges) {
+    this.watchService = watchService;
+    this.onChanges = onChanges;
+    Thread thread = new Thread(this::watch, "grade-file-watcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * @param onChanges called from the watcher thread with each batch of changes
+   * @return a new watcher or null if the file system cannot be watched
+   */
+  static FileWatcher create(Consumer<Changes> onChanges) {
+    try {
+      return new FileWatcher(FileSystems.getDefault().newWatchService(), onChanges);
+    } catch (IOException | UnsupportedOperationException e) {
+      log.warn("Cannot watch the file system for changes, the file tree must be refreshed manually", e);
+      return null;
+    }
+  }
+
+  void register(Path dir) {
+    if (closed || keys.containsKey(dir)) {
+      return;
+    }
+    try {
+      WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+      dirs.put(key, dir);
+      keys.put(dir, key);
+    } catch (IOException | ClosedWatchServiceException e) {
+      log.debug("Failed to watch {}", dir, e);
+    }
+  }
+
+  /**
+   * Stop watching the dir and all dirs below it
+   */
+  void unregister(Path dir) {
+    for (Path watched : keys.keySet()) {
+      if (watched.startsWith(dir)) {
+        WatchKey key = keys.remove(watched);
+        if (key != null) {
+          key.cancel();
+          dirs.remove(key);
+        }
+      }
+    }
+  }
+
+  void unregisterAll() {
+    for (WatchKey key : dirs.keySet()) {
+      key.cancel();
+    }
+    dirs.clear();
+    keys.clear();
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    try {
+      watchService.close();
+    } catch (IOException e) {
+      log.debug("Failed to close the watch service", e);
+    }
+  }
+
+  private void watch() {
+    Changes pending = new Changes();
+    long batchStart = 0;
+    try {
+      while (!closed) {
+        WatchKey key = pending.isEmpty() ? watchService.take() : watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+        if (key != null) {
+          if (pending.isEmpty()) {
+            batchStart = System.currentTimeMillis();
+          }
+          collect(key, pending);
+        }
+        if (!pending.isEmpty() && (key == null || System.currentTimeMillis() - batchStart > MAX_DELAY_MILLIS)) {
+          onChanges.accept(pending);
+          pending = new Changes();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ClosedWatchServiceException e) {
+      log.trace("Watch service closed");
+    }
+  }
+
+  private void collect(WatchKey key, Changes changes) {
+    Path dir = dirs.get(key);
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (dir == null) {
+        continue;
+      }
+      if (event.kind() == OVERFLOW) {
+        changes.rescan.add(dir);
+        continue;
+      }
+      Path path = dir.resolve((Path) event.context());
+      Change change = event.kind() == ENTRY_CREATE ? Change.CREATED
+          : event.kind() == ENTRY_DELETE ? Change.DELETED : Change.MODIFIED;
+      changes.files.merge(path, change, (previous, latest) ->
+          // a file created and then written is still a new file
+          previous == Change.CREATED && latest == Change.MODIFIED ? Change.CREATED : latest);
+    }
+    if (!key.reset()) {
+      // the dir is gone
+      dirs.remove(key);
+      if (dir != null) {
+        keys.remove(dir);
+      }
+    }
+  }
+
+  /**
+   * What happened to files (and dirs) since the last batch, in the order it happened
+   */
+  static class Changes {
+    private final Map<Path, Change> files = new LinkedHashMap<>();
+    private final Set<Path> rescan = new LinkedHashSet<>();
+
+    Map<Path, Change> getFiles() {
+      return files;
+    }
+
+    /**
+     * @return dirs where events were lost, their content must be listed again
+     */
+    Set<Path> getRescan() {
+      return rescan;
+    }
+
+    boolean isEmpty() {
+      return files.isEmpty() && rescan.isEmpty();
+    }
+  }
+}
@@ -0,0 +1,213 @@
+package se.alipsa.grade.inout;
+
+import static se.alipsa.grade.Constants.GitStatus.GIT_ADDED;
+import static se.alipsa.grade.Constants.GitStatus.GIT_CHANGED;
+import static se.alipsa.grade.Constants.GitStatus.GIT_CONFLICT;
+import static se.alipsa.grade.Constants.GitStatus.GIT_IGNORED;
+import static se.alipsa.grade.Constants.GitStatus.GIT_MODIFIED;
+import static se.alipsa.grade.Constants.GitStatus.GIT_NONE;
+import static se.alipsa.grade.Constants.GitStatus.GIT_UNCOMITTED_CHANGE;
+import static se.alipsa.grade.Constants.GitStatus.GIT_UNTRACKED;
+
+import javafx.application.Platform;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.api.StatusCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import se.alipsa.grade.Constants.GitStatus;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * The git status of the files in the working tree, kept in a map from the path (relative to the repository root)
+ * to its status so that the color of a tree item is a single lookup. Status is computed in the background, for
+ * the paths reported as changed when possible and for the whole working tree now and then (to pick up e.g. commits
+ * made outside of Grade). Only the paths whose status actually changed are reported.
+ */
+class GitStatusService implements Closeable {
+
+  private static final Logger log = LogManager.getLogger(GitStatusService.class);
+  private static final long UPDATE_DELAY_MILLIS = 300;
+  private static final long FULL_SCAN_MINUTES = 2;
+  /** With more changed paths than this a full scan is just as quick */
+  private static final int MAX_PATHS = 500;
+
+  private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread thread = new Thread(r, "grade-git-status");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Git git;
+  private final Consumer<Map<String, GitStatus>> onChanges;
+  /** paths without a status (i.e. GIT_NONE) are not in the map */
+  private final Map<String, GitStatus> statuses = new ConcurrentHashMap<>();
+  private final Set<String> dirtyPaths = new HashSet<>();
+  private final ScheduledFuture<?> fullScan;
+  private ScheduledFuture<?> pendingUpdate;
+  private boolean fullScanPending;
+  private volatile boolean closed;
+
+  /**
+   * @param onChanges called on the FX thread with the paths whose status changed and their new status
+   */
+  GitStatusService(Git git, Consumer<Map<String, GitStatus>> onChanges) {
+    this.git = git;
+    this.onChanges = onChanges;
+    fullScan = EXECUTOR.scheduleWithFixedDelay(this::scanAll, 0, FULL_SCAN_MINUTES, TimeUnit.MINUTES);
+  }
+
+  Git getGit() {
+    return git;
+  }
+
+  /**
+   * @param path the path relative to the root of the repository, separated by /
+   */
+  GitStatus getStatus(String path) {
+    return statuses.getOrDefault(path, GIT_NONE);
+  }
+
+  /**
+   * Compute the status of the whole working tree, e.g. after a git command
+   */
+  synchronized void refreshAll() {
+    fullScanPending = true;
+    schedule();
+  }
+
+  /**
+   * Compute the status of the paths (files or dirs) again, updates shortly after each other are done together
+   */
+  synchronized void pathsChanged(Collection<String> paths) {
+    for (String path : paths) {
+      if (!path.equals(".git") && !path.startsWith(".git/")) {
+        dirtyPaths.add(path);
+      }
+    }
+    if (dirtyPaths.size() > MAX_PATHS) {
+      fullScanPending = true;
+    }
+    if (!dirtyPaths.isEmpty() || fullScanPending) {
+      schedule();
+    }
+  }
+
+  private void schedule() {
+    if (!closed && (pendingUpdate == null || pendingUpdate.isDone())) {
+      pendingUpdate = EXECUTOR.schedule(this::update, UPDATE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void update() {
+    Set<String> paths;
+    boolean all;
+    synchronized (this) {
+      all = fullScanPending;
+      paths = all ? Set.of() : new HashSet<>(dirtyPaths);
+      fullScanPending = false;
+      dirtyPaths.clear();
+    }
+    if (all) {
+      scanAll();
+    } else if (!paths.isEmpty()) {
+      scan(paths);
+    }
+    synchronized (this) {
+      // paths reported while we were scanning
+      pendingUpdate = null;
+      if (!dirtyPaths.isEmpty() || fullScanPending) {
+        schedule();
+      }
+    }
+  }
+
+  private void scanAll() {
+    scan(null);
+  }
+
+  /**
+   * @param paths the paths to compute status for or null for all
+   */
+  private void scan(Set<String> paths) {
+    if (closed) {
+      return;
+    }
+    long start = System.currentTimeMillis();
+    Status status;
+    try {
+      StatusCommand command = git.status();
+      if (paths != null) {
+        paths.forEach(command::addPath);
+      }
+      status = command.call();
+    } catch (GitAPIException | RuntimeException e) {
+      log.warn("Failed to get git status", e);
+      return;
+    }
+    Map<String, GitStatus> scanned = toMap(status);
+    Map<String, GitStatus> changes = new HashMap<>();
+    for (String path : statuses.keySet()) {
+      if ((paths == null || isBelowAny(path, paths)) && !scanned.containsKey(path)) {
+        statuses.remove(path);
+        changes.put(path, GIT_NONE);
+      }
+    }
+    scanned.forEach((path, gitStatus) -> {
+      if (statuses.put(path, gitStatus) != gitStatus) {
+        changes.put(path, gitStatus);
+      }
+    });
+    log.debug("Git status of {} computed in {} ms, {} changes", paths == null ? "all files" : paths.size() + " paths",
+        System.currentTimeMillis() - start, changes.size());
+    if (!changes.isEmpty() && !closed) {
+      Platform.runLater(() -> onChanges.accept(changes));
+    }
+  }
+
+  private static boolean isBelowAny(String path, Set<String> paths) {
+    for (int slash = path.length(); slash > 0; slash = path.lastIndexOf('/', slash - 1)) {
+      if (paths.contains(path.substring(0, slash))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * One status per path, when a path is in several sets the most important one wins
+   */
+  private static Map<String, GitStatus> toMap(Status status) {
+    Map<String, GitStatus> map = new HashMap<>();
+    status.getIgnoredNotInIndex().forEach(path -> map.put(path, GIT_IGNORED));
+    status.getUntracked().forEach(path -> map.put(path, GIT_UNTRACKED));
+    status.getUncommittedChanges().forEach(path -> map.put(path, GIT_UNCOMITTED_CHANGE));
+    status.getModified().forEach(path -> map.put(path, GIT_MODIFIED));
+    status.getChanged().forEach(path -> map.put(path, GIT_CHANGED));
+    status.getAdded().forEach(path -> map.put(path, GIT_ADDED));
+    status.getConflicting().forEach(path -> map.put(path, GIT_CONFLICT));
+    return map;
+  }
+
+  @Override
+  public synchronized void close() {
+    closed = true;
+    fullScan.cancel(false);
+    if (pendingUpdate != null) {
+      pendingUpdate.cancel(false);
+    }
+  }
+}
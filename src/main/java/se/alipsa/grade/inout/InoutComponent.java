@@ -17,10 +17,12 @@ import org.openjdk.nashorn.api.scripting.ScriptObjectMirror;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.errors.GitAPIException;
 import org.jetbrains.annotations.NotNull;
 import se.alipsa.grade.Grade;
+import se.alipsa.grade.code.TextAreaTab;
 import se.alipsa.grade.console.ConsoleTextArea;
+import se.alipsa.grade.inout.find.FindInFilesTab;
+import se.alipsa.grade.inout.find.TrigramIndex;
 import se.alipsa.grade.inout.plot.PlotsTab;
 import se.alipsa.grade.inout.viewer.ViewTab;
 import se.alipsa.grade.utils.*;
@@ -37,6 +39,8 @@ public class InoutComponent extends TabPane  {
   private final PackagesTab packages;
   private final ViewTab viewer;
   private final HelpTab helpTab;
+  private final FindInFilesTab findInFilesTab;
+  private TrigramIndex trigramIndex;
   private final Grade gui;
   private final Label branchLabel;
   private final TextField statusField;
@@ -51,6 +55,7 @@ public class InoutComponent extends TabPane  {
     enableGit = gui.getPrefs().getBoolean(ENABLE_GIT, true);
 
     fileTree = new FileTree(gui, this);
+    openTrigramIndex();
 
     Tab filesTab = new Tab();
     filesTab.setText("Files");
@@ -105,6 +110,9 @@ public class InoutComponent extends TabPane  {
 
     getTabs().add(viewer);
 
+    findInFilesTab = new FindInFilesTab(gui);
+    getTabs().add(findInFilesTab);
+
     setTabClosingPolicy(TabClosingPolicy.UNAVAILABLE);
 
   }
@@ -139,6 +147,7 @@ public class InoutComponent extends TabPane  {
   public void changeRootDir(File dir) {
     if (!dir.equals(projectDir())) {
       fileTree.refresh(dir);
+      openTrigramIndex();
       if (gui.getPrefs().getBoolean(USE_GRADLE_CLASSLOADER, false)) {
         //gui.getConsoleComponent().initGroovy(gui.getClass().getClassLoader());
         gui.getConsoleComponent().initGroovy(gui.dynamicClassLoader);
@@ -155,6 +164,13 @@ public class InoutComponent extends TabPane  {
     fileTree.getRoot().setExpanded(true);
   }
 
+  /**
+   * Bring the file tree up to date after files were created or changed outside of the tree
+   */
+  public void syncFileTree() {
+    fileTree.sync();
+  }
+
   public void expandTree() {
     expandTreeNodes(fileTree.getRoot());
   }
@@ -176,6 +192,70 @@ public class InoutComponent extends TabPane  {
     return fileTree.getRootDir();
   }
 
+  private void openTrigramIndex() {
+    closeTrigramIndex();
+    File dir = projectDir();
+    if (dir != null && dir.isDirectory()) {
+      trigramIndex = TrigramIndex.open(dir);
+    }
+  }
+
+  /**
+   * Save and close the search index of the project
+   */
+  public void closeTrigramIndex() {
+    if (trigramIndex != null) {
+      trigramIndex.close();
+      trigramIndex = null;
+    }
+  }
+
+  /**
+   * @return the search index of the project dir, null if there is none
+   */
+  public TrigramIndex getTrigramIndex() {
+    return trigramIndex;
+  }
+
+  /**
+   * Called when changes to files may have been missed (e.g. the file watcher lost events), the search index is
+   * checked against the files on disk in the background
+   */
+  public void fileEventsLost() {
+    if (trigramIndex != null) {
+      trigramIndex.reconcile();
+    }
+  }
+
+  /**
+   * Called when a file in the project has been saved, created or deleted
+   */
+  public void fileChanged(File file) {
+    if (trigramIndex != null) {
+      trigramIndex.fileChanged(file);
+    }
+    fileTree.refreshGitStatus(file);
+  }
+
+  /**
+   * Open the file in a code tab, or activate the tab if the file is already open
+   */
+  public TextAreaTab openFile(File file) {
+    TextAreaTab tab = gui.getCodeComponent().getTab(file);
+    if (tab == null) {
+      tab = fileTree.openFileTab(file);
+    }
+    if (tab != null) {
+      gui.getCodeComponent().activateTab(tab);
+    }
+    return tab;
+  }
+
+  public void showFindInFiles(String text) {
+    getSelectionModel().select(findInFilesTab);
+    findInFilesTab.activate(text);
+  }
+
 
 
   public void view(List<List<Object>> matrix, String... title) {
@@ -315,14 +395,6 @@ public class InoutComponent extends TabPane  {
     return enableGit;
   }
 
-  public void cloneGitRepo(String url, File targetDir) throws GitAPIException {
-    Git.cloneRepository()
-        .setURI(url)
-        .setDirectory(targetDir)
-        .call();
-    changeRootDir(targetDir);
-  }
-
   public boolean hasPomFile() {
     return projectDir() != null && new File(projectDir(), "pom.xml").exists();
   }
@@ -0,0 +1,278 @@
+package se.alipsa.grade.inout.find;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Searches all files below a directory in parallel. Directories are walked and files searched as fork join tasks,
+ * .gitignore files are honoured the way git does it (the closest one wins) and the .git dir is skipped.
+ * Files are memory mapped and binary files (a zero byte among the first bytes) are skipped.
+ * When a {@link TrigramIndex} of the dir is available only the files it says might match are searched.
+ * Files are assumed to be UTF-8 (which is what Grade saves).
+ * The hits of each file are passed to the consumer as soon as the file has been searched, from a worker thread.
+ */
+public class FindInFiles {
+
+  private static final Logger log = LogManager.getLogger(FindInFiles.class);
+  /** More hits than this is not useful to look at, the search stops */
+  public static final int MAX_HITS = 10_000;
+  private static final int BINARY_CHECK_SIZE = 8 * 1024;
+
+  static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+    thread.setName("grade-find-" + thread.getPoolIndex());
+    return thread;
+  }, null, false);
+
+  private final Path root;
+  private final SearchQuery query;
+  private final TrigramIndex index;
+  private final Consumer<List<SearchHit>> onHits;
+  private final AtomicBoolean cancelled = new AtomicBoolean();
+  private final AtomicBoolean truncated = new AtomicBoolean();
+  private final AtomicInteger filesSearched = new AtomicInteger();
+  private final AtomicInteger hitCount = new AtomicInteger();
+
+  public FindInFiles(File root, SearchQuery query, Consumer<List<SearchHit>> onHits) {
+    this(root, query, null, onHits);
+  }
+
+  /**
+   * @param index used to narrow down the files to search if it is an index of the root and is ready, may be null
+   */
+  public FindInFiles(File root, SearchQuery query, TrigramIndex index, Consumer<List<SearchHit>> onHits) {
+    this.root = root.toPath();
+    this.query = query;
+    this.index = index;
+    this.onHits = onHits;
+  }
+
+  /**
+   * Run the search, blocks until all files have been searched or the search is cancelled
+   */
+  public void run() {
+    long start = System.currentTimeMillis();
+    List<File> candidates = candidates();
+    if (candidates == null) {
+      POOL.invoke(new DirectoryTask(root, GitIgnoreRules.NONE));
+    } else {
+      log.debug("The trigram index narrowed the search for '{}' to {} files", query.getText(), candidates.size());
+      List<RecursiveAction> tasks = new ArrayList<>(candidates.size());
+      for (File candidate : candidates) {
+        if (query.acceptsFile(candidate.toPath())) {
+          tasks.add(new FileTask(candidate.toPath()));
+        }
+      }
+      POOL.invoke(new RecursiveAction() {
+        @Override
+        protected void compute() {
+          invokeAll(tasks);
+        }
+      });
+    }
+    log.debug("Searched {} files for '{}' in {} ms, {} hits", filesSearched.get(), query.getText(),
+        System.currentTimeMillis() - start, hitCount.get());
+  }
+
+  /**
+   * @return the files that can contain a match according to the index, null if all files must be searched
+   */
+  private List<File> candidates() {
+    String text = query.getIndexText();
+    if (index == null || text == null || !index.getRootDir().toPath().equals(root.toAbsolutePath())) {
+      return null;
+    }
+    return index.candidates(text);
+  }
+
+  public void cancel() {
+    cancelled.set(true);
+  }
+
+  public boolean isCancelled() {
+    return cancelled.get() && !truncated.get();
+  }
+
+  /**
+   * @return true if the search was stopped since {@link #MAX_HITS} was reached
+   */
+  public boolean isTruncated() {
+    return truncated.get();
+  }
+
+  public int getFilesSearched() {
+    return filesSearched.get();
+  }
+
+  public int getHitCount() {
+    return hitCount.get();
+  }
+
+  private void searchFile(Path file) {
+    try {
+      List<SearchHit> hits = search(file);
+      filesSearched.incrementAndGet();
+      if (hits.isEmpty()) {
+        return;
+      }
+      if (hitCount.addAndGet(hits.size()) >= MAX_HITS) {
+        truncated.set(true);
+        cancelled.set(true);
+      }
+      onHits.accept(hits);
+    } catch (IOException | RuntimeException e) {
+      log.debug("Failed to search {}", file, e);
+    }
+  }
+
+  private List<SearchHit> search(Path file) throws IOException {
+    long size = Files.size(file);
+    if (size == 0 || size > Integer.MAX_VALUE) {
+      return List.of();
+    }
+    ByteBuffer content;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      // the mapping stays valid after the channel is closed
+      content = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+    if (isBinary(content) || !query.mightMatch(content)) {
+      return List.of();
+    }
+    CharBuffer text = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE)
+        .decode(content);
+    return query.findAll(file.toFile(), text, MAX_HITS);
+  }
+
+  private static boolean isBinary(ByteBuffer content) {
+    int end = Math.min(content.limit(), BINARY_CHECK_SIZE);
+    for (int i = 0; i < end; i++) {
+      if (content.get(i) == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Replace the hits at the given offsets in the file
+   *
+   * @param offsets the offsets ({@link SearchHit#getOffset()}) of the hits to replace
+   * @return false if the file was not changed since it has been modified after it was searched
+   * @throws IOException if the file could not be read or written or is not valid UTF-8
+   */
+  public static boolean replace(File file, SearchQuery query, String replacement, Set<Integer> offsets)
+      throws IOException {
+    Path path = file.toPath();
+    String content = StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(Files.readAllBytes(path))).toString();
+    String replaced = query.replace(content, replacement, offsets);
+    if (replaced == null) {
+      return false;
+    }
+    Path tmp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+    try {
+      Files.writeString(tmp, replaced, StandardCharsets.UTF_8);
+      copyPermissions(path, tmp);
+      Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+    return true;
+  }
+
+  /**
+   * A temp file is only readable by the owner, give it the permissions (e.g. the exec bit) and group of the file it
+   * replaces
+   */
+  private static void copyPermissions(Path from, Path to) throws IOException {
+    PosixFileAttributeView source = Files.getFileAttributeView(from, PosixFileAttributeView.class);
+    PosixFileAttributeView target = Files.getFileAttributeView(to, PosixFileAttributeView.class);
+    if (source == null || target == null) {
+      // not a posix file system, the temp file gets the default permissions of the dir
+      return;
+    }
+    PosixFileAttributes attributes = source.readAttributes();
+    target.setPermissions(attributes.permissions());
+    try {
+      target.setGroup(attributes.group());
+    } catch (IOException e) {
+      log.debug("Failed to set the group of {} to {}", from, attributes.group(), e);
+    }
+  }
+
+  private class DirectoryTask extends RecursiveAction {
+    private final Path dir;
+    private final GitIgnoreRules parentRules;
+
+    DirectoryTask(Path dir, GitIgnoreRules parentRules) {
+      this.dir = dir;
+      this.parentRules = parentRules;
+    }
+
+    @Override
+    protected void compute() {
+      if (cancelled.get()) {
+        return;
+      }
+      GitIgnoreRules rules = parentRules.forDirectory(dir);
+      List<RecursiveAction> tasks = new ArrayList<>();
+      try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+        for (Path entry : entries) {
+          boolean isDir = Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS);
+          if (rules.isIgnored(entry, isDir)) {
+            continue;
+          }
+          if (isDir) {
+            tasks.add(new DirectoryTask(entry, rules));
+          } else if (Files.isRegularFile(entry) && query.acceptsFile(entry)) {
+            tasks.add(new FileTask(entry));
+          }
+        }
+      } catch (IOException e) {
+        log.debug("Failed to list {}", dir, e);
+      }
+      invokeAll(tasks);
+    }
+  }
+
+  private class FileTask extends RecursiveAction {
+    private final Path file;
+
+    FileTask(Path file) {
+      this.file = file;
+    }
+
+    @Override
+    protected void compute() {
+      if (!cancelled.get()) {
+        searchFile(file);
+      }
+    }
+  }
+}
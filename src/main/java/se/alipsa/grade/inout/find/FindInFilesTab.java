@@ -0,0 +1,382 @@
+package se.alipsa.grade.inout.find;
+
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.CheckBoxTreeItem;
+import javafx.scene.control.ComboBox;
+import javafx.scene.control.Label;
+import javafx.scene.control.Tab;
+import javafx.scene.control.TextField;
+import javafx.scene.control.TreeItem;
+import javafx.scene.control.TreeView;
+import javafx.scene.control.cell.CheckBoxTreeCell;
+import javafx.scene.input.KeyCode;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.FlowPane;
+import javafx.scene.layout.VBox;
+import javafx.util.StringConverter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import se.alipsa.grade.Constants;
+import se.alipsa.grade.Grade;
+import se.alipsa.grade.code.CodeTextArea;
+import se.alipsa.grade.code.TextAreaTab;
+import se.alipsa.grade.utils.Alerts;
+import se.alipsa.grade.utils.ExceptionAlert;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Find (and replace) in all files of the project. Hits are shown as they are found, grouped by file.
+ * Double click a hit to go to it. To replace, enter the replacement and preview it, then untick whatever should
+ * be left alone and replace the rest.
+ */
+public class FindInFilesTab extends Tab {
+
+  private static final Logger log = LogManager.getLogger(FindInFilesTab.class);
+
+  private final Grade gui;
+  private final ComboBox<String> searchInput;
+  private final TextField replaceInput;
+  private final CheckBox regexCheckBox;
+  private final CheckBox matchCaseCheckBox;
+  private final TextField fileMaskField;
+  private final Button findButton;
+  private final Button stopButton;
+  private final Button previewButton;
+  private final Button replaceButton;
+  private final Label statusLabel;
+  private final TreeView<Object> resultTree;
+  private final CheckBoxTreeItem<Object> root = new CheckBoxTreeItem<>();
+  private final Map<File, CheckBoxTreeItem<Object>> fileItems = new LinkedHashMap<>();
+  private final AtomicBoolean drainScheduled = new AtomicBoolean();
+  private ConcurrentLinkedQueue<List<SearchHit>> pending = new ConcurrentLinkedQueue<>();
+  private FindInFiles search;
+  private SearchQuery query;
+  /** the replacement being previewed, null when not previewing */
+  private String replacement;
+
+  public FindInFilesTab(Grade gui) {
+    this.gui = gui;
+    setText("Find");
+
+    searchInput = new ComboBox<>();
+    searchInput.setEditable(true);
+    searchInput.setPromptText("Find");
+    searchInput.setPrefWidth(250);
+    searchInput.setOnKeyPressed(e -> {
+      if (e.getCode() == KeyCode.ENTER) {
+        find();
+      }
+    });
+    replaceInput = new TextField();
+    replaceInput.setPromptText("Replace with");
+    replaceInput.setPrefWidth(250);
+    regexCheckBox = new CheckBox("Regex");
+    matchCaseCheckBox = new CheckBox("Match case");
+    fileMaskField = new TextField();
+    fileMaskField.setPromptText("File mask e.g. *.groovy, *.sql");
+
+    findButton = new Button("Find");
+    findButton.setOnAction(a -> find());
+    stopButton = new Button("Stop");
+    stopButton.setDisable(true);
+    stopButton.setOnAction(a -> stop());
+    previewButton = new Button("Preview replace");
+    previewButton.setDisable(true);
+    previewButton.setOnAction(a -> previewReplace());
+    replaceButton = new Button("Replace selected");
+    replaceButton.setDisable(true);
+    replaceButton.setOnAction(a -> replaceSelected());
+    statusLabel = new Label();
+
+    FlowPane findPane = new FlowPane();
+    findPane.setPadding(Constants.FLOWPANE_INSETS);
+    findPane.setHgap(Constants.HGAP);
+    findPane.setVgap(Constants.VGAP);
+    findPane.getChildren().addAll(searchInput, regexCheckBox, matchCaseCheckBox, fileMaskField, findButton, stopButton);
+    FlowPane replacePane = new FlowPane();
+    replacePane.setPadding(Constants.FLOWPANE_INSETS);
+    replacePane.setHgap(Constants.HGAP);
+    replacePane.setVgap(Constants.VGAP);
+    replacePane.getChildren().addAll(replaceInput, previewButton, replaceButton, statusLabel);
+
+    resultTree = new TreeView<>(root);
+    resultTree.setShowRoot(false);
+    resultTree.setCellFactory(CheckBoxTreeCell.forTreeView(
+        item -> ((CheckBoxTreeItem<Object>) item).selectedProperty(), new ItemConverter()));
+    resultTree.setOnMouseClicked(e -> {
+      if (e.getClickCount() == 2) {
+        TreeItem<Object> item = resultTree.getSelectionModel().getSelectedItem();
+        if (item != null && item.getValue() instanceof SearchHit hit) {
+          showHit(hit);
+        }
+      }
+    });
+
+    BorderPane pane = new BorderPane();
+    pane.setTop(new VBox(findPane, replacePane));
+    pane.setCenter(resultTree);
+    setContent(pane);
+  }
+
+  /**
+   * Put focus in the search field, with the text if there is any
+   */
+  public void activate(String text) {
+    if (text != null && !text.isEmpty() && !text.contains("\n")) {
+      searchInput.setValue(text);
+    }
+    searchInput.requestFocus();
+  }
+
+  private void find() {
+    String text = searchInput.getValue();
+    if (text == null || text.isEmpty()) {
+      text = searchInput.getEditor().getText();
+    }
+    if (text == null || text.isEmpty()) {
+      statusLabel.setText("Nothing to search for");
+      return;
+    }
+    File dir = gui.getInoutComponent().projectDir();
+    if (dir == null || !dir.isDirectory()) {
+      statusLabel.setText("No project dir to search in");
+      return;
+    }
+    SearchQuery newQuery;
+    try {
+      newQuery = new SearchQuery(text, regexCheckBox.isSelected(), matchCaseCheckBox.isSelected(),
+          fileMaskField.getText());
+    } catch (PatternSyntaxException e) {
+      statusLabel.setText("Invalid regular expression: " + e.getDescription());
+      return;
+    }
+    if (!searchInput.getItems().contains(text)) {
+      searchInput.getItems().add(0, text);
+    }
+    stop();
+    clearResults();
+    query = newQuery;
+
+    ConcurrentLinkedQueue<List<SearchHit>> queue = new ConcurrentLinkedQueue<>();
+    pending = queue;
+    TrigramIndex index = gui.getInoutComponent().getTrigramIndex();
+    FindInFiles findInFiles = new FindInFiles(dir, newQuery, index, hits -> {
+      queue.add(hits);
+      if (drainScheduled.compareAndSet(false, true)) {
+        Platform.runLater(this::drain);
+      }
+    });
+    search = findInFiles;
+    long start = System.currentTimeMillis();
+    Task<Void> task = new Task<>() {
+      @Override
+      protected Void call() {
+        findInFiles.run();
+        return null;
+      }
+    };
+    task.setOnSucceeded(e -> searchDone(findInFiles, System.currentTimeMillis() - start));
+    task.setOnFailed(e -> {
+      setRunning(false);
+      ExceptionAlert.showAlert("Search failed", task.getException());
+    });
+    setRunning(true);
+    statusLabel.setText("Searching...");
+    Thread thread = new Thread(task, "grade-find-in-files");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void stop() {
+    if (search != null) {
+      search.cancel();
+    }
+  }
+
+  private void setRunning(boolean running) {
+    findButton.setDisable(running);
+    stopButton.setDisable(!running);
+    previewButton.setDisable(running || fileItems.isEmpty());
+    replaceButton.setDisable(running || replacement == null);
+  }
+
+  private void drain() {
+    drainScheduled.set(false);
+    List<SearchHit> hits;
+    while ((hits = pending.poll()) != null) {
+      addHits(hits);
+    }
+  }
+
+  private void addHits(List<SearchHit> hits) {
+    File file = hits.get(0).getFile();
+    CheckBoxTreeItem<Object> fileItem = new CheckBoxTreeItem<>(file, null, true);
+    for (SearchHit hit : hits) {
+      fileItem.getChildren().add(new CheckBoxTreeItem<>(hit, null, true));
+    }
+    fileItem.setExpanded(fileItems.size() < 50);
+    fileItems.put(file, fileItem);
+    root.getChildren().add(fileItem);
+  }
+
+  private void searchDone(FindInFiles findInFiles, long millis) {
+    if (findInFiles != search) {
+      return;
+    }
+    drain();
+    setRunning(false);
+    String status = findInFiles.getHitCount() + " hits in " + fileItems.size() + " files ("
+        + findInFiles.getFilesSearched() + " files searched in " + millis + " ms)";
+    if (findInFiles.isTruncated()) {
+      status += ", stopped after " + FindInFiles.MAX_HITS + " hits";
+    } else if (findInFiles.isCancelled()) {
+      status += ", stopped";
+    }
+    statusLabel.setText(status);
+  }
+
+  private void clearResults() {
+    root.getChildren().clear();
+    fileItems.clear();
+    replacement = null;
+    replaceButton.setDisable(true);
+  }
+
+  private void showHit(SearchHit hit) {
+    TextAreaTab tab = gui.getInoutComponent().openFile(hit.getFile());
+    if (tab == null || tab.isReadOnly()) {
+      return;
+    }
+    CodeTextArea codeArea = tab.getCodeArea();
+    if (hit.getLine() >= codeArea.getParagraphs().size()) {
+      return;
+    }
+    int column = Math.min(hit.getColumn(), codeArea.getParagraphLength(hit.getLine()));
+    int start = codeArea.getAbsolutePosition(hit.getLine(), column);
+    codeArea.selectRange(start, Math.min(start + hit.getLength(), codeArea.getLength()));
+    codeArea.requestFollowCaret();
+    codeArea.requestFocus();
+  }
+
+  private void previewReplace() {
+    replacement = replaceInput.getText();
+    resultTree.refresh();
+    replaceButton.setDisable(false);
+    statusLabel.setText("Untick what should not be replaced, then replace");
+  }
+
+  private void replaceSelected() {
+    SearchQuery replaceQuery = query;
+    String replaceWith = replacement;
+    Map<File, Set<Integer>> work = new LinkedHashMap<>();
+    List<String> skipped = new ArrayList<>();
+    for (Map.Entry<File, CheckBoxTreeItem<Object>> entry : fileItems.entrySet()) {
+      Set<Integer> offsets = new HashSet<>();
+      for (TreeItem<Object> child : entry.getValue().getChildren()) {
+        if (((CheckBoxTreeItem<Object>) child).isSelected()) {
+          offsets.add(((SearchHit) child.getValue()).getOffset());
+        }
+      }
+      if (offsets.isEmpty()) {
+        continue;
+      }
+      TextAreaTab tab = gui.getCodeComponent().getTab(entry.getKey());
+      if (tab != null && tab.isChanged()) {
+        skipped.add(entry.getKey().getName() + " has unsaved changes");
+      } else {
+        work.put(entry.getKey(), offsets);
+      }
+    }
+    if (work.isEmpty()) {
+      statusLabel.setText("Nothing to replace");
+      return;
+    }
+    Task<List<File>> task = new Task<>() {
+      @Override
+      protected List<File> call() {
+        List<File> replaced = new ArrayList<>();
+        for (Map.Entry<File, Set<Integer>> entry : work.entrySet()) {
+          File file = entry.getKey();
+          try {
+            if (FindInFiles.replace(file, replaceQuery, replaceWith, entry.getValue())) {
+              replaced.add(file);
+            } else {
+              skipped.add(file.getName() + " has changed since the search");
+            }
+          } catch (IOException e) {
+            log.warn("Failed to replace in {}", file, e);
+            skipped.add(file.getName() + ": " + e);
+          }
+        }
+        return replaced;
+      }
+    };
+    task.setOnSucceeded(e -> {
+      List<File> replaced = task.getValue();
+      for (File file : replaced) {
+        gui.getInoutComponent().fileChanged(file);
+        TextAreaTab tab = gui.getCodeComponent().getTab(file);
+        if (tab != null) {
+          tab.reloadFromDisk();
+        }
+      }
+      clearResults();
+      setRunning(false);
+      statusLabel.setText("Replaced in " + replaced.size() + " files, search again to see the result");
+      if (!skipped.isEmpty()) {
+        Alerts.warn("Some files were not changed", String.join("\n", skipped));
+      }
+    });
+    task.setOnFailed(e -> {
+      setRunning(false);
+      ExceptionAlert.showAlert("Replace failed", task.getException());
+    });
+    findButton.setDisable(true);
+    previewButton.setDisable(true);
+    replaceButton.setDisable(true);
+    statusLabel.setText("Replacing...");
+    Thread thread = new Thread(task, "grade-replace-in-files");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private class ItemConverter extends StringConverter<TreeItem<Object>> {
+
+    @Override
+    public String toString(TreeItem<Object> item) {
+      if (item == null || item.getValue() == null) {
+        return "";
+      }
+      if (item.getValue() instanceof SearchHit hit) {
+        String text = (hit.getLine() + 1) + ": " + hit.getLineText().strip();
+        if (replacement != null) {
+          text += "  ->  " + query.previewLine(hit, replacement).strip();
+        }
+        return text;
+      }
+      File file = (File) item.getValue();
+      File dir = gui.getInoutComponent().projectDir();
+      String name = dir == null ? file.getPath() : dir.toPath().relativize(file.toPath()).toString();
+      return name + " (" + item.getChildren().size() + ")";
+    }
+
+    @Override
+    public TreeItem<Object> fromString(String string) {
+      throw new UnsupportedOperationException("Result items cannot be edited");
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package se.alipsa.grade.inout.find;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jgit.ignore.IgnoreNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The .gitignore rules in effect in a directory, the rules of the closest .gitignore take precedence.
+ * The .git dir and the .grade dir (where Grade keeps project specific data) are always ignored.
+ */
+final class GitIgnoreRules {
+
+  private static final Logger log = LogManager.getLogger(GitIgnoreRules.class);
+  static final GitIgnoreRules NONE = new GitIgnoreRules(null, null, null);
+
+  private final Path base;
+  private final IgnoreNode node;
+  private final GitIgnoreRules parent;
+
+  private GitIgnoreRules(Path base, IgnoreNode node, GitIgnoreRules parent) {
+    this.base = base;
+    this.node = node;
+    this.parent = parent;
+  }
+
+  /**
+   * @return the rules for the dir, i.e. these rules and the ones of a .gitignore in the dir (if there is one)
+   */
+  GitIgnoreRules forDirectory(Path dir) {
+    Path gitignore = dir.resolve(".gitignore");
+    if (!Files.isRegularFile(gitignore)) {
+      return this;
+    }
+    IgnoreNode rules = new IgnoreNode();
+    try (InputStream in = Files.newInputStream(gitignore)) {
+      rules.parse(in);
+    } catch (IOException e) {
+      log.debug("Failed to read {}", gitignore, e);
+      return this;
+    }
+    return new GitIgnoreRules(dir, rules, this);
+  }
+
+  boolean isIgnored(Path path, boolean isDirectory) {
+    if (isDirectory) {
+      String name = path.getFileName().toString();
+      if (".git".equals(name) || ".grade".equals(name)) {
+        return true;
+      }
+    }
+    for (GitIgnoreRules rules = this; rules.node != null; rules = rules.parent) {
+      String relative = rules.base.relativize(path).toString().replace(File.separatorChar, '/');
+      switch (rules.node.isIgnored(relative, isDirectory)) {
+        case IGNORED:
+          return true;
+        case NOT_IGNORED:
+          return false;
+        default:
+          // no rule matched, ask the .gitignore of the parent dir
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the rules that apply to the entries of the parent of the dir, i.e. what to pass when walking the dir
+   */
+  static GitIgnoreRules parentRules(Path root, Path dir) {
+    GitIgnoreRules rules = NONE.forDirectory(root);
+    Path current = root;
+    Path relativeParent = root.relativize(dir).getParent();
+    if (relativeParent != null) {
+      for (Path name : relativeParent) {
+        current = current.resolve(name);
+        rules = rules.forDirectory(current);
+      }
+    }
+    return rules;
+  }
+
+  /**
+   * @return true if the file, or any dir between the root and the file, is ignored
+   */
+  static boolean isIgnored(Path root, Path file) {
+    GitIgnoreRules rules = NONE.forDirectory(root);
+    Path dir = root;
+    Path relativeDir = root.relativize(file).getParent();
+    if (relativeDir != null) {
+      for (Path name : relativeDir) {
+        dir = dir.resolve(name);
+        if (rules.isIgnored(dir, true)) {
+          return true;
+        }
+        rules = rules.forDirectory(dir);
+      }
+    }
+    return rules.isIgnored(file, false);
+  }
+}
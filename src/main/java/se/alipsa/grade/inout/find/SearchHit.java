@@ -0,0 +1,69 @@
+package se.alipsa.grade.inout.find;
+
+import java.io.File;
+
+/**
+ * A match found by {@link FindInFiles}
+ */
+public class SearchHit {
+
+  private final File file;
+  private final int line;
+  private final int column;
+  private final int length;
+  private final int offset;
+  private final String lineText;
+
+  SearchHit(File file, int line, int column, int length, int offset, String lineText) {
+    this.file = file;
+    this.line = line;
+    this.column = column;
+    this.length = length;
+    this.offset = offset;
+    this.lineText = lineText;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * @return the zero based line of the start of the match
+   */
+  public int getLine() {
+    return line;
+  }
+
+  /**
+   * @return the zero based column of the start of the match
+   */
+  public int getColumn() {
+    return column;
+  }
+
+  /**
+   * @return the number of characters matched, a match might span several lines
+   */
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * @return the character offset of the match from the start of the file
+   */
+  public int getOffset() {
+    return offset;
+  }
+
+  /**
+   * @return the line the match starts on (cut if very long) without the line terminator
+   */
+  public String getLineText() {
+    return lineText;
+  }
+
+  @Override
+  public String toString() {
+    return file.getName() + ":" + (line + 1) + ":" + (column + 1);
+  }
+}
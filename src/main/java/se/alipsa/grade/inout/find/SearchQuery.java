@@ -0,0 +1,338 @@
+package se.alipsa.grade.inout.find;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * What to look for: a literal text or a regular expression, optionally restricted to files matching one or more
+ * (comma separated) glob patterns e.g. "*.groovy, *.sql".
+ * A case sensitive literal is first looked for in the raw bytes of a file with the Boyer-Moore-Horspool algorithm,
+ * only files that contain it are decoded, which is what makes searching thousands of files fast since most of them
+ * do not match.
+ */
+public class SearchQuery {
+
+  private static final int MAX_LINE_LENGTH = 500;
+
+  private final String text;
+  private final boolean regex;
+  private final boolean matchCase;
+  private final Pattern pattern;
+  private final List<PathMatcher> fileMatchers = new ArrayList<>();
+  /** the UTF-8 bytes of a case sensitive literal, null if the bytes cannot be used to rule out a file */
+  private final byte[] needle;
+  /** Horspool bad character shifts for the needle */
+  private final int[] shifts;
+
+  /**
+   * @param fileMask comma separated glob patterns for the file names to search, null or blank for all files
+   * @throws PatternSyntaxException if regex is true and the text is not a valid regular expression
+   */
+  public SearchQuery(String text, boolean regex, boolean matchCase, String fileMask) {
+    if (text == null || text.isEmpty()) {
+      throw new IllegalArgumentException("Nothing to search for");
+    }
+    this.text = text;
+    this.regex = regex;
+    this.matchCase = matchCase;
+    int flags = regex ? Pattern.MULTILINE : Pattern.LITERAL;
+    if (!matchCase) {
+      flags |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+    }
+    pattern = Pattern.compile(text, flags);
+    if (fileMask != null) {
+      for (String glob : fileMask.split(",")) {
+        if (!glob.isBlank()) {
+          fileMatchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob.trim()));
+        }
+      }
+    }
+    if (!regex && matchCase) {
+      needle = text.getBytes(StandardCharsets.UTF_8);
+      shifts = new int[256];
+      Arrays.fill(shifts, needle.length);
+      for (int i = 0; i < needle.length - 1; i++) {
+        shifts[needle[i] & 0xff] = needle.length - 1 - i;
+      }
+    } else {
+      needle = null;
+      shifts = null;
+    }
+  }
+
+  public String getText() {
+    return text;
+  }
+
+  public boolean isRegex() {
+    return regex;
+  }
+
+  /**
+   * @return a text that every match must contain, for looking up candidate files in a {@link TrigramIndex}, or
+   * null if there is no such text. The index folds ASCII letters only, other letters cannot be matched regardless
+   * of case.
+   */
+  String getIndexText() {
+    String required = regex ? requiredLiteral(text) : text;
+    if (required == null || !matchCase && !required.chars().allMatch(c -> c < 128)) {
+      return null;
+    }
+    return required;
+  }
+
+  /**
+   * @return the longest run of literal characters in the regular expression, null if there is no such run that
+   * every match must contain
+   */
+  static String requiredLiteral(String regex) {
+    if (regex.indexOf('|') >= 0 || regex.contains("(?")) {
+      // alternatives, or inline flags that might change what the literal matches
+      return null;
+    }
+    String longest = "";
+    StringBuilder run = new StringBuilder();
+    // text in groups might be optional (or have flags) so only what is outside of groups is used
+    int depth = 0;
+    for (int i = 0; i < regex.length(); i++) {
+      char c = regex.charAt(i);
+      if (c == '\\' && i + 1 < regex.length()) {
+        char escaped = regex.charAt(++i);
+        if (depth == 0 && !Character.isLetterOrDigit(escaped)) {
+          run.append(escaped);
+          continue;
+        }
+        if (escaped == 'Q') {
+          // quoted text, not worth the trouble
+          return null;
+        }
+        // a character class such as \w, a back reference or an escape such as \n or \x41, none of what it is
+        // made of is literal
+        i = endOfEscape(regex, i);
+        if (i < 0) {
+          return null;
+        }
+      } else if (c == '?' || c == '*' || c == '{') {
+        // the previous character is optional
+        if (run.length() > 0) {
+          run.setLength(run.length() - 1);
+        }
+        if (c == '{') {
+          i = regex.indexOf('}', i);
+          if (i < 0) {
+            return null;
+          }
+        }
+      } else if (c == '[') {
+        for (i++; i < regex.length() && regex.charAt(i) != ']'; i++) {
+          if (regex.charAt(i) == '\\') {
+            i++;
+          }
+        }
+      } else if (c == '(') {
+        depth++;
+      } else if (c == ')') {
+        depth--;
+      } else if (depth == 0 && ".^$+".indexOf(c) < 0) {
+        run.append(c);
+        continue;
+      }
+      longest = longer(longest, run);
+      run.setLength(0);
+    }
+    longest = longer(longest, run);
+    return longest.isEmpty() ? null : longest;
+  }
+
+  /**
+   * @param i the index of the character after the backslash
+   * @return the index of the last character of the escape sequence, -1 if it is not terminated
+   */
+  private static int endOfEscape(String regex, int i) {
+    char escaped = regex.charAt(i);
+    switch (escaped) {
+      case 'x', 'p', 'P', 'N' -> {
+        if (i + 1 < regex.length() && regex.charAt(i + 1) == '{') {
+          return regex.indexOf('}', i);
+        }
+        return Math.min(i + (escaped == 'x' ? 2 : 1), regex.length() - 1);
+      }
+      case 'u' -> {
+        return Math.min(i + 4, regex.length() - 1);
+      }
+      case 'c' -> {
+        return Math.min(i + 1, regex.length() - 1);
+      }
+      case 'k' -> {
+        return regex.indexOf('>', i);
+      }
+      case '0' -> {
+        // up to three octal digits
+        int end = i;
+        while (end + 1 < regex.length() && end - i < 3 && regex.charAt(end + 1) >= '0' && regex.charAt(end + 1) <= '7') {
+          end++;
+        }
+        return end;
+      }
+      default -> {
+        // a back reference can have more than one digit
+        int end = i;
+        while (Character.isDigit(escaped) && end + 1 < regex.length() && Character.isDigit(regex.charAt(end + 1))) {
+          end++;
+        }
+        return end;
+      }
+    }
+  }
+
+  private static String longer(String longest, StringBuilder run) {
+    return run.length() > longest.length() ? run.toString() : longest;
+  }
+
+  /**
+   * @return true if the file name matches the file mask
+   */
+  public boolean acceptsFile(Path file) {
+    if (fileMatchers.isEmpty()) {
+      return true;
+    }
+    Path name = file.getFileName();
+    for (PathMatcher matcher : fileMatchers) {
+      if (matcher.matches(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * A quick check on the raw content of a file
+   *
+   * @return false if the content cannot contain a match
+   */
+  boolean mightMatch(ByteBuffer content) {
+    return needle == null || indexOf(content, 0) >= 0;
+  }
+
+  /**
+   * Boyer-Moore-Horspool search for the needle in the buffer
+   */
+  int indexOf(ByteBuffer content, int from) {
+    int m = needle.length;
+    int last = content.limit() - m;
+    int pos = from;
+    while (pos <= last) {
+      int i = m - 1;
+      while (i >= 0 && content.get(pos + i) == needle[i]) {
+        i--;
+      }
+      if (i < 0) {
+        return pos;
+      }
+      pos += shifts[content.get(pos + m - 1) & 0xff];
+    }
+    return -1;
+  }
+
+  /**
+   * @return at most max hits in the text
+   */
+  List<SearchHit> findAll(File file, CharSequence content, int max) {
+    List<SearchHit> hits = new ArrayList<>();
+    Matcher matcher = pattern.matcher(content);
+    int line = 0;
+    int lineStart = 0;
+    int scanned = 0;
+    while (hits.size() < max && matcher.find()) {
+      int start = matcher.start();
+      if (matcher.end() == start) {
+        // e.g. ^ or a*, empty matches are nothing to show or replace
+        continue;
+      }
+      for (; scanned < start; scanned++) {
+        if (content.charAt(scanned) == '\n') {
+          line++;
+          lineStart = scanned + 1;
+        }
+      }
+      int lineEnd = start;
+      while (lineEnd < content.length() && lineEnd - lineStart < MAX_LINE_LENGTH && content.charAt(lineEnd) != '\n') {
+        lineEnd++;
+      }
+      if (lineEnd > lineStart && content.charAt(lineEnd - 1) == '\r') {
+        lineEnd--;
+      }
+      String lineText = content.subSequence(lineStart, lineEnd).toString();
+      hits.add(new SearchHit(file, line, start - lineStart, matcher.end() - start, start, lineText));
+    }
+    return hits;
+  }
+
+  /**
+   * @return the line of the hit as it would look after the match is replaced, the line unchanged if that cannot be
+   * determined from the line alone (e.g. when the match spans several lines)
+   */
+  public String previewLine(SearchHit hit, String replacement) {
+    String line = hit.getLineText();
+    if (hit.getColumn() > line.length()) {
+      return line;
+    }
+    Matcher matcher = pattern.matcher(line);
+    matcher.useTransparentBounds(true);
+    matcher.useAnchoringBounds(false);
+    matcher.region(hit.getColumn(), line.length());
+    if (!matcher.lookingAt()) {
+      return line;
+    }
+    StringBuilder sb = new StringBuilder();
+    try {
+      matcher.appendReplacement(sb, replacementFor(replacement));
+    } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+      // an invalid group reference in the replacement
+      return line;
+    }
+    matcher.appendTail(sb);
+    return sb.toString();
+  }
+
+  /**
+   * Replace the matches starting at the given offsets
+   *
+   * @param offsets the character offsets of the hits to replace
+   * @return the new content or null if the matches are not where they were (i.e. the content has changed since the
+   * search)
+   */
+  String replace(String content, String replacement, Set<Integer> offsets) {
+    String expanded = replacementFor(replacement);
+    Matcher matcher = pattern.matcher(content);
+    StringBuilder sb = new StringBuilder(content.length());
+    int replaced = 0;
+    while (matcher.find()) {
+      if (matcher.end() > matcher.start() && offsets.contains(matcher.start())) {
+        matcher.appendReplacement(sb, expanded);
+        replaced++;
+      }
+    }
+    if (replaced != offsets.size()) {
+      return null;
+    }
+    matcher.appendTail(sb);
+    return sb.toString();
+  }
+
+  private String replacementFor(String replacement) {
+    // group references ($1) are only meaningful for regular expressions
+    return regex ? replacement : Matcher.quoteReplacement(replacement);
+  }
+}
@@ -0,0 +1,629 @@
+package se.alipsa.grade.inout.find;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A persistent trigram index of the files of a project, used to narrow down which files a search needs to read.
+ * Every distinct sequence of three bytes in a file (with ASCII letters folded to lower case) is recorded together
+ * with the files containing it; a file can only contain a text if it contains all the trigrams of the text.
+ * <p>
+ * The index is stored in .grade/index in the project dir. When opened it is loaded and brought up to date in the
+ * background, only files whose size or modification time have changed are read again. After that it is kept up
+ * to date by {@link #fileChanged(File)}. Since files can change without anyone telling us (e.g. by git or in
+ * dirs that are not watched), it is also checked against the files on disk every RECONCILE_INTERVAL_MINUTES and
+ * when {@link #reconcile()} is called, always in the background so that a search never waits for it.
+ * File ids are only ever appended to the posting lists, a file that changes gets a new id and the old one is left
+ * unused until the index is compacted when saved.
+ */
+public class TrigramIndex implements Closeable {
+
+  private static final Logger log = LogManager.getLogger(TrigramIndex.class);
+  private static final int FORMAT_VERSION = 1;
+  /** Larger files are not indexed, they are always searched */
+  private static final long MAX_INDEXED_SIZE = 8 * 1024 * 1024;
+  private static final int BINARY_CHECK_SIZE = 8 * 1024;
+  private static final long SAVE_DELAY_SECONDS = 30;
+  private static final long RECONCILE_INTERVAL_MINUTES = 10;
+
+  /** Updates of all indexes are done one at a time, the initial indexing of a project is done in parallel */
+  private static final ScheduledExecutorService INDEXER = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread thread = new Thread(r, "grade-trigram-indexer");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Path root;
+  private final Path indexFile;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  /** the indexed files by id, null for ids no longer used */
+  private final List<FileEntry> files = new ArrayList<>();
+  private final Map<String, Integer> idByPath = new HashMap<>();
+  private final Map<Integer, Postings> postings = new HashMap<>();
+  private int unused;
+  private volatile boolean ready;
+  private volatile boolean dirty;
+  private volatile boolean closed;
+  private ScheduledFuture<?> pendingSave;
+  private ScheduledFuture<?> periodicReconcile;
+  private Future<?> pendingReconcile;
+
+  private TrigramIndex(Path root) {
+    this.root = root;
+    indexFile = root.resolve(".grade").resolve("index").resolve("trigrams.idx");
+  }
+
+  /**
+   * Open the index of the project, it can be used when it has been brought up to date in the background
+   */
+  public static TrigramIndex open(File projectDir) {
+    TrigramIndex index = new TrigramIndex(projectDir.toPath().toAbsolutePath());
+    INDEXER.execute(index::loadAndUpdate);
+    return index;
+  }
+
+  /**
+   * @return true when the index is up to date and can be used
+   */
+  public boolean isReady() {
+    return ready && !closed;
+  }
+
+  public File getRootDir() {
+    return root.toFile();
+  }
+
+  /**
+   * @param text the text to look for, ASCII letters are matched regardless of case
+   * @return the files that might contain the text or null if the index cannot tell (e.g. the text is shorter than
+   * three bytes or the index is not ready yet)
+   */
+  public List<File> candidates(String text) {
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    if (!isReady() || bytes.length < 3) {
+      return null;
+    }
+    int[] grams = trigrams(ByteBuffer.wrap(bytes), bytes.length);
+    List<File> result = new ArrayList<>();
+    lock.readLock().lock();
+    try {
+      List<Postings> lists = new ArrayList<>();
+      for (int gram : grams) {
+        Postings list = postings.get(gram);
+        if (list == null) {
+          lists.clear();
+          break;
+        }
+        lists.add(list);
+      }
+      // start with the rarest trigram, the intersection is never larger than the smallest list
+      lists.sort(Comparator.comparingInt(Postings::size));
+      int[] ids = lists.isEmpty() ? new int[0] : lists.get(0).ids();
+      for (int i = 1; i < lists.size() && ids.length > 0; i++) {
+        ids = intersect(ids, lists.get(i).ids());
+      }
+      for (int id : ids) {
+        FileEntry entry = files.get(id);
+        if (entry != null) {
+          result.add(root.resolve(entry.path).toFile());
+        }
+      }
+      for (FileEntry entry : files) {
+        if (entry != null && !entry.indexed) {
+          result.add(root.resolve(entry.path).toFile());
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    return result;
+  }
+
+  /**
+   * Bring the index up to date with the files on disk in the background, e.g. when file change events were lost.
+   * Only the size and modification time of the files are checked, files that changed are indexed again.
+   * A reconcile that is already pending is not queued again.
+   *
+   * @return the pending reconcile, to wait for it if needed
+   */
+  public synchronized Future<?> reconcile() {
+    if (pendingReconcile == null || pendingReconcile.isDone()) {
+      pendingReconcile = INDEXER.submit(() -> {
+        if (!isReady()) {
+          return;
+        }
+        int changed = updateFromDisk();
+        log.debug("Reconciled the trigram index of {}, {} files re-indexed", root, changed);
+        if (dirty) {
+          scheduleSave();
+        }
+      });
+    }
+    return pendingReconcile;
+  }
+
+  /**
+   * Update the index for a file or dir that has been saved, created, changed or deleted, in the background
+   */
+  public void fileChanged(File file) {
+    Path path = file.toPath().toAbsolutePath();
+    if (closed || !path.startsWith(root)) {
+      return;
+    }
+    INDEXER.execute(() -> {
+      String relative = relativePath(path);
+      if (Files.isRegularFile(path) && !GitIgnoreRules.isIgnored(root, path)) {
+        index(relative, path);
+      } else if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS) && !path.equals(root)) {
+        // e.g. created or moved here, index everything in it
+        GitIgnoreRules rules = GitIgnoreRules.parentRules(root, path);
+        if (!rules.isIgnored(path, true)) {
+          Map<String, Path> found = new LinkedHashMap<>();
+          walk(path, rules, found);
+          found.forEach(this::index);
+        }
+      } else {
+        lock.writeLock().lock();
+        try {
+          remove(relative);
+          // a deleted dir, everything below it is gone as well
+          String dirPrefix = relative + "/";
+          new ArrayList<>(idByPath.keySet()).stream().filter(p -> p.startsWith(dirPrefix)).forEach(this::remove);
+        } finally {
+          lock.writeLock().unlock();
+        }
+      }
+      scheduleSave();
+    });
+  }
+
+  /**
+   * Save the index if it has changed, the index cannot be used after this
+   */
+  @Override
+  public void close() {
+    closed = true;
+    synchronized (this) {
+      if (pendingSave != null) {
+        pendingSave.cancel(false);
+      }
+      if (periodicReconcile != null) {
+        periodicReconcile.cancel(false);
+      }
+    }
+    INDEXER.execute(this::save);
+  }
+
+  private void loadAndUpdate() {
+    if (closed) {
+      return;
+    }
+    long start = System.currentTimeMillis();
+    try {
+      load();
+    } catch (NoSuchFileException e) {
+      log.debug("No trigram index for {} yet", root);
+    } catch (IOException | RuntimeException e) {
+      log.info("Failed to load the trigram index {}, it will be rebuilt: {}", indexFile, e.toString());
+      clear();
+    }
+    long loaded = System.currentTimeMillis();
+    int changed = updateFromDisk();
+    ready = true;
+    synchronized (this) {
+      if (!closed) {
+        periodicReconcile = INDEXER.scheduleWithFixedDelay(this::reconcile, RECONCILE_INTERVAL_MINUTES,
+            RECONCILE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+      }
+    }
+    log.debug("Trigram index of {} loaded in {} ms, {} files, {} re-indexed in {} ms", root, loaded - start,
+        idByPath.size(), changed, System.currentTimeMillis() - loaded);
+    save();
+  }
+
+  /**
+   * Remove files that no longer exist and index the files that are new or modified
+   *
+   * @return the number of files indexed
+   */
+  private int updateFromDisk() {
+    if (closed) {
+      return 0;
+    }
+    Map<String, Path> current = new LinkedHashMap<>();
+    walk(root, GitIgnoreRules.NONE, current);
+    List<Map.Entry<String, Path>> changed = new ArrayList<>();
+    lock.writeLock().lock();
+    try {
+      for (String path : new ArrayList<>(idByPath.keySet())) {
+        if (!current.containsKey(path)) {
+          remove(path);
+          dirty = true;
+        }
+      }
+      for (Map.Entry<String, Path> file : current.entrySet()) {
+        Integer id = idByPath.get(file.getKey());
+        if (id == null || files.get(id).isModified(file.getValue())) {
+          changed.add(file);
+        }
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+    FindInFiles.POOL.submit(() -> changed.parallelStream()
+        .forEach(file -> index(file.getKey(), file.getValue()))).join();
+    return changed.size();
+  }
+
+  private void walk(Path dir, GitIgnoreRules parentRules, Map<String, Path> result) {
+    if (closed) {
+      return;
+    }
+    GitIgnoreRules rules = parentRules.forDirectory(dir);
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+      for (Path entry : entries) {
+        boolean isDir = Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS);
+        if (rules.isIgnored(entry, isDir)) {
+          continue;
+        }
+        if (isDir) {
+          walk(entry, rules, result);
+        } else if (Files.isRegularFile(entry)) {
+          result.put(relativePath(entry), entry);
+        }
+      }
+    } catch (IOException e) {
+      log.debug("Failed to list {}", dir, e);
+    }
+  }
+
+  private String relativePath(Path path) {
+    return root.relativize(path).toString().replace(File.separatorChar, '/');
+  }
+
+  private void index(String relative, Path file) {
+    try {
+      long size = Files.size(file);
+      long modified = Files.getLastModifiedTime(file).toMillis();
+      int[] grams = null;
+      if (size <= MAX_INDEXED_SIZE) {
+        grams = new int[0];
+        if (size > 0) {
+          try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer content = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (!isBinary(content)) {
+              grams = trigrams(content, (int) size);
+            }
+          }
+        }
+      }
+      lock.writeLock().lock();
+      try {
+        remove(relative);
+        int id = files.size();
+        files.add(new FileEntry(relative, size, modified, grams != null));
+        idByPath.put(relative, id);
+        if (grams != null) {
+          for (int gram : grams) {
+            postings.computeIfAbsent(gram, g -> new Postings()).add(id);
+          }
+        }
+        dirty = true;
+      } finally {
+        lock.writeLock().unlock();
+      }
+    } catch (IOException e) {
+      log.debug("Failed to index {}", file, e);
+    }
+  }
+
+  /** must be called with the write lock held */
+  private void remove(String relative) {
+    Integer id = idByPath.remove(relative);
+    if (id != null) {
+      files.set(id, null);
+      unused++;
+      dirty = true;
+    }
+  }
+
+  private void clear() {
+    lock.writeLock().lock();
+    try {
+      files.clear();
+      idByPath.clear();
+      postings.clear();
+      unused = 0;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private static boolean isBinary(ByteBuffer content) {
+    int end = Math.min(content.limit(), BINARY_CHECK_SIZE);
+    for (int i = 0; i < end; i++) {
+      if (content.get(i) == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the distinct trigrams of the content, sorted
+   */
+  static int[] trigrams(ByteBuffer content, int length) {
+    if (length < 3) {
+      return new int[0];
+    }
+    int[] grams = new int[length - 2];
+    int gram = fold(content.get(0)) << 8 | fold(content.get(1));
+    for (int i = 2; i < length; i++) {
+      gram = (gram << 8 | fold(content.get(i))) & 0xffffff;
+      grams[i - 2] = gram;
+    }
+    Arrays.sort(grams);
+    int distinct = 0;
+    for (int i = 0; i < grams.length; i++) {
+      if (i == 0 || grams[i] != grams[i - 1]) {
+        grams[distinct++] = grams[i];
+      }
+    }
+    return Arrays.copyOf(grams, distinct);
+  }
+
+  private static int fold(byte b) {
+    return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b & 0xff;
+  }
+
+  private static int[] intersect(int[] a, int[] b) {
+    int[] result = new int[Math.min(a.length, b.length)];
+    int i = 0;
+    int j = 0;
+    int n = 0;
+    while (i < a.length && j < b.length) {
+      if (a[i] < b[j]) {
+        i++;
+      } else if (a[i] > b[j]) {
+        j++;
+      } else {
+        result[n++] = a[i];
+        i++;
+        j++;
+      }
+    }
+    return Arrays.copyOf(result, n);
+  }
+
+  private synchronized void scheduleSave() {
+    if (closed || pendingSave != null && !pendingSave.isDone()) {
+      return;
+    }
+    pendingSave = INDEXER.schedule(this::save, SAVE_DELAY_SECONDS, TimeUnit.SECONDS);
+  }
+
+  private void save() {
+    if (!dirty) {
+      return;
+    }
+    long start = System.currentTimeMillis();
+    lock.writeLock().lock();
+    try {
+      if (unused > files.size() / 2) {
+        compact();
+      }
+      Files.createDirectories(indexFile.getParent());
+      Path tmp = Files.createTempFile(indexFile.getParent(), "trigrams", ".tmp");
+      try {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+          out.writeInt(FORMAT_VERSION);
+          out.writeInt(files.size());
+          for (FileEntry entry : files) {
+            out.writeBoolean(entry != null);
+            if (entry != null) {
+              out.writeUTF(entry.path);
+              out.writeLong(entry.size);
+              out.writeLong(entry.modified);
+              out.writeBoolean(entry.indexed);
+            }
+          }
+          out.writeInt(postings.size());
+          for (Map.Entry<Integer, Postings> entry : postings.entrySet()) {
+            out.writeInt(entry.getKey());
+            entry.getValue().write(out);
+          }
+        }
+        Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(tmp);
+      }
+      dirty = false;
+      log.debug("Saved trigram index of {} in {} ms", root, System.currentTimeMillis() - start);
+    } catch (IOException e) {
+      log.warn("Failed to save the trigram index {}", indexFile, e);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void load() throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+      if (in.readInt() != FORMAT_VERSION) {
+        throw new IOException("Unsupported index format");
+      }
+      lock.writeLock().lock();
+      try {
+        int fileCount = in.readInt();
+        for (int id = 0; id < fileCount; id++) {
+          if (in.readBoolean()) {
+            FileEntry entry = new FileEntry(in.readUTF(), in.readLong(), in.readLong(), in.readBoolean());
+            files.add(entry);
+            idByPath.put(entry.path, id);
+          } else {
+            files.add(null);
+            unused++;
+          }
+        }
+        int postingsCount = in.readInt();
+        for (int i = 0; i < postingsCount; i++) {
+          postings.put(in.readInt(), Postings.read(in));
+        }
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+  }
+
+  /**
+   * Renumber the files so that there are no unused ids, must be called with the write lock held
+   */
+  private void compact() {
+    int[] newIds = new int[files.size()];
+    List<FileEntry> used = new ArrayList<>(files.size() - unused);
+    for (int id = 0; id < files.size(); id++) {
+      FileEntry entry = files.get(id);
+      newIds[id] = entry == null ? -1 : used.size();
+      if (entry != null) {
+        used.add(entry);
+      }
+    }
+    postings.replaceAll((gram, list) -> list.renumber(newIds));
+    postings.values().removeIf(list -> list.size() == 0);
+    files.clear();
+    files.addAll(used);
+    idByPath.clear();
+    for (int id = 0; id < files.size(); id++) {
+      idByPath.put(files.get(id).path, id);
+    }
+    unused = 0;
+  }
+
+  private static final class FileEntry {
+    private final String path;
+    private final long size;
+    private final long modified;
+    /** false if the file was too large to index, it is then always a candidate */
+    private final boolean indexed;
+
+    FileEntry(String path, long size, long modified, boolean indexed) {
+      this.path = path;
+      this.size = size;
+      this.modified = modified;
+      this.indexed = indexed;
+    }
+
+    boolean isModified(Path file) {
+      try {
+        return Files.size(file) != size || Files.getLastModifiedTime(file).toMillis() != modified;
+      } catch (IOException e) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * The ids of the files containing a trigram, in increasing order, stored as variable length encoded deltas
+   */
+  private static final class Postings {
+    private byte[] data = new byte[4];
+    private int length;
+    private int count;
+    private int lastId = -1;
+
+    void add(int id) {
+      int delta = id - lastId;
+      if (length + 5 > data.length) {
+        data = Arrays.copyOf(data, Math.max(data.length * 2, length + 5));
+      }
+      while ((delta & ~0x7f) != 0) {
+        data[length++] = (byte) (delta & 0x7f | 0x80);
+        delta >>>= 7;
+      }
+      data[length++] = (byte) delta;
+      lastId = id;
+      count++;
+    }
+
+    int size() {
+      return count;
+    }
+
+    int[] ids() {
+      int[] ids = new int[count];
+      int id = -1;
+      int pos = 0;
+      for (int i = 0; i < count; i++) {
+        int delta = 0;
+        int shift = 0;
+        byte b;
+        do {
+          b = data[pos++];
+          delta |= (b & 0x7f) << shift;
+          shift += 7;
+        } while (b < 0);
+        id += delta;
+        ids[i] = id;
+      }
+      return ids;
+    }
+
+    Postings renumber(int[] newIds) {
+      Postings renumbered = new Postings();
+      for (int id : ids()) {
+        if (newIds[id] >= 0) {
+          renumbered.add(newIds[id]);
+        }
+      }
+      return renumbered;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+      out.writeInt(count);
+      out.writeInt(lastId);
+      out.writeInt(length);
+      out.write(data, 0, length);
+    }
+
+    static Postings read(DataInputStream in) throws IOException {
+      Postings postings = new Postings();
+      postings.count = in.readInt();
+      postings.lastId = in.readInt();
+      postings.length = in.readInt();
+      postings.data = new byte[Math.max(postings.length, 4)];
+      in.readFully(postings.data, 0, postings.length);
+      return postings;
+    }
+  }
+}
@@ -0,0 +1,44 @@
+package se.alipsa.grade.inout.git;
+
+import javafx.concurrent.Worker;
+import javafx.geometry.Insets;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.Dialog;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.layout.VBox;
+import se.alipsa.grade.Grade;
+import se.alipsa.grade.utils.GuiUtils;
+
+/**
+ * Shows the progress of a clone, cancelling the dialog cancels the clone. Closes itself when the clone is done.
+ */
+public class CloneProgressDialog extends Dialog<Void> {
+
+  public CloneProgressDialog(Grade gui, CloneTask task) {
+    setTitle("Cloning " + task.getUrl());
+    getDialogPane().getButtonTypes().add(ButtonType.CANCEL);
+
+    ProgressBar progressBar = new ProgressBar();
+    progressBar.setPrefWidth(450);
+    progressBar.progressProperty().bind(task.progressProperty());
+    Label messageLabel = new Label();
+    messageLabel.textProperty().bind(task.messageProperty());
+    VBox box = new VBox(10, messageLabel, progressBar);
+    box.setPadding(new Insets(10, 15, 10, 10));
+    getDialogPane().setContent(box);
+    GuiUtils.addStyle(gui, this);
+
+    setResultConverter(button -> {
+      if (task.isRunning()) {
+        task.cancel();
+      }
+      return null;
+    });
+    task.stateProperty().addListener((obs, oldState, state) -> {
+      if (state == Worker.State.SUCCEEDED || state == Worker.State.FAILED || state == Worker.State.CANCELLED) {
+        close();
+      }
+    });
+  }
+}
@@ -0,0 +1,229 @@
+package se.alipsa.grade.inout.git;
+
+import javafx.concurrent.Task;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jgit.api.CheckoutCommand;
+import org.eclipse.jgit.api.CloneCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.util.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Clones a repository in the background. The clone can be shallow (only the last depth commits), of a single
+ * branch, and limited to checking out some paths (the other files are in the index marked as assumed unchanged
+ * so they do not show up as deleted). Progress, including the transfer rate, is reported through the progress
+ * and message of the task, and cancelling the task stops the clone. If the clone fails or is cancelled, the
+ * target dir is deleted again unless it existed before so that the clone can be retried.
+ */
+public class CloneTask extends Task<File> {
+
+  private static final Logger log = LogManager.getLogger(CloneTask.class);
+  private static final long REPORT_INTERVAL_MILLIS = 250;
+
+  private final String url;
+  private final File targetDir;
+  private final String branch;
+  private final boolean singleBranch;
+  private final int depth;
+  private final List<String> paths;
+
+  /**
+   * @param branch the branch to check out, null for the default branch of the remote
+   * @param depth the number of commits to fetch, 0 for the whole history
+   * @param paths the paths to check out, empty for all
+   */
+  public CloneTask(String url, File targetDir, String branch, boolean singleBranch, int depth, List<String> paths) {
+    this.url = url;
+    this.targetDir = targetDir;
+    this.branch = branch;
+    this.singleBranch = singleBranch;
+    this.depth = depth;
+    this.paths = paths;
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  @Override
+  protected File call() throws GitAPIException, IOException {
+    CloneCommand command = Git.cloneRepository()
+        .setURI(url)
+        .setDirectory(targetDir)
+        .setProgressMonitor(new Monitor())
+        .setNoCheckout(!paths.isEmpty());
+    if (branch != null) {
+      command.setBranch(branch);
+    }
+    if (singleBranch) {
+      String ref = branch == null ? defaultBranch() : Constants.R_HEADS + branch;
+      if (ref != null) {
+        command.setCloneAllBranches(false);
+        command.setBranchesToClone(List.of(ref));
+      }
+    }
+    if (depth > 0) {
+      command.setDepth(depth);
+    }
+    long start = System.currentTimeMillis();
+    boolean existed = targetDir.exists();
+    boolean succeeded = false;
+    try {
+      try (Git git = command.call()) {
+        if (!paths.isEmpty()) {
+          updateMessage("Checking out " + String.join(", ", paths));
+          checkoutPaths(git);
+        }
+      }
+      succeeded = !isCancelled();
+    } finally {
+      if (!succeeded && !existed) {
+        deleteTargetDir();
+      }
+    }
+    log.info("Cloned {} into {} in {} s", url, targetDir, (System.currentTimeMillis() - start) / 1000);
+    return targetDir;
+  }
+
+  /**
+   * Remove what a failed or cancelled clone has written
+   */
+  private void deleteTargetDir() {
+    try {
+      FileUtils.delete(targetDir, FileUtils.RECURSIVE | FileUtils.RETRY | FileUtils.SKIP_MISSING);
+      log.info("Deleted {} after the clone of {} did not complete", targetDir, url);
+    } catch (IOException e) {
+      log.warn("Failed to delete {} after the clone of {} did not complete", targetDir, url, e);
+    }
+  }
+
+  /**
+   * @return the branch HEAD of the remote points to, null if it cannot be determined
+   */
+  private String defaultBranch() throws GitAPIException {
+    updateMessage("Looking up the default branch");
+    Map<String, Ref> refs = Git.lsRemoteRepository().setRemote(url).callAsMap();
+    Ref head = refs.get(Constants.HEAD);
+    return head != null && head.isSymbolic() ? head.getTarget().getName() : null;
+  }
+
+  /**
+   * Fill the index from HEAD and check out only the paths asked for
+   */
+  private void checkoutPaths(Git git) throws IOException, GitAPIException {
+    Repository repo = git.getRepository();
+    DirCache dirCache = repo.lockDirCache();
+    try (RevWalk walk = new RevWalk(repo); ObjectReader reader = repo.newObjectReader()) {
+      DirCacheBuilder builder = dirCache.builder();
+      builder.addTree(new byte[0], DirCacheEntry.STAGE_0, reader, walk.parseCommit(repo.resolve(Constants.HEAD)).getTree());
+      builder.finish();
+      for (int i = 0; i < dirCache.getEntryCount(); i++) {
+        DirCacheEntry entry = dirCache.getEntry(i);
+        entry.setAssumeValid(!isSelected(entry.getPathString()));
+      }
+      dirCache.write();
+      dirCache.commit();
+    } finally {
+      dirCache.unlock();
+    }
+    CheckoutCommand checkout = git.checkout();
+    paths.forEach(checkout::addPath);
+    checkout.call();
+  }
+
+  private boolean isSelected(String path) {
+    for (String selected : paths) {
+      if (path.equals(selected) || path.startsWith(selected + "/")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private class Monitor implements ProgressMonitor {
+    private final File packDir = new File(targetDir, ".git/objects/pack");
+    private String title = "";
+    private int totalWork;
+    private int completed;
+    private long lastReport;
+    private long rateTime;
+    private long rateBytes;
+    private String rate = "";
+
+    @Override
+    public void start(int totalTasks) {
+      // the tasks are reported as they begin
+    }
+
+    @Override
+    public void beginTask(String title, int totalWork) {
+      this.title = title;
+      this.totalWork = totalWork;
+      completed = 0;
+      report(true);
+    }
+
+    @Override
+    public void update(int completed) {
+      this.completed += completed;
+      report(false);
+    }
+
+    @Override
+    public void endTask() {
+      report(true);
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return CloneTask.this.isCancelled();
+    }
+
+    private void report(boolean force) {
+      long now = System.currentTimeMillis();
+      if (!force && now - lastReport < REPORT_INTERVAL_MILLIS) {
+        return;
+      }
+      lastReport = now;
+      long bytes = packBytes();
+      if (now - rateTime >= 1000) {
+        rate = rateTime == 0 || bytes == rateBytes ? ""
+            : String.format(", %.1f MB/s", (bytes - rateBytes) / 1024.0 / 1024.0 * 1000 / (now - rateTime));
+        rateTime = now;
+        rateBytes = bytes;
+      }
+      updateProgress(completed, totalWork > 0 ? totalWork : -1);
+      updateMessage(title + ": " + completed + (totalWork > 0 ? "/" + totalWork : "")
+          + (bytes > 0 ? String.format(" (%.1f MB%s)", bytes / 1024.0 / 1024.0, rate) : ""));
+    }
+
+    /**
+     * @return the size of the pack files received so far
+     */
+    private long packBytes() {
+      File[] packs = packDir.listFiles((dir, name) -> name.endsWith(".pack"));
+      long size = 0;
+      if (packs != null) {
+        for (File pack : packs) {
+          size += pack.length();
+        }
+      }
+      return size;
+    }
+  }
+}
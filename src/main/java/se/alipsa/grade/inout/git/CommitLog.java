@@ -0,0 +1,241 @@
+package se.alipsa.grade.inout.git;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import se.alipsa.grade.utils.StringUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The history of a branch, optionally limited to the commits touching a path, read a page at a time from a
+ * RevWalk so that showing the log of a repository with a long history does not mean walking all of it.
+ * The commit graph is computed as the commits are read. The first rows of the log of a branch are stored in the
+ * .grade dir of the project so that the log can be shown at once the next time, as long as the branch has not moved.
+ * Not thread safe, use it from one thread at a time.
+ */
+public class CommitLog implements Closeable {
+
+  private static final Logger log = LogManager.getLogger(CommitLog.class);
+  private static final int FORMAT_VERSION = 1;
+  /** The maximum number of rows to store */
+  public static final int MAX_CACHED_ROWS = 2000;
+  private static final int MAX_MESSAGE_LENGTH = 1000;
+
+  private final Repository repository;
+  private final String ref;
+  private final String path;
+  private final ObjectId head;
+  private final RevWalk walk;
+  /** the commit expected next in each lane of the graph, null for a free lane */
+  private final List<AnyObjectId> lanes = new ArrayList<>();
+  private volatile boolean done;
+
+  /**
+   * @param ref the branch (or any revision) to show the history of
+   * @param path the path (relative to the root of the repository) to show the history of, null for all
+   */
+  public CommitLog(Repository repository, String ref, String path) throws IOException {
+    this.repository = repository;
+    this.ref = ref;
+    this.path = path;
+    head = repository.resolve(ref);
+    walk = new RevWalk(repository);
+    if (head == null) {
+      done = true;
+      return;
+    }
+    walk.markStart(walk.parseCommit(head));
+    if (path != null) {
+      walk.setTreeFilter(AndTreeFilter.create(PathFilterGroup.createFromStrings(path), TreeFilter.ANY_DIFF));
+    }
+  }
+
+  /**
+   * @return up to count more rows, fewer only when the whole history has been read
+   */
+  public List<CommitRow> next(int count) throws IOException {
+    List<CommitRow> rows = new ArrayList<>();
+    RevCommit commit;
+    while (rows.size() < count && (commit = nextCommit()) != null) {
+      String graph = graph(commit);
+      List<String> parents = Arrays.stream(commit.getParents()).map(AnyObjectId::name).toList();
+      String message = commit.getShortMessage();
+      if (message.length() > MAX_MESSAGE_LENGTH) {
+        message = message.substring(0, MAX_MESSAGE_LENGTH);
+      }
+      rows.add(new CommitRow(commit.name(), parents, commit.getCommitTime(), commit.getAuthorIdent().getName(),
+          message, graph));
+    }
+    return rows;
+  }
+
+  /**
+   * Walk past commits that are already shown (e.g. the cached rows) without creating rows for them
+   */
+  public void skip(int count) throws IOException {
+    RevCommit commit;
+    for (int i = 0; i < count && (commit = nextCommit()) != null; i++) {
+      graph(commit);
+      // the message is not needed
+      commit.disposeBody();
+    }
+  }
+
+  public boolean isDone() {
+    return done;
+  }
+
+  private RevCommit nextCommit() throws IOException {
+    if (done) {
+      return null;
+    }
+    RevCommit commit = walk.next();
+    if (commit == null) {
+      done = true;
+    }
+    return commit;
+  }
+
+  /**
+   * Assign the commit to a lane and move the lanes on to its parents
+   *
+   * @return the lanes at the commit e.g. "| * |"
+   */
+  private String graph(RevCommit commit) {
+    int lane = lanes.indexOf(commit);
+    if (lane < 0) {
+      // the tip of a branch
+      lane = lanes.indexOf(null);
+      if (lane < 0) {
+        lane = lanes.size();
+        lanes.add(null);
+      }
+    }
+    StringBuilder graph = new StringBuilder();
+    for (int i = 0; i < lanes.size(); i++) {
+      if (i > 0) {
+        graph.append(' ');
+      }
+      graph.append(i == lane ? '*' : lanes.get(i) == null ? ' ' : '|');
+    }
+    // other lanes that were waiting for this commit end here
+    for (int i = 0; i < lanes.size(); i++) {
+      if (i != lane && commit.equals(lanes.get(i))) {
+        lanes.set(i, null);
+      }
+    }
+    RevCommit[] parents = commit.getParents();
+    lanes.set(lane, parents.length > 0 ? parents[0] : null);
+    for (int i = 1; i < parents.length; i++) {
+      if (!lanes.contains(parents[i])) {
+        int free = lanes.indexOf(null);
+        if (free < 0) {
+          lanes.add(parents[i]);
+        } else {
+          lanes.set(free, parents[i]);
+        }
+      }
+    }
+    while (!lanes.isEmpty() && lanes.get(lanes.size() - 1) == null) {
+      lanes.remove(lanes.size() - 1);
+    }
+    return graph.toString().stripTrailing();
+  }
+
+  /**
+   * @return the rows stored for the branch if it still points to the same commit, otherwise an empty list
+   */
+  public List<CommitRow> cachedRows() {
+    File file = cacheFile();
+    if (file == null || !file.exists()) {
+      return List.of();
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+      if (in.readInt() != FORMAT_VERSION || !head.name().equals(in.readUTF())) {
+        return List.of();
+      }
+      int count = in.readInt();
+      List<CommitRow> rows = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        String id = in.readUTF();
+        String parents = in.readUTF();
+        int time = in.readInt();
+        String author = in.readUTF();
+        String message = in.readUTF();
+        String graph = in.readUTF();
+        rows.add(new CommitRow(id, parents.isEmpty() ? List.of() : List.of(parents.split(" ")), time, author,
+            message, graph));
+      }
+      return rows;
+    } catch (IOException e) {
+      log.debug("Failed to read {}", file, e);
+      return List.of();
+    }
+  }
+
+  /**
+   * Store the first rows of the log so that they can be shown at once the next time
+   */
+  public void cache(List<CommitRow> rows) {
+    File file = cacheFile();
+    if (file == null || rows.isEmpty()) {
+      return;
+    }
+    List<CommitRow> stored = rows.subList(0, Math.min(rows.size(), MAX_CACHED_ROWS));
+    try {
+      Files.createDirectories(file.getParentFile().toPath());
+      File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+        out.writeInt(FORMAT_VERSION);
+        out.writeUTF(head.name());
+        out.writeInt(stored.size());
+        for (CommitRow row : stored) {
+          out.writeUTF(row.getId());
+          out.writeUTF(String.join(" ", row.getParents()));
+          out.writeInt(row.getCommitTime());
+          out.writeUTF(row.getAuthor());
+          out.writeUTF(row.getMessage());
+          out.writeUTF(row.getGraph());
+        }
+      }
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      log.debug("Failed to store the log in {}", file, e);
+    }
+  }
+
+  /**
+   * @return where the log of the branch is stored, null if it is not (the log of a path or a bare repository)
+   */
+  private File cacheFile() {
+    if (path != null || head == null || repository.isBare()) {
+      return null;
+    }
+    File indexDir = new File(repository.getWorkTree(), ".grade/index");
+    return new File(indexDir, "log-" + StringUtils.sha256(ref) + ".cache");
+  }
+
+  @Override
+  public void close() {
+    walk.close();
+  }
+}
@@ -0,0 +1,62 @@
+package se.alipsa.grade.inout.git;
+
+import java.util.List;
+
+/**
+ * One commit in the git log view
+ */
+public class CommitRow {
+
+  private final String id;
+  private final List<String> parents;
+  private final int commitTime;
+  private final String author;
+  private final String message;
+  private final String graph;
+
+  public CommitRow(String id, List<String> parents, int commitTime, String author, String message, String graph) {
+    this.id = id;
+    this.parents = parents;
+    this.commitTime = commitTime;
+    this.author = author;
+    this.message = message;
+    this.graph = graph;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public String getShortId() {
+    return id.substring(0, Math.min(8, id.length()));
+  }
+
+  public List<String> getParents() {
+    return parents;
+  }
+
+  /**
+   * @return seconds since the epoch
+   */
+  public int getCommitTime() {
+    return commitTime;
+  }
+
+  public String getAuthor() {
+    return author;
+  }
+
+  /**
+   * @return the first line of the commit message
+   */
+  public String getMessage() {
+    return message;
+  }
+
+  /**
+   * @return the lanes of the commit graph at this commit, * is the commit and | are other branches passing by
+   */
+  public String getGraph() {
+    return graph;
+  }
+}
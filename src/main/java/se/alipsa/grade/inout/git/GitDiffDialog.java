@@ -0,0 +1,343 @@
+package se.alipsa.grade.inout.git;
+
+import javafx.concurrent.Task;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.Dialog;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.MouseButton;
+import javafx.scene.layout.BorderPane;
+import javafx.stage.Modality;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import se.alipsa.grade.Grade;
+import se.alipsa.grade.utils.GuiUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Shows the changes of a commit, or of the working tree compared to the index, one file section at a time.
+ * Only the list of changed files is computed up front, the diff of a file is formatted when its section is
+ * expanded. Files larger than MAX_DIFF_SIZE are not diffed unless asked for, so a commit touching thousands of
+ * (possibly generated) files can be reviewed without waiting for all of them.
+ */
+public class GitDiffDialog extends Dialog<Void> {
+
+  private static final Logger log = LogManager.getLogger(GitDiffDialog.class);
+  private static final long MAX_DIFF_SIZE = 512 * 1024;
+  private static final int MAX_LINE_LENGTH = 2000;
+
+  /** The formatter is only used from this thread */
+  private static final ExecutorService DIFFER = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "grade-git-diff");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Git git;
+  private final ListView<DiffRow> listView = new ListView<>();
+  private final Label statusLabel = new Label("Comparing...");
+  private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+  private final DiffFormatter formatter = new DiffFormatter(buffer);
+
+  /**
+   * @param commitId the commit to show the changes of (compared to its first parent),
+   *                 null for the changes in the working tree that are not in the index
+   * @param path the path (relative to the root of the repository) to limit the diff to, null for all
+   */
+  public GitDiffDialog(Grade gui, Git git, String commitId, String path) {
+    this.git = git;
+    setTitle("Diff " + (commitId == null ? "of working tree" : "of " + commitId.substring(0, Math.min(8, commitId.length())))
+        + (path == null ? "" : " for " + path));
+    initModality(Modality.NONE);
+    getDialogPane().getButtonTypes().add(ButtonType.CLOSE);
+
+    listView.setCellFactory(lv -> new DiffCell());
+    listView.setOnKeyPressed(e -> {
+      if (e.getCode() == KeyCode.ENTER || e.getCode() == KeyCode.SPACE) {
+        toggle(listView.getSelectionModel().getSelectedItem());
+      }
+    });
+    BorderPane pane = new BorderPane(listView);
+    pane.setTop(statusLabel);
+    getDialogPane().setContent(pane);
+    getDialogPane().setPrefSize(1000, 700);
+    setResizable(true);
+    GuiUtils.addStyle(gui, this);
+    setOnHidden(e -> DIFFER.execute(formatter::close));
+
+    Task<List<DiffEntry>> task = new Task<>() {
+      @Override
+      protected List<DiffEntry> call() throws IOException {
+        return scan(commitId, path);
+      }
+    };
+    task.setOnSucceeded(e -> {
+      List<DiffEntry> entries = task.getValue();
+      List<DiffRow> headers = new ArrayList<>(entries.size());
+      for (DiffEntry entry : entries) {
+        headers.add(new FileSection(entry).header);
+      }
+      listView.getItems().setAll(headers);
+      statusLabel.setText(entries.isEmpty() ? "No differences detected"
+          : entries.size() + " files changed, click a file to show its diff");
+    });
+    task.setOnFailed(e -> {
+      statusLabel.setText("Failed to compare: " + task.getException());
+      log.warn("Failed to diff", task.getException());
+    });
+    DIFFER.execute(task);
+  }
+
+  private List<DiffEntry> scan(String commitId, String path) throws IOException {
+    Repository repo = git.getRepository();
+    formatter.setRepository(repo);
+    formatter.setDetectRenames(true);
+    if (path != null) {
+      formatter.setPathFilter(PathFilter.create(path));
+    }
+    if (commitId == null) {
+      return formatter.scan(new DirCacheIterator(repo.readDirCache()), new FileTreeIterator(repo));
+    }
+    try (RevWalk walk = new RevWalk(repo)) {
+      RevCommit commit = walk.parseCommit(ObjectId.fromString(commitId));
+      RevCommit parent = commit.getParentCount() == 0 ? null : walk.parseCommit(commit.getParent(0));
+      return formatter.scan(parent == null ? null : parent.getTree(), commit.getTree());
+    }
+  }
+
+  private void toggle(DiffRow row) {
+    if (row == null) {
+      return;
+    }
+    FileSection section = row.section;
+    if (row.kind == Kind.LOAD_ANYWAY) {
+      section.ignoreSize = true;
+      collapse(section);
+      expand(section);
+    } else if (row.kind == Kind.FILE) {
+      if (section.expanded) {
+        collapse(section);
+      } else {
+        expand(section);
+      }
+    }
+  }
+
+  private void expand(FileSection section) {
+    section.expanded = true;
+    if (section.rows != null) {
+      show(section);
+      return;
+    }
+    if (section.loading) {
+      return;
+    }
+    section.loading = true;
+    listView.refresh();
+    Task<List<DiffRow>> task = new Task<>() {
+      @Override
+      protected List<DiffRow> call() throws IOException {
+        return format(section);
+      }
+    };
+    task.setOnSucceeded(e -> {
+      section.loading = false;
+      section.rows = task.getValue();
+      if (section.expanded) {
+        show(section);
+      }
+    });
+    task.setOnFailed(e -> {
+      section.loading = false;
+      section.expanded = false;
+      listView.refresh();
+      log.warn("Failed to diff {}", section.getPath(), task.getException());
+      statusLabel.setText("Failed to diff " + section.getPath() + ": " + task.getException());
+    });
+    DIFFER.execute(task);
+  }
+
+  private void show(FileSection section) {
+    int index = listView.getItems().indexOf(section.header);
+    if (index >= 0) {
+      listView.getItems().addAll(index + 1, section.rows);
+      listView.refresh();
+    }
+  }
+
+  private void collapse(FileSection section) {
+    int index = listView.getItems().indexOf(section.header);
+    if (section.expanded && section.rows != null && index >= 0) {
+      listView.getItems().remove(index + 1, index + 1 + section.rows.size());
+    }
+    section.expanded = false;
+    if (section.ignoreSize && section.rows != null && section.rows.size() == 1
+        && section.rows.get(0).kind == Kind.LOAD_ANYWAY) {
+      // format it again, this time regardless of the size
+      section.rows = null;
+    }
+    listView.refresh();
+  }
+
+  private List<DiffRow> format(FileSection section) throws IOException {
+    DiffEntry entry = section.entry;
+    long size = Math.max(size(entry.getOldId(), entry.getOldPath()), size(entry.getNewId(), entry.getNewPath()));
+    if (size > MAX_DIFF_SIZE && !section.ignoreSize) {
+      return List.of(new DiffRow(section, Kind.LOAD_ANYWAY,
+          "The file is large (" + size / 1024 + " KB), click here to show the diff anyway"));
+    }
+    buffer.reset();
+    formatter.format(entry);
+    formatter.flush();
+    String diff = buffer.toString(StandardCharsets.UTF_8);
+    buffer.reset();
+    List<DiffRow> rows = new ArrayList<>();
+    boolean inHunks = false;
+    for (String line : diff.split("\n")) {
+      inHunks = inHunks || line.startsWith("@@");
+      if (!inHunks && (line.startsWith("diff --git") || line.startsWith("index ") || line.startsWith("--- ")
+          || line.startsWith("+++ "))) {
+        // already in the file header
+        continue;
+      }
+      Kind kind = line.startsWith("@@") ? Kind.HUNK
+          : line.startsWith("+") ? Kind.ADDED
+          : line.startsWith("-") ? Kind.REMOVED
+          : Kind.CONTEXT;
+      if (line.length() > MAX_LINE_LENGTH) {
+        line = line.substring(0, MAX_LINE_LENGTH) + "...";
+      }
+      rows.add(new DiffRow(section, kind, line));
+    }
+    return rows;
+  }
+
+  /**
+   * @return the size of the blob, or of the file in the working tree if the blob is not in the repository
+   */
+  private long size(AbbreviatedObjectId abbreviatedId, String path) {
+    if (abbreviatedId == null || !abbreviatedId.isComplete() || DiffEntry.DEV_NULL.equals(path)) {
+      return 0;
+    }
+    ObjectId id = abbreviatedId.toObjectId();
+    Repository repo = git.getRepository();
+    try {
+      if (repo.getObjectDatabase().has(id)) {
+        return repo.open(id).getSize();
+      }
+    } catch (IOException e) {
+      log.debug("Failed to get the size of {}", path, e);
+    }
+    return repo.isBare() ? 0 : new File(repo.getWorkTree(), path).length();
+  }
+
+  private enum Kind {
+    FILE, LOAD_ANYWAY, HUNK, ADDED, REMOVED, CONTEXT
+  }
+
+  private static class FileSection {
+    private final DiffEntry entry;
+    private final DiffRow header;
+    private List<DiffRow> rows;
+    private boolean expanded;
+    private boolean loading;
+    private boolean ignoreSize;
+
+    FileSection(DiffEntry entry) {
+      this.entry = entry;
+      header = new DiffRow(this, Kind.FILE, null);
+    }
+
+    String getPath() {
+      return entry.getChangeType() == DiffEntry.ChangeType.DELETE ? entry.getOldPath() : entry.getNewPath();
+    }
+
+    String getTitle() {
+      return switch (entry.getChangeType()) {
+        case ADD -> "A " + entry.getNewPath();
+        case DELETE -> "D " + entry.getOldPath();
+        case MODIFY -> "M " + entry.getNewPath();
+        case RENAME -> "R " + entry.getOldPath() + " -> " + entry.getNewPath();
+        case COPY -> "C " + entry.getOldPath() + " -> " + entry.getNewPath();
+      };
+    }
+  }
+
+  private static class DiffRow {
+    private final FileSection section;
+    private final Kind kind;
+    private final String text;
+
+    DiffRow(FileSection section, Kind kind, String text) {
+      this.section = section;
+      this.kind = kind;
+      this.text = text;
+    }
+  }
+
+  /** Only a click on a file header or a "load anyway" row toggles, not one on a diff line or below the list */
+  private class DiffCell extends ListCell<DiffRow> {
+
+    DiffCell() {
+      setOnMouseClicked(e -> {
+        DiffRow row = getItem();
+        if (e.getButton() == MouseButton.PRIMARY && !isEmpty() && row != null
+            && (row.kind == Kind.FILE || row.kind == Kind.LOAD_ANYWAY)) {
+          toggle(row);
+        }
+      });
+    }
+
+    @Override
+    protected void updateItem(DiffRow row, boolean empty) {
+      super.updateItem(row, empty);
+      if (empty || row == null) {
+        setText(null);
+        setStyle("");
+        return;
+      }
+      switch (row.kind) {
+        case FILE -> {
+          setText((row.section.expanded ? "[-] " : "[+] ") + row.section.getTitle()
+              + (row.section.loading ? "  (loading...)" : ""));
+          setStyle("-fx-font-weight: bold");
+        }
+        case LOAD_ANYWAY -> {
+          setText(row.text);
+          setStyle("-fx-text-fill: -fx-accent; -fx-underline: true");
+        }
+        default -> {
+          setText(row.text);
+          String color = switch (row.kind) {
+            case HUNK -> "#6897BB";
+            case ADDED -> "#629755";
+            case REMOVED -> "red";
+            default -> null;
+          };
+          setStyle("-fx-font-family: monospace" + (color == null ? "" : "; -fx-text-fill: " + color));
+        }
+      }
+    }
+  }
+}
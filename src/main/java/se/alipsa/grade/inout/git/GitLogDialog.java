@@ -0,0 +1,284 @@
+package se.alipsa.grade.inout.git;
+
+import javafx.beans.property.SimpleStringProperty;
+import javafx.concurrent.Task;
+import javafx.geometry.Insets;
+import javafx.geometry.Orientation;
+import javafx.scene.control.Button;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.ComboBox;
+import javafx.scene.control.Dialog;
+import javafx.scene.control.Label;
+import javafx.scene.control.SplitPane;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableRow;
+import javafx.scene.control.TableView;
+import javafx.scene.control.TextArea;
+import javafx.scene.control.TextField;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.stage.Modality;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ListBranchCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import se.alipsa.grade.Grade;
+import se.alipsa.grade.utils.GuiUtils;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Shows the history of a branch, optionally for a single path. Commits are read a page at a time as the table is
+ * scrolled towards the end, so the log of a repository with a long history opens as quickly as a short one.
+ * Double click a commit to show its changes.
+ */
+public class GitLogDialog extends Dialog<Void> {
+
+  private static final Logger log = LogManager.getLogger(GitLogDialog.class);
+  private static final int PAGE_SIZE = 200;
+
+  /** All reading of commits is done one task at a time, a CommitLog is only used from this thread */
+  private static final ExecutorService LOADER = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "grade-git-log");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Grade gui;
+  private final Git git;
+  private final ComboBox<String> branchBox = new ComboBox<>();
+  private final TextField pathField = new TextField();
+  private final TableView<CommitRow> table = new TableView<>();
+  private final TextArea details = new TextArea();
+  private final Label statusLabel = new Label();
+  private CommitLog commitLog;
+  /** rows shown from the cache that the walk has not passed yet */
+  private int skip;
+  private boolean loading;
+  private boolean cacheIsCurrent;
+
+  /**
+   * @param path the path to show the history of (relative to the root of the repository), null for all
+   */
+  public GitLogDialog(Grade gui, Git git, String path) {
+    this.gui = gui;
+    this.git = git;
+    setTitle("Git log");
+    initModality(Modality.NONE);
+    getDialogPane().getButtonTypes().add(ButtonType.CLOSE);
+
+    try {
+      String current = git.getRepository().getBranch();
+      branchBox.getItems().add(current);
+      for (Ref ref : git.branchList().setListMode(ListBranchCommand.ListMode.ALL).call()) {
+        String name = Repository.shortenRefName(ref.getName());
+        if (!branchBox.getItems().contains(name)) {
+          branchBox.getItems().add(name);
+        }
+      }
+      branchBox.setValue(current);
+    } catch (IOException | GitAPIException e) {
+      log.warn("Failed to list branches", e);
+    }
+    pathField.setText(path == null ? "" : path);
+    pathField.setPromptText("All files");
+    pathField.setPrefColumnCount(30);
+    Button showButton = new Button("Show");
+    showButton.setDefaultButton(true);
+    showButton.setOnAction(e -> showLog());
+    branchBox.setOnAction(e -> showLog());
+    HBox topPane = new HBox(5, new Label("Branch"), branchBox, new Label("Path"), pathField, showButton, statusLabel);
+    topPane.setPadding(new Insets(0, 0, 5, 0));
+
+    TableColumn<CommitRow, String> graphColumn = new TableColumn<>("Graph");
+    graphColumn.setCellValueFactory(param -> new SimpleStringProperty(param.getValue().getGraph()));
+    graphColumn.setStyle("-fx-font-family: monospace");
+    graphColumn.setPrefWidth(80);
+    TableColumn<CommitRow, String> messageColumn = new TableColumn<>("Message");
+    messageColumn.setCellValueFactory(param -> new SimpleStringProperty(param.getValue().getMessage()));
+    messageColumn.setPrefWidth(450);
+    TableColumn<CommitRow, String> authorColumn = new TableColumn<>("Author");
+    authorColumn.setCellValueFactory(param -> new SimpleStringProperty(param.getValue().getAuthor()));
+    authorColumn.setPrefWidth(140);
+    TableColumn<CommitRow, String> dateColumn = new TableColumn<>("Date");
+    dateColumn.setCellValueFactory(param -> new SimpleStringProperty(
+        LocalDateTime.ofEpochSecond(param.getValue().getCommitTime(), 0, ZoneOffset.UTC).toString()));
+    dateColumn.setPrefWidth(140);
+    TableColumn<CommitRow, String> idColumn = new TableColumn<>("Id");
+    idColumn.setCellValueFactory(param -> new SimpleStringProperty(param.getValue().getShortId()));
+    table.getColumns().addAll(List.of(graphColumn, messageColumn, authorColumn, dateColumn, idColumn));
+    table.setRowFactory(tv -> new TableRow<>() {
+      @Override
+      protected void updateItem(CommitRow item, boolean empty) {
+        super.updateItem(item, empty);
+        // read the next page before the end is reached
+        if (!empty && getIndex() >= table.getItems().size() - PAGE_SIZE / 4) {
+          loadMore();
+        }
+      }
+    });
+    table.getSelectionModel().selectedItemProperty().addListener((obs, old, row) -> showDetails(row));
+    table.setOnMouseClicked(e -> {
+      CommitRow row = table.getSelectionModel().getSelectedItem();
+      if (e.getClickCount() == 2 && row != null) {
+        String path = pathField.getText().isBlank() ? null : pathField.getText().trim();
+        new GitDiffDialog(gui, git, row.getId(), path).show();
+      }
+    });
+
+    details.setEditable(false);
+    SplitPane splitPane = new SplitPane(table, details);
+    splitPane.setOrientation(Orientation.VERTICAL);
+    splitPane.setDividerPositions(0.75);
+    BorderPane pane = new BorderPane(splitPane);
+    pane.setTop(topPane);
+    getDialogPane().setContent(pane);
+    getDialogPane().setPrefSize(1000, 700);
+    setResizable(true);
+    GuiUtils.addStyle(gui, this);
+    setOnHidden(e -> closeLog());
+    showLog();
+  }
+
+  private void showLog() {
+    closeLog();
+    String branch = branchBox.getValue();
+    if (branch == null) {
+      return;
+    }
+    String path = pathField.getText().isBlank() ? null : pathField.getText().trim();
+    table.getItems().clear();
+    details.clear();
+    skip = 0;
+    CommitLog current;
+    try {
+      current = new CommitLog(git.getRepository(), branch, path);
+    } catch (IOException e) {
+      log.warn("Failed to read the log of {}", branch, e);
+      statusLabel.setText("Failed to read the log of " + branch);
+      return;
+    }
+    commitLog = current;
+    var task = new Task<List<CommitRow>>() {
+      private boolean fromCache;
+
+      @Override
+      protected List<CommitRow> call() throws IOException {
+        List<CommitRow> cached = current.cachedRows();
+        if (!cached.isEmpty()) {
+          fromCache = true;
+          return cached;
+        }
+        return current.next(PAGE_SIZE);
+      }
+    };
+    runLoader(current, task, () -> {
+      cacheIsCurrent = task.fromCache;
+      skip = task.fromCache ? task.getValue().size() : 0;
+    });
+  }
+
+  private void loadMore() {
+    CommitLog current = commitLog;
+    if (loading || current == null || current.isDone()) {
+      return;
+    }
+    int toSkip = skip;
+    skip = 0;
+    Task<List<CommitRow>> task = new Task<>() {
+      @Override
+      protected List<CommitRow> call() throws IOException {
+        current.skip(toSkip);
+        return current.next(PAGE_SIZE);
+      }
+    };
+    runLoader(current, task, () -> {
+      // rows beyond what is stored were read, store them when closing
+      cacheIsCurrent = cacheIsCurrent && task.getValue().isEmpty();
+    });
+  }
+
+  /**
+   * @param onLoaded called before the rows are added, unless a log has been shown since
+   */
+  private void runLoader(CommitLog current, Task<List<CommitRow>> task, Runnable onLoaded) {
+    loading = true;
+    statusLabel.setText("Loading...");
+    task.setOnSucceeded(e -> {
+      if (current != commitLog) {
+        return;
+      }
+      loading = false;
+      onLoaded.run();
+      table.getItems().addAll(task.getValue());
+      statusLabel.setText(table.getItems().size() + (current.isDone() && skip == 0 ? " commits" : "+ commits"));
+    });
+    task.setOnFailed(e -> {
+      if (current == commitLog) {
+        loading = false;
+        statusLabel.setText("");
+      }
+      log.warn("Failed to read the git log", task.getException());
+    });
+    LOADER.execute(task);
+  }
+
+  /**
+   * Store the rows read (if they are not already stored) and release the walk
+   */
+  private void closeLog() {
+    CommitLog current = commitLog;
+    if (current == null) {
+      return;
+    }
+    commitLog = null;
+    List<CommitRow> rows = cacheIsCurrent ? List.of() : new ArrayList<>(table.getItems());
+    LOADER.execute(() -> {
+      current.cache(rows);
+      current.close();
+    });
+  }
+
+  private void showDetails(CommitRow row) {
+    if (row == null) {
+      details.clear();
+      return;
+    }
+    Task<String> task = new Task<>() {
+      @Override
+      protected String call() throws IOException {
+        try (RevWalk walk = new RevWalk(git.getRepository())) {
+          RevCommit commit = walk.parseCommit(ObjectId.fromString(row.getId()));
+          PersonIdent author = commit.getAuthorIdent();
+          StringBuilder str = new StringBuilder();
+          str.append("Commit: ").append(commit.name()).append('\n');
+          str.append("Parents: ").append(String.join(", ", row.getParents())).append('\n');
+          str.append("Author: ").append(author.getName()).append(" <").append(author.getEmailAddress()).append(">\n");
+          str.append("Date: ").append(author.getWhen()).append("\n\n");
+          str.append(commit.getFullMessage());
+          return str.toString();
+        }
+      }
+    };
+    task.setOnSucceeded(e -> {
+      if (row == table.getSelectionModel().getSelectedItem()) {
+        details.setText(task.getValue());
+      }
+    });
+    task.setOnFailed(e -> log.warn("Failed to read commit {}", row.getId(), task.getException()));
+    LOADER.execute(task);
+  }
+}
@@ -10,8 +10,10 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import se.alipsa.grade.Grade;
 import se.alipsa.grade.utils.GuiUtils;
+import se.alipsa.grade.utils.IntField;
 
 import java.io.File;
+import java.util.Arrays;
 
 public class CloneProjectDialog extends Dialog<CloneProjectDialogResult> {
 
@@ -19,6 +21,10 @@ public class CloneProjectDialog extends Dialog<CloneProjectDialogResult> {
 
   private final TextField urlField = new TextField();
   private final TextField dirField = new TextField();
+  private final TextField branchField = new TextField();
+  private final CheckBox singleBranchCheckBox = new CheckBox("Single branch");
+  private final IntField depthField = new IntField(0, Integer.MAX_VALUE, 0);
+  private final TextField pathsField = new TextField();
   Button chooseDirButton = new Button("Browse...");
 
   File selectedDirectory;
@@ -58,7 +64,22 @@ public class CloneProjectDialog extends Dialog<CloneProjectDialogResult> {
 
     grid.add(chooseDirButton, 4, 1);
     chooseDirButton.setOnAction(this::chooseProjectDir);
-    getDialogPane().setPrefSize(640, 250);
+
+    grid.add(new Label("Branch"), 0, 2);
+    branchField.setPromptText("default branch");
+    grid.add(branchField, 1, 2);
+    grid.add(singleBranchCheckBox, 2, 2);
+
+    grid.add(new Label("Depth"), 0, 3);
+    depthField.setPrefColumnCount(6);
+    depthField.setTooltip(new Tooltip("The number of commits of history to fetch, 0 for all"));
+    grid.add(depthField, 1, 3);
+    grid.add(new Label("0 = full history"), 2, 3);
+
+    grid.add(new Label("Only paths"), 0, 4);
+    pathsField.setPromptText("e.g. src, docs/guide (empty for all)");
+    grid.add(pathsField, 1, 4, 3, 1);
+    getDialogPane().setPrefSize(640, 370);
     getDialogPane().setMinHeight(Region.USE_PREF_SIZE);
     setResizable(true);
 
@@ -100,6 +121,15 @@ public class CloneProjectDialog extends Dialog<CloneProjectDialogResult> {
     CloneProjectDialogResult res = new CloneProjectDialogResult();
     res.url = urlField.getText();
     res.targetDir = new File(dirField.getText());
+    res.branch = branchField.getText().isBlank() ? null : branchField.getText().trim();
+    res.singleBranch = singleBranchCheckBox.isSelected();
+    res.depth = depthField.getValue();
+    res.paths = Arrays.stream(pathsField.getText().split(","))
+        .map(String::trim)
+        .map(path -> path.replace('\\', '/'))
+        .map(path -> path.endsWith("/") ? path.substring(0, path.length() - 1) : path)
+        .filter(path -> !path.isEmpty())
+        .toList();
     return res;
   }
 }
@@ -1,8 +1,16 @@
 package se.alipsa.grade.menu;
 
 import java.io.File;
+import java.util.List;
 
 public class CloneProjectDialogResult {
   public String url;
   public File targetDir;
+  /** null for the default branch */
+  public String branch;
+  public boolean singleBranch;
+  /** 0 for the whole history */
+  public int depth;
+  /** empty to check out everything */
+  public List<String> paths;
 }
@@ -6,16 +6,23 @@ import java.util.HashMap;
 public class GlobalOptions extends HashMap<String, Object> {
 
   public static final String CONSOLE_MAX_LENGTH_PREF = "ConsoleTextArea.MaxLength";
+  public static final String CONSOLE_MAX_LINES_PREF = "ConsoleTextArea.MaxLines";
+  public static final String CONSOLE_BACKPRESSURE = "ConsoleTextArea.Backpressure";
   public static final String GRADLE_HOME = "GlobalOptions.GradleHome";
   public static final String USE_GRADLE_CLASSLOADER = "GlobalOptions.UseGradleClassloader";
   public static final String ADD_BUILDDIR_TO_CLASSPATH = "GlobalOptions.AddBuildDirToClasspath";
 
   public static final String RESTART_SESSION_AFTER_GRADLE_RUN = "GlobalOptions.restartSessionAfterGradleBuild";
   public static final String ENABLE_GIT = "GlobalOptions.EnableGit";
+  public static final String FILE_TREE_EXCLUDES = "GlobalOptions.FileTreeExcludes";
+  public static final String DEFAULT_FILE_TREE_EXCLUDES = ".git, node_modules";
   public static final String AUTORUN_GLOBAL = "GlobalOptions.AutoRunGlobal";
   public static final String AUTORUN_PROJECT = "GlobalOptions.AutoRunProject";
   public static final String DEFAULT_LOCALE = "GlobalOptions.defaultLocale";
   public static final String ADD_IMPORTS = "GlobalOptions.addImports";
+  public static final String SCRIPT_TIMEOUT_SECONDS = "GlobalOptions.ScriptTimeoutSeconds";
+  public static final String STANDBY_SESSION = "GlobalOptions.StandbySession";
+  public static final String MAVEN_REPOSITORIES = "GlobalOptions.MavenRepositories";
 
   private static final long serialVersionUID = -4781261903018339389L;
 
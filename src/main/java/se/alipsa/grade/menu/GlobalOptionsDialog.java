@@ -2,6 +2,7 @@ package se.alipsa.grade.menu;
 
 import static se.alipsa.grade.Constants.*;
 import static se.alipsa.grade.console.ConsoleTextArea.CONSOLE_MAX_LENGTH_DEFAULT;
+import static se.alipsa.grade.console.ConsoleTextArea.CONSOLE_MAX_LINES_DEFAULT;
 import static se.alipsa.grade.menu.GlobalOptions.*;
 
 import javafx.geometry.Insets;
@@ -10,6 +11,7 @@ import javafx.scene.control.*;
 import javafx.scene.layout.*;
 import javafx.stage.DirectoryChooser;
 import se.alipsa.grade.Grade;
+import se.alipsa.grade.console.ConsoleOutputPipeline;
 import se.alipsa.grade.utils.ExceptionAlert;
 import se.alipsa.grade.utils.GuiUtils;
 import se.alipsa.grade.utils.IntField;
@@ -20,6 +22,8 @@ import java.util.*;
 class GlobalOptionsDialog extends Dialog<GlobalOptions> {
 
   private IntField intField;
+  private IntField maxLinesField;
+  private ComboBox<ConsoleOutputPipeline.Backpressure> backpressure;
   private ComboBox<String> themes;
   private ComboBox<String> locals;
   private TextField gradleHome;
@@ -27,9 +31,13 @@ class GlobalOptionsDialog extends Dialog<GlobalOptions> {
   private CheckBox restartSessionAfterGradleRun;
   private CheckBox addBuildDirToClasspath;
   private CheckBox enableGit;
+  private TextField fileTreeExcludes;
   private CheckBox autoRunGlobal;
   private CheckBox autoRunProject;
   private CheckBox addImports;
+  private IntField scriptTimeout;
+  private CheckBox standbySession;
+  private TextField mavenRepositories;
 
 
   GlobalOptionsDialog(Grade gui) {
@@ -44,9 +52,27 @@ class GlobalOptionsDialog extends Dialog<GlobalOptions> {
       getDialogPane().setContent(grid);
 
       Label consoleMaxSizeLabel = new Label("Console max size");
+      consoleMaxSizeLabel.setTooltip(new Tooltip("When the console grows beyond this many chars or lines the oldest output is trimmed"));
       grid.add(consoleMaxSizeLabel, 0, 0);
+      HBox consoleSizePane = new HBox();
+      consoleSizePane.setAlignment(Pos.CENTER_LEFT);
+      consoleSizePane.setSpacing(5);
       intField = new IntField(1000, Integer.MAX_VALUE, gui.getPrefs().getInt(CONSOLE_MAX_LENGTH_PREF, CONSOLE_MAX_LENGTH_DEFAULT));
-      grid.add(intField, 1, 0);
+      intField.setPrefColumnCount(8);
+      maxLinesField = new IntField(100, Integer.MAX_VALUE, gui.getPrefs().getInt(CONSOLE_MAX_LINES_PREF, CONSOLE_MAX_LINES_DEFAULT));
+      maxLinesField.setPrefColumnCount(6);
+      consoleSizePane.getChildren().addAll(intField, new Label("chars"), maxLinesField, new Label("lines"));
+      grid.add(consoleSizePane, 1, 0);
+
+      Label backpressureLabel = new Label("When output is too fast");
+      backpressureLabel.setTooltip(new Tooltip("What to do when a script writes faster than the console can show it:\n"
+          + "BLOCK = pause the script, DROP = skip output (and report how much), SPILL = write to standard out"));
+      grid.add(backpressureLabel, 2, 0);
+      backpressure = new ComboBox<>();
+      backpressure.getItems().addAll(ConsoleOutputPipeline.Backpressure.values());
+      backpressure.getSelectionModel().select(ConsoleOutputPipeline.Backpressure.valueOf(
+          gui.getPrefs().get(CONSOLE_BACKPRESSURE, ConsoleOutputPipeline.Backpressure.BLOCK.name())));
+      grid.add(backpressure, 3, 0);
 
       Label styleTheme = new Label("Style theme");
       grid.add(styleTheme, 0, 1);
@@ -136,6 +162,16 @@ class GlobalOptionsDialog extends Dialog<GlobalOptions> {
       gitOptionPane.getChildren().add(enableGit);
       grid.add(gitOptionPane, 0, 5, 2, 1);
 
+      HBox excludesPane = new HBox();
+      excludesPane.setAlignment(Pos.CENTER_LEFT);
+      Label fileTreeExcludesLabel = new Label("Hide in file tree");
+      fileTreeExcludesLabel.setTooltip(new Tooltip("Comma separated glob patterns for files and dirs not to show in the file tree,\ne.g. .git, node_modules, build"));
+      fileTreeExcludesLabel.setPadding(new Insets(0, 10, 0, 0));
+      fileTreeExcludes = new TextField(gui.getPrefs().get(FILE_TREE_EXCLUDES, DEFAULT_FILE_TREE_EXCLUDES));
+      HBox.setHgrow(fileTreeExcludes, Priority.ALWAYS);
+      excludesPane.getChildren().addAll(fileTreeExcludesLabel, fileTreeExcludes);
+      grid.add(excludesPane, 2, 5, 2, 1);
+
       HBox autoRunPane = new HBox();
       Label autoRunGlobalLabel = new Label("Run global autorun.groovy on init");
       autoRunGlobalLabel.setTooltip(new Tooltip("Run autorun.groovy from Grade install dir each time a session (re)starts."));
@@ -160,9 +196,33 @@ class GlobalOptionsDialog extends Dialog<GlobalOptions> {
       addImports = new CheckBox();
       addImports.setSelected(gui.getPrefs().getBoolean(ADD_IMPORTS, gui.getPrefs().getBoolean(ADD_IMPORTS, true)));
       executionPane.getChildren().add(addImports);
+      Label scriptTimeoutLabel = new Label("Max run time (seconds)");
+      scriptTimeoutLabel.setTooltip(new Tooltip("Scripts running longer than this are stopped, 0 means no limit"));
+      scriptTimeoutLabel.setPadding(new Insets(0, 10, 0, 30));
+      executionPane.getChildren().add(scriptTimeoutLabel);
+      scriptTimeout = new IntField(0, Integer.MAX_VALUE, gui.getPrefs().getInt(SCRIPT_TIMEOUT_SECONDS, 0));
+      scriptTimeout.setPrefColumnCount(6);
+      executionPane.getChildren().add(scriptTimeout);
+      Label standbySessionLabel = new Label("Prepare standby session");
+      standbySessionLabel.setTooltip(new Tooltip("Keep a session ready in the background so that a restart is instant.\nUses more memory"));
+      standbySessionLabel.setPadding(new Insets(0, 10, 0, 30));
+      executionPane.getChildren().add(standbySessionLabel);
+      standbySession = new CheckBox();
+      standbySession.setSelected(gui.getPrefs().getBoolean(STANDBY_SESSION, true));
+      executionPane.getChildren().add(standbySession);
       grid.add(executionPane, 0, 7,4, 1);
 
-      getDialogPane().setPrefSize(760, 350);
+      HBox repositoriesPane = new HBox();
+      repositoriesPane.setAlignment(Pos.CENTER_LEFT);
+      Label mavenRepositoriesLabel = new Label("Maven repositories");
+      mavenRepositoriesLabel.setTooltip(new Tooltip("Comma separated urls of the repositories to download jdbc drivers from,\ne.g. https://repo1.maven.org/maven2/, file:///home/me/.m2/repository/"));
+      mavenRepositoriesLabel.setPadding(new Insets(0, 10, 0, 0));
+      mavenRepositories = new TextField(gui.getPrefs().get(MAVEN_REPOSITORIES, MavenRepositoryUrl.MAVEN_CENTRAL.baseUrl));
+      HBox.setHgrow(mavenRepositories, Priority.ALWAYS);
+      repositoriesPane.getChildren().addAll(mavenRepositoriesLabel, mavenRepositories);
+      grid.add(repositoriesPane, 0, 8, 4, 1);
+
+      getDialogPane().setPrefSize(760, 380);
       getDialogPane().setMinHeight(Region.USE_PREF_SIZE);
       setResizable(true);
 
@@ -177,6 +237,8 @@ class GlobalOptionsDialog extends Dialog<GlobalOptions> {
   private GlobalOptions createResult() {
     GlobalOptions result = new GlobalOptions();
     result.put(CONSOLE_MAX_LENGTH_PREF, intField.getValue());
+    result.put(CONSOLE_MAX_LINES_PREF, maxLinesField.getValue());
+    result.put(CONSOLE_BACKPRESSURE, backpressure.getValue().name());
     result.put(THEME, themes.getValue());
     result.put(DEFAULT_LOCALE, locals.getValue());
     result.put(USE_GRADLE_CLASSLOADER, useGradleFileClasspath.isSelected());
@@ -184,9 +246,13 @@ class GlobalOptionsDialog extends Dialog<GlobalOptions> {
     result.put(ADD_BUILDDIR_TO_CLASSPATH, addBuildDirToClasspath.isSelected());
     result.put(RESTART_SESSION_AFTER_GRADLE_RUN, restartSessionAfterGradleRun.isSelected());
     result.put(ENABLE_GIT, enableGit.isSelected());
+    result.put(FILE_TREE_EXCLUDES, fileTreeExcludes.getText());
     result.put(AUTORUN_GLOBAL, autoRunGlobal.isSelected());
     result.put(AUTORUN_PROJECT, autoRunProject.isSelected());
     result.put(ADD_IMPORTS, addImports.isSelected());
+    result.put(SCRIPT_TIMEOUT_SECONDS, scriptTimeout.getValue());
+    result.put(STANDBY_SESSION, standbySession.isSelected());
+    result.put(MAVEN_REPOSITORIES, mavenRepositories.getText());
     return result;
   }
 
@@ -26,8 +26,6 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.core.Appender;
 import org.apache.logging.log4j.core.appender.FileAppender;
-import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.errors.GitAPIException;
 import org.fxmisc.flowless.VirtualizedScrollPane;
 import org.openjdk.nashorn.api.scripting.NashornScriptEngineFactory;
 import se.alipsa.grade.Constants;
@@ -36,8 +34,10 @@ import se.alipsa.grade.UnStyledCodeArea;
 import se.alipsa.grade.code.CodeTextArea;
 import se.alipsa.grade.code.CodeType;
 import se.alipsa.grade.code.TextAreaTab;
+import se.alipsa.grade.console.ConsoleOutputPipeline;
+import se.alipsa.grade.inout.git.CloneProgressDialog;
+import se.alipsa.grade.inout.git.CloneTask;
 import se.alipsa.grade.utils.*;
-import se.alipsa.grade.utils.git.GitUtils;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -46,6 +46,7 @@ import java.io.InputStream;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 
 public class MainMenu extends MenuBar {
@@ -107,13 +108,15 @@ public class MainMenu extends MenuBar {
       return;
     }
     CloneProjectDialogResult res = result.get();
-    try {
-      gui.setWaitCursor();
-      gui.getInoutComponent().cloneGitRepo(res.url, res.targetDir);
-      gui.setNormalCursor();
-    } catch (GitAPIException | RuntimeException e) {
-      ExceptionAlert.showAlert("Failed to clone repository: " + e.getMessage(), e);
-    }
+    CloneTask task = new CloneTask(res.url, res.targetDir, res.branch, res.singleBranch, res.depth, res.paths);
+    task.setOnSucceeded(e -> gui.getInoutComponent().changeRootDir(task.getValue()));
+    task.setOnFailed(e -> ExceptionAlert.showAlert("Failed to clone repository: " + task.getException().getMessage(),
+        task.getException()));
+    task.setOnCancelled(e -> log.info("Clone of {} cancelled", res.url));
+    new CloneProgressDialog(gui, task).show();
+    Thread thread = new Thread(task, "grade-git-clone");
+    thread.setDaemon(true);
+    thread.start();
   }
 
   private void createBasicPom(ActionEvent actionEvent) {
@@ -127,7 +130,7 @@ public class MainMenu extends MenuBar {
       String mainProjectScript = camelCasedPackageName(res) + ".groovy";
       String pomContent = createPom("templates/project-pom.xml", res.groupName, res.projectName, mainProjectScript);
       FileUtils.writeToFile(new File(res.dir, "pom.xml"), pomContent);
-      gui.getInoutComponent().refreshFileTree();
+      gui.getInoutComponent().syncFileTree();
     } catch (IOException e) {
       ExceptionAlert.showAlert("Failed to create basic pom", e);
     }
@@ -171,7 +174,7 @@ public class MainMenu extends MenuBar {
       if (res.changeToDir) {
         gui.getInoutComponent().changeRootDir(res.dir);
       } else {
-        gui.getInoutComponent().refreshFileTree();
+        gui.getInoutComponent().syncFileTree();
       }
     } catch (IOException e) {
       ExceptionAlert.showAlert("Failed to create package project", e);
@@ -220,7 +223,7 @@ public class MainMenu extends MenuBar {
       if (res.changeToDir) {
         gui.getInoutComponent().changeRootDir(res.dir);
       } else {
-        gui.getInoutComponent().refreshFileTree();
+        gui.getInoutComponent().syncFileTree();
       }
     } catch (IOException e) {
       ExceptionAlert.showAlert("Failed to create package project", e);
@@ -284,7 +287,9 @@ public class MainMenu extends MenuBar {
     redo.setOnAction(this::redo);
     MenuItem find = new MenuItem("Find ctrl+F");
     find.setOnAction(this::displayFind);
-    menu.getItems().addAll(undo, redo, find);
+    MenuItem findInFiles = new MenuItem("Find in files");
+    findInFiles.setOnAction(this::displayFindInFiles);
+    menu.getItems().addAll(undo, redo, find, findInFiles);
     return menu;
   }
 
@@ -304,6 +309,12 @@ public class MainMenu extends MenuBar {
     displayFind();
   }
 
+  private void displayFindInFiles(ActionEvent actionEvent) {
+    TextAreaTab codeTab = gui.getCodeComponent().getActiveTab();
+    String selected = codeTab == null ? null : codeTab.getCodeArea().getSelectedText();
+    gui.getInoutComponent().showFindInFiles(selected);
+  }
+
   public void displayFind() {
     if (searchWindow != null) {
       searchWindow.toFront();
@@ -603,6 +614,16 @@ public class MainMenu extends MenuBar {
       gui.getConsoleComponent().setConsoleMaxSize(consoleMaxLength);
     }
 
+    int consoleMaxLines = result.getInt(CONSOLE_MAX_LINES_PREF);
+    if (gui.getConsoleComponent().getConsoleMaxLines() != consoleMaxLines) {
+      gui.getPrefs().putInt(CONSOLE_MAX_LINES_PREF, consoleMaxLines);
+      gui.getConsoleComponent().setConsoleMaxLines(consoleMaxLines);
+    }
+
+    var backpressure = ConsoleOutputPipeline.Backpressure.valueOf(result.getString(CONSOLE_BACKPRESSURE));
+    gui.getPrefs().put(CONSOLE_BACKPRESSURE, backpressure.name());
+    gui.getConsoleComponent().getConsole().getOutputPipeline().setBackpressure(backpressure);
+
     String theme = result.getString(THEME);
     if (!gui.getScene().getStylesheets().contains(theme)) {
       gui.getScene().getStylesheets().clear();
@@ -633,6 +654,12 @@ public class MainMenu extends MenuBar {
     gui.getInoutComponent().setEnableGit(enableGit);
     gui.getPrefs().putBoolean(ENABLE_GIT, enableGit);
 
+    String fileTreeExcludes = result.getString(FILE_TREE_EXCLUDES);
+    if (!fileTreeExcludes.equals(gui.getPrefs().get(FILE_TREE_EXCLUDES, DEFAULT_FILE_TREE_EXCLUDES))) {
+      gui.getPrefs().put(FILE_TREE_EXCLUDES, fileTreeExcludes);
+      gui.getInoutComponent().refreshFileTree();
+    }
+
     boolean runAutoRunGlobal = result.getBoolean(AUTORUN_GLOBAL);
     if (runAutoRunGlobal != gui.getPrefs().getBoolean(AUTORUN_GLOBAL, !runAutoRunGlobal)) {
       gui.getPrefs().putBoolean(AUTORUN_GLOBAL, runAutoRunGlobal);
@@ -645,6 +672,13 @@ public class MainMenu extends MenuBar {
 
     gui.getPrefs().putBoolean(ADD_IMPORTS, result.getBoolean(ADD_IMPORTS));
 
+    int scriptTimeout = result.getInt(SCRIPT_TIMEOUT_SECONDS);
+    gui.getPrefs().putInt(SCRIPT_TIMEOUT_SECONDS, scriptTimeout);
+    gui.getConsoleComponent().getExecutor().setTimeLimit(scriptTimeout);
+
+    gui.getPrefs().putBoolean(STANDBY_SESSION, result.getBoolean(STANDBY_SESSION));
+    gui.getPrefs().put(MAVEN_REPOSITORIES, result.getString(MAVEN_REPOSITORIES));
+
     if (shouldRestart) {
       restartR();
     }
@@ -770,20 +804,24 @@ public class MainMenu extends MenuBar {
   }
 
   public void saveContent(TextAreaTab codeArea) {
+    if (codeArea.isReadOnly()) {
+      log.debug("{} is read only, nothing to save", codeArea.getTitle());
+      return;
+    }
     File file = codeArea.getFile();
     if (file == null) {
       file = promptForFile();
       if (file == null) {
         return;
       }
+    } else if (codeArea.isChangedOnDisk() && !Alerts.confirm("File changed on disk",
+        file.getName() + " has been changed by something else since it was opened",
+        "Overwrite the changes on disk with the content of the tab?")) {
+      return;
     }
     try {
+      // the git status is updated in the background by fileChanged
       saveFile(codeArea, file);
-      Git git = gui.getInoutComponent().getGit();
-      if(codeArea.getTreeItem() != null && git != null) {
-        String path = GitUtils.asRelativePath(codeArea.getFile(), gui.getInoutComponent().projectDir());
-        GitUtils.colorNode(git, path, codeArea.getTreeItem());
-      }
     } catch (FileNotFoundException e) {
       ExceptionAlert.showAlert("Failed to save file " + file, e);
     }
@@ -794,6 +832,10 @@ public class MainMenu extends MenuBar {
     if (file == null) {
       return;
     }
+    if (codeArea.isReadOnly()) {
+      copyFile(codeArea.getFile(), file);
+      return;
+    }
     try {
       saveFile(codeArea, file);
     } catch (FileNotFoundException e) {
@@ -801,6 +843,19 @@ public class MainMenu extends MenuBar {
     }
   }
 
+  private void copyFile(File from, File to) {
+    boolean fileExisted = to.exists();
+    try {
+      Files.copy(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      if (!fileExisted) {
+        gui.getInoutComponent().fileAdded(to);
+      }
+      gui.getInoutComponent().fileChanged(to);
+    } catch (IOException e) {
+      ExceptionAlert.showAlert("Failed to copy " + from + " to " + to, e);
+    }
+  }
+
   private void saveFile(TextAreaTab codeArea, File file) throws FileNotFoundException {
     boolean fileExisted = file.exists();
     FileUtils.writeToFile(file, codeArea.getAllTextContent());
@@ -809,6 +864,7 @@ public class MainMenu extends MenuBar {
     if (!fileExisted) {
       gui.getInoutComponent().fileAdded(file);
     }
+    gui.getInoutComponent().fileChanged(file);
     gui.getCodeComponent().fileSaved(file);
     codeArea.contentSaved();
   }
@@ -0,0 +1,29 @@
+package se.alipsa.grade.utils;
+
+/**
+ * A read only, line addressable text source that is too large to (or should not) be loaded into the heap.
+ * Lines are fetched on demand, typically from a memory mapped file.
+ */
+public interface LineSource {
+
+  /**
+   * @return the number of lines currently available
+   */
+  int getLineCount();
+
+  /**
+   * @param line the zero based line index
+   * @return the content of the line without the line terminator
+   */
+  String getLine(int line);
+
+  /**
+   * Search for the text starting at the beginning of the given line.
+   *
+   * @param text the text to look for
+   * @param fromLine the line to start searching from
+   * @return the index of the first line containing the text or -1 if there is no match
+   * (or the calling thread was interrupted)
+   */
+  int find(String text, int fromLine);
+}
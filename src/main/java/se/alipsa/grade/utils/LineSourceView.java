@@ -0,0 +1,153 @@
+package se.alipsa.grade.utils;
+
+import javafx.collections.ObservableListBase;
+import javafx.concurrent.Task;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListView;
+import javafx.scene.control.SelectionMode;
+import javafx.scene.control.TextField;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * A read only, virtualized view of a {@link LineSource}. Only the lines that are visible are fetched from the source
+ * so even a multi gigabyte file can be scrolled without loading it into memory.
+ */
+public class LineSourceView extends BorderPane {
+
+  private final LineSource source;
+  private final LineList lines;
+  private final ListView<String> listView;
+  private final TextField searchField;
+  private final Label statusLabel;
+  private Task<Integer> searchTask;
+
+  public LineSourceView(LineSource source) {
+    this.source = source;
+    lines = new LineList(source);
+    listView = new ListView<>(lines);
+    listView.getSelectionModel().setSelectionMode(SelectionMode.SINGLE);
+    listView.setFixedCellSize(20);
+    listView.setStyle("-fx-font-family: monospace;");
+    setCenter(listView);
+
+    HBox searchPane = new HBox();
+    searchPane.setPadding(new Insets(5));
+    searchPane.setSpacing(5);
+    searchPane.setAlignment(Pos.CENTER_LEFT);
+    searchField = new TextField();
+    searchField.setPromptText("Find");
+    searchField.setOnAction(a -> findNext());
+    Button findButton = new Button("Find next");
+    findButton.setOnAction(a -> findNext());
+    Button refreshButton = new Button("Refresh");
+    refreshButton.setOnAction(a -> refresh());
+    statusLabel = new Label();
+    searchPane.getChildren().addAll(searchField, findButton, refreshButton, statusLabel);
+    setTop(searchPane);
+    updateStatus();
+  }
+
+  /**
+   * Pick up lines added to the source since the view was created (or last refreshed)
+   */
+  public void refresh() {
+    lines.refresh();
+    updateStatus();
+  }
+
+  public void scrollTo(int line) {
+    listView.scrollTo(line);
+    listView.getSelectionModel().select(line);
+  }
+
+  private void updateStatus() {
+    statusLabel.setText(StringUtils.formatNumber(lines.size()) + " lines");
+  }
+
+  private void findNext() {
+    String text = searchField.getText();
+    if (text == null || text.isEmpty()) {
+      return;
+    }
+    if (searchTask != null && searchTask.isRunning()) {
+      searchTask.cancel(true);
+    }
+    int selected = listView.getSelectionModel().getSelectedIndex();
+    int from = selected < 0 ? 0 : selected + 1;
+    statusLabel.setText("Searching...");
+    Task<Integer> task = new Task<>() {
+      @Override
+      protected Integer call() {
+        return source.find(text, from);
+      }
+    };
+    task.setOnSucceeded(e -> {
+      int line = task.getValue();
+      updateStatus();
+      if (line < 0) {
+        statusLabel.setText(statusLabel.getText() + ", '" + text + "' not found");
+      } else {
+        lines.refresh();
+        scrollTo(line);
+      }
+    });
+    task.setOnFailed(e -> {
+      updateStatus();
+      ExceptionAlert.showAlert("Search failed", task.getException());
+    });
+    searchTask = task;
+    Thread thread = new Thread(task);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * An observable list whose elements are fetched lazily from the line source
+   */
+  private static class LineList extends ObservableListBase<String> {
+
+    private final LineSource source;
+    private int size;
+
+    LineList(LineSource source) {
+      this.source = source;
+      size = source.getLineCount();
+    }
+
+    @Override
+    public String get(int index) {
+      return source.getLine(index);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    void refresh() {
+      int oldSize = size;
+      int newSize = source.getLineCount();
+      beginChange();
+      size = newSize;
+      if (newSize > oldSize) {
+        // the last line might have been incomplete the last time we looked
+        if (oldSize > 0) {
+          nextUpdate(oldSize - 1);
+        }
+        nextAdd(oldSize, newSize);
+      } else if (newSize < oldSize) {
+        nextRemove(newSize, new ArrayList<>(Collections.nCopies(oldSize - newSize, "")));
+      } else if (size > 0) {
+        nextUpdate(size - 1);
+      }
+      endChange();
+    }
+  }
+}
@@ -0,0 +1,302 @@
+package se.alipsa.grade.utils;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A file accessed through a series of fixed size memory mapped windows so that files larger than 2GB
+ * (the limit of a single MappedByteBuffer) can be addressed with a long position without reading them into the heap.
+ * A writable MappedFile is written through its channel, so the file never holds more than what was written and never
+ * needs to be truncated (which is not possible on Windows while it is mapped), and each window is mapped read only
+ * once it has been filled. The part after the last full window is read through the channel until the file is closed.
+ * Writes must come from a single thread, reads of already written positions are safe from any thread.
+ */
+public class MappedFile implements Closeable {
+
+  public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+  /** Small writes (e.g. one long per line of an index) are collected before they are written to the channel */
+  private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+  private static final int SEARCH_CHUNK_SIZE = 64 * 1024;
+
+  private final FileChannel channel;
+  private final boolean writable;
+  private final int windowSize;
+  private final long size;
+  private volatile MappedByteBuffer[] windows = new MappedByteBuffer[0];
+  /** the end of what has been written to the channel */
+  private volatile long written;
+  private final ByteBuffer pending;
+  /** the position in the file of the first byte in pending */
+  private long pendingStart;
+  private volatile boolean closed;
+
+  private MappedFile(FileChannel channel, boolean writable, int windowSize, long size) {
+    this.channel = channel;
+    this.writable = writable;
+    this.windowSize = windowSize;
+    this.size = size;
+    written = writable ? 0 : size;
+    pending = writable ? ByteBuffer.allocate(WRITE_BUFFER_SIZE) : null;
+  }
+
+  /**
+   * Map an existing file for reading
+   */
+  public static MappedFile openReadOnly(Path path) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    return new MappedFile(channel, false, DEFAULT_WINDOW_SIZE, channel.size());
+  }
+
+  /**
+   * Create (or truncate) a file for writing, the file grows as data is added.
+   */
+  public static MappedFile create(Path path) throws IOException {
+    return create(path, DEFAULT_WINDOW_SIZE);
+  }
+
+  public static MappedFile create(Path path, int windowSize) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    return new MappedFile(channel, true, windowSize, Long.MAX_VALUE);
+  }
+
+  /**
+   * @return the size of the file when opened read only, Long.MAX_VALUE for a writable file
+   */
+  public long size() {
+    return size;
+  }
+
+  /**
+   * @return the window containing the position or null if it is not mapped (yet), i.e. not filled
+   */
+  private MappedByteBuffer window(long pos) throws IOException {
+    int idx = (int) (pos / windowSize);
+    MappedByteBuffer[] current = windows;
+    if (idx < current.length) {
+      return current[idx];
+    }
+    if ((long) (idx + 1) * windowSize > written && (writable || pos >= size)) {
+      return null;
+    }
+    return mapUpTo(idx);
+  }
+
+  private synchronized MappedByteBuffer mapUpTo(int idx) throws IOException {
+    MappedByteBuffer[] current = windows;
+    if (idx < current.length) {
+      return current[idx];
+    }
+    MappedByteBuffer[] grown = Arrays.copyOf(current, idx + 1);
+    for (int i = current.length; i <= idx; i++) {
+      long start = (long) i * windowSize;
+      long length = Math.min(windowSize, written - start);
+      grown[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+    }
+    windows = grown;
+    return grown[idx];
+  }
+
+  public byte get(long pos) throws IOException {
+    MappedByteBuffer window = window(pos);
+    if (window != null) {
+      return window.get((int) (pos % windowSize));
+    }
+    byte[] b = new byte[1];
+    readTail(pos, b, 0, 1);
+    return b[0];
+  }
+
+  public void get(long pos, byte[] dst, int offset, int length) throws IOException {
+    while (length > 0) {
+      int inWindow = (int) (pos % windowSize);
+      int n = Math.min(length, windowSize - inWindow);
+      MappedByteBuffer window = window(pos);
+      if (window != null) {
+        window.get(inWindow, dst, offset, n);
+      } else {
+        readTail(pos, dst, offset, n);
+      }
+      pos += n;
+      offset += n;
+      length -= n;
+    }
+  }
+
+  public long getLong(long pos) throws IOException {
+    MappedByteBuffer window = window(pos);
+    if (window != null) {
+      return window.getLong((int) (pos % windowSize));
+    }
+    byte[] b = new byte[Long.BYTES];
+    readTail(pos, b, 0, b.length);
+    return ByteBuffer.wrap(b).getLong();
+  }
+
+  /**
+   * Read what is not mapped yet through the channel, including what is still waiting to be written
+   */
+  private synchronized void readTail(long pos, byte[] dst, int offset, int length) throws IOException {
+    flush();
+    ByteBuffer buf = ByteBuffer.wrap(dst, offset, length);
+    while (buf.hasRemaining()) {
+      if (channel.read(buf, pos + buf.position() - offset) < 0) {
+        throw new EOFException("Reading beyond the end of the file at " + (pos + buf.position() - offset));
+      }
+    }
+  }
+
+  public synchronized void put(long pos, byte[] src, int offset, int length) throws IOException {
+    if (pending.position() > 0 && pos != pendingStart + pending.position()) {
+      flush();
+    }
+    if (pending.position() == 0) {
+      pendingStart = pos;
+    }
+    if (length > pending.remaining()) {
+      flush();
+      pendingStart = pos;
+      if (length > pending.remaining()) {
+        write(ByteBuffer.wrap(src, offset, length), pos);
+        return;
+      }
+    }
+    pending.put(src, offset, length);
+  }
+
+  /**
+   * Note: longs must be aligned to 8 bytes so they never straddle two windows
+   */
+  public void putLong(long pos, long value) throws IOException {
+    byte[] b = new byte[Long.BYTES];
+    ByteBuffer.wrap(b).putLong(value);
+    put(pos, b, 0, b.length);
+  }
+
+  private void flush() throws IOException {
+    if (pending == null || pending.position() == 0) {
+      return;
+    }
+    pending.flip();
+    write(pending, pendingStart);
+    pending.clear();
+  }
+
+  private void write(ByteBuffer buf, long pos) throws IOException {
+    long end = pos + buf.remaining();
+    while (buf.hasRemaining()) {
+      pos += channel.write(buf, pos);
+    }
+    if (end > written) {
+      written = end;
+    }
+  }
+
+  /**
+   * Find the first occurrence of the byte sequence in [from, to).
+   * Checks for thread interruption every window (or chunk of the unmapped tail) so a long search can be cancelled.
+   *
+   * @return the position of the match or -1 if not found or interrupted
+   */
+  public long indexOf(byte[] needle, long from, long to) throws IOException {
+    if (needle.length == 0) {
+      return from;
+    }
+    byte first = needle[0];
+    long last = to - needle.length;
+    long pos = from;
+    byte[] chunk = null;
+    while (pos <= last) {
+      if (Thread.currentThread().isInterrupted()) {
+        return -1;
+      }
+      // search a window directly if it is mapped, otherwise a chunk of the tail read into the heap
+      ByteBuffer buf;
+      int start;
+      MappedByteBuffer window = window(pos);
+      if (window != null) {
+        buf = window;
+        start = (int) (pos % windowSize);
+      } else {
+        if (chunk == null) {
+          chunk = new byte[SEARCH_CHUNK_SIZE];
+        }
+        int n = (int) Math.min(chunk.length, Math.min(windowSize - pos % windowSize, to - pos));
+        readTail(pos, chunk, 0, n);
+        buf = ByteBuffer.wrap(chunk, 0, n);
+        start = 0;
+      }
+      int end = buf.limit();
+      for (int i = start; i < end; i++) {
+        if (buf.get(i) != first) {
+          continue;
+        }
+        long candidate = pos + i - start;
+        if (candidate > last) {
+          return -1;
+        }
+        if (matches(needle, buf, i, candidate)) {
+          return candidate;
+        }
+      }
+      pos += end - start;
+    }
+    return -1;
+  }
+
+  private boolean matches(byte[] needle, ByteBuffer buf, int i, long pos) throws IOException {
+    if (buf.limit() - i >= needle.length) {
+      for (int j = 1; j < needle.length; j++) {
+        if (buf.get(i + j) != needle[j]) {
+          return false;
+        }
+      }
+      return true;
+    }
+    // the match would continue in the next window
+    byte[] candidate = new byte[needle.length];
+    get(pos, candidate, 0, candidate.length);
+    return Arrays.equals(candidate, needle);
+  }
+
+  /**
+   * Write everything to the file and the file to the disk
+   */
+  public synchronized void force() throws IOException {
+    flush();
+    channel.force(false);
+    for (MappedByteBuffer window : windows) {
+      window.force();
+    }
+  }
+
+  /**
+   * Close the underlying channel. Windows that have already been mapped stay readable (a mapping is independent
+   * of the channel it was created from) and are released when this object is garbage collected. Whatever was
+   * written after the last full window is mapped as well so that the whole file can still be read after this.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    try {
+      if (writable) {
+        flush();
+        if (written > 0) {
+          mapUpTo((int) ((written - 1) / windowSize));
+        }
+      }
+    } finally {
+      closed = true;
+      channel.close();
+    }
+  }
+}
@@ -0,0 +1,205 @@
+package se.alipsa.grade.utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * A read only text file accessed through memory mapping so that files of any size can be viewed without reading
+ * them into the heap. The start of each line is recorded in an index (itself a memory mapped temp file) which is
+ * built on a background thread, lines become available as the indexing progresses.
+ * Only charsets where a line feed is the single byte 10 (e.g. UTF-8 and the ISO-8859 family) are supported.
+ */
+public class MappedTextFile implements LineSource, Closeable {
+
+  private static final Logger log = LogManager.getLogger(MappedTextFile.class);
+  private static final int MAX_LINE_BYTES = 1024 * 1024;
+  private static final int CHUNK_SIZE = 1024 * 1024;
+  /** How many chunks to index between progress notifications */
+  private static final int CHUNKS_PER_PROGRESS = 16;
+
+  private final File file;
+  private final Charset charset;
+  private final MappedFile data;
+  private final File indexFile;
+  private final MappedFile index;
+  private final Runnable onProgress;
+  /** number of bytes scanned for line breaks */
+  private volatile long indexedTo = 0;
+  /** number of line starts in the index, the first line always starts at 0 */
+  private volatile int lineStarts = 1;
+  private volatile boolean indexed = false;
+  private volatile boolean closed = false;
+
+  /**
+   * Map the file and start indexing it
+   *
+   * @param onProgress called from the indexing thread now and then while indexing and when done, may be null
+   */
+  public MappedTextFile(File file, Charset charset, Runnable onProgress) throws IOException {
+    this.file = file;
+    this.charset = charset;
+    this.onProgress = onProgress;
+    data = MappedFile.openReadOnly(file.toPath());
+    indexFile = File.createTempFile("grade-lines-", ".idx");
+    indexFile.deleteOnExit();
+    index = MappedFile.create(indexFile.toPath(), 8 * 1024 * 1024);
+    index.putLong(0, 0L);
+    Thread indexer = new Thread(this::buildIndex, "grade-line-indexer");
+    indexer.setDaemon(true);
+    indexer.start();
+  }
+
+  private void buildIndex() {
+    long start = System.currentTimeMillis();
+    long size = data.size();
+    byte[] buf = new byte[CHUNK_SIZE];
+    int chunks = 0;
+    try {
+      long pos = 0;
+      int lines = 1;
+      while (pos < size && !closed) {
+        int n = (int) Math.min(buf.length, size - pos);
+        data.get(pos, buf, 0, n);
+        for (int i = 0; i < n; i++) {
+          if (buf[i] == '\n') {
+            index.putLong((long) lines * Long.BYTES, pos + i + 1);
+            lines++;
+          }
+        }
+        pos += n;
+        // publish the indexed length before the line count, readers rely on that order
+        indexedTo = pos;
+        lineStarts = lines;
+        if (++chunks % CHUNKS_PER_PROGRESS == 0) {
+          progress();
+        }
+      }
+      indexed = !closed;
+      log.debug("Indexed {} lines of {} in {} ms", lines, file, System.currentTimeMillis() - start);
+    } catch (IOException e) {
+      if (!closed) {
+        log.warn("Failed to index {}", file, e);
+      }
+    }
+    progress();
+  }
+
+  private void progress() {
+    if (onProgress != null && !closed) {
+      onProgress.run();
+    }
+  }
+
+  /**
+   * @return true when the whole file has been indexed
+   */
+  public boolean isIndexed() {
+    return indexed;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public long getSize() {
+    return data.size();
+  }
+
+  @Override
+  public int getLineCount() {
+    int lines = lineStarts;
+    if (!indexed) {
+      // the last line seen so far might continue in the part not yet indexed
+      return lines - 1;
+    }
+    // A trailing newline does not start a visible line
+    if (lines > 1 && lineStart(lines - 1) == indexedTo) {
+      return lines - 1;
+    }
+    return lines;
+  }
+
+  @Override
+  public String getLine(int line) {
+    try {
+      long start = lineStart(line);
+      long end = line + 1 < lineStarts ? lineStart(line + 1) : indexedTo;
+      int length = (int) Math.min(end - start, MAX_LINE_BYTES);
+      byte[] bytes = new byte[length];
+      data.get(start, bytes, 0, length);
+      if (length > 0 && bytes[length - 1] == '\n') {
+        length--;
+      }
+      if (length > 0 && bytes[length - 1] == '\r') {
+        length--;
+      }
+      return new String(bytes, 0, length, charset);
+    } catch (IOException e) {
+      log.warn("Failed to read line {} from {}", line, file, e);
+      return "";
+    }
+  }
+
+  /**
+   * Search the mapped bytes directly, only the part of the file indexed so far is searched
+   */
+  @Override
+  public int find(String text, int fromLine) {
+    if (text == null || text.isEmpty() || fromLine >= lineStarts) {
+      return -1;
+    }
+    try {
+      long end = indexedTo;
+      long pos = data.indexOf(text.getBytes(charset), lineStart(fromLine), end);
+      return pos < 0 ? -1 : lineOf(pos);
+    } catch (IOException e) {
+      log.warn("Failed to search {}", file, e);
+      return -1;
+    }
+  }
+
+  private long lineStart(int line) {
+    try {
+      return index.getLong((long) line * Long.BYTES);
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to read line index for " + file, e);
+    }
+  }
+
+  /**
+   * Binary search the line index for the line containing the byte offset
+   */
+  private int lineOf(long offset) {
+    int low = 0;
+    int high = lineStarts - 1;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (lineStart(mid) <= offset) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    try {
+      data.close();
+      index.close();
+    } catch (IOException e) {
+      log.debug("Failed to close {}", file, e);
+    }
+    // will fail on platforms that do not allow deleting a mapped file, deleteOnExit takes care of it then
+    if (!indexFile.delete()) {
+      log.debug("Could not delete {} yet", indexFile);
+    }
+  }
+}
@@ -2,8 +2,12 @@ package se.alipsa.grade.utils;
 
 import org.apache.logging.log4j.message.FormattedMessageFactory;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
+import java.util.HexFormat;
 import java.util.Locale;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -61,4 +65,20 @@ public class StringUtils {
     }
     return str.isBlank();
   }
+
+  /**
+   * @return the hex encoded SHA-256 hash of the UTF-8 bytes of the string
+   */
+  public static String sha256(String str) {
+    return sha256(str.getBytes(StandardCharsets.UTF_8));
+  }
+
+  public static String sha256(byte[] bytes) {
+    try {
+      return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+    } catch (NoSuchAlgorithmException e) {
+      // Every JVM is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
 }
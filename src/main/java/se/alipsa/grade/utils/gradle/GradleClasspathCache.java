@@ -0,0 +1,182 @@
+package se.alipsa.grade.utils.gradle;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import se.alipsa.grade.utils.StringUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Resolved project classpaths stored under the Grade cache dir, keyed by a hash of the build files (of the root
+ * project and all subprojects) and the Gradle version. As long as the build files do not change the classpath can
+ * be used without asking Gradle for it.
+ */
+public class GradleClasspathCache {
+
+  private static final Logger log = LogManager.getLogger(GradleClasspathCache.class);
+  private static final String[] BUILD_FILES = {
+      "build.gradle", "build.gradle.kts", "settings.gradle", "settings.gradle.kts", "gradle.properties",
+      "gradle/libs.versions.toml", "gradle/wrapper/gradle-wrapper.properties"
+  };
+  /** Build files of subprojects */
+  private static final Set<String> SUBPROJECT_BUILD_FILES = Set.of("build.gradle", "build.gradle.kts");
+  /** Dirs that never contain subprojects, walking them would only make the fingerprint slow */
+  private static final Set<String> SKIPPED_DIRS = Set.of("build", "out", "target", "node_modules");
+  private static final int MAX_SUBPROJECT_DEPTH = 8;
+
+  private final File dir;
+
+  public GradleClasspathCache(File dir) {
+    this.dir = dir;
+  }
+
+  public static GradleClasspathCache createDefault() {
+    File dir = new File(GradleUtils.getCacheDir(), "classpath");
+    if (!dir.exists() && !dir.mkdirs()) {
+      throw new RuntimeException("Failed to create classpath cache dir " + dir);
+    }
+    return new GradleClasspathCache(dir);
+  }
+
+  /**
+   * @return a hash of the project location, the content of the build files and the Gradle installation and version
+   */
+  public static String fingerprint(File projectDir, File gradleInstallationDir) throws IOException {
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    String header = projectDir.getAbsolutePath() + '\n' + gradleInstallationDir.getAbsolutePath() + '\n'
+        + installedVersion(gradleInstallationDir) + '\n';
+    content.write(header.getBytes(StandardCharsets.UTF_8));
+    for (String name : BUILD_FILES) {
+      addFile(content, projectDir.toPath(), projectDir.toPath().resolve(name));
+    }
+    List<Path> subprojectFiles = new ArrayList<>();
+    Path root = projectDir.toPath();
+    Files.walkFileTree(root, EnumSet.noneOf(FileVisitOption.class), MAX_SUBPROJECT_DEPTH, new SimpleFileVisitor<>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+        String name = dir.getFileName() == null ? "" : dir.getFileName().toString();
+        return !dir.equals(root) && (name.startsWith(".") || SKIPPED_DIRS.contains(name))
+            ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        if (attrs.isRegularFile() && !file.getParent().equals(root)
+            && SUBPROJECT_BUILD_FILES.contains(file.getFileName().toString())) {
+          subprojectFiles.add(file);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(Path file, IOException e) {
+        log.debug("Failed to look for build files in {}", file, e);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    subprojectFiles.sort(null);
+    for (Path file : subprojectFiles) {
+      addFile(content, root, file);
+    }
+    return StringUtils.sha256(content.toByteArray());
+  }
+
+  private static void addFile(ByteArrayOutputStream content, Path root, Path file) throws IOException {
+    content.write((root.relativize(file).toString().replace(File.separatorChar, '/') + '\n')
+        .getBytes(StandardCharsets.UTF_8));
+    if (Files.isRegularFile(file)) {
+      content.write(Files.readAllBytes(file));
+    }
+  }
+
+  /**
+   * The projects are built with the installation (not the version of the tooling api we use) so that is the
+   * version that matters. The jars in lib are named after the version.
+   */
+  private static String installedVersion(File gradleInstallationDir) {
+    String[] jars = new File(gradleInstallationDir, "lib").list((dir, name) -> name.startsWith("gradle-"));
+    if (jars == null) {
+      return "";
+    }
+    Arrays.sort(jars);
+    return String.join(",", jars);
+  }
+
+  /**
+   * @return the cached classpath or null if there is none or if any of the jars in it no longer exists
+   */
+  public List<URL> load(String key) {
+    File file = file(key);
+    if (!file.exists()) {
+      return null;
+    }
+    try {
+      List<URL> urls = new ArrayList<>();
+      for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+        if (line.isBlank()) {
+          continue;
+        }
+        URL url = new URL(line);
+        // output dirs of modules do not exist until the project is built, so only dependencies are checked
+        if ("file".equals(url.getProtocol()) && isArchive(url) && !new File(url.toURI()).exists()) {
+          log.info("{} in the cached classpath no longer exists, the classpath must be resolved again", url);
+          return null;
+        }
+        urls.add(url);
+      }
+      return urls;
+    } catch (IOException | URISyntaxException | IllegalArgumentException e) {
+      log.warn("Failed to read cached classpath from {}", file, e);
+      return null;
+    }
+  }
+
+  private static boolean isArchive(URL url) {
+    String path = url.getPath().toLowerCase();
+    return path.endsWith(".jar") || path.endsWith(".zip");
+  }
+
+  public void save(String key, List<URL> urls) {
+    File file = file(key);
+    StringBuilder sb = new StringBuilder();
+    urls.forEach(url -> sb.append(url).append('\n'));
+    try {
+      File tmp = File.createTempFile(key, ".tmp", dir);
+      Files.writeString(tmp.toPath(), sb, StandardCharsets.UTF_8);
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      log.warn("Failed to cache classpath in {}", file, e);
+    }
+  }
+
+  /**
+   * URL.equals might do name lookups so compare the string forms
+   */
+  static boolean sameClasspath(List<URL> a, List<URL> b) {
+    if (a == null || b == null) {
+      return a == b;
+    }
+    return a.stream().map(URL::toString).toList().equals(b.stream().map(URL::toString).toList());
+  }
+
+  private File file(String key) {
+    return new File(dir, key + ".classpath");
+  }
+}
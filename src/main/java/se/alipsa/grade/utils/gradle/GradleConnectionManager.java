@@ -0,0 +1,239 @@
+package se.alipsa.grade.utils.gradle;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gradle.tooling.BuildLauncher;
+import org.gradle.tooling.CancellationToken;
+import org.gradle.tooling.CancellationTokenSource;
+import org.gradle.tooling.GradleConnector;
+import org.gradle.tooling.ModelBuilder;
+import org.gradle.tooling.ProgressListener;
+import org.gradle.tooling.ProjectConnection;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps one Tooling API connection per project open for the whole session and caches the models fetched through
+ * it (e.g. GradleProject, IdeaProject) until a build file changes. Build files are watched so the cache is
+ * dropped as soon as one of them is saved, whether that is done in Grade or elsewhere.
+ */
+public class GradleConnectionManager {
+
+  private static final Logger log = LogManager.getLogger(GradleConnectionManager.class);
+  private static final Set<String> BUILD_FILES = Set.of(
+      "build.gradle", "build.gradle.kts", "settings.gradle", "settings.gradle.kts", "gradle.properties",
+      "libs.versions.toml"
+  );
+  private static final Map<String, GradleConnectionManager> managers = new ConcurrentHashMap<>();
+
+  private final File gradleInstallationDir;
+  private final File projectDir;
+  private final Map<Class<?>, Object> models = new ConcurrentHashMap<>();
+  /** Incremented on every invalidation so that a model fetched while a build file changed is not cached */
+  private final AtomicLong invalidations = new AtomicLong();
+  private ProjectConnection connection;
+  private WatchService watchService;
+
+  private GradleConnectionManager(File gradleInstallationDir, File projectDir) {
+    this.gradleInstallationDir = gradleInstallationDir;
+    this.projectDir = projectDir;
+  }
+
+  /**
+   * @return the connection manager for the project, created the first time it is asked for
+   */
+  public static GradleConnectionManager forProject(File gradleInstallationDir, File projectDir) {
+    String key = gradleInstallationDir.getAbsolutePath() + File.pathSeparator + projectDir.getAbsolutePath();
+    return managers.computeIfAbsent(key, k -> new GradleConnectionManager(gradleInstallationDir, projectDir));
+  }
+
+  /**
+   * Close all connections, called when Grade exits
+   */
+  public static void closeAll() {
+    managers.values().forEach(GradleConnectionManager::close);
+    managers.clear();
+  }
+
+  public static CancellationTokenSource newCancellationTokenSource() {
+    return GradleConnector.newCancellationTokenSource();
+  }
+
+  /**
+   * @param token may be null
+   * @return the model, fetched from Gradle only if it is not cached
+   */
+  public <T> T getModel(Class<T> modelType, CancellationToken token) {
+    Object model = models.get(modelType);
+    if (model != null) {
+      return modelType.cast(model);
+    }
+    synchronized (this) {
+      model = models.get(modelType);
+      if (model == null) {
+        log.debug("Fetching {} for {}", modelType.getSimpleName(), projectDir);
+        long generation = invalidations.get();
+        ModelBuilder<T> builder = connection().model(modelType);
+        if (token != null) {
+          builder.withCancellationToken(token);
+        }
+        try {
+          model = builder.get();
+        } catch (RuntimeException e) {
+          // The daemon might have gone away, start over with a new connection next time
+          closeConnection();
+          throw e;
+        }
+        if (watchService != null && generation == invalidations.get()) {
+          models.put(modelType, model);
+        }
+      }
+      return modelType.cast(model);
+    }
+  }
+
+  public <T> T getModel(Class<T> modelType) {
+    return getModel(modelType, null);
+  }
+
+  /**
+   * Run a build. Builds are not serialized with model requests, the Tooling API queues them as needed.
+   *
+   * @param progressListener may be null
+   * @param token may be null
+   * @param tasks the tasks to run e.g. clean build
+   */
+  public void build(ProgressListener progressListener, CancellationToken token, String... tasks) {
+    BuildLauncher build;
+    synchronized (this) {
+      build = connection().newBuild();
+    }
+    if (progressListener != null) {
+      build.addProgressListener(progressListener);
+    }
+    if (token != null) {
+      build.withCancellationToken(token);
+    }
+    if (tasks.length > 0) {
+      build.forTasks(tasks);
+    }
+    try {
+      build.run();
+    } finally {
+      // a build can change the outcome of any model, e.g. by generating sources
+      invalidate();
+    }
+  }
+
+  /**
+   * Drop all cached models
+   */
+  public void invalidate() {
+    invalidations.incrementAndGet();
+    if (!models.isEmpty()) {
+      log.debug("Dropping cached Gradle models for {}", projectDir);
+      models.clear();
+    }
+  }
+
+  public synchronized void close() {
+    closeConnection();
+    if (watchService != null) {
+      try {
+        watchService.close();
+      } catch (IOException e) {
+        log.debug("Failed to close watch service for {}", projectDir, e);
+      }
+      watchService = null;
+    }
+    models.clear();
+  }
+
+  private synchronized ProjectConnection connection() {
+    if (connection == null) {
+      log.debug("Connecting to Gradle for {}", projectDir);
+      GradleConnector connector = GradleConnector.newConnector();
+      connector.useInstallation(gradleInstallationDir);
+      connector.forProjectDirectory(projectDir);
+      connection = connector.connect();
+      startWatching();
+    }
+    return connection;
+  }
+
+  private synchronized void closeConnection() {
+    if (connection != null) {
+      try {
+        connection.close();
+      } catch (RuntimeException e) {
+        log.debug("Failed to close Gradle connection for {}", projectDir, e);
+      }
+      connection = null;
+    }
+  }
+
+  /**
+   * Watch the project dir, the gradle dir (version catalogs) and the direct sub dirs that have a build file
+   * (the modules of a typical multi project build)
+   */
+  private void startWatching() {
+    if (watchService != null) {
+      return;
+    }
+    try {
+      WatchService service = FileSystems.getDefault().newWatchService();
+      register(service, projectDir);
+      register(service, new File(projectDir, "gradle"));
+      File[] subDirs = projectDir.listFiles(File::isDirectory);
+      if (subDirs != null) {
+        for (File dir : subDirs) {
+          if (new File(dir, "build.gradle").exists() || new File(dir, "build.gradle.kts").exists()) {
+            register(service, dir);
+          }
+        }
+      }
+      watchService = service;
+      Thread watcher = new Thread(() -> watch(service), "gradle-build-file-watcher");
+      watcher.setDaemon(true);
+      watcher.start();
+    } catch (IOException e) {
+      log.warn("Cannot watch build files in {}, Gradle models will not be cached", projectDir, e);
+    }
+  }
+
+  private void register(WatchService service, File dir) throws IOException {
+    if (dir.isDirectory()) {
+      dir.toPath().register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+          StandardWatchEventKinds.ENTRY_DELETE);
+    }
+  }
+
+  private void watch(WatchService service) {
+    try {
+      while (true) {
+        WatchKey key = service.take();
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if (event.kind() == StandardWatchEventKinds.OVERFLOW
+              || BUILD_FILES.contains(((Path) event.context()).getFileName().toString())) {
+            invalidate();
+          }
+        }
+        key.reset();
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      log.debug("Stopped watching build files in {}", projectDir);
+    }
+  }
+}
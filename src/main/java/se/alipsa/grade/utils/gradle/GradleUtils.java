@@ -19,28 +19,36 @@ import se.alipsa.grade.console.ConsoleTextArea;
 import se.alipsa.grade.model.Dependency;
 import se.alipsa.grade.utils.FileUtils;
 import se.alipsa.grade.utils.MavenRepoLookup;
+import se.alipsa.grade.utils.maven.DependencyResolver;
 
 import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.nio.channels.Channels;
-import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 public class GradleUtils {
 
   private static final Logger log = LogManager.getLogger();
 
-  private final GradleConnector connector;
+  /** How long a refreshed classpath is trusted before it is resolved again in the background */
+  private static final long CLASSPATH_REFRESH_INTERVAL_MILLIS = 60_000;
+  private static final Map<String, Long> classpathRefreshed = new ConcurrentHashMap<>();
+
+  private final GradleConnectionManager connections;
+  private final File gradleInstallationDir;
+  private final File projectDir;
 
   public GradleUtils(Grade gui) throws FileNotFoundException {
     this(
-        gui.getInoutComponent().projectDir(),
-        new File(gui.getPrefs().get(GRADLE_HOME, GradleUtils.locateGradleHome()))
+        new File(gui.getPrefs().get(GRADLE_HOME, GradleUtils.locateGradleHome())),
+        gui.getInoutComponent().projectDir()
     );
   }
 
@@ -51,9 +59,9 @@ public class GradleUtils {
     if (!projectDir.exists()) {
       throw new FileNotFoundException("Project dir " + projectDir + " does not exist");
     }
-    connector = GradleConnector.newConnector();
-    connector.useInstallation(gradleInstallationDir);
-    connector.forProjectDirectory(projectDir);
+    this.gradleInstallationDir = gradleInstallationDir;
+    this.projectDir = projectDir;
+    connections = GradleConnectionManager.forProject(gradleInstallationDir, projectDir);
   }
 
   public static String locateGradleHome() {
@@ -92,12 +100,8 @@ public class GradleUtils {
   }
 
   public List<GradleTask> getGradleTasks() {
-    List<GradleTask> tasks;
-    try (ProjectConnection connection = connector.connect()) {
-      GradleProject project = connection.getModel(GradleProject.class);
-      tasks = new ArrayList<>(project.getTasks());
-    }
-    return tasks;
+    GradleProject project = connections.getModel(GradleProject.class);
+    return new ArrayList<>(project.getTasks());
   }
 
   public void buildProject(String... tasks) {
@@ -117,16 +121,17 @@ public class GradleUtils {
    * @param tasks the tasks to run e.g. clean build
    */
   public void buildProject(ProgressListener progressListener, String... tasks) {
-    try(ProjectConnection connection = connector.connect()) {
-      BuildLauncher build = connection.newBuild();
-      if (progressListener != null) {
-        build.addProgressListener(progressListener);
-      }
-      if (tasks.length > 0) {
-        build.forTasks(tasks);
-      }
-      build.run();
-    }
+    buildProject(progressListener, null, tasks);
+  }
+
+  /**
+   *
+   * @param progressListener may be null
+   * @param cancellationToken may be null, see {@link GradleConnectionManager#newCancellationTokenSource()}
+   * @param tasks the tasks to run e.g. clean build
+   */
+  public void buildProject(ProgressListener progressListener, CancellationToken cancellationToken, String... tasks) {
+    connections.build(progressListener, cancellationToken, tasks);
   }
 
   public List<String> getProjectDependencyNames() {
@@ -137,34 +142,97 @@ public class GradleUtils {
   }
 
   public List<File> getProjectDependencies() {
+    return getProjectDependencies(connections.getModel(IdeaProject.class));
+  }
+
+  private List<File> getProjectDependencies(IdeaProject project) {
     List<File> dependencyFiles = new ArrayList<>();
-    try (ProjectConnection connection = connector.connect()) {
-      IdeaProject project = connection.getModel(IdeaProject.class);
-      for (IdeaModule module : project.getModules()) {
-        for (IdeaDependency dependency : module.getDependencies()) {
-          IdeaSingleEntryLibraryDependency ideaDependency = (IdeaSingleEntryLibraryDependency) dependency;
-          File file = ideaDependency.getFile();
-          dependencyFiles.add(file);
-        }
+    for (IdeaModule module : project.getModules()) {
+      for (IdeaDependency dependency : module.getDependencies()) {
+        IdeaSingleEntryLibraryDependency ideaDependency = (IdeaSingleEntryLibraryDependency) dependency;
+        File file = ideaDependency.getFile();
+        dependencyFiles.add(file);
       }
     }
     return dependencyFiles;
   }
 
   public ClassLoader createGradleCLassLoader(ClassLoader parent) throws MalformedURLException {
-    List<URL> urls = new ArrayList<>();
-    for (File f : getProjectDependencies()) {
-      urls.add(f.toURI().toURL());
+    return createGradleCLassLoader(parent, null);
+  }
+
+  /**
+   * Create a class loader for the project classpath. If the build files are unchanged since the classpath was last
+   * resolved, the cached classpath is used right away and resolved again in the background.
+   *
+   * @param onClasspathChanged called from a background thread if the cached classpath turned out to be out of date,
+   *                           may be null
+   */
+  public ClassLoader createGradleCLassLoader(ClassLoader parent, Consumer<List<URL>> onClasspathChanged) throws MalformedURLException {
+    GradleClasspathCache cache = GradleClasspathCache.createDefault();
+    String key = null;
+    try {
+      key = GradleClasspathCache.fingerprint(projectDir, gradleInstallationDir);
+    } catch (IOException e) {
+      log.warn("Failed to read build files in {}, not using the classpath cache", projectDir, e);
     }
-    try (ProjectConnection connection = connector.connect()) {
-      IdeaProject project = connection.getModel(IdeaProject.class);
-      for (IdeaModule module : project.getModules()) {
-        urls.add(module.getCompilerOutput().getOutputDir().toURI().toURL());
+    List<URL> urls = key == null ? null : cache.load(key);
+    if (urls == null) {
+      urls = resolveClasspath();
+      if (key != null) {
+        cache.save(key, urls);
+        classpathRefreshed.put(key, System.currentTimeMillis());
       }
+    } else {
+      log.debug("Using cached classpath for {}", projectDir);
+      refreshClasspath(cache, key, onClasspathChanged);
     }
     return new URLClassLoader(urls.toArray(new URL[0]), parent);
   }
 
+  private void refreshClasspath(GradleClasspathCache cache, String key, Consumer<List<URL>> onClasspathChanged) {
+    Long refreshed = classpathRefreshed.get(key);
+    if (refreshed != null && System.currentTimeMillis() - refreshed < CLASSPATH_REFRESH_INTERVAL_MILLIS) {
+      return;
+    }
+    classpathRefreshed.put(key, System.currentTimeMillis());
+    Thread thread = new Thread(() -> {
+      try {
+        List<URL> fresh = resolveClasspath();
+        synchronized (GradleUtils.class) {
+          if (GradleClasspathCache.sameClasspath(fresh, cache.load(key))) {
+            return;
+          }
+          log.info("The classpath of {} has changed", projectDir);
+          cache.save(key, fresh);
+        }
+        if (onClasspathChanged != null) {
+          onClasspathChanged.accept(fresh);
+        }
+      } catch (Exception e) {
+        log.warn("Failed to refresh classpath of {}", projectDir, e);
+        classpathRefreshed.remove(key);
+      }
+    }, "gradle-classpath-refresh");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * @return the dependencies and the output dirs of all modules
+   */
+  public List<URL> resolveClasspath() throws MalformedURLException {
+    List<URL> urls = new ArrayList<>();
+    IdeaProject project = connections.getModel(IdeaProject.class);
+    for (File f : getProjectDependencies(project)) {
+      urls.add(f.toURI().toURL());
+    }
+    for (IdeaModule module : project.getModules()) {
+      urls.add(module.getCompilerOutput().getOutputDir().toURI().toURL());
+    }
+    return urls;
+  }
+
   public static void purgeCache(Dependency dependency) {
     File cachedFile = cachedFile(dependency);
     if (cachedFile.exists()) {
@@ -192,26 +260,11 @@ public class GradleUtils {
     return new File(getCacheDir(), subDir + fileName);
   }
 
+  /**
+   * Download the jar (only, see {@link DependencyResolver#resolve(Dependency)} for its dependencies as well)
+   * from Maven Central unless already in the cache
+   */
   public static File downloadArtifact(Dependency dependency) throws IOException {
-    File cachedFile = cachedFile(dependency);
-    if (cachedFile.exists()) {
-      return cachedFile;
-    }
-    String url = MavenRepoLookup.artifactUrl(dependency, MAVEN_CENTRAL.baseUrl);
-    URL artifactUrl = new URL(url);
-    if (!cachedFile.getParentFile().exists()) {
-      if (!cachedFile.getParentFile().mkdirs()) {
-        throw new IOException("Failed to create directory " + cachedFile.getParentFile());
-      }
-    }
-    if (!cachedFile.createNewFile()) {
-      throw new IOException("Failed to create file " + cachedFile);
-    }
-    ReadableByteChannel readableByteChannel = Channels.newChannel(artifactUrl.openStream());
-    try(FileOutputStream fileOutputStream = new FileOutputStream(cachedFile)) {
-      fileOutputStream.getChannel()
-          .transferFrom(readableByteChannel, 0, Long.MAX_VALUE);
-    }
-    return cachedFile;
+    return new DependencyResolver(List.of(MAVEN_CENTRAL.baseUrl), getCacheDir()).fetchArtifact(dependency);
   }
 }
@@ -0,0 +1,53 @@
+package se.alipsa.grade.utils.maven;
+
+import se.alipsa.grade.utils.MavenRepoLookup;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The coordinates of a dependency as declared in a pom
+ */
+class Artifact {
+
+  String groupId;
+  String artifactId;
+  String version;
+  String type;
+  String classifier;
+  String scope;
+  boolean optional;
+  /** groupId:artifactId of the transitive dependencies to leave out, either may be * */
+  final Set<String> exclusions = new HashSet<>();
+
+  Artifact(String groupId, String artifactId, String version) {
+    this.groupId = groupId;
+    this.artifactId = artifactId;
+    this.version = version;
+  }
+
+  /**
+   * @return the key used to match dependencies regardless of version
+   */
+  String getKey() {
+    return groupId + ":" + artifactId + ":" + (type == null ? "jar" : type) + (classifier == null ? "" : ":" + classifier);
+  }
+
+  boolean isExcludedBy(Set<String> excluded) {
+    return excluded.contains(groupId + ":" + artifactId) || excluded.contains(groupId + ":*")
+        || excluded.contains("*:" + artifactId) || excluded.contains("*:*");
+  }
+
+  /**
+   * @return the path of the file with the extension (e.g. pom or jar) relative to the repository root
+   */
+  String path(String extension) {
+    return MavenRepoLookup.subDir(groupId, artifactId, version) + artifactId + "-" + version
+        + (classifier == null || "pom".equals(extension) ? "" : "-" + classifier) + "." + extension;
+  }
+
+  @Override
+  public String toString() {
+    return groupId + ":" + artifactId + ":" + version + (classifier == null ? "" : ":" + classifier);
+  }
+}
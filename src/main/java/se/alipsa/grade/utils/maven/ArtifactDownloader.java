@@ -0,0 +1,209 @@
+package se.alipsa.grade.utils.maven;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Downloads files from a list of repositories into a local cache laid out like a maven repository.
+ * A file is written to a .part file next to its final location, verified against the checksum published by the
+ * repository and then renamed into place, so the cache never contains a partial or corrupt file. A .part file left
+ * by an interrupted transfer is resumed if the repository supports it.
+ */
+class ArtifactDownloader {
+
+  private static final Logger log = LogManager.getLogger(ArtifactDownloader.class);
+  private static final int CONNECT_TIMEOUT_MILLIS = 10_000;
+  private static final int READ_TIMEOUT_MILLIS = 30_000;
+  /** The strongest first */
+  private static final String[][] CHECKSUMS = {{"sha256", "SHA-256"}, {"sha1", "SHA-1"}};
+
+  private final List<String> repositories;
+  private final File cacheDir;
+
+  /**
+   * @param repositories the repository urls, ending with a /
+   */
+  ArtifactDownloader(List<String> repositories, File cacheDir) {
+    this.repositories = repositories;
+    this.cacheDir = cacheDir;
+  }
+
+  File cachedFile(String path) {
+    return new File(cacheDir, path);
+  }
+
+  /**
+   * @param path the path of the file relative to the repository root
+   * @return the file in the cache, downloaded from the first repository that has it unless already cached
+   */
+  File fetch(String path) throws IOException {
+    File target = cachedFile(path);
+    // an empty file is what an interrupted download used to leave behind
+    if (target.length() > 0) {
+      return target;
+    }
+    File dir = target.getParentFile();
+    if (!dir.exists() && !dir.mkdirs() && !dir.exists()) {
+      throw new IOException("Failed to create directory " + dir);
+    }
+    IOException failure = null;
+    for (String repository : repositories) {
+      try {
+        download(repository, path, target);
+        return target;
+      } catch (FileNotFoundException e) {
+        log.debug("{} not found in {}", path, repository);
+      } catch (IOException e) {
+        log.warn("Failed to download {} from {}: {}", path, repository, e.toString());
+        failure = e;
+      }
+    }
+    throw failure != null ? failure : new FileNotFoundException(path + " was not found in any of " + repositories);
+  }
+
+  private void download(String repository, String path, File target) throws IOException {
+    long start = System.currentTimeMillis();
+    String[] checksum = fetchChecksum(repository, path);
+    File part = new File(target.getPath() + ".part");
+    boolean resumed = transfer(new URL(repository + path), part);
+    if (checksum != null && !checksum[1].equalsIgnoreCase(digest(part, checksum[0]))) {
+      if (!resumed) {
+        Files.deleteIfExists(part.toPath());
+        throw new IOException(checksum[0] + " checksum mismatch for " + repository + path);
+      }
+      // the part we resumed from might have been the corrupt one
+      log.info("Checksum mismatch for resumed {}, downloading it again", path);
+      Files.deleteIfExists(part.toPath());
+      transfer(new URL(repository + path), part);
+      if (!checksum[1].equalsIgnoreCase(digest(part, checksum[0]))) {
+        Files.deleteIfExists(part.toPath());
+        throw new IOException(checksum[0] + " checksum mismatch for " + repository + path);
+      }
+    }
+    if (checksum == null) {
+      log.debug("No checksum published for {}{}, not verified", repository, path);
+    }
+    try {
+      Files.move(part.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    log.debug("Downloaded {}{} ({} bytes) in {} ms", repository, path, target.length(),
+        System.currentTimeMillis() - start);
+  }
+
+  /**
+   * Copy the url to the part file, continuing from where an earlier attempt stopped if possible
+   *
+   * @return true if an existing part was continued
+   */
+  private boolean transfer(URL url, File part) throws IOException {
+    long offset = part.length();
+    URLConnection connection = open(url);
+    boolean resume = false;
+    if (offset > 0) {
+      if (connection instanceof HttpURLConnection http) {
+        http.setRequestProperty("Range", "bytes=" + offset + "-");
+        if (http.getResponseCode() == 416) {
+          // the part is not shorter than the file, i.e. not a part of it
+          http.disconnect();
+          Files.delete(part.toPath());
+          return transfer(url, part);
+        }
+        resume = http.getResponseCode() == HttpURLConnection.HTTP_PARTIAL;
+      } else {
+        // e.g. a file: url, we can just skip ahead
+        resume = connection.getContentLengthLong() > offset;
+      }
+    }
+    checkResponse(connection, url);
+    try (InputStream in = connection.getInputStream();
+         OutputStream out = new FileOutputStream(part, resume)) {
+      if (resume) {
+        if (!(connection instanceof HttpURLConnection)) {
+          in.skipNBytes(offset);
+        }
+        log.info("Resuming download of {} at {} bytes", url, offset);
+      }
+      in.transferTo(out);
+    }
+    return resume;
+  }
+
+  /**
+   * @return the algorithm and the expected hex digest, or null if the repository has no checksum for the path
+   */
+  private String[] fetchChecksum(String repository, String path) throws IOException {
+    for (String[] checksum : CHECKSUMS) {
+      URL url = new URL(repository + path + "." + checksum[0]);
+      try {
+        URLConnection connection = open(url);
+        checkResponse(connection, url);
+        try (InputStream in = connection.getInputStream()) {
+          // either just the hash or the hash followed by the file name
+          String content = new String(in.readNBytes(1024), StandardCharsets.US_ASCII).trim();
+          if (!content.isEmpty()) {
+            return new String[]{checksum[1], content.split("\\s+")[0]};
+          }
+        }
+      } catch (FileNotFoundException e) {
+        log.trace("No {} checksum for {}{}", checksum[0], repository, path);
+      }
+    }
+    return null;
+  }
+
+  private static URLConnection open(URL url) throws IOException {
+    URLConnection connection = url.openConnection();
+    connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+    connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+    return connection;
+  }
+
+  private static void checkResponse(URLConnection connection, URL url) throws IOException {
+    if (connection instanceof HttpURLConnection http) {
+      int code = http.getResponseCode();
+      if (code == HttpURLConnection.HTTP_NOT_FOUND) {
+        throw new FileNotFoundException(url.toString());
+      }
+      if (code >= 400) {
+        throw new IOException("Server responded " + code + " for " + url);
+      }
+    }
+  }
+
+  static String digest(File file, String algorithm) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance(algorithm);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(algorithm + " is not available", e);
+    }
+    try (InputStream in = Files.newInputStream(file.toPath())) {
+      byte[] buf = new byte[64 * 1024];
+      int n;
+      while ((n = in.read(buf)) > 0) {
+        digest.update(buf, 0, n);
+      }
+    }
+    return HexFormat.of().formatHex(digest.digest());
+  }
+}
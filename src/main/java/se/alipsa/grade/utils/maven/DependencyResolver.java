@@ -0,0 +1,280 @@
+package se.alipsa.grade.utils.maven;
+
+import static se.alipsa.grade.Constants.MavenRepositoryUrl.MAVEN_CENTRAL;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import se.alipsa.grade.model.Dependency;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * Resolves a dependency and its transitive (compile and runtime scoped) dependencies from maven repositories
+ * and downloads the jars into the local cache. The poms of each level of the dependency graph, and then all the jars,
+ * are downloaded in parallel. Version conflicts are settled as maven does, the version nearest to the root wins.
+ * Repositories can be remote (https://) or local (file://) and are tried in order.
+ */
+public class DependencyResolver {
+
+  private static final Logger log = LogManager.getLogger(DependencyResolver.class);
+  private static final int MAX_PARENT_DEPTH = 20;
+
+  private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(6, r -> {
+    Thread thread = new Thread(r, "grade-dependency-download");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final ArtifactDownloader downloader;
+  /** the same file is only downloaded once even when several threads ask for it */
+  private final Map<String, CompletableFuture<File>> downloads = new ConcurrentHashMap<>();
+  private final Map<String, Pom> effectivePoms = new ConcurrentHashMap<>();
+
+  /**
+   * @param repositories the repository urls e.g. https://repo1.maven.org/maven2/ or file:///home/me/.m2/repository/
+   * @param cacheDir where to store downloaded files
+   */
+  public DependencyResolver(List<String> repositories, File cacheDir) {
+    downloader = new ArtifactDownloader(repositories.stream()
+        .map(url -> url.endsWith("/") ? url : url + "/")
+        .collect(Collectors.toList()), cacheDir);
+  }
+
+  /**
+   * @param repositories a comma separated list of repository urls, blank for maven central
+   */
+  public static List<String> parseRepositories(String repositories) {
+    List<String> urls = Arrays.stream(repositories == null ? new String[0] : repositories.split(","))
+        .map(String::trim)
+        .filter(s -> !s.isEmpty())
+        .collect(Collectors.toList());
+    return urls.isEmpty() ? List.of(MAVEN_CENTRAL.baseUrl) : urls;
+  }
+
+  /**
+   * Download the jar of the dependency only
+   */
+  public File fetchArtifact(Dependency dependency) throws IOException {
+    Artifact artifact = new Artifact(dependency.getGroupId(), dependency.getArtifactId(), dependency.getVersion());
+    return join(download(artifact.path("jar")));
+  }
+
+  /**
+   * @return the jar of the dependency followed by the jars of its transitive dependencies
+   */
+  public List<File> resolve(Dependency dependency) throws IOException {
+    long start = System.currentTimeMillis();
+    Artifact root = new Artifact(dependency.getGroupId(), dependency.getArtifactId(), dependency.getVersion());
+    Pom rootPom;
+    try {
+      rootPom = join(effectivePom(root));
+    } catch (IOException e) {
+      log.warn("Failed to read the pom of {}, resolving the jar only: {}", dependency, e.toString());
+      return List.of(fetchArtifact(dependency));
+    }
+    // the root decides the versions of everything below it, a pom does for its own dependencies otherwise
+    Map<String, Artifact> rootManagement = rootPom.managedDependencies;
+
+    Map<String, Artifact> selected = new LinkedHashMap<>();
+    selected.put(root.getKey(), root);
+    List<Node> level = new ArrayList<>();
+    level.add(new Node(root, rootPom, Set.of()));
+    while (!level.isEmpty()) {
+      List<Artifact> candidates = new ArrayList<>();
+      List<Set<String>> candidateExclusions = new ArrayList<>();
+      for (Node node : level) {
+        for (Artifact dep : node.pom.dependencies) {
+          if (!isRuntime(dep) || dep.isExcludedBy(node.exclusions) || selected.containsKey(dep.getKey())) {
+            continue;
+          }
+          Artifact rootManaged = node.artifact == root ? null : rootManagement.get(dep.getKey());
+          Artifact managed = node.pom.managedDependencies.get(dep.getKey());
+          String version = rootManaged != null && rootManaged.version != null ? rootManaged.version
+              : dep.version != null ? dep.version
+              : managed == null ? null : managed.version;
+          Artifact candidate = new Artifact(dep.groupId, dep.artifactId, pickVersion(version));
+          if (candidate.version == null) {
+            log.warn("No version for {}:{} required by {}, skipping it", dep.groupId, dep.artifactId, node.artifact);
+            continue;
+          }
+          candidate.type = dep.type;
+          candidate.classifier = dep.classifier;
+          selected.put(candidate.getKey(), candidate);
+          Set<String> exclusions = new HashSet<>(node.exclusions);
+          exclusions.addAll(dep.exclusions);
+          if (rootManaged != null) {
+            exclusions.addAll(rootManaged.exclusions);
+          }
+          if (managed != null) {
+            exclusions.addAll(managed.exclusions);
+          }
+          candidates.add(candidate);
+          candidateExclusions.add(exclusions);
+        }
+      }
+      List<CompletableFuture<Pom>> poms = candidates.stream().map(this::effectivePom).collect(Collectors.toList());
+      List<Node> next = new ArrayList<>();
+      for (int i = 0; i < candidates.size(); i++) {
+        try {
+          next.add(new Node(candidates.get(i), join(poms.get(i)), candidateExclusions.get(i)));
+        } catch (IOException e) {
+          // some artifacts have no pom, they are still usable but we cannot know their dependencies
+          log.warn("Failed to read the pom of {}, its dependencies are not resolved: {}", candidates.get(i), e.toString());
+        }
+      }
+      level = next;
+    }
+
+    List<CompletableFuture<File>> jars = new ArrayList<>();
+    List<Artifact> artifacts = new ArrayList<>();
+    for (Artifact artifact : selected.values()) {
+      Pom pom = effectivePoms.get(artifact.path("pom"));
+      if (artifact.type != null && !"jar".equals(artifact.type) && !"bundle".equals(artifact.type)
+          || artifact == root && pom != null && "pom".equals(pom.packaging)) {
+        continue;
+      }
+      artifacts.add(artifact);
+      jars.add(download(artifact.path("jar")));
+    }
+    List<File> files = new ArrayList<>();
+    for (int i = 0; i < jars.size(); i++) {
+      try {
+        files.add(join(jars.get(i)));
+      } catch (IOException e) {
+        if (artifacts.get(i) == root) {
+          throw e;
+        }
+        log.warn("Failed to download {}, leaving it out: {}", artifacts.get(i), e.toString());
+      }
+    }
+    log.info("Resolved {} to {} jars in {} ms", dependency, files.size(), System.currentTimeMillis() - start);
+    return files;
+  }
+
+  private static boolean isRuntime(Artifact dep) {
+    return !dep.optional && (dep.scope == null || "compile".equals(dep.scope) || "runtime".equals(dep.scope));
+  }
+
+  /**
+   * @return the version to use, for a range the lowest version it allows (if it includes it)
+   */
+  private static String pickVersion(String version) {
+    if (version == null || !(version.startsWith("[") || version.startsWith("("))) {
+      return version;
+    }
+    String first = version.substring(1).split("[,\\])]", 2)[0].trim();
+    if (version.startsWith("[") && !first.isEmpty() && !first.contains("${")) {
+      return first;
+    }
+    log.warn("Cannot pick a version from the range {}", version);
+    return null;
+  }
+
+  /**
+   * Read the pom with its parents and imported boms applied
+   */
+  private CompletableFuture<Pom> effectivePom(Artifact artifact) {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return effectivePom(artifact, 0);
+      } catch (IOException e) {
+        throw new CompletionException(e);
+      }
+    }, EXECUTOR);
+  }
+
+  private Pom effectivePom(Artifact artifact, int depth) throws IOException {
+    String key = artifact.path("pom");
+    Pom cached = effectivePoms.get(key);
+    if (cached != null) {
+      return cached;
+    }
+    if (depth > MAX_PARENT_DEPTH) {
+      throw new IOException("Too many levels of parent poms for " + artifact);
+    }
+    Pom pom = Pom.parse(fetch(key));
+    if (pom.parent != null && pom.parent.version != null) {
+      pom.inherit(effectivePom(pom.parent, depth + 1));
+    }
+    pom.interpolate();
+    for (Artifact managed : new ArrayList<>(pom.managedDependencies.values())) {
+      if ("import".equals(managed.scope) && "pom".equals(managed.type) && managed.version != null) {
+        pom.managedDependencies.remove(managed.getKey());
+        Artifact bom = new Artifact(managed.groupId, managed.artifactId, managed.version);
+        effectivePom(bom, depth + 1).managedDependencies
+            .forEach(pom.managedDependencies::putIfAbsent);
+      }
+    }
+    effectivePoms.put(key, pom);
+    return pom;
+  }
+
+  private CompletableFuture<File> download(String path) {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return fetch(path);
+      } catch (IOException e) {
+        throw new CompletionException(e);
+      }
+    }, EXECUTOR);
+  }
+
+  /**
+   * Download the file in the current thread, or wait for the thread already downloading it. Waiting only for
+   * downloads in progress (never for queued tasks) means a full pool cannot deadlock.
+   */
+  private File fetch(String path) throws IOException {
+    CompletableFuture<File> mine = new CompletableFuture<>();
+    CompletableFuture<File> existing = downloads.putIfAbsent(path, mine);
+    if (existing != null) {
+      return join(existing);
+    }
+    try {
+      File file = downloader.fetch(path);
+      mine.complete(file);
+      return file;
+    } catch (IOException | RuntimeException e) {
+      // a failure might be temporary, try again next time
+      downloads.remove(path, mine);
+      mine.completeExceptionally(e);
+      throw e;
+    }
+  }
+
+  private static <T> T join(CompletableFuture<T> future) throws IOException {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof IOException io) {
+        throw io;
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  private static class Node {
+    private final Artifact artifact;
+    private final Pom pom;
+    private final Set<String> exclusions;
+
+    Node(Artifact artifact, Pom pom, Set<String> exclusions) {
+      this.artifact = artifact;
+      this.pom = pom;
+      this.exclusions = exclusions;
+    }
+  }
+}
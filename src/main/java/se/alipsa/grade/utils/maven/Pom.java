@@ -0,0 +1,202 @@
+package se.alipsa.grade.utils.maven;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The parts of a pom file needed to resolve dependencies. A pom is read as is, inheritance from the parent and
+ * interpolation of properties is done by {@link #inherit(Pom)} and {@link #interpolate()}.
+ */
+class Pom {
+
+  private static final Pattern PROPERTY = Pattern.compile("\\$\\{([^}]+)}");
+
+  String groupId;
+  String artifactId;
+  String version;
+  String packaging = "jar";
+  Artifact parent;
+  final Map<String, String> properties = new LinkedHashMap<>();
+  /** keyed by {@link Artifact#getKey()} */
+  final Map<String, Artifact> managedDependencies = new LinkedHashMap<>();
+  final List<Artifact> dependencies = new ArrayList<>();
+
+  static Pom parse(File file) throws IOException {
+    Document doc;
+    try {
+      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+      factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+      DocumentBuilder builder = factory.newDocumentBuilder();
+      doc = builder.parse(file);
+    } catch (ParserConfigurationException | SAXException e) {
+      throw new IOException("Failed to parse " + file, e);
+    }
+    Element project = doc.getDocumentElement();
+    Pom pom = new Pom();
+    Element parentElement = child(project, "parent");
+    if (parentElement != null) {
+      pom.parent = new Artifact(text(parentElement, "groupId"), text(parentElement, "artifactId"),
+          text(parentElement, "version"));
+    }
+    pom.groupId = text(project, "groupId");
+    pom.artifactId = text(project, "artifactId");
+    pom.version = text(project, "version");
+    if (pom.groupId == null && pom.parent != null) {
+      pom.groupId = pom.parent.groupId;
+    }
+    if (pom.version == null && pom.parent != null) {
+      pom.version = pom.parent.version;
+    }
+    String packaging = text(project, "packaging");
+    if (packaging != null) {
+      pom.packaging = packaging;
+    }
+    Element props = child(project, "properties");
+    if (props != null) {
+      for (Element prop : children(props, null)) {
+        pom.properties.put(prop.getTagName(), prop.getTextContent().trim());
+      }
+    }
+    Element management = child(project, "dependencyManagement");
+    if (management != null) {
+      for (Artifact artifact : dependencies(child(management, "dependencies"))) {
+        pom.managedDependencies.put(artifact.getKey(), artifact);
+      }
+    }
+    pom.dependencies.addAll(dependencies(child(project, "dependencies")));
+    return pom;
+  }
+
+  private static List<Artifact> dependencies(Element dependencies) {
+    List<Artifact> list = new ArrayList<>();
+    if (dependencies == null) {
+      return list;
+    }
+    for (Element dep : children(dependencies, "dependency")) {
+      Artifact artifact = new Artifact(text(dep, "groupId"), text(dep, "artifactId"), text(dep, "version"));
+      artifact.type = text(dep, "type");
+      artifact.classifier = text(dep, "classifier");
+      artifact.scope = text(dep, "scope");
+      artifact.optional = "true".equals(text(dep, "optional"));
+      Element exclusions = child(dep, "exclusions");
+      if (exclusions != null) {
+        for (Element exclusion : children(exclusions, "exclusion")) {
+          artifact.exclusions.add(text(exclusion, "groupId") + ":" + text(exclusion, "artifactId"));
+        }
+      }
+      list.add(artifact);
+    }
+    return list;
+  }
+
+  /**
+   * Add what is inherited from the (already effective) parent
+   */
+  void inherit(Pom parentPom) {
+    parentPom.properties.forEach(properties::putIfAbsent);
+    parentPom.managedDependencies.forEach(managedDependencies::putIfAbsent);
+    Set<String> declared = new HashSet<>();
+    dependencies.forEach(dep -> declared.add(dep.getKey()));
+    for (Artifact dep : parentPom.dependencies) {
+      if (declared.add(dep.getKey())) {
+        dependencies.add(dep);
+      }
+    }
+  }
+
+  /**
+   * Replace ${...} in coordinates with project values or properties, unknown properties are left as is
+   */
+  void interpolate() {
+    groupId = resolve(groupId);
+    version = resolve(version);
+    for (Artifact dep : managedDependencies.values()) {
+      interpolate(dep);
+    }
+    for (Artifact dep : dependencies) {
+      interpolate(dep);
+    }
+  }
+
+  private void interpolate(Artifact dep) {
+    dep.groupId = resolve(dep.groupId);
+    dep.artifactId = resolve(dep.artifactId);
+    dep.version = resolve(dep.version);
+    dep.classifier = resolve(dep.classifier);
+    dep.scope = resolve(dep.scope);
+  }
+
+  String resolve(String value) {
+    // properties may refer to other properties, give up on cycles after a few rounds
+    for (int round = 0; value != null && value.contains("${") && round < 10; round++) {
+      Matcher matcher = PROPERTY.matcher(value);
+      StringBuilder sb = new StringBuilder();
+      while (matcher.find()) {
+        String replacement = property(matcher.group(1));
+        matcher.appendReplacement(sb, Matcher.quoteReplacement(replacement == null ? matcher.group() : replacement));
+      }
+      matcher.appendTail(sb);
+      if (sb.toString().equals(value)) {
+        break;
+      }
+      value = sb.toString();
+    }
+    return value;
+  }
+
+  private String property(String name) {
+    return switch (name) {
+      case "project.groupId", "pom.groupId", "groupId" -> groupId;
+      case "project.artifactId", "pom.artifactId", "artifactId" -> artifactId;
+      case "project.version", "pom.version", "version" -> version;
+      case "project.parent.groupId" -> parent == null ? null : parent.groupId;
+      case "project.parent.version" -> parent == null ? null : parent.version;
+      default -> properties.get(name);
+    };
+  }
+
+  private static Element child(Element parent, String name) {
+    List<Element> children = children(parent, name);
+    return children.isEmpty() ? null : children.get(0);
+  }
+
+  /**
+   * @param name the tag name of the direct children to return, null for all
+   */
+  private static List<Element> children(Element parent, String name) {
+    List<Element> list = new ArrayList<>();
+    for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+      if (node instanceof Element element && (name == null || name.equals(element.getTagName()))) {
+        list.add(element);
+      }
+    }
+    return list;
+  }
+
+  private static String text(Element parent, String name) {
+    Element element = child(parent, name);
+    if (element == null) {
+      return null;
+    }
+    String text = element.getTextContent().trim();
+    return text.isEmpty() ? null : text;
+  }
+}
@@ -0,0 +1,99 @@
+package utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import se.alipsa.grade.model.Dependency;
+import se.alipsa.grade.utils.maven.DependencyResolver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class DependencyResolverTest {
+
+  @Test
+  public void testResolveTransitive(@TempDir Path repo, @TempDir Path cache) throws Exception {
+    pom(repo, "parent", "1", "<packaging>pom</packaging>"
+        + "<properties><c.version>2.0</c.version></properties>"
+        + "<dependencyManagement><dependencies>" + dep("c", "${c.version}", "") + "</dependencies></dependencyManagement>");
+    pom(repo, "a", "1", "<parent><groupId>g</groupId><artifactId>parent</artifactId><version>1</version></parent>"
+        + "<dependencies>"
+        + dep("b", "1", "<exclusions><exclusion><groupId>g</groupId><artifactId>e</artifactId></exclusion></exclusions>")
+        + dep("c", null, "")
+        + dep("t", "1", "<scope>test</scope>")
+        + dep("o", "1", "<optional>true</optional>")
+        + "</dependencies>");
+    pom(repo, "b", "1", "<dependencies>" + dep("c", "1.0", "") + dep("d", "1", "") + dep("e", "1", "") + "</dependencies>");
+    for (String[] jar : new String[][]{{"a", "1"}, {"b", "1"}, {"c", "2.0"}, {"d", "1"}, {"e", "1"}, {"t", "1"}, {"o", "1"}}) {
+      jar(repo, jar[0], jar[1], "sha1");
+    }
+    pom(repo, "c", "2.0", "");
+    pom(repo, "d", "1", "");
+
+    DependencyResolver resolver = new DependencyResolver(List.of(repo.toUri().toString()), cache.toFile());
+    List<File> files = resolver.resolve(new Dependency("g:a:1"));
+    assertEquals(List.of("a-1.jar", "b-1.jar", "c-2.0.jar", "d-1.jar"),
+        files.stream().map(File::getName).collect(Collectors.toList()));
+  }
+
+  @Test
+  public void testChecksumMismatch(@TempDir Path repo, @TempDir Path cache) throws Exception {
+    pom(repo, "a", "1", "");
+    Path jar = jar(repo, "a", "1", "sha256");
+    Files.writeString(jar, "tampered");
+    DependencyResolver resolver = new DependencyResolver(List.of(repo.toUri().toString()), cache.toFile());
+    assertThrows(IOException.class, () -> resolver.resolve(new Dependency("g:a:1")));
+    File cached = cache.resolve("g/a/1/a-1.jar").toFile();
+    assertFalse(cached.exists());
+    assertFalse(new File(cached.getPath() + ".part").exists());
+  }
+
+  @Test
+  public void testResumePartialDownload(@TempDir Path repo, @TempDir Path cache) throws Exception {
+    Path jar = jar(repo, "a", "1", "sha1");
+    byte[] content = Files.readAllBytes(jar);
+    Path part = cache.resolve("g/a/1/a-1.jar.part");
+    Files.createDirectories(part.getParent());
+    Files.write(part, Arrays.copyOf(content, content.length / 2));
+    DependencyResolver resolver = new DependencyResolver(List.of(repo.toUri().toString()), cache.toFile());
+    File file = resolver.fetchArtifact(new Dependency("g:a:1"));
+    assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+    assertFalse(Files.exists(part));
+  }
+
+  private static String dep(String artifactId, String version, String extra) {
+    return "<dependency><groupId>g</groupId><artifactId>" + artifactId + "</artifactId>"
+        + (version == null ? "" : "<version>" + version + "</version>") + extra + "</dependency>";
+  }
+
+  private static void pom(Path repo, String artifactId, String version, String content) throws IOException {
+    Path file = repo.resolve("g/" + artifactId + "/" + version + "/" + artifactId + "-" + version + ".pom");
+    Files.createDirectories(file.getParent());
+    Files.writeString(file, "<project><modelVersion>4.0.0</modelVersion><groupId>g</groupId><artifactId>"
+        + artifactId + "</artifactId><version>" + version + "</version>" + content + "</project>");
+  }
+
+  private static Path jar(Path repo, String artifactId, String version, String checksum)
+      throws IOException, NoSuchAlgorithmException {
+    Path file = repo.resolve("g/" + artifactId + "/" + version + "/" + artifactId + "-" + version + ".jar");
+    Files.createDirectories(file.getParent());
+    byte[] content = ("content of " + artifactId + " " + version).repeat(100).getBytes(StandardCharsets.UTF_8);
+    Files.write(file, content);
+    MessageDigest digest = MessageDigest.getInstance("sha1".equals(checksum) ? "SHA-1" : "SHA-256");
+    Files.writeString(Path.of(file + "." + checksum), HexFormat.of().formatHex(digest.digest(content)));
+    return file;
+  }
+}
@@ -0,0 +1,135 @@
+package utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import se.alipsa.grade.inout.find.FindInFiles;
+import se.alipsa.grade.inout.find.SearchHit;
+import se.alipsa.grade.inout.find.SearchQuery;
+import se.alipsa.grade.inout.find.TrigramIndex;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class FindInFilesTest {
+
+  @Test
+  public void testFindHonoursGitignore(@TempDir Path dir) throws IOException {
+    Files.writeString(dir.resolve(".gitignore"), "build/\n*.log\n");
+    Files.writeString(dir.resolve("script.groovy"), "println 'hello'\ndef x = 'Hello world'\n");
+    Files.writeString(dir.resolve("run.log"), "hello\n");
+    Files.createDirectories(dir.resolve("build"));
+    Files.writeString(dir.resolve("build/out.groovy"), "hello\n");
+    Files.createDirectories(dir.resolve("sql"));
+    Files.writeString(dir.resolve("sql/query.sql"), "select 'hello' from dual");
+
+    List<SearchHit> hits = find(dir, new SearchQuery("hello", false, true, null));
+    assertEquals(2, hits.size(), "hits: " + hits);
+    assertEquals("query.sql", hits.get(0).getFile().getName());
+    assertEquals(8, hits.get(0).getColumn());
+    assertEquals("script.groovy", hits.get(1).getFile().getName());
+    assertEquals(0, hits.get(1).getLine());
+
+    hits = find(dir, new SearchQuery("hello", false, false, "*.groovy"));
+    assertEquals(2, hits.size(), "hits: " + hits);
+    assertEquals(1, hits.get(1).getLine());
+    assertEquals("def x = 'Hello world'", hits.get(1).getLineText());
+  }
+
+  @Test
+  public void testRegexReplace(@TempDir Path dir) throws IOException {
+    Path file = dir.resolve("vars.groovy");
+    Files.writeString(file, "def a = 1\ndef b = 2\ndef c = 3\n");
+    boolean posix = Files.getFileAttributeView(file, PosixFileAttributeView.class) != null;
+    if (posix) {
+      Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rwxr-xr--"));
+    }
+    SearchQuery query = new SearchQuery("^def (\\w)", true, true, null);
+    List<SearchHit> hits = find(dir, query);
+    assertEquals(3, hits.size());
+    assertEquals("var b = 2", query.previewLine(hits.get(1), "var $1"));
+
+    // replace all but the second one
+    assertTrue(FindInFiles.replace(file.toFile(), query, "var $1", Set.of(hits.get(0).getOffset(), hits.get(2).getOffset())));
+    assertEquals("var a = 1\ndef b = 2\nvar c = 3\n", Files.readString(file));
+    if (posix) {
+      assertEquals("rwxr-xr--", PosixFilePermissions.toString(Files.getPosixFilePermissions(file)));
+    }
+    // the offsets no longer match
+    assertFalse(FindInFiles.replace(file.toFile(), query, "var $1", Set.of(hits.get(2).getOffset())));
+  }
+
+  @Test
+  public void testTrigramIndexNarrowsSearch(@TempDir Path dir) throws Exception {
+    for (int i = 0; i < 100; i++) {
+      Files.writeString(dir.resolve("script" + i + ".groovy"), "println 'number " + i + "'\n");
+    }
+    TrigramIndex index = TrigramIndex.open(dir.toFile());
+    for (int i = 0; i < 500 && !index.isReady(); i++) {
+      Thread.sleep(10);
+    }
+    assertTrue(index.isReady());
+    assertEquals(List.of(dir.resolve("script42.groovy").toFile()), index.candidates("NUMBER 42'"));
+
+    List<SearchHit> hits = new CopyOnWriteArrayList<>();
+    FindInFiles findInFiles = new FindInFiles(dir.toFile(), new SearchQuery("number 4\\d'", true, true, null),
+        index, hits::addAll);
+    findInFiles.run();
+    assertEquals(10, hits.size());
+    // only the files containing the literal part of the regex, "number 4", are searched
+    assertEquals(11, findInFiles.getFilesSearched());
+
+    hits.clear();
+    findInFiles = new FindInFiles(dir.toFile(), new SearchQuery("'number 42'", false, true, null), index, hits::addAll);
+    findInFiles.run();
+    assertEquals(1, hits.size());
+    assertEquals(1, findInFiles.getFilesSearched());
+
+    // created behind the back of the index, e.g. by git, in a dir it has never been told about
+    Files.createDirectories(dir.resolve("new/sub"));
+    Files.writeString(dir.resolve("new/sub/late.groovy"), "println 'number 42'\n");
+    index.reconcile().get();
+    hits.clear();
+    findInFiles = new FindInFiles(dir.toFile(), new SearchQuery("'number 42'", false, true, null), index, hits::addAll);
+    findInFiles.run();
+    assertEquals(2, hits.size());
+    index.close();
+  }
+
+  @Test
+  public void testTrigramIndexWithRegexEscapes(@TempDir Path dir) throws IOException, InterruptedException {
+    Files.writeString(dir.resolve("letters.groovy"), "println 'ABCD'\n");
+    Files.writeString(dir.resolve("other.groovy"), "println 'BCD'\n");
+    TrigramIndex index = TrigramIndex.open(dir.toFile());
+    for (int i = 0; i < 500 && !index.isReady(); i++) {
+      Thread.sleep(10);
+    }
+    assertTrue(index.isReady());
+    // the 41 of the hex escape is not literal text that every match contains
+    for (String regex : List.of("\\x41BCD", "\\u0041BCD", "\\0101BCD", "(A)\\1?BCD")) {
+      List<SearchHit> hits = new CopyOnWriteArrayList<>();
+      new FindInFiles(dir.toFile(), new SearchQuery(regex, true, true, null), index, hits::addAll).run();
+      assertEquals(1, hits.size(), regex);
+      assertEquals("letters.groovy", hits.get(0).getFile().getName());
+    }
+    index.close();
+  }
+
+  private List<SearchHit> find(Path dir, SearchQuery query) {
+    List<SearchHit> hits = new CopyOnWriteArrayList<>();
+    new FindInFiles(dir.toFile(), query, hits::addAll).run();
+    return hits.stream()
+        .sorted(Comparator.comparing((SearchHit h) -> h.getFile().getName()).thenComparing(SearchHit::getOffset))
+        .toList();
+  }
+}
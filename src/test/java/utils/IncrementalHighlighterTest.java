@@ -0,0 +1,112 @@
+package utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.fxmisc.richtext.model.StyleSpan;
+import org.fxmisc.richtext.model.StyleSpans;
+import org.fxmisc.richtext.model.StyleSpansBuilder;
+import org.junit.jupiter.api.Test;
+import se.alipsa.grade.code.IncrementalHighlighter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class IncrementalHighlighterTest {
+
+  private static final Pattern TAG = Pattern.compile("<[^<>]*>");
+
+  /** Styles tags that are complete on the line, like the xml lexer does */
+  private static final Function<String, StyleSpans<Collection<String>>> LINE_LEXER = text -> styled(text, TAG, "tag");
+
+  /** Styles everything of a tag that spans several lines */
+  private static final Function<String, StyleSpans<Collection<String>>> TAG_LEXER =
+      text -> styled(text, Pattern.compile(".+"), "tag");
+
+  @Test
+  public void testTagOverSeveralLines() {
+    IncrementalHighlighter highlighter = new IncrementalHighlighter(LINE_LEXER, List.of(
+        new IncrementalHighlighter.BlockDelimiter("<!--", "-->", "comment"),
+        new IncrementalHighlighter.BlockDelimiter("<", ">", TAG_LEXER)));
+    String text = "<a>text</a> <project\n  name=\"a>b\"\n  version=\"1\">text\n<!-- <b --> c";
+    IncrementalHighlighter.Result result = highlight(highlighter, text);
+    assertEquals(4, result.getToParagraph());
+    assertEquals("tag", styleAt(result, text, "<a>"));
+    assertEquals("", styleAt(result, text, "text</a>"));
+    assertEquals("tag", styleAt(result, text, "<project"));
+    assertEquals("tag", styleAt(result, text, "name="));
+    // the > in the quoted value does not end the tag
+    assertEquals("tag", styleAt(result, text, "b\""));
+    assertEquals("tag", styleAt(result, text, "version"));
+    assertEquals("", styleAt(result, text, "text\n"));
+    // a tag within a comment is part of the comment
+    assertEquals("comment", styleAt(result, text, "<b"));
+    assertEquals("", styleAt(result, text, " c"));
+  }
+
+  @Test
+  public void testEditingTheTagRehighlightsFollowingLines() {
+    IncrementalHighlighter highlighter = new IncrementalHighlighter(LINE_LEXER, List.of(
+        new IncrementalHighlighter.BlockDelimiter("<", ">", TAG_LEXER)));
+    String text = "<a\nb=\"1\">\nc";
+    highlight(highlighter, text);
+
+    // close the tag on the first line, the second line is no longer within it
+    highlighter.textChanged(0, 0, 0);
+    text = "<a>\nb=\"1\">\nc";
+    IncrementalHighlighter.Result result = highlight(highlighter, text);
+    assertEquals(0, result.getFromParagraph());
+    assertEquals(2, result.getToParagraph());
+    assertEquals("tag", styleAt(result, text, "<a>"));
+    assertEquals("", styleAt(result, text, "b="));
+  }
+
+  private static IncrementalHighlighter.Result highlight(IncrementalHighlighter highlighter, String text) {
+    List<Integer> offsets = new ArrayList<>();
+    offsets.add(0);
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) == '\n') {
+        offsets.add(i + 1);
+      }
+    }
+    IncrementalHighlighter.Result result = highlighter.newPass(text, offsets.size(), offsets::get).run();
+    highlighter.apply(result);
+    return result;
+  }
+
+  /**
+   * @return the style at the start of the first occurrence of the part, relative to the start of the result
+   */
+  private static String styleAt(IncrementalHighlighter.Result result, String text, String part) {
+    int offset = text.indexOf(part);
+    int start = 0;
+    for (int i = 0; i < result.getFromParagraph(); i++) {
+      start = text.indexOf('\n', start) + 1;
+    }
+    int pos = start;
+    for (StyleSpan<Collection<String>> span : result.getSpans()) {
+      if (offset < pos + span.getLength()) {
+        return String.join(",", span.getStyle());
+      }
+      pos += span.getLength();
+    }
+    return null;
+  }
+
+  private static StyleSpans<Collection<String>> styled(String text, Pattern pattern, String style) {
+    StyleSpansBuilder<Collection<String>> builder = new StyleSpansBuilder<>();
+    Matcher matcher = pattern.matcher(text);
+    int last = 0;
+    while (matcher.find()) {
+      builder.add(Collections.emptyList(), matcher.start() - last);
+      builder.add(Collections.singleton(style), matcher.end() - matcher.start());
+      last = matcher.end();
+    }
+    builder.add(Collections.emptyList(), text.length() - last);
+    return builder.create();
+  }
+}
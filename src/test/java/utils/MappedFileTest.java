@@ -0,0 +1,66 @@
+package utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import se.alipsa.grade.utils.MappedFile;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class MappedFileTest {
+
+  @Test
+  public void testWriteAndReadAcrossWindows(@TempDir Path dir) throws IOException {
+    Path path = dir.resolve("mapped.dat");
+    byte[] content = "Hello mapped world, this spans several small windows".getBytes(StandardCharsets.UTF_8);
+    try (MappedFile file = MappedFile.create(path, 16)) {
+      file.put(0, content, 0, content.length);
+      file.putLong(64, 42L);
+
+      byte[] read = new byte[content.length];
+      file.get(0, read, 0, read.length);
+      assertEquals(new String(content, StandardCharsets.UTF_8), new String(read, StandardCharsets.UTF_8));
+      assertEquals(42L, file.getLong(64));
+
+      byte[] needle = "several".getBytes(StandardCharsets.UTF_8);
+      assertEquals(31, file.indexOf(needle, 0, content.length));
+      assertEquals(-1, file.indexOf(needle, 32, content.length));
+    }
+  }
+
+  @Test
+  public void testWrittenFileHasExactSize(@TempDir Path dir) throws IOException {
+    Path path = dir.resolve("growing.dat");
+    MappedFile file = MappedFile.create(path, 16);
+    byte[] content = "first part, ".getBytes(StandardCharsets.UTF_8);
+    file.put(0, content, 0, content.length);
+    // not a full window yet so read through the channel
+    assertEquals(3, file.indexOf("st ".getBytes(StandardCharsets.UTF_8), 0, content.length));
+    byte[] more = "and the second part".getBytes(StandardCharsets.UTF_8);
+    file.put(content.length, more, 0, more.length);
+    file.close();
+    int length = content.length + more.length;
+    assertEquals(length, Files.size(path));
+
+    // the part after the last full window is readable after closing as well
+    byte[] read = new byte[length];
+    file.get(0, read, 0, length);
+    assertEquals("first part, and the second part", new String(read, StandardCharsets.UTF_8));
+    assertEquals(27, file.indexOf("part".getBytes(StandardCharsets.UTF_8), 10, length));
+  }
+
+  @Test
+  public void testReadOnly(@TempDir Path dir) throws IOException {
+    Path path = dir.resolve("readonly.txt");
+    Files.writeString(path, "line1\nline2\n");
+    try (MappedFile file = MappedFile.openReadOnly(path)) {
+      assertEquals(12, file.size());
+      assertEquals('l', file.get(6));
+      assertEquals(5, file.indexOf(new byte[]{'\n'}, 0, file.size()));
+    }
+  }
+}